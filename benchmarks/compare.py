@@ -0,0 +1,59 @@
+"""Compare a benchmark run with a baseline.
+
+    python3 compare.py baselines/threads-1.csv results/threads-1.csv [threshold percent]
+
+Both files are CSV results as benchmarks.jar writes them. Every score is a time per operation, so a
+higher one is slower. A benchmark counts as slower or faster when its score moved by more than the
+threshold (10% by default) and by more than the error margins of both runs together. Exits with 1
+if any benchmark got slower.
+"""
+import csv
+import math
+import sys
+
+
+def load(path):
+    results = {}
+    with open(path, newline="") as f:
+        for row in csv.DictReader(f):
+            name = ".".join(row["Benchmark"].split(".")[-2:])
+            params = ", ".join(key[len("Param: "):] + "=" + value for key, value in row.items()
+                               if key.startswith("Param: ") and value)
+            error = float(row["Score Error (99.9%)"])
+            results[(name, params, row["Threads"])] = (float(row["Score"]), 0.0 if math.isnan(error) else error,
+                                                       row["Unit"])
+    return results
+
+
+def main():
+    if len(sys.argv) < 3:
+        print(__doc__)
+        sys.exit(2)
+    baseline = load(sys.argv[1])
+    current = load(sys.argv[2])
+    threshold = float(sys.argv[3]) / 100 if len(sys.argv) > 3 else 0.10
+    slower = 0
+    for key in sorted(current):
+        name, params, threads = key
+        label = f"{name} [{params}] threads={threads}" if params else f"{name} threads={threads}"
+        score, error, unit = current[key]
+        if key not in baseline:
+            print(f"  new     {label}: {score:.3f} {unit}")
+            continue
+        base, base_error, base_unit = baseline[key]
+        if unit != base_unit:
+            print(f"  ?       {label}: {base_unit} in the baseline, {unit} now")
+            continue
+        change = (score - base) / base
+        verdict = "same"
+        if abs(change) > threshold and abs(score - base) > error + base_error:
+            verdict = "slower" if change > 0 else "faster"
+            slower += verdict == "slower"
+        print(f"  {verdict:7} {label}: {base:.3f} -> {score:.3f} {unit} ({change:+.1%})")
+    for key in sorted(baseline.keys() - current.keys()):
+        print(f"  missing {key[0]} [{key[1]}] threads={key[2]}")
+    sys.exit(1 if slower else 0)
+
+
+if __name__ == "__main__":
+    main()
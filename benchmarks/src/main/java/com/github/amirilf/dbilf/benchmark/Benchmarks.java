@@ -0,0 +1,38 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import java.io.File;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Main class of benchmarks.jar: runs the selected benchmarks once per thread count, the counts
+// given as -Ddbilf.bench.threads (1,4 by default), and writes each run's results to
+// results/threads-<count>.csv, the layout of the baselines. The arguments are JMH's, such as a
+// benchmark regex or -p rows=10000; with -t, or to list or get help, it is plain JMH.
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.getThreads().hasValue() || options.shouldHelp() || options.shouldList()
+                || options.shouldListWithParams() || options.shouldListProfilers()
+                || options.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+        new File("results").mkdirs();
+        for (String count : System.getProperty("dbilf.bench.threads", "1,4").split(",")) {
+            int threads = Integer.parseInt(count.trim());
+            new Runner(new OptionsBuilder()
+                    .parent(options)
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.CSV)
+                    .result("results/threads-" + threads + ".csv")
+                    .build()).run();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import com.github.amirilf.dbilf.transaction.CommitClock;
+
+// Tables the benchmarks share the shape of: (name VARCHAR(20), grp INTEGER, val INTEGER) and the
+// managed id, row i being ("n" + i, i % GROUPS, i). name is unique, GROUPS rows share each grp and
+// val is left without an index. Row i has id i, from 1 to the row count.
+final class Fixtures {
+
+    static final int GROUPS = 1000;
+
+    private Fixtures() {
+    }
+
+    static Schema schema() {
+        return new Schema.Builder()
+                .addField("name", char[].class, 20)
+                .addField("grp", Integer.class)
+                .addField("val", Integer.class)
+                .build();
+    }
+
+    // A table of rows rows, with a unique index on name and one on grp.
+    static Table table(int rows) {
+        Table table = unindexed(rows);
+        table.addIndex("name", true);
+        table.addIndex("grp", false);
+        return table;
+    }
+
+    // The same rows with only the primary key index. The versions of the inserts are vacuumed,
+    // as the server's vacuum thread would: until then every read that is not by primary key also
+    // goes over the rows that have versions.
+    static Table unindexed(int rows) {
+        Table table = new Table("bench", schema());
+        for (int i = 1; i <= rows; i++) {
+            table.create(null, row(table.getSchema(), i, i));
+        }
+        table.vacuum(CommitClock.horizon());
+        return table;
+    }
+
+    // Row i with the given val, under id i.
+    static Row row(Schema schema, int i, int val) {
+        return row(schema, i, i % GROUPS, val);
+    }
+
+    static Row row(Schema schema, int i, int grp, int val) {
+        return new Row.Builder(schema)
+                .setId((long) i)
+                .set("name", name(i))
+                .set("grp", grp)
+                .set("val", val)
+                .build();
+    }
+
+    static char[] name(int i) {
+        return ("n" + i).toCharArray();
+    }
+}
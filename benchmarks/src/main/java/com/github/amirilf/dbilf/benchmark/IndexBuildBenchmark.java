@@ -0,0 +1,57 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.storage.Table;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Table.addIndex over existing rows, on the unique name or on grp with Fixtures.GROUPS rows per
+// key. Each thread builds on a table of its own, as addIndex holds the table's write lock, and
+// drops the index again after each build.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class IndexBuildBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    @Param({ "HASH", "BTREE" })
+    public IndexType type;
+
+    @Param({ "name", "grp" })
+    public String field;
+
+    private Table table;
+
+    @Setup
+    public void setUp() {
+        table = Fixtures.unindexed(rows);
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropIndex() {
+        table.removeIndex(field);
+    }
+
+    @Benchmark
+    public Table addIndex() {
+        table.addIndex(field, field.equals("name"), type);
+        return table;
+    }
+}
@@ -0,0 +1,47 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.query.Command;
+import com.github.amirilf.dbilf.query.SQLParser;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// SQLParser.parse on its own, without the plan cache in front of it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    public enum Statement {
+        POINT_SELECT("SELECT * FROM bench WHERE id = 42"),
+        FILTER_SELECT("SELECT name, val FROM bench WHERE grp = 3 AND val > 100 ORDER BY val LIMIT 10"),
+        JOIN("SELECT * FROM bench a JOIN other b ON a.grp = b.grp WHERE b.name = 'n7' ORDER BY a.id LIMIT 10"),
+        INSERT("INSERT INTO bench (name, grp, val) VALUES ('n42', 42, 42), ('n43', 43, 43)"),
+        UPDATE("UPDATE bench SET val = 7 WHERE grp = 3 OR grp = 4");
+
+        private final String sql;
+
+        Statement(String sql) {
+            this.sql = sql;
+        }
+    }
+
+    @Param
+    public Statement statement;
+
+    @Benchmark
+    public Command parse() {
+        return SQLParser.parse(statement.sql);
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.query.QueryEngine;
+import com.github.amirilf.dbilf.query.Result;
+import com.github.amirilf.dbilf.query.Session;
+import com.github.amirilf.dbilf.storage.Vacuum;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// QueryEngine.execute end to end, as the text protocol calls it: plan cache, parser on a miss,
+// planner, table and the rows rendered as text. The table is Fixtures' shape, created and loaded
+// through SQL, and every thread runs its statements on a session of its own. Statements differ
+// in their values only, so they share the plan cache's templates as a client's would.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class QueryEngineBenchmark {
+
+    private static final int LOAD_BATCH = 1000; // rows per INSERT while loading
+    private static final int STATEMENTS = 4096; // of each kind, cycled through
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    private String[] pointSelects;
+    private String[] indexSelects;
+    private String[] scanSelects;
+    private String[] updates;
+
+    @State(Scope.Thread)
+    public static class Client {
+
+        Session session;
+
+        @Setup
+        public void open() {
+            session = new Session();
+        }
+
+        @TearDown
+        public void close() {
+            session.close();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Session session = new Session();
+        run(session, "CREATE TABLE bench (name VARCHAR(20), grp INTEGER, val INTEGER)");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i <= rows; i++) {
+            sb.append(sb.length() == 0 ? "INSERT INTO bench (name, grp, val) VALUES " : ", ");
+            sb.append("('n").append(i).append("', ").append(i % Fixtures.GROUPS).append(", ").append(i).append(')');
+            if (i % LOAD_BATCH == 0 || i == rows) {
+                run(session, sb.toString());
+                sb.setLength(0);
+            }
+        }
+        run(session, "CREATE INDEX ON bench (name) UNIQUE");
+        run(session, "CREATE INDEX ON bench (grp)");
+        session.close();
+        vacuum(); // the versions of the load, see Fixtures
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        pointSelects = new String[STATEMENTS];
+        indexSelects = new String[STATEMENTS];
+        scanSelects = new String[STATEMENTS];
+        updates = new String[STATEMENTS];
+        for (int i = 0; i < STATEMENTS; i++) {
+            pointSelects[i] = "SELECT * FROM bench WHERE id = " + (1 + random.nextInt(rows));
+            indexSelects[i] = "SELECT * FROM bench WHERE name = 'n" + (1 + random.nextInt(rows)) + "'";
+            scanSelects[i] = "SELECT * FROM bench WHERE val = " + (1 + random.nextInt(rows));
+            updates[i] = "UPDATE bench SET val = " + random.nextInt() + " WHERE id = " + (1 + random.nextInt(rows));
+        }
+    }
+
+    // Versions of the updates, as the server's vacuum thread would.
+    @TearDown(Level.Iteration)
+    public void vacuum() {
+        new Vacuum(0).vacuum();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Session session = new Session();
+        run(session, "DROP TABLE bench");
+        session.close();
+    }
+
+    @Benchmark
+    public String pointSelect(Client client) {
+        return QueryEngine.execute(client.session, next(pointSelects));
+    }
+
+    @Benchmark
+    public String indexSelect(Client client) {
+        return QueryEngine.execute(client.session, next(indexSelects));
+    }
+
+    @Benchmark
+    public String scanSelect(Client client) {
+        return QueryEngine.execute(client.session, next(scanSelects));
+    }
+
+    @Benchmark
+    public String update(Client client) {
+        return QueryEngine.execute(client.session, next(updates));
+    }
+
+    private static String next(String[] statements) {
+        return statements[ThreadLocalRandom.current().nextInt(statements.length)];
+    }
+
+    private static void run(Session session, String sql) {
+        Result result = QueryEngine.run(session, sql);
+        if (result.getKind() == Result.Kind.ERROR) {
+            throw new RuntimeException(result.getMessage());
+        }
+    }
+}
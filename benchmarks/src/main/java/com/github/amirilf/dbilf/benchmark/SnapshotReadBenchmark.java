@@ -0,0 +1,69 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import com.github.amirilf.dbilf.transaction.Transaction;
+import com.github.amirilf.dbilf.transaction.TransactionManager;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Table.read through the index on grp while a transaction keeps every row's previous version from
+// vacuum: the transaction began before each row moved on to the next group. A statement reads the
+// rows at their new groups, the transaction at the old ones it still sees.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class SnapshotReadBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    private Table table;
+    private Transaction open;
+
+    @Setup
+    public void setUp() {
+        table = Fixtures.table(rows);
+        open = TransactionManager.begin();
+        Schema schema = table.getSchema();
+        for (int i = 1; i <= rows; i++) {
+            table.update(null, Fixtures.row(schema, i, (i + 1) % Fixtures.GROUPS, i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        TransactionManager.rollback(open);
+    }
+
+    @Benchmark
+    public List<Row> index() {
+        return table.read(null, key() % Fixtures.GROUPS, "grp");
+    }
+
+    @Benchmark
+    public List<Row> indexAtSnapshot() {
+        return table.read(open, key() % Fixtures.GROUPS, "grp");
+    }
+
+    private int key() {
+        return 1 + ThreadLocalRandom.current().nextInt(rows);
+    }
+}
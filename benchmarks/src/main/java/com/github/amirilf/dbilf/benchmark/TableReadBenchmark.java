@@ -0,0 +1,63 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.Table;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Table.read outside a transaction: by primary key, through the hash index on name, through the
+// index on grp (Fixtures.GROUPS rows per key), and on val, which has no index and is a scan.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class TableReadBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    private Table table;
+
+    @Setup
+    public void setUp() {
+        table = Fixtures.table(rows);
+    }
+
+    @Benchmark
+    public List<Row> primaryKey() {
+        return table.read(null, (long) key(), "id");
+    }
+
+    @Benchmark
+    public List<Row> uniqueIndex() {
+        return table.read(null, Fixtures.name(key()), "name");
+    }
+
+    @Benchmark
+    public List<Row> index() {
+        return table.read(null, key() % Fixtures.GROUPS, "grp");
+    }
+
+    @Benchmark
+    public List<Row> scan() {
+        return table.read(null, key(), "val");
+    }
+
+    private int key() {
+        return 1 + ThreadLocalRandom.current().nextInt(rows);
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.amirilf.dbilf.benchmark;
+
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import com.github.amirilf.dbilf.transaction.CommitClock;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+// Autocommit create, update and delete on one table shared by all the benchmark threads. Updates
+// and deletes go to the first hotRows rows: with few of them the threads wait on each other's row
+// locks, with many they mostly meet in the store and the indexes. A delete puts its row back, so
+// the table keeps its size, and each thread deletes its own share of the hot rows, since a row
+// another thread just deleted cannot be deleted. Between iterations the created rows are deleted
+// again and versions are vacuumed, as the server's vacuum thread would.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class TableWriteBenchmark {
+
+    @Param({ "10000", "1000000" })
+    public int rows;
+
+    @Param({ "16", "10000" })
+    public int hotRows;
+
+    private Table table;
+    private Schema schema;
+    private AtomicInteger inserted;
+
+    @Setup
+    public void setUp() {
+        table = Fixtures.table(rows);
+        schema = table.getSchema();
+        inserted = new AtomicInteger(rows);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        for (int key = inserted.get(); key > rows; key--) {
+            table.delete(null, (long) key);
+        }
+        inserted.set(rows);
+        table.vacuum(CommitClock.horizon());
+    }
+
+    @Benchmark
+    public void create() {
+        int key = inserted.incrementAndGet();
+        table.create(null, Fixtures.row(schema, key, key));
+    }
+
+    @Benchmark
+    public void update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int key = 1 + random.nextInt(hotRows);
+        table.update(null, Fixtures.row(schema, key, random.nextInt()));
+    }
+
+    @Benchmark
+    public void deleteAndCreate(ThreadParams thread) {
+        int share = Math.max(hotRows / thread.getThreadCount(), 1);
+        int key = 1 + thread.getThreadIndex() + thread.getThreadCount() * ThreadLocalRandom.current().nextInt(share);
+        table.delete(null, (long) key);
+        table.create(null, Fixtures.row(schema, key, key));
+    }
+}
@@ -1,11 +1,85 @@
 package com.github.amirilf.dbilf;
 
+import com.github.amirilf.dbilf.cli.Protocol;
 import com.github.amirilf.dbilf.cli.ServerHandler;
+import com.github.amirilf.dbilf.cli.StatsEndpoint;
+import com.github.amirilf.dbilf.cli.ThreadMode;
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.persistence.Checkpointer;
+import com.github.amirilf.dbilf.persistence.FsyncPolicy;
+import com.github.amirilf.dbilf.persistence.Recovery;
+import com.github.amirilf.dbilf.persistence.WriteAheadLog;
+import com.github.amirilf.dbilf.query.BulkLoad;
+import com.github.amirilf.dbilf.query.Join;
+import com.github.amirilf.dbilf.query.PlanCache;
+import com.github.amirilf.dbilf.query.QueryEngine;
+import com.github.amirilf.dbilf.query.SlowQueryLog;
+import com.github.amirilf.dbilf.storage.ScanPool;
+import com.github.amirilf.dbilf.storage.Vacuum;
+import com.github.amirilf.dbilf.transaction.LockManager;
+import java.io.IOException;
+import java.nio.file.Path;
 
 public class App {
     public static void main(String[] args) {
-        int port = 9090;
-        ServerHandler server = new ServerHandler(port);
+        int port = Integer.getInteger("dbilf.port", 9090);
+        int binaryPort = Integer.getInteger("dbilf.binaryPort", 9091); // 0 disables the binary protocol
+        ThreadMode threadMode = ThreadMode.fromString(System.getProperty("dbilf.server.threads", "virtual"));
+        int maxConnections = Integer.getInteger("dbilf.server.maxConnections", 20_000);
+        int idleTimeoutSeconds = Integer.getInteger("dbilf.server.idleTimeoutSeconds", 600);
+        Path dataDir = Path.of(System.getProperty("dbilf.dataDir", "data"));
+        FsyncPolicy fsync = FsyncPolicy.fromString(System.getProperty("dbilf.wal.fsync", "group"));
+        long groupWindowMicros = Long.getLong("dbilf.wal.groupWindowMicros", 1000);
+        long checkpointSeconds = Long.getLong("dbilf.checkpoint.intervalSeconds", 300);
+        long vacuumMillis = Long.getLong("dbilf.vacuum.intervalMillis", 1000);
+        LockManager.setTimeoutMillis(Long.getLong("dbilf.lock.timeoutMillis", 10_000));
+        PlanCache.setCapacity(Integer.getInteger("dbilf.planCache.size", 1024));
+        int cores = Runtime.getRuntime().availableProcessors();
+        ScanPool.setThreads(Integer.getInteger("dbilf.scan.threads", cores));
+        QueryEngine.setDefaultParallelism(Integer.getInteger("dbilf.scan.parallelism", cores));
+        Join.setMaxBuildRows(Integer.getInteger("dbilf.join.buildRows", 1_000_000));
+        BulkLoad.setCopyDirectory(Path.of(System.getProperty("dbilf.copyDir", ""))); // COPY reads files under it
+        Metrics.setEnabled(Boolean.parseBoolean(System.getProperty("dbilf.stats.enabled", "true")));
+        Metrics.setSampling(Integer.getInteger("dbilf.stats.sample", 16)); // time one in N quick statements
+        int statsPort = Integer.getInteger("dbilf.stats.port", 0); // 0 disables the stats endpoint
+        long slowLogMillis = Long.getLong("dbilf.slowlog.thresholdMillis", -1); // negative disables the slow query log
+        Path slowLogFile = Path.of(System.getProperty("dbilf.slowlog.file", dataDir.resolve("slow.log").toString()));
+        int slowLogBuffer = Integer.getInteger("dbilf.slowlog.bufferSize", 1024); // statements waiting to be written
+
+        WriteAheadLog wal = Recovery.start(dataDir, fsync, groupWindowMicros);
+        Checkpointer checkpointer = new Checkpointer(dataDir, wal, checkpointSeconds);
+        checkpointer.start();
+        Vacuum vacuum = new Vacuum(vacuumMillis);
+        vacuum.start();
+        SlowQueryLog slowLog = slowLogMillis >= 0 ? new SlowQueryLog(slowLogFile, slowLogMillis, slowLogBuffer) : null;
+        if (slowLog != null) {
+            slowLog.start();
+            QueryEngine.setSlowQueryLog(slowLog);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            vacuum.stop();
+            checkpointer.stop();
+            wal.close();
+            if (slowLog != null) {
+                slowLog.stop();
+            }
+        }));
+
+        if (statsPort > 0) {
+            try {
+                new StatsEndpoint(statsPort).start();
+            } catch (IOException e) {
+                System.err.println("Stats endpoint not started: " + e.getMessage());
+            }
+        }
+
+        int idleTimeoutMillis = idleTimeoutSeconds * 1000;
+        if (binaryPort > 0) {
+            ServerHandler binaryServer = new ServerHandler(Protocol.BINARY, binaryPort, threadMode, maxConnections,
+                    idleTimeoutMillis);
+            Thread.ofPlatform().name("dbilf-binary-server").start(binaryServer::start);
+        }
+        ServerHandler server = new ServerHandler(Protocol.TEXT, port, threadMode, maxConnections, idleTimeoutMillis);
         server.start();
     }
 }
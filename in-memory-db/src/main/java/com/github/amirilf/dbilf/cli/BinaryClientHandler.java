@@ -0,0 +1,306 @@
+package com.github.amirilf.dbilf.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import com.github.amirilf.dbilf.query.ErrorCode;
+import com.github.amirilf.dbilf.query.PlanCache;
+import com.github.amirilf.dbilf.query.PreparedStatement;
+import com.github.amirilf.dbilf.query.QueryEngine;
+import com.github.amirilf.dbilf.query.Result;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowCursor;
+
+// Length-prefixed binary protocol. Integers are big-endian; text is UTF-8 preceded by its byte
+// length as an int. Every frame starts with an int length counting the bytes after it.
+//
+//   request:  length | int requestId | byte opcode | payload
+//             QUERY (1): the statement text, filling the rest of the frame
+//             PREPARE (2): statement text with ? placeholders, answered with PREPARED
+//             EXECUTE (3): int statementId, short valueCount, then per value a type byte and
+//                          the value
+//             CLOSE (4): int statementId
+//   response: length | int requestId | byte status | payload
+//             ROWS (0): short columnCount, then per column its name (text) and a type byte,
+//                       int rowCount, then the values row by row
+//             MESSAGE (1): text
+//             ERROR (2): short error code (ErrorCode), text
+//             PREPARED (3): int statementId, short parameterCount
+//
+// Values are LONG (1) 8 bytes, INTEGER (2) 4 bytes, BOOLEAN (3) 1 byte or VARCHAR (4) text, and
+// in results also DOUBLE (5) 8 bytes. A result column that may hold NULL, such as MIN of an empty
+// table, has NULLABLE (0x80) added to its type byte and each of its values preceded by a byte that
+// is 1 for NULL, with no value following, and 0 otherwise.
+// Statement ids belong to the connection. A ROWS response is a single frame, so a result too large
+// for one is read in parts with DECLARE ... CURSOR FOR SELECT and FETCH.
+//
+// Requests on one connection run in the order they arrive and are answered in that order, one
+// response each, so a client may send any number of requests before reading. Responses are only
+// flushed once no further input is waiting, which answers a pipelined burst with a few large
+// writes instead of one per statement.
+public class BinaryClientHandler extends ConnectionHandler {
+
+    static final byte QUERY = 1;
+    static final byte PREPARE = 2;
+    static final byte EXECUTE = 3;
+    static final byte CLOSE = 4;
+    static final byte ROWS = 0;
+    static final byte MESSAGE = 1;
+    static final byte ERROR = 2;
+    static final byte PREPARED = 3;
+    static final byte LONG = 1;
+    static final byte INTEGER = 2;
+    static final byte BOOLEAN = 3;
+    static final byte VARCHAR = 4;
+    static final byte DOUBLE = 5;
+    static final int NULLABLE = 0x80;
+
+    private static final int HEADER_BYTES = 5; // requestId and opcode or status
+    private static final int MAX_REQUEST_BYTES = 16 << 20;
+    private static final int MAX_RETAINED_FRAME_BYTES = 1 << 20;
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] TOO_MANY_CONNECTIONS = errorFrame(0, ErrorCode.EXECUTION_ERROR,
+            "Error: Too many connections");
+
+    private final Map<Integer, PreparedStatement> statements = new HashMap<>();
+    private int nextStatementId = 1;
+
+    public BinaryClientHandler(Socket clientSocket) {
+        super(clientSocket);
+    }
+
+    @Override
+    void serve() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream(), BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(clientSocket.getOutputStream(), BUFFER_SIZE));
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(frame);
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                out.flush();
+                return;
+            }
+            if (length < HEADER_BYTES || length > MAX_REQUEST_BYTES) {
+                // there is no way to find the next frame boundary, so this ends the connection
+                out.write(errorFrame(0, ErrorCode.PROTOCOL_ERROR, "Error: Invalid frame length " + length));
+                out.flush();
+                return;
+            }
+            int requestId = in.readInt();
+            byte opcode = in.readByte();
+            byte[] payload = new byte[length - HEADER_BYTES];
+            in.readFully(payload);
+
+            handle(opcode, ByteBuffer.wrap(payload), body);
+            out.writeInt(Integer.BYTES + frame.size());
+            out.writeInt(requestId);
+            frame.writeTo(out);
+            if (frame.size() > MAX_RETAINED_FRAME_BYTES) {
+                frame = new ByteArrayOutputStream();
+                body = new DataOutputStream(frame);
+            } else {
+                frame.reset();
+            }
+            if (in.available() == 0) {
+                out.flush();
+            }
+        }
+    }
+
+    @Override
+    byte[] tooManyConnections() {
+        return TOO_MANY_CONNECTIONS;
+    }
+
+    // Writes status and payload of the response.
+    private void handle(byte opcode, ByteBuffer payload, DataOutputStream out) throws IOException {
+        switch (opcode) {
+            case QUERY:
+                encode(out, QueryEngine.open(session, StandardCharsets.UTF_8.decode(payload).toString()));
+                break;
+            case PREPARE:
+                PreparedStatement statement;
+                try {
+                    statement = PlanCache.prepare(StandardCharsets.UTF_8.decode(payload).toString());
+                } catch (Exception e) {
+                    encode(out, Result.error(ErrorCode.SYNTAX_ERROR, "Error in PREPARE: " + e.getMessage()));
+                    break;
+                }
+                int statementId = nextStatementId++;
+                statements.put(statementId, statement);
+                out.writeByte(PREPARED);
+                out.writeInt(statementId);
+                out.writeShort(statement.getParameterCount());
+                break;
+            case EXECUTE:
+                Object[] values;
+                try {
+                    statement = statements.get(payload.getInt());
+                    values = readValues(payload);
+                } catch (RuntimeException e) {
+                    encode(out, Result.error(ErrorCode.PROTOCOL_ERROR, "Error: " + e.getMessage()));
+                    break;
+                }
+                encode(out, statement == null
+                        ? Result.error(ErrorCode.EXECUTION_ERROR, "Error: Unknown statement id")
+                        : QueryEngine.open(session, statement, values));
+                break;
+            case CLOSE:
+                if (payload.remaining() < Integer.BYTES) {
+                    encode(out, Result.error(ErrorCode.PROTOCOL_ERROR, "Error: Truncated request"));
+                    break;
+                }
+                encode(out, statements.remove(payload.getInt()) == null
+                        ? Result.error(ErrorCode.EXECUTION_ERROR, "Error: Unknown statement id")
+                        : Result.message("Statement closed"));
+                break;
+            default:
+                encode(out, Result.error(ErrorCode.PROTOCOL_ERROR, "Error: Unknown opcode " + opcode));
+        }
+    }
+
+    private static Object[] readValues(ByteBuffer in) {
+        try {
+            Object[] values = new Object[in.getShort()];
+            for (int i = 0; i < values.length; i++) {
+                byte type = in.get();
+                switch (type) {
+                    case LONG:
+                        values[i] = in.getLong();
+                        break;
+                    case INTEGER:
+                        values[i] = in.getInt();
+                        break;
+                    case BOOLEAN:
+                        values[i] = in.get() != 0;
+                        break;
+                    case VARCHAR:
+                        byte[] bytes = new byte[in.getInt()];
+                        in.get(bytes);
+                        values[i] = new String(bytes, StandardCharsets.UTF_8);
+                        break;
+                    default:
+                        throw new RuntimeException("Unknown value type " + type);
+                }
+            }
+            return values;
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new RuntimeException("Truncated request");
+        }
+    }
+
+    // Status and payload of a response.
+    private static void encode(DataOutputStream out, Result result) throws IOException {
+        switch (result.getKind()) {
+            case ROWS:
+                String[] columns = result.getColumns();
+                Class<?>[] types = result.getTypes();
+                int[] positions = result.getPositions();
+                boolean[] nullable = result.getNullable() != null ? result.getNullable() : new boolean[columns.length];
+                out.writeByte(ROWS);
+                out.writeShort(columns.length);
+                for (int i = 0; i < columns.length; i++) {
+                    writeText(out, columns[i]);
+                    out.writeByte(typeCode(types[i]) | (nullable[i] ? NULLABLE : 0));
+                }
+                // rows are encoded straight from the cursor, the count goes in front once known
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+                DataOutputStream values = new DataOutputStream(encoded);
+                int count = 0;
+                try (result) {
+                    RowCursor rows = result.iterator();
+                    while (rows.hasNext()) {
+                        Row row = rows.next();
+                        for (int i = 0; i < positions.length; i++) {
+                            Object value = row.getValue(positions[i]);
+                            if (nullable[i]) {
+                                values.writeBoolean(value == null);
+                            }
+                            if (value != null) {
+                                writeValue(values, value);
+                            }
+                        }
+                        count++;
+                    }
+                }
+                out.writeInt(count);
+                encoded.writeTo(out);
+                break;
+            case MESSAGE:
+                out.writeByte(MESSAGE);
+                writeText(out, result.getMessage());
+                break;
+            default:
+                out.writeByte(ERROR);
+                out.writeShort(result.getErrorCode().getCode());
+                writeText(out, result.getMessage());
+        }
+    }
+
+    private static byte[] errorFrame(int requestId, ErrorCode code, String message) {
+        try {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(frame);
+            encode(out, Result.error(code, message));
+            ByteArrayOutputStream whole = new ByteArrayOutputStream();
+            DataOutputStream header = new DataOutputStream(whole);
+            header.writeInt(Integer.BYTES + frame.size());
+            header.writeInt(requestId);
+            frame.writeTo(whole);
+            return whole.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte typeCode(Class<?> type) {
+        if (type == Long.class) {
+            return LONG;
+        } else if (type == Integer.class) {
+            return INTEGER;
+        } else if (type == Boolean.class) {
+            return BOOLEAN;
+        } else if (type == char[].class || type == String.class) {
+            return VARCHAR;
+        } else if (type == Double.class) {
+            return DOUBLE;
+        }
+        throw new RuntimeException("Unsupported type: " + type.getSimpleName());
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Long) {
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            out.writeDouble((Double) value);
+        } else if (value instanceof char[]) {
+            writeText(out, new String((char[]) value));
+        } else {
+            writeText(out, value.toString());
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
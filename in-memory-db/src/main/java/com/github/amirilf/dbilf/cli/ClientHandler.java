@@ -1,46 +1,80 @@
 package com.github.amirilf.dbilf.cli;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import com.github.amirilf.dbilf.query.QueryEngine;
+import com.github.amirilf.dbilf.query.Result;
+import com.github.amirilf.dbilf.storage.RowCursor;
 
-public class ClientHandler implements Runnable {
+public class ClientHandler extends ConnectionHandler {
 
-    private Socket clientSocket;
+    private static final String PROMPT = "dbilf> ";
+    private static final int LINE_BUFFER_SIZE = 256;
+    private static final int CHUNK_CHARS = 32 * 1024;
+    private static final byte[] TOO_MANY_CONNECTIONS = "Error: Too many connections\n".getBytes(StandardCharsets.UTF_8);
 
     public ClientHandler(Socket clientSocket) {
-        this.clientSocket = clientSocket;
+        super(clientSocket);
     }
 
     @Override
-    public void run() {
-        try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-            out.println("<<DBILF>> Type 'exit' to disconnect.");
-            out.print("dbilf> ");
-            out.flush();
-            String line;
+    void serve() throws IOException {
+        LineReader in = new LineReader(clientSocket.getInputStream(), LINE_BUFFER_SIZE);
+        OutputStream out = clientSocket.getOutputStream();
+
+        send(out, "<<DBILF>> Type 'exit' to disconnect.\n" + PROMPT);
+        String line;
+        try {
             while ((line = in.readLine()) != null) {
                 if (line.equalsIgnoreCase("exit")) {
-                    out.println("Goodbye!");
+                    send(out, "Goodbye!\n");
                     break;
                 }
-                String result = QueryEngine.execute(line);
-                out.println(result);
-                out.print("dbilf> ");
-                out.flush();
+                reply(out, line);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                clientSocket.close();
-            } catch (Exception e) {
+        } catch (SocketTimeoutException e) {
+            send(out, "\nIdle timeout, disconnecting.\n");
+        }
+    }
+
+    @Override
+    byte[] tooManyConnections() {
+        return TOO_MANY_CONNECTIONS;
+    }
+
+    // Rows are written as they come out of the result's cursor, a chunk at a time, so the socket's
+    // backpressure paces the scan and a large result is never held whole. A reply that fits in one
+    // chunk goes out in one write together with the prompt, one segment per reply.
+    private void reply(OutputStream out, String line) throws IOException {
+        long startTime = System.nanoTime();
+        StringBuilder reply = new StringBuilder();
+        try (Result result = QueryEngine.open(session, line)) {
+            if (result.getKind() != Result.Kind.ROWS) {
+                reply.append(result.getMessage());
+            } else {
+                RowCursor rows = result.iterator();
+                if (!rows.hasNext()) {
+                    reply.append(Result.NO_ROWS);
+                }
+                while (rows.hasNext()) {
+                    result.appendText(reply, rows.next());
+                    if (reply.length() >= CHUNK_CHARS) {
+                        send(out, reply.toString());
+                        reply.setLength(0);
+                    }
+                }
             }
         }
+        long durationMs = (System.nanoTime() - startTime) / 1_000_000;
+        reply.append("\nExecution time: ").append(durationMs).append(" ms\n").append(PROMPT);
+        send(out, reply.toString());
+    }
+
+    private static void send(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
     }
 }
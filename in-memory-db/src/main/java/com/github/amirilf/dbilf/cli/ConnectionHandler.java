@@ -0,0 +1,59 @@
+package com.github.amirilf.dbilf.cli;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import com.github.amirilf.dbilf.query.Session;
+
+// One client connection and its session, served start to finish on one thread.
+abstract class ConnectionHandler implements Runnable {
+
+    protected final Socket clientSocket;
+    protected final Session session = new Session();
+
+    protected ConnectionHandler(Socket clientSocket) {
+        this.clientSocket = clientSocket;
+    }
+
+    abstract void serve() throws IOException;
+
+    // What a client is sent before being turned away because the server is full.
+    abstract byte[] tooManyConnections();
+
+    @Override
+    public void run() {
+        try {
+            serve();
+        } catch (SocketException | SocketTimeoutException e) {
+            // client went away or stayed idle for too long
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                session.close();
+            } finally {
+                close();
+            }
+        }
+    }
+
+    void reject() {
+        try {
+            OutputStream out = clientSocket.getOutputStream();
+            out.write(tooManyConnections());
+            out.flush();
+        } catch (IOException e) {
+        } finally {
+            close();
+        }
+    }
+
+    private void close() {
+        try {
+            clientSocket.close();
+        } catch (Exception e) {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.amirilf.dbilf.cli;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Reads '\n' terminated UTF-8 lines straight off the socket. The buffer starts small and only
+// grows while a long line is being read, so an idle connection holds a few hundred bytes instead
+// of the 8 KB decode buffer an InputStreamReader keeps per stream.
+final class LineReader {
+
+    private static final int MAX_LINE_BYTES = 16 << 20;
+
+    private final InputStream in;
+    private final int initialSize;
+    private byte[] buffer;
+    private int start;
+    private int end;
+
+    LineReader(InputStream in, int initialSize) {
+        this.in = in;
+        this.initialSize = initialSize;
+        this.buffer = new byte[initialSize];
+    }
+
+    // Returns null at end of stream; a trailing line without '\n' is still returned.
+    String readLine() throws IOException {
+        int scan = start;
+        while (true) {
+            for (; scan < end; scan++) {
+                if (buffer[scan] == '\n') {
+                    int length = scan - start;
+                    if (length > 0 && buffer[scan - 1] == '\r') {
+                        length--;
+                    }
+                    String line = new String(buffer, start, length, StandardCharsets.UTF_8);
+                    start = scan + 1;
+                    if (start == end) {
+                        start = end = 0;
+                        if (buffer.length > initialSize) {
+                            buffer = new byte[initialSize];
+                        }
+                    }
+                    return line;
+                }
+            }
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                scan -= start;
+                end -= start;
+                start = 0;
+            }
+            if (end == buffer.length) {
+                if (buffer.length >= MAX_LINE_BYTES) {
+                    throw new IOException("Line too long");
+                }
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                if (end == start) {
+                    return null;
+                }
+                String line = new String(buffer, start, end - start, StandardCharsets.UTF_8);
+                start = end = 0;
+                return line;
+            }
+            end += read;
+        }
+    }
+}
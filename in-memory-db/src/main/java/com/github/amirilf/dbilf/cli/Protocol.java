@@ -0,0 +1,12 @@
+package com.github.amirilf.dbilf.cli;
+
+import java.net.Socket;
+
+public enum Protocol {
+    TEXT, // line-based REPL with formatted results
+    BINARY; // length-prefixed frames with typed results, see BinaryClientHandler
+
+    ConnectionHandler open(Socket clientSocket) {
+        return this == TEXT ? new ClientHandler(clientSocket) : new BinaryClientHandler(clientSocket);
+    }
+}
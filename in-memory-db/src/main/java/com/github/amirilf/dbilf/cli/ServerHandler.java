@@ -2,31 +2,81 @@ package com.github.amirilf.dbilf.cli;
 
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 
+// Accepts clients of one protocol and serves each on its own thread of the configured mode.
+// Connections beyond maxConnections are told so and closed right away; idle clients are dropped
+// after idleTimeoutMillis (0 disables the timeout).
 public class ServerHandler {
 
-    private int port;
-    private boolean running;
+    private static final int ACCEPT_BACKLOG = 1024;
 
-    public ServerHandler(int port) {
+    private final Protocol protocol;
+    private final int port;
+    private final int idleTimeoutMillis;
+    private final ExecutorService executor;
+    private final Semaphore connections;
+    private volatile boolean running;
+    private volatile ServerSocket serverSocket;
+
+    public ServerHandler(Protocol protocol, int port, ThreadMode threadMode, int maxConnections,
+            int idleTimeoutMillis) {
+        this.protocol = protocol;
         this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.executor = threadMode.newExecutor();
+        this.connections = new Semaphore(maxConnections);
     }
 
     public void start() {
         running = true;
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            System.out.println("DB Server started on port " + port);
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            this.serverSocket = serverSocket;
+            System.out.println("DB Server started on port " + port + " (" + protocol.name().toLowerCase() + ")");
             while (running) {
                 Socket clientSocket = serverSocket.accept();
+                ConnectionHandler handler = protocol.open(clientSocket);
+                if (!connections.tryAcquire()) {
+                    handler.reject();
+                    continue;
+                }
                 System.out.println("A client connected...");
-                new Thread(new ClientHandler(clientSocket)).start();
+                try {
+                    clientSocket.setSoTimeout(idleTimeoutMillis);
+                    clientSocket.setTcpNoDelay(true);
+                    executor.execute(() -> {
+                        try {
+                            handler.run();
+                        } finally {
+                            connections.release();
+                        }
+                    });
+                } catch (Exception e) {
+                    connections.release();
+                    close(clientSocket);
+                }
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            if (running) {
+                e.printStackTrace();
+            }
         }
     }
 
     public void stop() {
         running = false;
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            close(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    private static void close(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+        }
     }
 }
@@ -0,0 +1,65 @@
+package com.github.amirilf.dbilf.cli;
+
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// GET /stats on the loopback interface: the report of SHOW STATS as plain text, a header line and
+// then one metric per line, fields separated by spaces and "-" for a field a metric does not have.
+public class StatsEndpoint {
+
+    private final HttpServer server;
+
+    public StatsEndpoint(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/stats", this::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dbilf-stats");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    public void start() {
+        server.start();
+        System.out.println("Stats endpoint started on http://localhost:" + server.getAddress().getPort() + "/stats");
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static String report() {
+        StringBuilder sb = new StringBuilder("name count errors rows mean_us p50_us p99_us max_us\n");
+        for (Metrics.Stat stat : Metrics.report()) {
+            sb.append(stat.getName()).append(' ').append(stat.getCount());
+            for (Object value : new Object[] { stat.getErrors(), stat.getRows(), stat.getMean(), stat.getP50(),
+                    stat.getP99(), stat.getMax() }) {
+                sb.append(' ').append(value == null ? "-" : value);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
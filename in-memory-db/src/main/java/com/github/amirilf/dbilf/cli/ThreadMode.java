@@ -0,0 +1,21 @@
+package com.github.amirilf.dbilf.cli;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public enum ThreadMode {
+    VIRTUAL, // one virtual thread per connection, parked for free while the client is idle
+    PLATFORM; // one platform thread per connection
+
+    public ExecutorService newExecutor() {
+        return this == VIRTUAL ? Executors.newVirtualThreadPerTaskExecutor() : Executors.newCachedThreadPool();
+    }
+
+    public static ThreadMode fromString(String value) {
+        try {
+            return ThreadMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown thread mode: " + value);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.github.amirilf.dbilf.index;
+
+import com.github.amirilf.dbilf.storage.Row;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentMap;
+
+// Posting maintenance shared by the index kinds; they only differ in the key map. Postings hold
+// primary keys, the table resolves them to rows.
+abstract class AbstractIndex implements Index {
+
+    final String fieldName;
+    final boolean unique;
+    final ConcurrentMap<Object, Postings> indexMap;
+    final IndexStatistics statistics = new IndexStatistics();
+
+    AbstractIndex(String fieldName, boolean unique, ConcurrentMap<Object, Postings> indexMap) {
+        this.fieldName = fieldName;
+        this.unique = unique;
+        this.indexMap = indexMap;
+    }
+
+    @Override
+    public void insert(Row row) {
+        add(keyOf(row), primaryKeyOf(row));
+    }
+
+    @Override
+    public void insertAll(List<Row> rows) {
+        for (Map.Entry<Object, LongList> entry : group(rows).entrySet()) {
+            add(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void update(Row oldRow, Row newRow) {
+        Object oldValue = keyOf(oldRow);
+        Object newValue = keyOf(newRow);
+        long oldKey = primaryKeyOf(oldRow);
+        long newKey = primaryKeyOf(newRow);
+        if (oldValue.equals(newValue) && oldKey == newKey) {
+            return; // the posting holds the key only, nothing changed for this index
+        }
+        add(newValue, newKey);
+        remove(oldValue, oldKey);
+    }
+
+    @Override
+    public void updateAll(List<Row> oldRows, List<Row> newRows) {
+        Map<Object, LongList> added = new HashMap<>();
+        Map<Object, LongList> removed = new HashMap<>();
+        for (int i = 0; i < oldRows.size(); i++) {
+            Object oldValue = keyOf(oldRows.get(i));
+            Object newValue = keyOf(newRows.get(i));
+            long oldKey = primaryKeyOf(oldRows.get(i));
+            long newKey = primaryKeyOf(newRows.get(i));
+            if (!oldValue.equals(newValue) || oldKey != newKey) {
+                added.computeIfAbsent(newValue, k -> new LongList()).add(newKey);
+                removed.computeIfAbsent(oldValue, k -> new LongList()).add(oldKey);
+            }
+        }
+        List<Map.Entry<Object, LongList>> done = new ArrayList<>();
+        try {
+            for (Map.Entry<Object, LongList> entry : added.entrySet()) {
+                add(entry.getKey(), entry.getValue());
+                done.add(entry);
+            }
+        } catch (RuntimeException e) {
+            done.forEach(entry -> remove(entry.getKey(), entry.getValue()));
+            throw e;
+        }
+        for (Map.Entry<Object, LongList> entry : removed.entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void delete(Row row) {
+        remove(keyOf(row), primaryKeyOf(row));
+    }
+
+    @Override
+    public void deleteAll(List<Row> rows) {
+        for (Map.Entry<Object, LongList> entry : group(rows).entrySet()) {
+            remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong search(Object key) {
+        Postings postings = indexMap.get(Keys.normalize(key));
+        return postings == null ? Postings.EMPTY : postings.iterator();
+    }
+
+    @Override
+    public boolean contains(Object key, long primaryKey) {
+        Postings postings = indexMap.get(Keys.normalize(key));
+        if (postings == null) {
+            return false;
+        }
+        synchronized (postings) {
+            return postings.contains(primaryKey);
+        }
+    }
+
+    @Override
+    public long count(Object key) {
+        Postings postings = indexMap.get(Keys.normalize(key));
+        return postings == null ? 0 : postings.size();
+    }
+
+    @Override
+    public IndexStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    @Override
+    public boolean isUnique() {
+        return unique;
+    }
+
+    // Mutating inside compute is not an option: ConcurrentSkipListMap may run the function more
+    // than once. A posting that went empty is retired so a racing writer retries with a new one.
+    private void add(Object value, long primaryKey) {
+        while (true) {
+            Postings postings = indexMap.computeIfAbsent(value, k -> new Postings());
+            synchronized (postings) {
+                if (postings.retired) {
+                    continue;
+                }
+                if (unique && !postings.isEmpty()) {
+                    throw duplicate();
+                }
+                boolean newKey = postings.isEmpty();
+                postings.add(primaryKey);
+                statistics.added(value, newKey);
+                return;
+            }
+        }
+    }
+
+    private void add(Object value, LongList primaryKeys) {
+        while (true) {
+            Postings postings = indexMap.computeIfAbsent(value, k -> new Postings());
+            synchronized (postings) {
+                if (postings.retired) {
+                    continue;
+                }
+                if (unique && (!postings.isEmpty() || primaryKeys.size > 1)) {
+                    throw duplicate();
+                }
+                boolean newKey = postings.isEmpty();
+                for (int i = 0; i < primaryKeys.size; i++) {
+                    postings.add(primaryKeys.keys[i]);
+                }
+                statistics.added(value, newKey, primaryKeys.size);
+                return;
+            }
+        }
+    }
+
+    private RuntimeException duplicate() {
+        return new RuntimeException("Duplicate value for unique index on field " + fieldName);
+    }
+
+    private void remove(Object value, long primaryKey) {
+        Postings postings = indexMap.get(value);
+        if (postings == null) {
+            return;
+        }
+        synchronized (postings) {
+            if (postings.remove(primaryKey)) {
+                statistics.removed(value, postings.isEmpty());
+            }
+            if (postings.isEmpty() && !postings.retired) {
+                postings.retired = true;
+                indexMap.remove(value, postings);
+            }
+        }
+    }
+
+    private void remove(Object value, LongList primaryKeys) {
+        Postings postings = indexMap.get(value);
+        if (postings == null) {
+            return;
+        }
+        synchronized (postings) {
+            for (int i = 0; i < primaryKeys.size; i++) {
+                if (postings.remove(primaryKeys.keys[i])) {
+                    statistics.removed(value, postings.isEmpty());
+                }
+            }
+            if (postings.isEmpty() && !postings.retired) {
+                postings.retired = true;
+                indexMap.remove(value, postings);
+            }
+        }
+    }
+
+    // Primary keys of the rows by their index key.
+    private Map<Object, LongList> group(List<Row> rows) {
+        Map<Object, LongList> grouped = new HashMap<>();
+        for (Row row : rows) {
+            grouped.computeIfAbsent(keyOf(row), k -> new LongList()).add(primaryKeyOf(row));
+        }
+        return grouped;
+    }
+
+    private Object keyOf(Row row) {
+        Object value = row.getValue(fieldName);
+        if (value == null) {
+            throw new RuntimeException("Value for field " + fieldName + " cannot be null");
+        }
+        return Keys.normalize(value);
+    }
+
+    private static long primaryKeyOf(Row row) {
+        return (Long) row.getValue(row.getSchema().getPKField().getName());
+    }
+
+    private static final class LongList {
+
+        private long[] keys = new long[2];
+        private int size;
+
+        private void add(long key) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+        }
+    }
+}
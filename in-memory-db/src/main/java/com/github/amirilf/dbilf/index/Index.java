@@ -2,17 +2,62 @@ package com.github.amirilf.dbilf.index;
 
 import com.github.amirilf.dbilf.storage.Row;
 import java.util.List;
+import java.util.PrimitiveIterator;
 
+// Lookups return the primary keys of matching rows as a weakly consistent view.
 public interface Index {
     void insert(Row row);
 
+    // Inserts a batch, e.g. of a bulk load. Rows sharing a key are added under one lookup; if a
+    // unique key is violated some of the batch may already be in the index.
+    void insertAll(List<Row> rows);
+
     void update(Row oldRow, Row newRow);
 
+    // Updates a batch, each old row replaced by the new row at the same position. Either the whole
+    // batch is applied or, if a unique key is violated, none of it.
+    void updateAll(List<Row> oldRows, List<Row> newRows);
+
     void delete(Row row);
 
-    List<Row> search(Object key);
+    void deleteAll(List<Row> rows);
+
+    PrimitiveIterator.OfLong search(Object key);
+
+    // Whether the row under primaryKey is one of those holding key.
+    boolean contains(Object key, long primaryKey);
+
+    // Number of rows holding key, read without locking.
+    long count(Object key);
+
+    IndexStatistics getStatistics();
 
     String getFieldName();
 
     boolean isUnique();
+
+    IndexType getType();
+
+    // Ordered indexes keep their keys sorted and support the lookups below.
+    default boolean isOrdered() {
+        return false;
+    }
+
+    // Keys of the rows whose value lies between the bounds, in value order; a null bound is unbounded.
+    default PrimitiveIterator.OfLong range(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        throw new RuntimeException("Index on field " + getFieldName() + " does not support range scans");
+    }
+
+    default PrimitiveIterator.OfLong prefix(String prefix) {
+        throw new RuntimeException("Index on field " + getFieldName() + " does not support prefix scans");
+    }
+
+    // Keys of the rows holding the smallest value, empty if the index is empty.
+    default PrimitiveIterator.OfLong min() {
+        throw new RuntimeException("Index on field " + getFieldName() + " does not support min lookups");
+    }
+
+    default PrimitiveIterator.OfLong max() {
+        throw new RuntimeException("Index on field " + getFieldName() + " does not support max lookups");
+    }
 }
@@ -0,0 +1,194 @@
+package com.github.amirilf.dbilf.index;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Planner statistics of one index, kept current by every insert, update and delete: entries,
+// distinct keys and a histogram of the keys. The counters share no lock with each other, so under
+// concurrent writes they are estimates, which is all the planner asks of them.
+public final class IndexStatistics {
+
+    // Numbers (and booleans as 0/1) fall in log-linear buckets: one per value below 8, then 8 per
+    // power of two, mirrored for negatives. Strings fall in one bucket per leading char, with chars
+    // above Latin-1 sharing the last one and bucket 0 holding the empty string.
+    private static final int MAGNITUDES = 8 + 60 * 8;
+    private static final int NUMBER_BUCKETS = 2 * MAGNITUDES;
+    private static final int STRING_BUCKETS = 1 + 256;
+    private static final double PREFIX_FANOUT = 26; // assumed spread of each char after the first
+
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder distinctKeys = new LongAdder();
+    private volatile AtomicLongArray histogram; // sized by the type of the first key
+    private volatile boolean strings;
+
+    public long getEntries() {
+        return Math.max(0, entries.sum());
+    }
+
+    public long getDistinctKeys() {
+        return Math.max(0, distinctKeys.sum());
+    }
+
+    void added(Object key, boolean newKey) {
+        added(key, newKey, 1);
+    }
+
+    void added(Object key, boolean newKey, int count) {
+        entries.add(count);
+        if (newKey) {
+            distinctKeys.increment();
+        }
+        AtomicLongArray buckets = histogramFor(key);
+        int bucket = bucketOf(key);
+        if (buckets != null && bucket >= 0) {
+            buckets.addAndGet(bucket, count);
+        }
+    }
+
+    void removed(Object key, boolean lastKey) {
+        entries.decrement();
+        if (lastKey) {
+            distinctKeys.decrement();
+        }
+        AtomicLongArray buckets = histogram;
+        int bucket = bucketOf(key);
+        if (buckets != null && bucket >= 0) {
+            buckets.decrementAndGet(bucket);
+        }
+    }
+
+    // Entries whose key lies between the bounds, a null bound is unbounded. Keys are assumed to be
+    // spread evenly inside a bucket.
+    public double estimateRange(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        AtomicLongArray buckets = histogram;
+        if (buckets == null) {
+            return 0;
+        }
+        if (strings) {
+            double low = from == null ? 0 : position(from.toString());
+            double high = to == null ? STRING_BUCKETS : position(to.toString());
+            double rows = 0;
+            for (int bucket = (int) low; bucket < STRING_BUCKETS && bucket < high; bucket++) {
+                long count = buckets.get(bucket);
+                if (count > 0) {
+                    rows += count * (Math.min(high, bucket + 1) - Math.max(low, bucket));
+                }
+            }
+            return rows;
+        }
+        long low = from == null ? Long.MIN_VALUE : toLong(from);
+        long high = to == null ? Long.MAX_VALUE : toLong(to);
+        if (from != null && !fromInclusive) {
+            if (low == Long.MAX_VALUE) {
+                return 0;
+            }
+            low++;
+        }
+        if (to != null && !toInclusive) {
+            if (high == Long.MIN_VALUE) {
+                return 0;
+            }
+            high--;
+        }
+        double rows = 0;
+        for (int bucket = 0; bucket < NUMBER_BUCKETS; bucket++) {
+            long count = buckets.get(bucket);
+            if (count <= 0) {
+                continue;
+            }
+            long bucketLow = lowOf(bucket);
+            long bucketHigh = highOf(bucket);
+            double overlap = (double) Math.min(high, bucketHigh) - Math.max(low, bucketLow) + 1;
+            if (overlap > 0) {
+                rows += count * overlap / ((double) bucketHigh - bucketLow + 1);
+            }
+        }
+        return rows;
+    }
+
+    // Entries whose string key starts with prefix.
+    public double estimatePrefix(String prefix) {
+        AtomicLongArray buckets = histogram;
+        if (buckets == null || !strings) {
+            return 0;
+        }
+        if (prefix.isEmpty()) {
+            return getEntries();
+        }
+        return buckets.get(bucketOf(prefix)) / Math.pow(PREFIX_FANOUT, prefix.length() - 1);
+    }
+
+    private AtomicLongArray histogramFor(Object key) {
+        AtomicLongArray buckets = histogram;
+        if (buckets == null) {
+            synchronized (this) {
+                if (histogram == null) {
+                    strings = key instanceof String;
+                    histogram = new AtomicLongArray(strings ? STRING_BUCKETS : NUMBER_BUCKETS);
+                }
+                buckets = histogram;
+            }
+        }
+        return buckets;
+    }
+
+    private static int bucketOf(Object key) {
+        if (key instanceof String) {
+            String text = (String) key;
+            return text.isEmpty() ? 0 : 1 + Math.min(text.charAt(0), 255);
+        }
+        if (key instanceof Number || key instanceof Boolean) {
+            long value = toLong(key);
+            return value >= 0 ? MAGNITUDES + magnitude(value) : MAGNITUDES - 1 - magnitude(~value);
+        }
+        return -1;
+    }
+
+    // A string as a point on the bucket axis: its bucket plus the second char as the fraction.
+    private static double position(String text) {
+        if (text.isEmpty()) {
+            return 0;
+        }
+        double position = 1 + Math.min(text.charAt(0), 255);
+        return text.length() > 1 ? position + text.charAt(1) / 65536.0 : position;
+    }
+
+    private static long toLong(Object key) {
+        if (key instanceof Boolean) {
+            return (Boolean) key ? 1 : 0;
+        }
+        return ((Number) key).longValue();
+    }
+
+    private static int magnitude(long value) {
+        if (value < 8) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return 8 + (exponent - 3) * 8 + (int) ((value >>> (exponent - 3)) & 7);
+    }
+
+    private static long magnitudeLow(int magnitude) {
+        if (magnitude < 8) {
+            return magnitude;
+        }
+        int exponent = (magnitude - 8) / 8 + 3;
+        return (8L + (magnitude - 8) % 8) << (exponent - 3);
+    }
+
+    private static long magnitudeHigh(int magnitude) {
+        if (magnitude < 8) {
+            return magnitude;
+        }
+        int exponent = (magnitude - 8) / 8 + 3;
+        return magnitudeLow(magnitude) + (1L << (exponent - 3)) - 1;
+    }
+
+    private static long lowOf(int bucket) {
+        return bucket >= MAGNITUDES ? magnitudeLow(bucket - MAGNITUDES) : ~magnitudeHigh(MAGNITUDES - 1 - bucket);
+    }
+
+    private static long highOf(int bucket) {
+        return bucket >= MAGNITUDES ? magnitudeHigh(bucket - MAGNITUDES) : ~magnitudeLow(MAGNITUDES - 1 - bucket);
+    }
+}
@@ -0,0 +1,18 @@
+package com.github.amirilf.dbilf.index;
+
+public enum IndexType {
+    HASH,
+    BTREE; // ordered, backed by a concurrent skip list
+
+    public Index newIndex(String fieldName, boolean unique) {
+        return this == BTREE ? new SkipListIndex(fieldName, unique) : new HashIndex(fieldName, unique);
+    }
+
+    public static IndexType fromString(String value) {
+        try {
+            return IndexType.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown index type: " + value);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.amirilf.dbilf.index;
+
+// Index keys are compared by value: char[] columns are keyed by their String form.
+public final class Keys {
+
+    private Keys() {
+    }
+
+    public static Object normalize(Object value) {
+        return value instanceof char[] ? new String((char[]) value) : value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static int compare(Object a, Object b) {
+        return ((Comparable<Object>) normalize(a)).compareTo(normalize(b));
+    }
+}
@@ -0,0 +1,186 @@
+package com.github.amirilf.dbilf.index;
+
+import com.github.amirilf.dbilf.storage.LongIntMap;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+// Primary keys of the rows sharing one index key. Writers synchronize on the posting, readers
+// iterate without locks over the array they started with: slot 0 holds
+// the used length and is published with release semantics after the key it covers. Removal
+// leaves a tombstone, and dead slots are only dropped by compacting into a fresh array, so live
+// keys never move under a reader and none that stays present is missed.
+final class Postings {
+
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long TOMBSTONE = Long.MIN_VALUE;
+    private static final int INDEXED_FROM = 8; // smaller postings are searched linearly
+
+    static final PrimitiveIterator.OfLong EMPTY = new PrimitiveIterator.OfLong() {
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public long nextLong() {
+            throw new NoSuchElementException();
+        }
+    };
+
+    private volatile long[] slots = new long[3];
+    private int live;
+    private LongIntMap positions; // key -> slot once the posting is large
+    boolean retired; // unlinked from the index map once it became empty
+
+    boolean isEmpty() {
+        return live == 0;
+    }
+
+    // Read without the lock by the planner, so only an estimate.
+    int size() {
+        return live;
+    }
+
+    void add(long key) {
+        long[] current = slots;
+        int used = (int) current[0];
+        if (used + 1 == current.length) {
+            current = compact(Math.max(2, live));
+            used = (int) current[0];
+        }
+        current[used + 1] = key;
+        if (positions != null) {
+            positions.put(key, used + 1);
+        } else if (used + 1 > INDEXED_FROM) {
+            positions = indexSlots(current, used + 1);
+        }
+        live++;
+        SLOTS.setRelease(current, 0, (long) (used + 1));
+    }
+
+    boolean remove(long key) {
+        long[] current = slots;
+        int used = (int) current[0];
+        int slot = -1;
+        if (positions != null) {
+            slot = positions.remove(key);
+        } else {
+            for (int i = 1; i <= used; i++) {
+                if (current[i] == key) {
+                    slot = i;
+                    break;
+                }
+            }
+        }
+        if (slot < 0) {
+            return false;
+        }
+        current[slot] = TOMBSTONE;
+        live--;
+        if (used > INDEXED_FROM && live * 4 < used) {
+            compact(live * 2);
+        }
+        return true;
+    }
+
+    boolean contains(long key) {
+        if (positions != null) {
+            return positions.get(key) >= 0;
+        }
+        long[] current = slots;
+        int used = (int) current[0];
+        for (int i = 1; i <= used; i++) {
+            if (current[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Weakly consistent view of the keys, no copy is made.
+    PrimitiveIterator.OfLong iterator() {
+        long[] snapshot = slots;
+        int used = (int) (long) SLOTS.getAcquire(snapshot, 0);
+        return new PrimitiveIterator.OfLong() {
+            private int next = advance(1);
+
+            @Override
+            public boolean hasNext() {
+                return next <= used;
+            }
+
+            @Override
+            public long nextLong() {
+                if (next > used) {
+                    throw new NoSuchElementException();
+                }
+                long key = snapshot[next];
+                next = advance(next + 1);
+                return key;
+            }
+
+            private int advance(int from) {
+                while (from <= used && snapshot[from] == TOMBSTONE) {
+                    from++;
+                }
+                return from;
+            }
+        };
+    }
+
+    // Keys of several postings one after another, in the order the postings come.
+    static PrimitiveIterator.OfLong concat(Iterator<Postings> postings) {
+        return new PrimitiveIterator.OfLong() {
+            private PrimitiveIterator.OfLong current = EMPTY;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    if (!postings.hasNext()) {
+                        return false;
+                    }
+                    current = postings.next().iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.nextLong();
+            }
+        };
+    }
+
+    // Copies the live keys into a new array with room for at least extra more and publishes it.
+    private long[] compact(int extra) {
+        long[] current = slots;
+        int used = (int) current[0];
+        long[] target = new long[live + Math.max(extra, 2) + 1];
+        int size = 0;
+        for (int i = 1; i <= used; i++) {
+            if (current[i] != TOMBSTONE) {
+                target[++size] = current[i];
+            }
+        }
+        target[0] = size;
+        positions = size > INDEXED_FROM ? indexSlots(target, size) : null;
+        slots = target;
+        return target;
+    }
+
+    private static LongIntMap indexSlots(long[] array, int used) {
+        LongIntMap map = new LongIntMap(used * 2);
+        for (int i = 1; i <= used; i++) {
+            if (array[i] != TOMBSTONE) {
+                map.put(array[i], i);
+            }
+        }
+        return map;
+    }
+}
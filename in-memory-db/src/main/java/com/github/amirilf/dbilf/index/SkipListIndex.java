@@ -0,0 +1,70 @@
+package com.github.amirilf.dbilf.index;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// Ordered index for range, prefix and min/max lookups. Readers never block writers: the skip
+// list is lock-free and range views over it are weakly consistent.
+public final class SkipListIndex extends AbstractIndex {
+
+    private final ConcurrentSkipListMap<Object, Postings> sortedMap;
+
+    public SkipListIndex(String fieldName, boolean unique) {
+        this(fieldName, unique, new ConcurrentSkipListMap<>(Keys::compare));
+    }
+
+    private SkipListIndex(String fieldName, boolean unique, ConcurrentSkipListMap<Object, Postings> map) {
+        super(fieldName, unique, map);
+        this.sortedMap = map;
+    }
+
+    @Override
+    public IndexType getType() {
+        return IndexType.BTREE;
+    }
+
+    @Override
+    public boolean isOrdered() {
+        return true;
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong range(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        NavigableMap<Object, Postings> view = sortedMap;
+        if (from != null && to != null) {
+            if (Keys.compare(from, to) > 0) {
+                return Postings.EMPTY;
+            }
+            view = sortedMap.subMap(Keys.normalize(from), fromInclusive, Keys.normalize(to), toInclusive);
+        } else if (from != null) {
+            view = sortedMap.tailMap(Keys.normalize(from), fromInclusive);
+        } else if (to != null) {
+            view = sortedMap.headMap(Keys.normalize(to), toInclusive);
+        }
+        return Postings.concat(view.values().iterator());
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong prefix(String prefix) {
+        return Postings.concat(sortedMap.tailMap(prefix, true).entrySet().stream()
+                .takeWhile(entry -> entry.getKey() instanceof String && ((String) entry.getKey()).startsWith(prefix))
+                .map(Map.Entry::getValue)
+                .iterator());
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong min() {
+        return keysOf(sortedMap.firstEntry());
+    }
+
+    @Override
+    public PrimitiveIterator.OfLong max() {
+        return keysOf(sortedMap.lastEntry());
+    }
+
+    private static PrimitiveIterator.OfLong keysOf(Map.Entry<Object, Postings> entry) {
+        return entry == null ? Postings.EMPTY : entry.getValue().iterator();
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.amirilf.dbilf.metrics;
+
+// How a table read found its rows.
+public enum AccessPath {
+    PRIMARY_KEY, // one row by id
+    INDEX, // equality lookup in an index
+    INDEX_RANGE, // range or prefix of an ordered index
+    KEYS, // rows by primary keys gathered from index postings
+    COLUMN_SCAN, // one column tested over the whole store, as it has no usable index
+    FULL_SCAN; // every row, tested in the store
+
+    public String getName() {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,228 @@
+package com.github.amirilf.dbilf.metrics;
+
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.storage.Table;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+// Counters and latency histograms of the server: per kind of statement, and per table for its
+// statements, for each access path its reads took and for row lock waits, plus transaction and
+// lock outcomes. Counts are exact. Timing is a System.nanoTime() at each end of what is measured,
+// which costs about as much as a point lookup's counting itself, so statements that read or write
+// rows, and the reads under them, are timed one in every so many at random; the rest, rarer and
+// slower, every time. Nothing is recorded while disabled. Checkpoints and the recovery at startup
+// are recorded as well. SHOW STATS and the stats endpoint report it all.
+public final class Metrics {
+
+    private static volatile boolean enabled = true;
+    private static volatile int sampling = 16;
+    private static final Map<String, StatementMetrics> commands = new ConcurrentHashMap<>();
+    private static final LongAdder commits = new LongAdder();
+    private static final LongAdder rollbacks = new LongAdder();
+    private static final LongAdder validationFailures = new LongAdder();
+    private static final LongAdder lockTimeouts = new LongAdder();
+    private static final LongAdder deadlocks = new LongAdder();
+    private static final LongAdder slowStatements = new LongAdder();
+    private static final LongAdder slowStatementsDropped = new LongAdder();
+    private static final StatementMetrics checkpoints = new StatementMetrics();
+    private static final LongAdder checkpointRows = new LongAdder();
+    private static final Histogram recovery = new Histogram(); // the whole restart, once
+    private static final Histogram snapshotLoad = new Histogram(); // the snapshot part of it
+    private static volatile long snapshotRows;
+    private static volatile long replayedRecords;
+    private static volatile long replayedSegments;
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // Times one in every of the sampled statements and reads, 1 to time them all.
+    public static void setSampling(int every) {
+        if (every < 1) {
+            throw new IllegalArgumentException("Sampling must be at least 1, got " + every);
+        }
+        sampling = every;
+    }
+
+    // The start of something timed every time, 0 while disabled, which the recording methods skip.
+    public static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // The start of something timed only when sampled, otherwise 0 like start() while disabled.
+    public static long sample() {
+        if (!enabled) {
+            return 0;
+        }
+        int every = sampling;
+        return every == 1 || ThreadLocalRandom.current().nextInt(every) == 0 ? System.nanoTime() : 0;
+    }
+
+    // Statements of one kind, such as SELECT.
+    public static StatementMetrics command(String type) {
+        return commands.computeIfAbsent(type, t -> new StatementMetrics());
+    }
+
+    public static void committed() {
+        commits.increment();
+    }
+
+    public static void rolledBack() {
+        rollbacks.increment();
+    }
+
+    // An optimistic transaction that failed validation at commit.
+    public static void validationFailed() {
+        validationFailures.increment();
+    }
+
+    public static void lockTimedOut() {
+        lockTimeouts.increment();
+    }
+
+    public static void deadlockDetected() {
+        deadlocks.increment();
+    }
+
+    public static void slowStatementLogged() {
+        slowStatements.increment();
+    }
+
+    // A slow statement the slow query log had no room for.
+    public static void slowStatementDropped() {
+        slowStatementsDropped.increment();
+    }
+
+    // A checkpoint that dumped rows rows, or failed with rows 0, taking nanos.
+    public static void checkpointed(long rows, long nanos, boolean failed) {
+        if (!enabled) {
+            return;
+        }
+        checkpoints.executed(failed);
+        checkpoints.timed(nanos);
+        checkpointRows.add(rows);
+    }
+
+    // The restart: the snapshot loaded and the log segments replayed after it.
+    public static void recovered(long rows, long snapshotNanos, long records, long segments, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        snapshotRows = rows;
+        snapshotLoad.record(snapshotNanos);
+        replayedRecords = records;
+        replayedSegments = segments;
+        recovery.record(nanos);
+    }
+
+    // Every metric with something recorded, commands first, then each table and the totals over
+    // all tables, then the counters.
+    public static List<Stat> report() {
+        List<Stat> stats = new ArrayList<>();
+        new TreeMap<>(commands).forEach((type, command) -> addStatements(stats, "command." + type, command));
+        long[] reads = new long[AccessPath.values().length];
+        long[] rows = new long[reads.length];
+        Histogram[] latencies = new Histogram[reads.length];
+        Histogram lockWaits = new Histogram();
+        for (int i = 0; i < reads.length; i++) {
+            latencies[i] = new Histogram();
+        }
+        Database database = Database.getInstance();
+        for (String name : new TreeSet<>(database.getTableNames())) {
+            Table table = database.findTable(name);
+            if (table == null) {
+                continue;
+            }
+            TableMetrics metrics = table.getMetrics();
+            addStatements(stats, "table." + name + ".statements", metrics.getStatements());
+            for (AccessPath path : AccessPath.values()) {
+                add(stats, "table." + name + "." + path.getName(), metrics.getReads(path), null,
+                        metrics.getRows(path), metrics.getLatency(path));
+                reads[path.ordinal()] += metrics.getReads(path);
+                rows[path.ordinal()] += metrics.getRows(path);
+                latencies[path.ordinal()].add(metrics.getLatency(path));
+            }
+            Histogram waits = metrics.getLockWaits();
+            add(stats, "table." + name + ".lock_wait", waits.count(), null, null, waits);
+            lockWaits.add(waits);
+        }
+        for (AccessPath path : AccessPath.values()) {
+            int i = path.ordinal();
+            add(stats, "access." + path.getName(), reads[i], null, rows[i], latencies[i]);
+        }
+        add(stats, "lock_wait", lockWaits.count(), null, null, lockWaits);
+        stats.add(Stat.counter("transactions.committed", commits.sum()));
+        stats.add(Stat.counter("transactions.rolled_back", rollbacks.sum()));
+        stats.add(Stat.counter("transactions.validation_failed", validationFailures.sum()));
+        stats.add(Stat.counter("locks.timed_out", lockTimeouts.sum()));
+        stats.add(Stat.counter("locks.deadlocks", deadlocks.sum()));
+        stats.add(Stat.counter("slow_log.logged", slowStatements.sum()));
+        stats.add(Stat.counter("slow_log.dropped", slowStatementsDropped.sum()));
+        add(stats, "checkpoint", checkpoints.getCount(), checkpoints.getErrors(), checkpointRows.sum(),
+                checkpoints.getLatency());
+        add(stats, "recovery", recovery.count(), null, null, recovery);
+        add(stats, "recovery.snapshot", snapshotLoad.count(), null, snapshotRows, snapshotLoad);
+        if (recovery.count() > 0) {
+            stats.add(Stat.counter("recovery.log_records", replayedRecords));
+            stats.add(Stat.counter("recovery.log_segments", replayedSegments));
+        }
+        return stats;
+    }
+
+    private static void addStatements(List<Stat> stats, String name, StatementMetrics statements) {
+        add(stats, name, statements.getCount(), statements.getErrors(), null, statements.getLatency());
+    }
+
+    // A metric counted count times, with the latencies of those timed; left out if it never was.
+    private static void add(List<Stat> stats, String name, long count, Long errors, Long rows, Histogram latency) {
+        if (count == 0) {
+            return;
+        }
+        long timed = latency.count();
+        if (timed == 0) {
+            stats.add(new Stat(name, count, errors, rows, null, null, null, null));
+        } else {
+            stats.add(new Stat(name, count, errors, rows, micros(latency.sum() / (double) timed),
+                    micros(latency.percentile(0.5)), micros(latency.percentile(0.99)), micros(latency.max())));
+        }
+    }
+
+    // Microseconds to a tenth.
+    private static double micros(double nanos) {
+        return Math.round(nanos / 100) / 10.0;
+    }
+
+    // One line of the report. Latencies are in microseconds, over the timed ones of what was
+    // counted, none if none was; a counter has only its count.
+    @Getter
+    @AllArgsConstructor
+    public static final class Stat {
+        private final String name;
+        private final long count;
+        private final Long errors; // statements or checkpoints that failed
+        private final Long rows; // rows returned by reads, dumped by checkpoints or loaded at restart
+        private final Double mean;
+        private final Double p50;
+        private final Double p99;
+        private final Double max;
+
+        static Stat counter(String name, long count) {
+            return new Stat(name, count, null, null, null, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.github.amirilf.dbilf.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// How many of a group of statements ran and failed, and the latency of those timed.
+public final class StatementMetrics {
+
+    private final LongAdder count = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Histogram latency = new Histogram();
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public void executed(boolean failed) {
+        count.increment();
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    public void timed(long nanos) {
+        latency.record(nanos);
+    }
+}
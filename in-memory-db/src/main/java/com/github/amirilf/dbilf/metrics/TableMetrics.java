@@ -0,0 +1,54 @@
+package com.github.amirilf.dbilf.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What one table's statements, reads and row locks cost. Owned by the table, so it goes with it.
+public final class TableMetrics {
+
+    private final StatementMetrics statements = new StatementMetrics();
+    private final Histogram lockWaits = new Histogram();
+    private final LongAdder[] reads = new LongAdder[AccessPath.values().length];
+    private final LongAdder[] rows = new LongAdder[AccessPath.values().length];
+    private final Histogram[] latencies = new Histogram[AccessPath.values().length];
+
+    public TableMetrics() {
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = new LongAdder();
+            rows[i] = new LongAdder();
+            latencies[i] = new Histogram();
+        }
+    }
+
+    // Statements naming the table, from start to their last row.
+    public StatementMetrics getStatements() {
+        return statements;
+    }
+
+    // Time spent waiting for row locks held by other transactions.
+    public Histogram getLockWaits() {
+        return lockWaits;
+    }
+
+    public long getReads(AccessPath path) {
+        return reads[path.ordinal()].sum();
+    }
+
+    public long getRows(AccessPath path) {
+        return rows[path.ordinal()].sum();
+    }
+
+    public Histogram getLatency(AccessPath path) {
+        return latencies[path.ordinal()];
+    }
+
+    // A read that returned count rows, timed if start, a value of Metrics.sample(), is not 0.
+    public void read(AccessPath path, long start, long count) {
+        if (Metrics.isEnabled()) {
+            reads[path.ordinal()].increment();
+            rows[path.ordinal()].add(count);
+            if (start != 0) {
+                latencies[path.ordinal()].record(System.nanoTime() - start);
+            }
+        }
+    }
+}
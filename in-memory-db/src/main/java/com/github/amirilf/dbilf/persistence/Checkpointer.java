@@ -0,0 +1,95 @@
+package com.github.amirilf.dbilf.persistence;
+
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.transaction.CommitClock;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public final class Checkpointer {
+
+    private final Path dataDir;
+    private final WriteAheadLog wal;
+    private final long intervalSeconds;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dbilf-checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Checkpointer(Path dataDir, WriteAheadLog wal, long intervalSeconds) {
+        this.dataDir = dataDir;
+        this.wal = wal;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    public void start() {
+        if (intervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::checkpointQuietly, intervalSeconds, intervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Rotates the log, dumps every table as committed at the rotation next to the new segment id
+    // and drops what the dump covers. A failed checkpoint throws before anything is dropped.
+    public synchronized void checkpoint() throws IOException {
+        if (wal.isSegmentEmpty() && WriteAheadLog.segmentIds(dataDir).size() <= 1) {
+            return;
+        }
+        long startTime = System.nanoTime();
+        long rows = 0;
+        boolean failed = true;
+        try {
+            long segmentId;
+            long snapshot;
+            CommitClock.holdCommits();
+            try {
+                segmentId = wal.rotate();
+                snapshot = CommitClock.openSnapshot();
+            } finally {
+                CommitClock.releaseCommits();
+            }
+            try {
+                rows = Snapshot.write(dataDir, segmentId, snapshot, Database.getInstance());
+            } finally {
+                CommitClock.closeSnapshot(snapshot);
+            }
+            for (long id : WriteAheadLog.segmentIds(dataDir)) {
+                if (id < segmentId) {
+                    Files.deleteIfExists(WriteAheadLog.segmentPath(dataDir, id));
+                }
+            }
+            for (long id : Snapshot.snapshotIds(dataDir)) {
+                if (id < segmentId) {
+                    Files.deleteIfExists(Snapshot.path(dataDir, id));
+                }
+            }
+            failed = false;
+        } finally {
+            Metrics.checkpointed(failed ? 0 : rows, System.nanoTime() - startTime, failed);
+        }
+    }
+
+    // The next run starts over from a new rotation; the segments this one would have dropped are
+    // kept until a checkpoint succeeds.
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Checkpoint failed: " + e.getMessage());
+        }
+    }
+}
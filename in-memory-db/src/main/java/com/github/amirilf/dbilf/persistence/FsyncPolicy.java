@@ -0,0 +1,15 @@
+package com.github.amirilf.dbilf.persistence;
+
+public enum FsyncPolicy {
+    COMMIT, // every commit is written and forced before returning
+    GROUP, // committers wait for a shared force issued once per group window
+    ASYNC; // committers return immediately, the log is forced once per group window
+
+    public static FsyncPolicy fromString(String value) {
+        try {
+            return FsyncPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown fsync policy: " + value);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.amirilf.dbilf.persistence;
+
+import com.github.amirilf.dbilf.index.Index;
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.storage.Field;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.StorageMode;
+import com.github.amirilf.dbilf.storage.Table;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+public final class LogRecord {
+
+    private static final byte CREATE_TABLE = 1;
+    private static final byte DROP_TABLE = 2;
+    private static final byte CREATE_INDEX = 3;
+    private static final byte DROP_INDEX = 4;
+    private static final byte INSERT = 5;
+    private static final byte UPDATE = 6;
+    private static final byte DELETE = 7;
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private LogRecord() {
+    }
+
+    public static byte[] createTable(String tableName, Schema schema, StorageMode storageMode) {
+        return encode(CREATE_TABLE, tableName, out -> {
+            writeSchema(out, schema);
+            out.writeByte(storageMode.ordinal());
+        });
+    }
+
+    public static byte[] dropTable(String tableName) {
+        return encode(DROP_TABLE, tableName, out -> {
+        });
+    }
+
+    public static byte[] createIndex(String tableName, String fieldName, boolean unique, IndexType type) {
+        return encode(CREATE_INDEX, tableName, out -> {
+            ValueCodec.writeString(out, fieldName);
+            out.writeBoolean(unique);
+            out.writeByte(type.ordinal());
+        });
+    }
+
+    public static byte[] dropIndex(String tableName, String fieldName) {
+        return encode(DROP_INDEX, tableName, out -> ValueCodec.writeString(out, fieldName));
+    }
+
+    public static byte[] insert(String tableName, Schema schema, Row row) {
+        return encode(INSERT, tableName, out -> writeRow(out, schema, row));
+    }
+
+    public static byte[] update(String tableName, Schema schema, Row row) {
+        return encode(UPDATE, tableName, out -> writeRow(out, schema, row));
+    }
+
+    public static byte[] delete(String tableName, Long key) {
+        return encode(DELETE, tableName, out -> out.writeLong(key));
+    }
+
+    // Replay is idempotent: records may be applied on top of state that already contains them.
+    // Indexes restored from a snapshot are built after replay and tracked in deferredIndexes.
+    static void apply(ByteBuffer in, Database db, Map<String, Map<String, Index>> deferredIndexes) {
+        byte type = in.get();
+        String tableName = ValueCodec.readString(in);
+        Table table = db.getTableNames().contains(tableName) ? db.getTable(tableName) : null;
+        switch (type) {
+            case CREATE_TABLE:
+                Schema schema = readSchema(in);
+                StorageMode storageMode = in.hasRemaining() ? StorageMode.values()[in.get()] : StorageMode.HEAP;
+                if (table == null) {
+                    db.createTable(tableName, schema, storageMode);
+                    deferredIndexes.remove(tableName);
+                }
+                break;
+            case DROP_TABLE:
+                if (table != null) {
+                    db.deleteTable(tableName);
+                    deferredIndexes.remove(tableName);
+                }
+                break;
+            case CREATE_INDEX:
+                String indexField = ValueCodec.readString(in);
+                boolean unique = in.get() != 0;
+                IndexType indexType = in.hasRemaining() ? IndexType.values()[in.get()] : IndexType.HASH;
+                Map<String, Index> deferred = deferredIndexes.get(tableName);
+                if (table != null && !table.getIndexes().containsKey(indexField)
+                        && (deferred == null || !deferred.containsKey(indexField))) {
+                    table.addIndex(indexField, unique, indexType);
+                }
+                break;
+            case DROP_INDEX:
+                String droppedField = ValueCodec.readString(in);
+                Map<String, Index> pending = deferredIndexes.get(tableName);
+                if (pending != null && pending.remove(droppedField) != null) {
+                    break;
+                }
+                if (table != null && table.getIndexes().containsKey(droppedField)) {
+                    table.removeIndex(droppedField);
+                }
+                break;
+            case INSERT:
+            case UPDATE:
+                if (table != null) {
+                    table.restore(readRow(in, table.getSchema()));
+                }
+                break;
+            case DELETE:
+                long key = in.getLong();
+                if (table != null) {
+                    table.restoreDelete(key);
+                }
+                break;
+            default:
+                throw new RuntimeException("Unknown log record type: " + type);
+        }
+    }
+
+    static void writeSchema(DataOutputStream out, Schema schema) throws IOException {
+        out.writeInt(schema.getFields().size() - 1);
+        for (Field<?> field : schema.getFields().values()) {
+            if (field.isPrimaryKey()) {
+                continue;
+            }
+            ValueCodec.writeString(out, field.getName());
+            out.writeByte(ValueCodec.typeTag(field.getType()));
+            out.writeInt(field.getMaxLength());
+        }
+    }
+
+    static Schema readSchema(ByteBuffer in) {
+        Schema.Builder builder = new Schema.Builder();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String name = ValueCodec.readString(in);
+            Class<?> type = ValueCodec.typeOf(in.get());
+            builder.addField(name, type, in.getInt());
+        }
+        return builder.build();
+    }
+
+    static void writeRow(DataOutputStream out, Schema schema, Row row) throws IOException {
+        for (Field<?> field : schema.getFields().values()) {
+            ValueCodec.writeValue(out, row.getValue(field.getName()));
+        }
+    }
+
+    static Row readRow(ByteBuffer in, Schema schema) {
+        Row.Builder builder = new Row.Builder(schema);
+        for (Field<?> field : schema.getFields().values()) {
+            Object value = ValueCodec.readValue(in, field.getType());
+            if (field.isPrimaryKey()) {
+                builder.setId(value);
+            } else {
+                builder.set(field.getName(), value);
+            }
+        }
+        return builder.build();
+    }
+
+    private static byte[] encode(byte type, String tableName, Body body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            ValueCodec.writeString(out, tableName);
+            body.write(out);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot encode log record: " + e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,123 @@
+package com.github.amirilf.dbilf.persistence;
+
+import com.github.amirilf.dbilf.index.Index;
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.storage.Table;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+public final class Recovery {
+
+    private Recovery() {
+    }
+
+    // Loads the latest snapshot, replays the log segments it does not cover, builds the
+    // snapshot's indexes and then attaches a fresh log for new writes.
+    public static WriteAheadLog start(Path dataDir, FsyncPolicy policy, long groupWindowMicros) {
+        Database db = Database.getInstance();
+        if (db.getWal() != null) {
+            throw new IllegalStateException("Write-ahead log already attached");
+        }
+        long startTime = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Map<String, Map<String, Index>> deferredIndexes = new ConcurrentHashMap<>();
+            long firstSegment = 0;
+            long snapshotRows = 0;
+            List<Long> snapshots = Snapshot.snapshotIds(dataDir);
+            if (!snapshots.isEmpty()) {
+                firstSegment = snapshots.get(snapshots.size() - 1);
+                snapshotRows = Snapshot.load(Snapshot.path(dataDir, firstSegment), db, pool, deferredIndexes);
+            }
+            long snapshotNanos = System.nanoTime() - startTime;
+
+            long records = 0;
+            int segments = 0;
+            for (long id : WriteAheadLog.segmentIds(dataDir)) {
+                if (id >= firstSegment) {
+                    records += replaySegment(WriteAheadLog.segmentPath(dataDir, id), db, deferredIndexes);
+                    segments++;
+                }
+            }
+
+            List<Callable<Long>> indexTasks = new ArrayList<>();
+            deferredIndexes.forEach((tableName, fields) -> {
+                Table table = db.getTable(tableName);
+                indexTasks.add(() -> {
+                    fields.forEach((field, index) -> table.addIndex(field, index.isUnique(), index.getType()));
+                    return 0L;
+                });
+            });
+            runAll(pool, indexTasks);
+
+            Metrics.recovered(snapshotRows, snapshotNanos, records, segments, System.nanoTime() - startTime);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot recover database: " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+        WriteAheadLog wal = new WriteAheadLog(dataDir, policy, groupWindowMicros);
+        db.attachWal(wal);
+        return wal;
+    }
+
+    static long replaySegment(Path segment, Database db, Map<String, Map<String, Index>> deferredIndexes)
+            throws IOException {
+        long records = 0;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= WriteAheadLog.FRAME_HEADER) {
+                int payloadSize = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (payloadSize < 0 || payloadSize > buffer.remaining()) {
+                    break; // torn tail
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), payloadSize);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                while (payload.hasRemaining()) {
+                    int length = payload.getInt();
+                    LogRecord.apply(payload.slice(payload.position(), length), db, deferredIndexes);
+                    payload.position(payload.position() + length);
+                    records++;
+                }
+                buffer.position(buffer.position() + payloadSize);
+            }
+        }
+        return records;
+    }
+
+    static long runAll(ExecutorService pool, List<Callable<Long>> tasks) throws IOException {
+        long total = 0;
+        try {
+            for (Future<Long> future : pool.invokeAll(tasks)) {
+                total += future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Recovery interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+        return total;
+    }
+}
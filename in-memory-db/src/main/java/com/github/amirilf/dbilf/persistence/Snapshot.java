@@ -0,0 +1,215 @@
+package com.github.amirilf.dbilf.persistence;
+
+import com.github.amirilf.dbilf.index.Index;
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.storage.RowCursor;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.StorageMode;
+import com.github.amirilf.dbilf.storage.Table;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+// Layout: header, row chunks of every table, then a directory describing each table (schema,
+// pk sequence, index definitions, chunk offsets) and finally the directory offset. Chunks are
+// mapped and decoded independently so restore runs in parallel.
+final class Snapshot {
+
+    static final String PREFIX = "snapshot-";
+    static final String SUFFIX = ".snap";
+    private static final int MAGIC = 0x44424c46;
+    private static final int VERSION = 3;
+    private static final int CHUNK_ROWS = 64 * 1024;
+    private static final int HEADER = 16;
+
+    private Snapshot() {
+    }
+
+    static Path path(Path dir, long segmentId) {
+        return dir.resolve(String.format("%s%08d%s", PREFIX, segmentId, SUFFIX));
+    }
+
+    static List<Long> snapshotIds(Path dir) throws IOException {
+        return WriteAheadLog.fileIds(dir, PREFIX, SUFFIX);
+    }
+
+    // Dumps the rows committed at snapshot, read without blocking writers. The caller opened the
+    // snapshot once every commit logged before segmentId was published and before any later one
+    // was, so the log from segmentId onwards holds exactly the commits the dump lacks. The file is
+    // durable, directory entry included, once this returns; a failed dump leaves nothing behind.
+    static long write(Path dir, long segmentId, long snapshot, Database db) throws IOException {
+        Path target = path(dir, segmentId);
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            long totalRows = writeFile(tmp, segmentId, snapshot, db);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+                directory.force(true);
+            }
+            return totalRows;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    private static long writeFile(Path tmp, long segmentId, long snapshot, Database db) throws IOException {
+        long totalRows = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(segmentId);
+
+            List<Table> tables = new ArrayList<>();
+            List<List<long[]>> tableChunks = new ArrayList<>();
+            for (String tableName : db.getTableNames()) {
+                Table table;
+                try {
+                    table = db.getTable(tableName);
+                } catch (RuntimeException e) {
+                    continue; // dropped concurrently
+                }
+                List<long[]> chunks = new ArrayList<>();
+                Schema schema = table.getSchema();
+                try (RowCursor it = table.cursorAt(snapshot)) {
+                    while (it.hasNext()) {
+                        long offset = counter.count;
+                        int count = 0;
+                        while (count < CHUNK_ROWS && it.hasNext()) {
+                            LogRecord.writeRow(out, schema, it.next());
+                            count++;
+                        }
+                        chunks.add(new long[] { offset, counter.count - offset, count });
+                        totalRows += count;
+                    }
+                }
+                tables.add(table);
+                tableChunks.add(chunks);
+            }
+
+            long directoryOffset = counter.count;
+            out.writeInt(tables.size());
+            for (int i = 0; i < tables.size(); i++) {
+                Table table = tables.get(i);
+                ValueCodec.writeString(out, table.getName());
+                LogRecord.writeSchema(out, table.getSchema());
+                out.writeByte(table.getStorageMode().ordinal());
+                out.writeLong(table.getSchema().getPkSequence().get());
+                List<Index> indexes = new ArrayList<>(table.getIndexes().values());
+                out.writeInt(indexes.size());
+                for (Index index : indexes) {
+                    ValueCodec.writeString(out, index.getFieldName());
+                    out.writeBoolean(index.isUnique());
+                    out.writeByte(index.getType().ordinal());
+                }
+                out.writeInt(tableChunks.get(i).size());
+                for (long[] chunk : tableChunks.get(i)) {
+                    out.writeLong(chunk[0]);
+                    out.writeLong(chunk[1]);
+                    out.writeInt((int) chunk[2]);
+                }
+            }
+            out.writeLong(directoryOffset);
+            out.flush();
+            channel.force(true);
+        }
+        return totalRows;
+    }
+
+    // Maps the snapshot and decodes row chunks in parallel. Indexes are handed back empty and
+    // built after replay: replaying the log may briefly violate a unique index, as when two rows
+    // swap values.
+    static long load(Path file, Database db, ExecutorService pool, Map<String, Map<String, Index>> indexes)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+            int version = header.getInt(4);
+            if (header.getInt(0) != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            long directoryOffset = channel.map(FileChannel.MapMode.READ_ONLY, size - 8, 8).getLong();
+            MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset,
+                    size - 8 - directoryOffset);
+
+            List<Callable<Long>> chunkTasks = new ArrayList<>();
+            int tableCount = directory.getInt();
+            for (int t = 0; t < tableCount; t++) {
+                String tableName = ValueCodec.readString(directory);
+                Schema schema = LogRecord.readSchema(directory);
+                StorageMode storageMode = version >= 2 ? StorageMode.values()[directory.get()] : StorageMode.HEAP;
+                long pkSequence = directory.getLong();
+                db.createTable(tableName, schema, storageMode);
+                Table table = db.getTable(tableName);
+                schema.getPkSequence().accumulateAndGet(pkSequence, Math::max);
+
+                int indexCount = directory.getInt();
+                Map<String, Index> tableIndexes = new LinkedHashMap<>();
+                for (int i = 0; i < indexCount; i++) {
+                    String field = ValueCodec.readString(directory);
+                    boolean unique = directory.get() != 0;
+                    IndexType type = version >= 3 ? IndexType.values()[directory.get()] : IndexType.HASH;
+                    tableIndexes.put(field, type.newIndex(field, unique));
+                }
+                indexes.put(tableName, tableIndexes);
+
+                int chunkCount = directory.getInt();
+                for (int c = 0; c < chunkCount; c++) {
+                    long offset = directory.getLong();
+                    long length = directory.getLong();
+                    int rows = directory.getInt();
+                    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    chunkTasks.add(() -> {
+                        for (int r = 0; r < rows; r++) {
+                            table.restore(LogRecord.readRow(chunk, schema));
+                        }
+                        return (long) rows;
+                    });
+                }
+            }
+            return Recovery.runAll(pool, chunkTasks);
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
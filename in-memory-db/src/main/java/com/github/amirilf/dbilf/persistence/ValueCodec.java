@@ -0,0 +1,100 @@
+package com.github.amirilf.dbilf.persistence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+final class ValueCodec {
+
+    private static final byte LONG = 1;
+    private static final byte INTEGER = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte CHARS = 4;
+    private static final byte STRING = 5;
+
+    private ValueCodec() {
+    }
+
+    static byte typeTag(Class<?> type) {
+        if (type == Long.class)
+            return LONG;
+        if (type == Integer.class)
+            return INTEGER;
+        if (type == Boolean.class)
+            return BOOLEAN;
+        if (type == char[].class)
+            return CHARS;
+        if (type == String.class)
+            return STRING;
+        throw new RuntimeException("Unsupported type: " + type.getSimpleName());
+    }
+
+    static Class<?> typeOf(byte tag) {
+        switch (tag) {
+            case LONG:
+                return Long.class;
+            case INTEGER:
+                return Integer.class;
+            case BOOLEAN:
+                return Boolean.class;
+            case CHARS:
+                return char[].class;
+            case STRING:
+                return String.class;
+            default:
+                throw new RuntimeException("Unknown type tag: " + tag);
+        }
+    }
+
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value instanceof Long) {
+            out.writeLong((Long) value);
+        } else if (value instanceof Integer) {
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof char[]) {
+            char[] chars = (char[]) value;
+            out.writeInt(chars.length);
+            for (char c : chars) {
+                out.writeChar(c);
+            }
+        } else if (value instanceof String) {
+            writeString(out, (String) value);
+        } else {
+            throw new RuntimeException("Unsupported value: " + value);
+        }
+    }
+
+    static Object readValue(ByteBuffer in, Class<?> type) {
+        if (type == Long.class) {
+            return in.getLong();
+        } else if (type == Integer.class) {
+            return in.getInt();
+        } else if (type == Boolean.class) {
+            return in.get() != 0;
+        } else if (type == char[].class) {
+            char[] chars = new char[in.getInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.getChar();
+            }
+            return chars;
+        } else if (type == String.class) {
+            return readString(in);
+        }
+        throw new RuntimeException("Unsupported type: " + type.getSimpleName());
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        out.writeInt(value.length());
+        out.writeChars(value);
+    }
+
+    static String readString(ByteBuffer in) {
+        char[] chars = new char[in.getInt()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+}
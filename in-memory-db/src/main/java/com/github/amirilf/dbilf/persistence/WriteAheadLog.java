@@ -0,0 +1,307 @@
+package com.github.amirilf.dbilf.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only redo log. Every write is one frame: [payload length][crc32][length-prefixed records].
+// A transaction is written as a single frame so a torn tail never replays half of it.
+public final class WriteAheadLog implements Closeable {
+
+    static final String SEGMENT_PREFIX = "wal-";
+    static final String SEGMENT_SUFFIX = ".log";
+    static final int FRAME_HEADER = 8;
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    private final Path dir;
+    private final FsyncPolicy policy;
+    private final long groupWindowNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pendingWork = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private final Thread flusher;
+    private FileChannel channel;
+    private long segmentId;
+    private long segmentStartLsn;
+    private boolean flushing;
+    private byte[] pending = new byte[INITIAL_BUFFER];
+    private byte[] spare = new byte[INITIAL_BUFFER];
+    private int pendingSize;
+    private long appendedLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+
+    public WriteAheadLog(Path dir, FsyncPolicy policy, long groupWindowMicros) {
+        this.dir = dir;
+        this.policy = policy;
+        this.groupWindowNanos = TimeUnit.MICROSECONDS.toNanos(groupWindowMicros);
+        try {
+            Files.createDirectories(dir);
+            List<Long> segments = segmentIds(dir);
+            segmentId = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+            channel = openSegment(dir, segmentId);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open write-ahead log: " + e.getMessage());
+        }
+        if (policy == FsyncPolicy.COMMIT) {
+            flusher = null;
+        } else {
+            flusher = new Thread(this::flushLoop, "dbilf-wal-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    public FsyncPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getSegmentId() {
+        lock.lock();
+        try {
+            return segmentId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isSegmentEmpty() {
+        lock.lock();
+        try {
+            return appendedLsn == segmentStartLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Forces everything appended so far into the current segment and switches to a new one.
+    // Records appended after this call are guaranteed to land in the returned segment or later.
+    public long rotate() {
+        lock.lock();
+        try {
+            ensureUsable();
+            while (flushing) {
+                durable.awaitUninterruptibly();
+            }
+            ensureUsable();
+            try {
+                writeFully(channel, ByteBuffer.wrap(pending, 0, pendingSize));
+                channel.force(false);
+                channel.close();
+                pendingSize = 0;
+                durableLsn = appendedLsn;
+                durable.signalAll();
+                segmentId++;
+                segmentStartLsn = appendedLsn;
+                channel = openSegment(dir, segmentId);
+            } catch (IOException e) {
+                failure = e;
+                durable.signalAll();
+                ensureUsable();
+            }
+            return segmentId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void write(byte[] record) {
+        write(List.of(record));
+    }
+
+    // Returns once the records are durable according to the fsync policy.
+    public void write(List<byte[]> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        byte[] frame = frame(records);
+        lock.lock();
+        try {
+            ensureUsable();
+            if (policy == FsyncPolicy.COMMIT) {
+                try {
+                    writeFully(channel, ByteBuffer.wrap(frame));
+                    channel.force(false);
+                } catch (IOException e) {
+                    failure = e;
+                    ensureUsable();
+                }
+                appendedLsn += frame.length;
+                durableLsn = appendedLsn;
+                return;
+            }
+            append(frame);
+            long lsn = appendedLsn;
+            pendingWork.signal();
+            if (policy == FsyncPolicy.GROUP) {
+                while (durableLsn < lsn && failure == null) {
+                    durable.awaitUninterruptibly();
+                }
+                ensureUsable();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pendingWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (true) {
+                while (pendingSize == 0 && !closed) {
+                    pendingWork.awaitUninterruptibly();
+                }
+                if (pendingSize == 0) {
+                    return;
+                }
+                // Give concurrent committers the rest of the window to join this group.
+                long remaining = groupWindowNanos;
+                while (remaining > 0 && !closed) {
+                    try {
+                        remaining = pendingWork.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (pendingSize == 0) {
+                    continue; // drained by rotate()
+                }
+                byte[] batch = pending;
+                int size = pendingSize;
+                long target = appendedLsn;
+                pending = spare;
+                spare = batch;
+                pendingSize = 0;
+                flushing = true;
+                IOException error = null;
+                lock.unlock();
+                try {
+                    writeFully(channel, ByteBuffer.wrap(batch, 0, size));
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                }
+                if (error != null) {
+                    failure = error;
+                    durable.signalAll();
+                    return;
+                }
+                durableLsn = target;
+                durable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void append(byte[] frame) {
+        if (pendingSize + frame.length > pending.length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingSize + frame.length));
+        }
+        System.arraycopy(frame, 0, pending, pendingSize, frame.length);
+        pendingSize += frame.length;
+        appendedLsn += frame.length;
+    }
+
+    private void ensureUsable() {
+        if (failure != null) {
+            throw new RuntimeException("Write-ahead log failed: " + failure.getMessage());
+        }
+        if (closed) {
+            throw new RuntimeException("Write-ahead log is closed");
+        }
+    }
+
+    private static byte[] frame(List<byte[]> records) {
+        int payloadSize = 0;
+        for (byte[] record : records) {
+            payloadSize += 4 + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER + payloadSize);
+        buffer.putInt(payloadSize);
+        buffer.putInt(0);
+        for (byte[] record : records) {
+            buffer.putInt(record.length);
+            buffer.put(record);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), FRAME_HEADER, payloadSize);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static FileChannel openSegment(Path dir, long id) throws IOException {
+        return FileChannel.open(segmentPath(dir, id), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    static Path segmentPath(Path dir, long id) {
+        return dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    static List<Long> segmentIds(Path dir) throws IOException {
+        return fileIds(dir, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    static List<Long> fileIds(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> ids = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return ids;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(prefix) && n.endsWith(suffix))
+                    .forEach(n -> ids.add(Long.parseLong(n.substring(prefix.length(), n.length() - suffix.length()))));
+        }
+        ids.sort(null);
+        return ids;
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.amirilf.dbilf.query;
+
+import lombok.Getter;
+
+// An aggregate in a SELECT list: COUNT(*), or COUNT, SUM, MIN, MAX or AVG of a column.
+@Getter
+final class Aggregate {
+
+    enum Function {
+        COUNT,
+        SUM,
+        MIN,
+        MAX,
+        AVG;
+
+        static Function fromString(String value) {
+            try {
+                return Function.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new RuntimeException("Unknown function: " + value);
+            }
+        }
+    }
+
+    private final Function function;
+    private final String column; // null for COUNT(*)
+    private final String alias; // null without AS
+
+    Aggregate(Function function, String column, String alias) {
+        this.function = function;
+        this.column = column;
+        this.alias = alias;
+    }
+
+    // The column name of the result, which ORDER BY refers to.
+    String getName() {
+        return alias != null ? alias : toString();
+    }
+
+    @Override
+    public String toString() {
+        return function.name().toLowerCase() + "(" + (column == null ? "*" : column) + ")";
+    }
+}
@@ -0,0 +1,347 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.storage.LongIntMap;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowView;
+import com.github.amirilf.dbilf.storage.Schema;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Hash aggregation for SELECT with aggregates or GROUP BY. Every scan partition fills its own
+// Partial and the partials are merged once the scan is done. A group's counts, sums, minimums and
+// maximums live in long arrays indexed by group number and numeric fields are read with getLong,
+// so a row is not boxed unless it starts a group. A single numeric GROUP BY column is hashed as a
+// long; text and multi-column groups are keyed by their values.
+final class Aggregation {
+
+    private final String[] columns;
+    private final Class<?>[] types;
+    private final int[] outputs; // per output column: group column i as -1 - i, aggregate i as i
+    private final int[] groupPositions;
+    private final Class<?>[] groupTypes;
+    private final boolean longKeys;
+    private final Aggregate.Function[] functions;
+    private final int[] positions; // of each aggregate's column, -1 for COUNT(*)
+    private final Class<?>[] argumentTypes;
+    private final boolean[] numeric;
+
+    Aggregation(Schema schema, List<Object> items, List<String> groupBy) {
+        List<String> groups = groupBy == null ? List.of() : groupBy;
+        groupPositions = new int[groups.size()];
+        groupTypes = new Class<?>[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            groupPositions[i] = column(schema, groups.get(i));
+            groupTypes[i] = schema.getField(groupPositions[i]).getType();
+        }
+        longKeys = groups.size() == 1 && isNumeric(groupTypes[0]);
+        List<Aggregate> aggregates = new ArrayList<>();
+        columns = new String[items.size()];
+        types = new Class<?>[items.size()];
+        outputs = new int[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            Object item = items.get(i);
+            if (item instanceof Aggregate) {
+                Aggregate aggregate = (Aggregate) item;
+                outputs[i] = aggregates.size();
+                aggregates.add(aggregate);
+                columns[i] = aggregate.getName();
+                continue;
+            }
+            String column = (String) item;
+            int group = groups.indexOf(column);
+            if (group < 0) {
+                column(schema, column);
+                throw new RuntimeException("Column " + column + " must appear in GROUP BY or be used in an aggregate");
+            }
+            outputs[i] = -1 - group;
+            columns[i] = column;
+            types[i] = groupTypes[group];
+        }
+        functions = new Aggregate.Function[aggregates.size()];
+        positions = new int[aggregates.size()];
+        argumentTypes = new Class<?>[aggregates.size()];
+        numeric = new boolean[aggregates.size()];
+        for (int i = 0; i < aggregates.size(); i++) {
+            Aggregate aggregate = aggregates.get(i);
+            functions[i] = aggregate.getFunction();
+            positions[i] = aggregate.getColumn() == null ? -1 : column(schema, aggregate.getColumn());
+            argumentTypes[i] = positions[i] < 0 ? null : schema.getField(positions[i]).getType();
+            numeric[i] = positions[i] >= 0 && isNumeric(argumentTypes[i]);
+            boolean arithmetic = functions[i] == Aggregate.Function.SUM || functions[i] == Aggregate.Function.AVG;
+            if (arithmetic && (!numeric[i] || argumentTypes[i] == Boolean.class)) {
+                throw new RuntimeException(functions[i] + " needs a numeric column: " + aggregate.getColumn());
+            }
+        }
+        for (int i = 0; i < outputs.length; i++) {
+            if (outputs[i] >= 0) {
+                types[i] = outputType(outputs[i]);
+            }
+        }
+    }
+
+    String[] getColumns() {
+        return columns;
+    }
+
+    Class<?>[] getTypes() {
+        return types;
+    }
+
+    // Columns that are NULL when there are no rows to aggregate: everything but COUNT, and only
+    // without GROUP BY, since a group always has rows.
+    boolean[] getNullable() {
+        boolean[] nullable = new boolean[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            nullable[i] = groupPositions.length == 0 && functions[outputs[i]] != Aggregate.Function.COUNT;
+        }
+        return nullable;
+    }
+
+    // COUNT(*) alone, with neither WHERE nor GROUP BY: the table can answer it without a scan.
+    boolean isCountAll() {
+        return groupPositions.length == 0 && functions.length == 1 && outputs.length == 1
+                && functions[0] == Aggregate.Function.COUNT;
+    }
+
+    Partial newPartial() {
+        return new Partial();
+    }
+
+    // The groups of all partials as rows of output columns, in no particular order.
+    List<Row> finish(List<Partial> partials) {
+        Partial total = partials.get(0);
+        for (int i = 1; i < partials.size(); i++) {
+            total.merge(partials.get(i));
+        }
+        if (total.groups == 0 && groupPositions.length == 0) {
+            total.newGroup();
+        }
+        List<Row> rows = new ArrayList<>(total.groups);
+        for (int group = 0; group < total.groups; group++) {
+            Object[] values = new Object[outputs.length];
+            for (int i = 0; i < outputs.length; i++) {
+                values[i] = outputs[i] < 0 ? total.groupValue(group, -1 - outputs[i]) : total.value(group, outputs[i]);
+            }
+            rows.add(Row.of(values));
+        }
+        return rows;
+    }
+
+    private Class<?> outputType(int aggregate) {
+        switch (functions[aggregate]) {
+            case COUNT:
+            case SUM:
+                return Long.class;
+            case AVG:
+                return Double.class;
+            default:
+                return argumentTypes[aggregate];
+        }
+    }
+
+    private static int column(Schema schema, String name) {
+        int position = schema.positionOf(name);
+        if (position < 0) {
+            throw new RuntimeException("Column not found: " + name);
+        }
+        return position;
+    }
+
+    private static boolean isNumeric(Class<?> type) {
+        return type == Long.class || type == Integer.class || type == Boolean.class;
+    }
+
+    private static Object box(long value, Class<?> type) {
+        if (type == Integer.class) {
+            return (int) value;
+        } else if (type == Boolean.class) {
+            return value != 0;
+        }
+        return value;
+    }
+
+    // Groups and accumulators of one scan partition.
+    final class Partial implements Consumer<RowView> {
+
+        private final LongIntMap longIndex = longKeys ? new LongIntMap(64) : null;
+        private final Map<Object, Integer> keyIndex = longKeys ? null : new HashMap<>();
+        private int groups;
+        private long[] longGroupKeys = new long[16];
+        private Object[] groupKeys = new Object[16];
+        private long[] counts = new long[16];
+        private final long[][] longs = new long[functions.length][16]; // sum, min or max
+        private final Object[][] objects = new Object[functions.length][]; // min or max of text
+
+        private Partial() {
+            for (int i = 0; i < functions.length; i++) {
+                if (positions[i] >= 0 && !numeric[i]) {
+                    objects[i] = new Object[16];
+                }
+            }
+        }
+
+        @Override
+        public void accept(RowView row) {
+            int group = group(row);
+            boolean first = counts[group]++ == 0;
+            for (int i = 0; i < functions.length; i++) {
+                switch (functions[i]) {
+                    case SUM:
+                    case AVG:
+                        longs[i][group] = Math.addExact(longs[i][group], row.getLong(positions[i]));
+                        break;
+                    case MIN:
+                    case MAX:
+                        if (numeric[i]) {
+                            long value = row.getLong(positions[i]);
+                            if (first || wins(i, Long.compare(value, longs[i][group]))) {
+                                longs[i][group] = value;
+                            }
+                        } else {
+                            Object value = row.getValue(positions[i]);
+                            if (first || wins(i, Keys.compare(value, objects[i][group]))) {
+                                objects[i][group] = value;
+                            }
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private boolean wins(int aggregate, int comparison) {
+            return functions[aggregate] == Aggregate.Function.MIN ? comparison < 0 : comparison > 0;
+        }
+
+        // Group number of the row, a new one if it starts a group.
+        private int group(RowView row) {
+            if (groupPositions.length == 0) {
+                return groups == 0 ? newGroup() : 0;
+            }
+            if (longKeys) {
+                long key = row.getLong(groupPositions[0]);
+                int group = longIndex.get(key);
+                if (group < 0) {
+                    group = newGroup();
+                    longGroupKeys[group] = key;
+                    longIndex.put(key, group);
+                }
+                return group;
+            }
+            Object key;
+            if (groupPositions.length == 1) {
+                key = Keys.normalize(row.getValue(groupPositions[0]));
+            } else {
+                Object[] values = new Object[groupPositions.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Keys.normalize(row.getValue(groupPositions[i]));
+                }
+                key = Arrays.asList(values);
+            }
+            return keyGroup(key);
+        }
+
+        private int keyGroup(Object key) {
+            Integer group = keyIndex.get(key);
+            if (group == null) {
+                group = newGroup();
+                groupKeys[group] = key;
+                keyIndex.put(key, group);
+            }
+            return group;
+        }
+
+        private int newGroup() {
+            if (groups == counts.length) {
+                int capacity = groups * 2;
+                counts = Arrays.copyOf(counts, capacity);
+                longGroupKeys = longKeys ? Arrays.copyOf(longGroupKeys, capacity) : longGroupKeys;
+                groupKeys = longKeys ? groupKeys : Arrays.copyOf(groupKeys, capacity);
+                for (int i = 0; i < functions.length; i++) {
+                    longs[i] = Arrays.copyOf(longs[i], capacity);
+                    if (objects[i] != null) {
+                        objects[i] = Arrays.copyOf(objects[i], capacity);
+                    }
+                }
+            }
+            return groups++;
+        }
+
+        private void merge(Partial other) {
+            for (int from = 0; from < other.groups; from++) {
+                int group;
+                if (groupPositions.length == 0) {
+                    group = groups == 0 ? newGroup() : 0;
+                } else if (longKeys) {
+                    long key = other.longGroupKeys[from];
+                    group = longIndex.get(key);
+                    if (group < 0) {
+                        group = newGroup();
+                        longGroupKeys[group] = key;
+                        longIndex.put(key, group);
+                    }
+                } else {
+                    group = keyGroup(other.groupKeys[from]);
+                }
+                boolean first = counts[group] == 0;
+                counts[group] += other.counts[from];
+                for (int i = 0; i < functions.length; i++) {
+                    switch (functions[i]) {
+                        case SUM:
+                        case AVG:
+                            longs[i][group] = Math.addExact(longs[i][group], other.longs[i][from]);
+                            break;
+                        case MIN:
+                        case MAX:
+                            if (numeric[i]) {
+                                long value = other.longs[i][from];
+                                if (first || wins(i, Long.compare(value, longs[i][group]))) {
+                                    longs[i][group] = value;
+                                }
+                            } else {
+                                Object value = other.objects[i][from];
+                                if (first || wins(i, Keys.compare(value, objects[i][group]))) {
+                                    objects[i][group] = value;
+                                }
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+
+        private Object groupValue(int group, int column) {
+            if (longKeys) {
+                return box(longGroupKeys[group], groupTypes[0]);
+            }
+            Object key = groupKeys[group];
+            return groupPositions.length == 1 ? key : ((List<?>) key).get(column);
+        }
+
+        private Object value(int group, int aggregate) {
+            long count = counts[group];
+            switch (functions[aggregate]) {
+                case COUNT:
+                    return count;
+                case SUM:
+                    return count == 0 ? null : longs[aggregate][group];
+                case AVG:
+                    return count == 0 ? null : (double) longs[aggregate][group] / count;
+                default:
+                    if (count == 0) {
+                        return null;
+                    }
+                    return numeric[aggregate] ? box(longs[aggregate][group], argumentTypes[aggregate])
+                            : objects[aggregate][group];
+            }
+        }
+    }
+}
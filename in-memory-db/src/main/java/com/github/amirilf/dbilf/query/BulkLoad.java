@@ -0,0 +1,269 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.ScanPool;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// The load path of multi-row INSERT and COPY. The input is cut into batches on the caller's
+// thread, and each batch reserves a block of primary keys, in input order. Batches are split,
+// converted and validated on the scan pool and handed to Table.load in order as they complete,
+// with a few in flight at a time, so a file is never held in memory as a whole. A load is one
+// transaction, the caller's if there is one and its own otherwise, so outside a transaction
+// either every row is loaded or none is.
+public final class BulkLoad {
+
+    private static final int BATCH_ROWS = 4096;
+
+    private static volatile Path copyDirectory = Path.of("").toAbsolutePath();
+
+    private final Session session;
+    private final Table table;
+    private final Schema schema;
+    private final String[] columns;
+
+    // Every column but the primary key, in schema order, if columns is null.
+    BulkLoad(Session session, Table table, List<String> columns) {
+        this.session = session;
+        this.table = table;
+        this.schema = table.getSchema();
+        String pk = schema.getPKField().getName();
+        List<String> names = new ArrayList<>();
+        if (columns == null) {
+            for (int i = 0; i < schema.getFieldCount(); i++) {
+                if (!schema.getField(i).getName().equals(pk)) {
+                    names.add(schema.getField(i).getName());
+                }
+            }
+        } else {
+            for (String column : columns) {
+                if (pk.equals(column)) {
+                    throw new RuntimeException("The id field is managed automatically");
+                }
+                if (schema.positionOf(column) < 0) {
+                    throw new RuntimeException("Field " + column + " does not exist in schema");
+                }
+                if (names.contains(column)) {
+                    throw new RuntimeException("Column " + column + " is given twice");
+                }
+                names.add(column);
+            }
+            for (int i = 0; i < schema.getFieldCount(); i++) {
+                String name = schema.getField(i).getName();
+                if (!name.equals(pk) && !names.contains(name)) {
+                    throw new RuntimeException("Field " + name + " is not set");
+                }
+            }
+        }
+        this.columns = names.toArray(new String[0]);
+    }
+
+    // COPY reads files under this directory only, by default the server's working directory.
+    public static void setCopyDirectory(Path directory) {
+        copyDirectory = directory.toAbsolutePath().normalize();
+    }
+
+    // The rows of a multi-row INSERT, with their values as the parser left them.
+    long insert(List<List<Object>> rows) {
+        return run(batches(rows.iterator()), values -> values, "Row ", 1);
+    }
+
+    // A CSV file: one row per line, fields in the order of the columns.
+    long copy(String file, Map<String, String> options) {
+        boolean header = false;
+        char delimiter = ',';
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            String value = option.getValue();
+            if (option.getKey().equals("header")) {
+                if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                    throw new RuntimeException("Invalid COPY header: " + value);
+                }
+                header = Boolean.parseBoolean(value);
+            } else if (option.getKey().equals("delimiter")) {
+                if (value.length() != 1 || value.charAt(0) == '"') {
+                    throw new RuntimeException("Invalid COPY delimiter: " + value);
+                }
+                delimiter = value.charAt(0);
+            } else {
+                throw new RuntimeException("Unknown COPY option: " + option.getKey());
+            }
+        }
+        Path directory = copyDirectory;
+        Path path = directory.resolve(file).normalize();
+        if (!path.startsWith(directory)) {
+            throw new RuntimeException("COPY can only read files under " + directory);
+        }
+        char separator = delimiter;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            if (header) {
+                reader.readLine();
+            }
+            return run(batches(reader.lines().iterator()), line -> split(line, separator), "Line ", header ? 2 : 1);
+        } catch (NoSuchFileException e) {
+            throw new RuntimeException("File not found: " + file);
+        } catch (IOException | UncheckedIOException e) {
+            throw new RuntimeException("Cannot read " + file + ": " + e.getMessage());
+        }
+    }
+
+    private <T> long run(Iterator<List<T>> input, Function<T, List<Object>> fields, String unit, long first) {
+        return QueryEngine.atomically(session, false, () -> {
+            Deque<Future<Batch>> pending = new ArrayDeque<>();
+            int window = 2 * ScanPool.getThreads();
+            long loaded = 0;
+            long number = first;
+            try {
+                while (input.hasNext()) {
+                    List<T> batch = input.next();
+                    long firstKey = schema.reserve(batch.size());
+                    long firstNumber = number;
+                    pending.add(ScanPool.submit(() -> parse(batch, fields, firstKey, unit, firstNumber)));
+                    number += batch.size();
+                    if (pending.size() >= window) {
+                        loaded += load(pending.poll());
+                    }
+                }
+                while (!pending.isEmpty()) {
+                    loaded += load(pending.poll());
+                }
+            } catch (RuntimeException e) {
+                pending.forEach(future -> future.cancel(false));
+                throw e;
+            }
+            return loaded;
+        });
+    }
+
+    private long load(Future<Batch> parsed) {
+        Batch batch;
+        try {
+            batch = parsed.get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading");
+        }
+        if (batch.error != null) {
+            throw new RuntimeException(batch.error);
+        }
+        table.load(session.getTransaction(), batch.rows);
+        return batch.rows.size();
+    }
+
+    // A batch with the keys reserved for it. A blank line leaves its key unused.
+    private <T> Batch parse(List<T> input, Function<T, List<Object>> fields, long firstKey, String unit,
+            long firstNumber) {
+        Batch batch = new Batch(input.size());
+        List<Row> rows = batch.rows;
+        for (int i = 0; i < input.size(); i++) {
+            try {
+                List<Object> values = fields.apply(input.get(i));
+                if (values == null) {
+                    continue;
+                }
+                if (values.size() != columns.length) {
+                    throw new RuntimeException("Expected " + columns.length + " values but found " + values.size());
+                }
+                Row.Builder builder = new Row.Builder(schema).setId(firstKey + i);
+                for (int c = 0; c < columns.length; c++) {
+                    builder.set(columns[c], QueryEngine.parseValue(values.get(c), schema, columns[c]));
+                }
+                rows.add(builder.build());
+            } catch (RuntimeException e) {
+                batch.error = unit + (firstNumber + i) + ": " + e.getMessage();
+                return batch;
+            }
+        }
+        return batch;
+    }
+
+    private static <T> Iterator<List<T>> batches(Iterator<T> items) {
+        return new Iterator<List<T>>() {
+            @Override
+            public boolean hasNext() {
+                return items.hasNext();
+            }
+
+            @Override
+            public List<T> next() {
+                List<T> batch = new ArrayList<>(BATCH_ROWS);
+                while (batch.size() < BATCH_ROWS && items.hasNext()) {
+                    batch.add(items.next());
+                }
+                return batch;
+            }
+        };
+    }
+
+    // One CSV line, null if it is blank. A field in double quotes may hold the delimiter, and ""
+    // for a quote; quoted fields do not span lines.
+    private static List<Object> split(String line, char delimiter) {
+        if (line.isBlank()) {
+            return null;
+        }
+        List<Object> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int length = line.length();
+        int i = 0;
+        while (true) {
+            if (i < length && line.charAt(i) == '"') {
+                field.setLength(0);
+                i++;
+                while (true) {
+                    if (i == length) {
+                        throw new RuntimeException("Unterminated quoted field");
+                    }
+                    char c = line.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < length && line.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < length && line.charAt(i) != delimiter) {
+                    throw new RuntimeException("Unexpected text after a quoted field");
+                }
+                fields.add(field.toString());
+            } else {
+                int end = line.indexOf(delimiter, i);
+                end = end < 0 ? length : end;
+                fields.add(line.substring(i, end));
+                i = end;
+            }
+            if (i == length) {
+                return fields;
+            }
+            i++;
+        }
+    }
+
+    // The rows of one batch, or the first error in it. Errors are returned rather than thrown, as a
+    // fork/join task rethrows a copy of its exception with the message prefixed by the class name.
+    private static final class Batch {
+        private final List<Row> rows;
+        private String error;
+
+        private Batch(int size) {
+            rows = new ArrayList<>(size);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.github.amirilf.dbilf.query;
 
+import com.github.amirilf.dbilf.index.IndexType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -8,15 +11,88 @@ import lombok.Setter;
 
 @Getter
 @Setter
-public class Command {
+public class Command implements Cloneable {
     private CommandType type;
     private String tableName;
+    private String tableAlias; // for SELECT ... FROM table [AS] alias
+    private String joinTableName; // for SELECT ... JOIN table [alias] ON left = right
+    private String joinAlias;
+    private String joinLeftColumn;
+    private String joinRightColumn;
     private Map<String, Object> columnDefinitions; // for CREATE TABLE: column name -> [type, maxLength]
+    private Map<String, String> tableOptions; // for CREATE TABLE ... WITH (key='value', ...)
     private List<String> selectColumns; // for SELECT (if not "*")
-    private Map<String, Object> insertValues; // for INSERT
+    private List<Object> selectItems; // for SELECT with aggregates or GROUP BY: column names and Aggregates
+    private List<String> groupBy; // for SELECT ... GROUP BY
+    private List<String> insertColumns; // for INSERT, and COPY with a column list
+    private List<List<Object>> insertRows; // for INSERT: the values of each row
+    private String copyFile; // for COPY ... FROM 'file'
+    private Map<String, String> copyOptions; // for COPY ... WITH (key='value', ...)
     private Map<String, Object> updateValues; // for UPDATE
-    private String conditionColumn; // for WHERE clause (single condition)
-    private Object conditionValue;
+    private Expression where; // for SELECT, UPDATE and DELETE ... WHERE (null means all rows)
+    private String orderByColumn; // for SELECT ... ORDER BY
+    private boolean orderDescending;
+    private Object limit; // for SELECT ... LIMIT
+    private Object offset; // for SELECT ... OFFSET
+    private boolean explain; // for EXPLAIN SELECT: run it and report the plan instead of the rows
     private String indexField; // for CREATE/DROP INDEX
     private boolean uniqueIndex; // for CREATE INDEX
+    private IndexType indexType; // for CREATE INDEX ... USING
+    private String statementName; // for PREPARE, EXECUTE and DEALLOCATE
+    private String statementSql; // for PREPARE ... AS
+    private List<Object> parameterValues; // for EXECUTE ... (values)
+    private int parameterCount; // number of Parameter placeholders among the values
+    private String settingName; // for SET name = value, lower case
+    private Object settingValue;
+    private String cursorName; // for DECLARE, FETCH and CLOSE
+    private Object fetchCount; // for FETCH: a count, or ALL
+    private boolean optimistic; // for BEGIN OPTIMISTIC
+
+    Parameter addParameter() {
+        return new Parameter(parameterCount++);
+    }
+
+    // Copy of this template with every Parameter replaced by its value. The template itself is
+    // shared by all executions and never changes.
+    Command bind(Object[] values) {
+        if (parameterCount == 0) {
+            return this;
+        }
+        Command bound;
+        try {
+            bound = (Command) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        bound.insertRows = bind(insertRows, values);
+        bound.updateValues = bind(updateValues, values);
+        bound.where = where == null ? null : where.bind(values);
+        bound.limit = Expression.bind(limit, values);
+        bound.offset = Expression.bind(offset, values);
+        bound.fetchCount = Expression.bind(fetchCount, values);
+        bound.parameterCount = 0;
+        return bound;
+    }
+
+    private static List<List<Object>> bind(List<List<Object>> template, Object[] values) {
+        if (template == null) {
+            return null;
+        }
+        List<List<Object>> bound = new ArrayList<>(template.size());
+        for (List<Object> row : template) {
+            List<Object> boundRow = new ArrayList<>(row);
+            boundRow.replaceAll(value -> Expression.bind(value, values));
+            bound.add(boundRow);
+        }
+        return bound;
+    }
+
+    private static Map<String, Object> bind(Map<String, Object> template, Object[] values) {
+        if (template == null) {
+            return null;
+        }
+        Map<String, Object> bound = new LinkedHashMap<>(template);
+        bound.replaceAll((column, value) -> Expression.bind(value, values));
+        return bound;
+    }
 }
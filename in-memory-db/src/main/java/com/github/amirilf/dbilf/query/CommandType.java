@@ -3,14 +3,23 @@ package com.github.amirilf.dbilf.query;
 public enum CommandType {
     CREATE_TABLE,
     SHOW_TABLES,
+    SHOW_STATS,
     DELETE_TABLE,
     CREATE_INDEX,
     REMOVE_INDEX,
     INSERT,
+    COPY,
     SELECT,
     UPDATE,
     DELETE,
     BEGIN,
     COMMIT,
-    ROLLBACK
+    ROLLBACK,
+    PREPARE,
+    EXECUTE,
+    DEALLOCATE,
+    SET,
+    DECLARE_CURSOR,
+    FETCH,
+    CLOSE_CURSOR
 }
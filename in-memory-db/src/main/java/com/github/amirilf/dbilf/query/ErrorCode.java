@@ -0,0 +1,24 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.transaction.ConflictException;
+
+public enum ErrorCode {
+    SYNTAX_ERROR(1), // the statement could not be parsed
+    EXECUTION_ERROR(2), // the statement was rejected or failed while running
+    CONFLICT(3), // lost to a concurrent transaction, retrying may succeed
+    PROTOCOL_ERROR(4); // malformed request on the binary protocol
+
+    private final short code;
+
+    ErrorCode(int code) {
+        this.code = (short) code;
+    }
+
+    public short getCode() {
+        return code;
+    }
+
+    public static ErrorCode of(Throwable e) {
+        return e instanceof ConflictException ? CONFLICT : EXECUTION_ERROR;
+    }
+}
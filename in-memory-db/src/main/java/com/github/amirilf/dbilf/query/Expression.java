@@ -0,0 +1,300 @@
+package com.github.amirilf.dbilf.query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// WHERE clause tree. Values are literals as written (unquoted text) or Parameters until a
+// statement is bound, and are only converted to column types when it runs.
+public abstract class Expression {
+
+    public enum Operator {
+        EQ("="),
+        NE("<>"),
+        LT("<"),
+        LE("<="),
+        GT(">"),
+        GE(">="),
+        LIKE("LIKE");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        // Whether a value that compares to the literal as given satisfies the operator.
+        public boolean matches(int comparison) {
+            switch (this) {
+                case EQ:
+                    return comparison == 0;
+                case NE:
+                    return comparison != 0;
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                case GE:
+                    return comparison >= 0;
+                default:
+                    throw new RuntimeException(symbol + " is not a comparison");
+            }
+        }
+    }
+
+    abstract Expression bind(Object[] values);
+
+    // The same expression over the columns the function maps each column name to.
+    abstract Expression rename(UnaryOperator<String> columns);
+
+    abstract void forEachColumn(Consumer<String> action);
+
+    static Object bind(Object value, Object[] values) {
+        return value instanceof Parameter ? values[((Parameter) value).getIndex()] : value;
+    }
+
+    // column op value
+    public static final class Comparison extends Expression {
+
+        private final String column;
+        private final Operator operator;
+        private final Object value;
+
+        Comparison(String column, Operator operator, Object value) {
+            this.column = column;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        Expression bind(Object[] values) {
+            return value instanceof Parameter ? new Comparison(column, operator, bind(value, values)) : this;
+        }
+
+        @Override
+        Expression rename(UnaryOperator<String> columns) {
+            return new Comparison(columns.apply(column), operator, value);
+        }
+
+        @Override
+        void forEachColumn(Consumer<String> action) {
+            action.accept(column);
+        }
+
+        @Override
+        public String toString() {
+            return column + " " + operator.getSymbol() + " " + literal(value);
+        }
+    }
+
+    // lower AND upper bound on one column. Not parsed: the planner pairs the two comparisons so
+    // they are read as one range.
+    static final class Range extends Expression {
+
+        private final Comparison lower; // > or >=
+        private final Comparison upper; // < or <=
+
+        Range(Comparison lower, Comparison upper) {
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        String getColumn() {
+            return lower.getColumn();
+        }
+
+        Comparison getLower() {
+            return lower;
+        }
+
+        Comparison getUpper() {
+            return upper;
+        }
+
+        @Override
+        Expression bind(Object[] values) {
+            return new Range((Comparison) lower.bind(values), (Comparison) upper.bind(values));
+        }
+
+        @Override
+        Expression rename(UnaryOperator<String> columns) {
+            return new Range((Comparison) lower.rename(columns), (Comparison) upper.rename(columns));
+        }
+
+        @Override
+        void forEachColumn(Consumer<String> action) {
+            action.accept(getColumn());
+        }
+
+        @Override
+        public String toString() {
+            return lower + " AND " + upper;
+        }
+    }
+
+    // column IN (value, ...)
+    public static final class In extends Expression {
+
+        private final String column;
+        private final List<Object> values;
+
+        In(String column, List<Object> values) {
+            this.column = column;
+            this.values = values;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public List<Object> getValues() {
+            return values;
+        }
+
+        @Override
+        Expression bind(Object[] parameters) {
+            List<Object> bound = new ArrayList<>(values.size());
+            for (Object value : values) {
+                bound.add(bind(value, parameters));
+            }
+            return new In(column, bound);
+        }
+
+        @Override
+        Expression rename(UnaryOperator<String> columns) {
+            return new In(columns.apply(column), values);
+        }
+
+        @Override
+        void forEachColumn(Consumer<String> action) {
+            action.accept(column);
+        }
+
+        @Override
+        public String toString() {
+            StringJoiner joiner = new StringJoiner(", ", column + " IN (", ")");
+            for (Object value : values) {
+                joiner.add(literal(value));
+            }
+            return joiner.toString();
+        }
+    }
+
+    // All terms hold (And) or at least one does (Or). Nested terms of the same kind are flattened
+    // by the parser.
+    public abstract static class Junction extends Expression {
+
+        private final List<Expression> terms;
+
+        Junction(List<Expression> terms) {
+            this.terms = terms;
+        }
+
+        public List<Expression> getTerms() {
+            return terms;
+        }
+
+        List<Expression> bindTerms(Object[] values) {
+            List<Expression> bound = new ArrayList<>(terms.size());
+            for (Expression term : terms) {
+                bound.add(term.bind(values));
+            }
+            return bound;
+        }
+
+        List<Expression> renameTerms(UnaryOperator<String> columns) {
+            List<Expression> renamed = new ArrayList<>(terms.size());
+            for (Expression term : terms) {
+                renamed.add(term.rename(columns));
+            }
+            return renamed;
+        }
+
+        @Override
+        void forEachColumn(Consumer<String> action) {
+            for (Expression term : terms) {
+                term.forEachColumn(action);
+            }
+        }
+
+        String toString(String keyword) {
+            StringJoiner joiner = new StringJoiner(" " + keyword + " ", "(", ")");
+            for (Expression term : terms) {
+                joiner.add(term.toString());
+            }
+            return joiner.toString();
+        }
+    }
+
+    public static final class And extends Junction {
+
+        And(List<Expression> terms) {
+            super(terms);
+        }
+
+        @Override
+        Expression bind(Object[] values) {
+            return new And(bindTerms(values));
+        }
+
+        @Override
+        Expression rename(UnaryOperator<String> columns) {
+            return new And(renameTerms(columns));
+        }
+
+        @Override
+        public String toString() {
+            return toString("AND");
+        }
+    }
+
+    public static final class Or extends Junction {
+
+        Or(List<Expression> terms) {
+            super(terms);
+        }
+
+        @Override
+        Expression bind(Object[] values) {
+            return new Or(bindTerms(values));
+        }
+
+        @Override
+        Expression rename(UnaryOperator<String> columns) {
+            return new Or(renameTerms(columns));
+        }
+
+        @Override
+        public String toString() {
+            return toString("OR");
+        }
+    }
+
+    static String literal(Object value) {
+        if (value instanceof String) {
+            String text = (String) value;
+            return text.matches("-?\\d+|(?i:true|false)") ? text : "'" + text.replace("'", "''") + "'";
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,488 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.index.Index;
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.storage.Database;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowCursor;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import com.github.amirilf.dbilf.transaction.Transaction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// SELECT ... FROM a JOIN b ON a.x = b.y. Columns of the joined rows are named table.column, or
+// alias.column; a plain name works if only one table has it. WHERE terms over one table are
+// pushed into that table's plan, where they can use its indexes, and terms over both are tested
+// on the joined rows. The rows are joined by whichever of two methods is estimated cheaper:
+//   index nested loop: the rows of one side are read, and for each the matches of the other side
+//   are looked up through the index, or primary key, on its join column.
+//   hash join: the smaller side is read into a hash table on its join value and the other side is
+//   streamed past it. At most maxBuildRows rows are held; a larger build side is split by hash of
+//   the join value into passes, each of which reads both sides again. A pass that still holds too
+//   many rows is split the same way before it returns any.
+// Outside a transaction each side reads at its own snapshot, as two statements would.
+public final class Join {
+
+    private static final int MAX_PASSES = 1024;
+    private static final double FILL = 0.8; // of maxBuildRows a pass is sized for, as hashing is uneven
+
+    private static volatile int maxBuildRows = 1_000_000;
+
+    enum Method {
+        INDEX_LOOP,
+        HASH
+    }
+
+    private final Table[] tables = new Table[2];
+    private final String[] names = new String[2]; // alias, or table name
+    private final Schema schema; // of the joined rows
+    private final String[] joinColumns = new String[2];
+    private final int[] joinPositions = new int[2];
+    private final Expression[] where = new Expression[2]; // pushed down to each side
+    private final Expression residual; // terms over both sides, on the joined rows
+    private final Transaction tx; // the statement's transaction, null outside one
+    private final Plan[] plans = new Plan[2];
+    private final Method method;
+    private final int inner; // the side looked up through its index, or the build side
+    private final double estimatedRows;
+    private final double cost;
+    private long actualRows = -1;
+    private int builds; // build side reads of the last hash join
+    private long fetched; // inner rows read through the index by the last index nested loop
+
+    Join(Command cmd, Transaction tx, int parallelism) {
+        this.tx = tx;
+        Database database = Database.getInstance();
+        tables[0] = database.getTable(cmd.getTableName());
+        tables[1] = database.getTable(cmd.getJoinTableName());
+        names[0] = cmd.getTableAlias() != null ? cmd.getTableAlias() : cmd.getTableName();
+        names[1] = cmd.getJoinAlias() != null ? cmd.getJoinAlias() : cmd.getJoinTableName();
+        if (names[0].equals(names[1])) {
+            throw new RuntimeException("Both tables of the join are named " + names[0] + "; give one an alias");
+        }
+        schema = Schema.joined(names[0], tables[0].getSchema(), names[1], tables[1].getSchema());
+        String left = qualify(cmd.getJoinLeftColumn());
+        String right = qualify(cmd.getJoinRightColumn());
+        if (side(left) == side(right)) {
+            throw new RuntimeException("JOIN ... ON must compare a column of each table");
+        }
+        for (String column : new String[] { left, right }) {
+            int side = side(column);
+            joinColumns[side] = column.substring(names[side].length() + 1);
+            joinPositions[side] = tables[side].getSchema().positionOf(joinColumns[side]);
+        }
+        Class<?> leftType = keyType(tables[0].getSchema().getField(joinPositions[0]).getType());
+        Class<?> rightType = keyType(tables[1].getSchema().getField(joinPositions[1]).getType());
+        if (leftType != rightType) {
+            throw new RuntimeException("Cannot join " + left + " with " + right + ": the column types differ");
+        }
+
+        List<List<Expression>> pushed = List.of(new ArrayList<>(), new ArrayList<>());
+        List<Expression> rest = new ArrayList<>();
+        if (cmd.getWhere() != null) {
+            Expression qualified = cmd.getWhere().rename(this::qualify);
+            List<Expression> terms = qualified instanceof Expression.And ? ((Expression.And) qualified).getTerms()
+                    : List.of(qualified);
+            for (Expression term : terms) {
+                Set<Integer> sides = new HashSet<>();
+                term.forEachColumn(column -> sides.add(side(column)));
+                if (sides.size() == 1) {
+                    int side = sides.iterator().next();
+                    pushed.get(side).add(term.rename(column -> column.substring(names[side].length() + 1)));
+                } else {
+                    rest.add(term);
+                }
+            }
+        }
+        residual = and(rest);
+        if (residual != null) {
+            Planner.predicate(residual, schema); // reject bad literals before any read
+        }
+        for (int side = 0; side < 2; side++) {
+            where[side] = and(pushed.get(side));
+            plans[side] = Planner.plan(tables[side], where[side], parallelism);
+        }
+
+        double[] rows = { plans[0].getEstimatedRows(), plans[1].getEstimatedRows() };
+        // Each value of the side with fewer distinct values is taken to appear on the other side. A
+        // join column without statistics is taken to be a foreign key into the other side's values.
+        double distinct = Math.max(distinctKeys(0), distinctKeys(1));
+        if (distinct < 0) {
+            distinct = Math.max(tables[0].size(), tables[1].size());
+        }
+        estimatedRows = rows[0] * rows[1] / Math.max(1, distinct);
+        Method best = Method.HASH;
+        int bestInner = rows[1] <= rows[0] ? 1 : 0;
+        double bestCost = plans[0].getCost() + plans[1].getCost() + (rows[0] + rows[1]) * Planner.HASH_ROW;
+        for (int side = 1; side >= 0; side--) {
+            if (!indexed(side)) {
+                continue;
+            }
+            double perKey = tables[side].size() / Math.max(1, distinctKeys(side));
+            double loopCost = plans[1 - side].getCost()
+                    + rows[1 - side] * (Planner.INDEX_PROBE + perKey * Planner.ROW_FETCH);
+            if (loopCost < bestCost) {
+                best = Method.INDEX_LOOP;
+                bestInner = side;
+                bestCost = loopCost;
+            }
+        }
+        method = best;
+        inner = bestInner;
+        cost = bestCost;
+    }
+
+    // Rows a hash join holds in its build table at most, dbilf.join.buildRows.
+    public static void setMaxBuildRows(int rows) {
+        if (rows < 1) {
+            throw new RuntimeException("Join build rows must be at least 1");
+        }
+        maxBuildRows = rows;
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    // table.column for a column of either table, written qualified or not.
+    String qualify(String column) {
+        int dot = column.indexOf('.');
+        if (dot >= 0) {
+            String table = column.substring(0, dot);
+            if (!table.equals(names[0]) && !table.equals(names[1])) {
+                throw new RuntimeException("Unknown table in column " + column);
+            }
+            if (schema.positionOf(column) < 0) {
+                throw new RuntimeException("Column not found: " + column);
+            }
+            return column;
+        }
+        boolean left = tables[0].getSchema().positionOf(column) >= 0;
+        boolean right = tables[1].getSchema().positionOf(column) >= 0;
+        if (left && right) {
+            throw new RuntimeException("Column " + column + " is ambiguous; qualify it with its table");
+        }
+        if (!left && !right) {
+            throw new RuntimeException("Column not found: " + column);
+        }
+        return names[left ? 0 : 1] + "." + column;
+    }
+
+    // The joined rows: the columns of the first table, then those of the second.
+    RowCursor open() {
+        actualRows = 0;
+        fetched = 0;
+        return method == Method.INDEX_LOOP ? new IndexLoop() : new HashJoin();
+    }
+
+    // One line for the join, then the plans of both sides indented, the outer or probe side first.
+    String explain() {
+        StringBuilder sb = new StringBuilder(describe());
+        sb.append(" (estimated ").append(Math.round(estimatedRows)).append(" rows, actual ").append(actualRows)
+                .append(", cost ").append(Math.round(cost)).append(")\n");
+        indent(sb, plans[1 - inner].explain());
+        if (method == Method.HASH) {
+            indent(sb, plans[inner].explain());
+        } else {
+            indent(sb, "Table " + tables[inner].getName() + " (" + tables[inner].size() + " rows)\n"
+                    + (where[inner] != null ? "Filter: " + where[inner] + "\n" : ""));
+        }
+        if (residual != null) {
+            sb.append("Filter: ").append(residual).append("\n");
+        }
+        return sb.toString();
+    }
+
+    // The join method and its sides, as EXPLAIN names them.
+    String describe() {
+        String on = names[0] + "." + joinColumns[0] + " = " + names[1] + "." + joinColumns[1];
+        if (method == Method.INDEX_LOOP) {
+            return "Index nested loop join on " + on + ", " + names[inner] + " read through " + indexName(inner);
+        }
+        return "Hash join on " + on + ", build " + names[inner]
+                + (builds > 0 ? " in " + builds + (builds == 1 ? " pass" : " passes") : "");
+    }
+
+    // Rows both sides looked at: the outer side's, and the inner side's scan or index lookups.
+    long examined() {
+        return plans[1 - inner].examined() + (method == Method.INDEX_LOOP ? fetched : plans[inner].examined());
+    }
+
+    private static void indent(StringBuilder sb, String lines) {
+        for (String line : lines.split("\n")) {
+            sb.append("  ").append(line).append("\n");
+        }
+    }
+
+    private int side(String qualified) {
+        return qualified.startsWith(names[0] + ".") ? 0 : 1;
+    }
+
+    private boolean indexed(int side) {
+        Table table = tables[side];
+        return joinColumns[side].equals(table.getSchema().getPKField().getName())
+                || table.getIndexes().containsKey(joinColumns[side]);
+    }
+
+    private String indexName(int side) {
+        Index index = tables[side].getIndexes().get(joinColumns[side]);
+        return index == null ? "primary key" : "index on " + joinColumns[side] + " (" + index.getType() + ")";
+    }
+
+    // Distinct join values of a side, known for the primary key and indexed columns, else -1.
+    private double distinctKeys(int side) {
+        Table table = tables[side];
+        if (joinColumns[side].equals(table.getSchema().getPKField().getName())) {
+            return table.size();
+        }
+        Index index = table.getIndexes().get(joinColumns[side]);
+        return index != null ? index.getStatistics().getDistinctKeys() : -1;
+    }
+
+    private static Expression and(List<Expression> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return terms.size() == 1 ? terms.get(0) : new Expression.And(terms);
+    }
+
+    // Integer and long columns join by value, and so do the two kinds of text column.
+    private static Class<?> keyType(Class<?> type) {
+        if (type == Integer.class) {
+            return Long.class;
+        }
+        return type == char[].class ? String.class : type;
+    }
+
+    private static Object hashKey(Object value) {
+        if (value instanceof Integer) {
+            return ((Integer) value).longValue();
+        }
+        return Keys.normalize(value);
+    }
+
+    // The value in the type of the inner side's join column, null if it cannot match there.
+    private Object lookupKey(Object value) {
+        Class<?> type = tables[inner].getSchema().getField(joinPositions[inner]).getType();
+        Object key = hashKey(value);
+        if (type == Integer.class) {
+            long number = (Long) key;
+            return number == (int) number ? (Object) (int) number : null;
+        } else if (type == char[].class) {
+            return ((String) key).toCharArray();
+        }
+        return key;
+    }
+
+    private Row joined(Row first, Row second) {
+        Row left = inner == 1 ? first : second;
+        Row right = inner == 1 ? second : first;
+        int leftCount = tables[0].getSchema().getFieldCount();
+        Object[] values = new Object[schema.getFieldCount()];
+        for (int i = 0; i < leftCount; i++) {
+            values[i] = left.getValue(i);
+        }
+        for (int i = leftCount; i < values.length; i++) {
+            values[i] = right.getValue(i - leftCount);
+        }
+        return Row.of(values);
+    }
+
+    // Joined rows that pass the residual terms, counted for EXPLAIN.
+    private abstract class JoinCursor implements RowCursor {
+
+        private final Predicate<Row> test = residual == null ? null : Planner.predicate(residual, schema);
+        private Row next;
+        private boolean done;
+
+        // The next joined row, null at the end.
+        abstract Row advance();
+
+        abstract void release();
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !done) {
+                Row row = advance();
+                if (row == null) {
+                    close();
+                } else if (test == null || test.test(row)) {
+                    next = row;
+                    actualRows++;
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Row row = next;
+            next = null;
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                release();
+            }
+        }
+    }
+
+    private final class IndexLoop extends JoinCursor {
+
+        private final int outer = 1 - inner;
+        private final RowCursor outerRows = plans[outer].open(tx);
+        private final Predicate<Row> innerTest = where[inner] == null ? null
+                : Planner.predicate(where[inner], tables[inner].getSchema());
+        private Row outerRow;
+        private Iterator<Row> matches = Collections.emptyIterator();
+
+        @Override
+        Row advance() {
+            while (true) {
+                while (matches.hasNext()) {
+                    Row match = matches.next();
+                    fetched++;
+                    if (innerTest == null || innerTest.test(match)) {
+                        return joined(outerRow, match);
+                    }
+                }
+                if (!outerRows.hasNext()) {
+                    return null;
+                }
+                outerRow = outerRows.next();
+                Object key = lookupKey(outerRow.getValue(joinPositions[outer]));
+                matches = key == null ? Collections.emptyIterator()
+                        : tables[inner].read(tx, key, joinColumns[inner]).iterator();
+            }
+        }
+
+        @Override
+        void release() {
+            outerRows.close();
+        }
+    }
+
+    private final class HashJoin extends JoinCursor {
+
+        private final int probe = 1 - inner;
+        private int pass;
+        private final int passes;
+        private int split; // of the pass, when its build rows did not fit at once
+        private int splits = 1;
+        private Map<Object, List<Row>> built;
+        private RowCursor probeRows;
+        private Row probeRow;
+        private Iterator<Row> matches = Collections.emptyIterator();
+
+        HashJoin() {
+            double estimated = plans[inner].getEstimatedRows();
+            passes = (int) Math.min(MAX_PASSES, Math.max(1, Math.ceil(estimated / (maxBuildRows * FILL))));
+            builds = 0;
+        }
+
+        @Override
+        Row advance() {
+            while (true) {
+                if (matches.hasNext()) {
+                    return joined(probeRow, matches.next());
+                }
+                if (probeRows == null) {
+                    if (pass == passes) {
+                        return null;
+                    }
+                    build();
+                    probeRows = plans[probe].open(tx);
+                }
+                if (!probeRows.hasNext()) {
+                    probeRows.close();
+                    probeRows = null;
+                    built = null;
+                    if (++split == splits) {
+                        split = 0;
+                        splits = 1;
+                        pass++;
+                    }
+                    continue;
+                }
+                Row row = probeRows.next();
+                Object key = hashKey(row.getValue(joinPositions[probe]));
+                if (!current(key)) {
+                    continue;
+                }
+                List<Row> found = built.get(key);
+                if (found != null) {
+                    probeRow = row;
+                    matches = found.iterator();
+                }
+            }
+        }
+
+        // The build rows of this pass's share of the join values. If they are more than the limit
+        // the pass is split by further hash bits, which is only safe before any of its rows were
+        // returned; a split that is still too large holds one join value too many times.
+        private void build() {
+            while (true) {
+                Map<Object, List<Row>> table = new HashMap<>();
+                long held = 0;
+                try (RowCursor rows = plans[inner].open(tx)) {
+                    while (rows.hasNext()) {
+                        Row row = rows.next();
+                        Object key = hashKey(row.getValue(joinPositions[inner]));
+                        if (!current(key)) {
+                            continue;
+                        }
+                        if (++held <= maxBuildRows) {
+                            table.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+                        } else {
+                            table = null;
+                        }
+                    }
+                }
+                if (held <= maxBuildRows) {
+                    built = table;
+                    builds++;
+                    return;
+                }
+                long needed = splits * Math.max(2, (long) Math.ceil(held / (maxBuildRows * FILL)));
+                if (split > 0 || needed > MAX_PASSES) {
+                    throw new RuntimeException("The join holds more than " + maxBuildRows
+                            + " rows of " + names[inner] + " for one pass; raise dbilf.join.buildRows");
+                }
+                splits = (int) needed;
+            }
+        }
+
+        // Whether the join value is in this pass and split: passes take ranges of the high bits of
+        // the mixed hash, splits ranges of the bits below those, and the hash table the low ones.
+        private boolean current(Object key) {
+            if (passes == 1 && splits == 1) {
+                return true;
+            }
+            long range = ((key.hashCode() * 0x9E3779B9) & 0xFFFFFFFFL) * passes;
+            return (int) (range >>> 32) == pass
+                    && (splits == 1 || (int) (((range & 0xFFFFFFFFL) * splits) >>> 32) == split);
+        }
+
+        @Override
+        void release() {
+            if (probeRows != null) {
+                probeRows.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.amirilf.dbilf.query;
+
+// Single pass tokenizer. The current token is a kind plus a span of the input, so scanning
+// allocates nothing and keywords are matched in place; text is only copied for the names and
+// literals the parser keeps.
+final class Lexer {
+
+    enum Kind {
+        WORD, // names and keywords
+        NUMBER,
+        STRING, // quoted literal, '' stands for a quote
+        SYMBOL,
+        END
+    }
+
+    private final String sql;
+    private final int length;
+    private Kind kind;
+    private int start;
+    private int end;
+    private boolean escaped; // the current STRING contains ''
+
+    Lexer(String sql) {
+        this.sql = sql;
+        this.length = sql.length();
+        next();
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    void next() {
+        int i = end;
+        while (i < length && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        start = i;
+        if (i == length) {
+            kind = Kind.END;
+            end = i;
+            return;
+        }
+        char c = sql.charAt(i++);
+        if (Character.isLetter(c) || c == '_') {
+            while (i < length && isNamePart(sql.charAt(i))) {
+                i++;
+            }
+            kind = Kind.WORD;
+        } else if (c >= '0' && c <= '9') {
+            while (i < length && (isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                i++;
+            }
+            kind = Kind.NUMBER;
+        } else if (c == '\'') {
+            escaped = false;
+            while (true) {
+                if (i == length) {
+                    throw new RuntimeException("Unterminated string literal");
+                }
+                if (sql.charAt(i++) == '\'') {
+                    if (i < length && sql.charAt(i) == '\'') {
+                        escaped = true;
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+            kind = Kind.STRING;
+        } else {
+            if (i < length) {
+                char d = sql.charAt(i);
+                if ((c == '<' && (d == '=' || d == '>')) || ((c == '>' || c == '!') && d == '=')) {
+                    i++;
+                }
+            }
+            kind = Kind.SYMBOL;
+        }
+        end = i;
+    }
+
+    boolean isWord(String keyword) {
+        return kind == Kind.WORD && end - start == keyword.length()
+                && sql.regionMatches(true, start, keyword, 0, keyword.length());
+    }
+
+    boolean isSymbol(String symbol) {
+        return kind == Kind.SYMBOL && end - start == symbol.length() && sql.startsWith(symbol, start);
+    }
+
+    String text() {
+        return sql.substring(start, end);
+    }
+
+    String stringValue() {
+        String value = sql.substring(start + 1, end - 1);
+        return escaped ? value.replace("''", "'") : value;
+    }
+
+    // The input from the current token on, unparsed.
+    String rest() {
+        return sql.substring(start).trim();
+    }
+
+    String describe() {
+        return kind == Kind.END ? "end of statement" : "'" + text() + "'";
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNamePart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.amirilf.dbilf.query;
+
+// Placeholder for a value in a statement template, numbered from 0 in textual order.
+public final class Parameter {
+
+    private final int index;
+
+    Parameter(int index) {
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "?";
+    }
+}
@@ -0,0 +1,357 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.storage.LongIntMap;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowCursor;
+import com.github.amirilf.dbilf.storage.RowView;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import com.github.amirilf.dbilf.transaction.Transaction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Access path chosen by the Planner for one SELECT, with the estimates it was chosen on. Running
+// it records the actual row counts, which EXPLAIN reports next to the estimates. Scans run in the
+// partitions the session's parallelism gives the table; a full scan tests the filter inside them.
+final class Plan {
+
+    enum Access {
+        FULL_SCAN, // every row of the table
+        PRIMARY_KEY, // lookup by id
+        INDEX, // one index: equality, IN, or a range or prefix on an ordered one
+        INTERSECTION, // primary keys found in the postings of every term
+        COLUMN_SCAN // one column tested inside the store, matches fetched
+    }
+
+    private final Table table;
+    private final Access access;
+    private final List<Expression> terms; // answered by the access path
+    private final double[] termRows;
+    private final Expression filter; // the rest, null if the access path answers everything
+    private final double accessRows;
+    private final double rows;
+    private final double cost;
+    private final int partitions;
+    private long actualAccessRows = -1;
+    private long actualRows = -1;
+
+    Plan(Table table, Access access, List<Expression> terms, double[] termRows, Expression filter,
+            double accessRows, double rows, double cost, int partitions) {
+        this.table = table;
+        this.access = access;
+        this.terms = terms;
+        this.termRows = termRows;
+        this.filter = filter;
+        this.accessRows = accessRows;
+        this.rows = rows;
+        this.cost = cost;
+        this.partitions = partitions;
+    }
+
+    double getEstimatedRows() {
+        return rows;
+    }
+
+    double getCost() {
+        return cost;
+    }
+
+    List<Row> execute(Transaction tx) {
+        Schema schema = table.getSchema();
+        List<Row> result;
+        switch (access) {
+            case FULL_SCAN:
+                actualAccessRows = table.size();
+                result = table.scan(tx, filter == null ? null : Planner.predicate(filter, schema), partitions);
+                actualRows = result.size();
+                return result;
+            case INTERSECTION:
+                long[] keys = intersect();
+                result = table.readKeys(tx, keys, keys.length, Planner.predicate(new Expression.And(terms), schema));
+                break;
+            default:
+                result = read(tx, terms.get(0));
+        }
+        actualAccessRows = result.size();
+        if (filter != null) {
+            Predicate<Row> test = Planner.predicate(filter, schema);
+            List<Row> filtered = new ArrayList<>();
+            for (Row row : result) {
+                if (test.test(row)) {
+                    filtered.add(row);
+                }
+            }
+            result = filtered;
+        }
+        actualRows = result.size();
+        return result;
+    }
+
+    // The rows for a caller that streams them. Scans read the store a batch at a time with the whole
+    // WHERE tested inside and count the rows they hand out; the other paths read their matches up
+    // front, as execute() does.
+    RowCursor open(Transaction tx) {
+        if (access != Access.FULL_SCAN && access != Access.COLUMN_SCAN) {
+            return RowCursor.of(execute(tx).iterator());
+        }
+        RowCursor rows = table.cursor(tx, scanTest(), partitions);
+        actualAccessRows = access == Access.FULL_SCAN ? table.size() : -1;
+        actualRows = 0;
+        return new RowCursor() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                Row row = rows.next();
+                actualRows++;
+                return row;
+            }
+
+            @Override
+            public void close() {
+                rows.close();
+            }
+        };
+    }
+
+    // The rows fed to visitors, one per partition of a scan, for a caller that folds them instead
+    // of keeping them. The other paths feed their matches to a single visitor.
+    <V extends Consumer<RowView>> List<V> visit(Transaction tx, Supplier<V> visitors) {
+        if (access == Access.FULL_SCAN || access == Access.COLUMN_SCAN) {
+            return table.visit(tx, scanTest(), partitions, visitors);
+        }
+        V visitor = visitors.get();
+        execute(tx).forEach(visitor);
+        return List.of(visitor);
+    }
+
+    // The whole WHERE, tested inside the store.
+    private Predicate<Row> scanTest() {
+        List<Expression> where = new ArrayList<>(terms);
+        if (filter != null) {
+            where.add(filter);
+        }
+        return where.isEmpty() ? null
+                : Planner.predicate(where.size() == 1 ? where.get(0) : new Expression.And(where), table.getSchema());
+    }
+
+    // One line per step, in the order they run.
+    String explain() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Table ").append(table.getName()).append(" (").append(table.size()).append(" rows)\n");
+        sb.append(describe());
+        sb.append(" (estimated ").append(round(accessRows)).append(" rows, actual ").append(actualAccessRows)
+                .append(", cost ").append(round(cost)).append(")\n");
+        if (access == Access.INTERSECTION) {
+            for (int i = 0; i < terms.size(); i++) {
+                sb.append("  ").append(indexName(terms.get(i))).append(": ").append(terms.get(i))
+                        .append(" (estimated ").append(round(termRows[i])).append(" rows)\n");
+            }
+        }
+        if (filter != null) {
+            sb.append("Filter: ").append(filter).append(" (estimated ").append(round(rows))
+                    .append(" rows, actual ").append(actualRows).append(")\n");
+        }
+        return sb.toString();
+    }
+
+    // The access path, as EXPLAIN names it.
+    String describe() {
+        switch (access) {
+            case FULL_SCAN:
+                return "Full scan" + partitions();
+            case PRIMARY_KEY:
+                return "Primary key lookup: " + terms.get(0);
+            case INDEX:
+                return indexName(terms.get(0)) + ": " + terms.get(0);
+            case INTERSECTION:
+                return "Index intersection";
+            default:
+                return "Column scan" + partitions() + ": " + terms.get(0);
+        }
+    }
+
+    // Rows the access path looked at in its last run: every row for a scan, else those it fetched.
+    long examined() {
+        if (access == Access.FULL_SCAN || access == Access.COLUMN_SCAN) {
+            return table.size();
+        }
+        return Math.max(actualAccessRows, 0);
+    }
+
+    private String partitions() {
+        return partitions > 1 ? " in " + partitions + " partitions" : "";
+    }
+
+    private String indexName(Expression term) {
+        String column = column(term);
+        return "Index on " + column + " (" + table.getIndexes().get(column).getType() + ")";
+    }
+
+    private static String column(Expression term) {
+        if (term instanceof Expression.In) {
+            return ((Expression.In) term).getColumn();
+        }
+        if (term instanceof Expression.Range) {
+            return ((Expression.Range) term).getColumn();
+        }
+        return ((Expression.Comparison) term).getColumn();
+    }
+
+    private static long round(double value) {
+        return Math.round(value);
+    }
+
+    // Table reads recheck the term against the row they return, and against the snapshot.
+    private List<Row> read(Transaction tx, Expression term) {
+        Schema schema = table.getSchema();
+        if (term instanceof Expression.In) {
+            Expression.In in = (Expression.In) term;
+            int pk = schema.positionOf(schema.getPKField().getName());
+            Map<Object, Row> found = new LinkedHashMap<>();
+            for (Object value : in.getValues()) {
+                for (Row row : table.read(tx, QueryEngine.parseValue(value, schema, in.getColumn()), in.getColumn(),
+                        partitions)) {
+                    found.putIfAbsent(row.getValue(pk), row);
+                }
+            }
+            return new ArrayList<>(found.values());
+        }
+        if (term instanceof Expression.Range) {
+            Expression.Range range = (Expression.Range) term;
+            return table.readRange(tx, range.getColumn(),
+                    QueryEngine.parseValue(range.getLower().getValue(), schema, range.getColumn()),
+                    range.getLower().getOperator() == Expression.Operator.GE,
+                    QueryEngine.parseValue(range.getUpper().getValue(), schema, range.getColumn()),
+                    range.getUpper().getOperator() == Expression.Operator.LE, partitions);
+        }
+        Expression.Comparison comparison = (Expression.Comparison) term;
+        String column = comparison.getColumn();
+        Object value = QueryEngine.parseValue(comparison.getValue(), schema, column);
+        switch (comparison.getOperator()) {
+            case EQ:
+                return table.read(tx, value, column, partitions);
+            case LIKE:
+                return table.readPrefix(tx, column, Planner.likePrefix(Keys.normalize(value).toString()), partitions);
+            case LT:
+            case LE:
+                return table.readRange(tx, column, null, false, value, comparison.getOperator() == Expression.Operator.LE,
+                        partitions);
+            default:
+                return table.readRange(tx, column, value, comparison.getOperator() == Expression.Operator.GE, null, false,
+                        partitions);
+        }
+    }
+
+    // Keys of the first (most selective) term that every other term's postings also hold. Each
+    // round marks the keys it meets, so duplicates in a posting are harmless.
+    private long[] intersect() {
+        long[] keys = new long[16];
+        int count = 0;
+        LongIntMap slots = new LongIntMap(16);
+        PrimitiveIterator.OfLong first = postings(terms.get(0));
+        while (first.hasNext()) {
+            long key = first.nextLong();
+            if (slots.get(key) < 0) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                slots.put(key, count);
+                keys[count++] = key;
+            }
+        }
+        int[] rounds = new int[count];
+        for (int round = 1; round < terms.size(); round++) {
+            PrimitiveIterator.OfLong next = postings(terms.get(round));
+            while (next.hasNext()) {
+                int slot = slots.get(next.nextLong());
+                if (slot >= 0 && rounds[slot] == round - 1) {
+                    rounds[slot] = round;
+                }
+            }
+        }
+        int matched = 0;
+        for (int i = 0; i < count; i++) {
+            if (rounds[i] == terms.size() - 1) {
+                keys[matched++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, matched);
+    }
+
+    // Postings of the term's index, with those of the values rows held before changes the
+    // transaction's snapshot may still see.
+    private PrimitiveIterator.OfLong postings(Expression term) {
+        Schema schema = table.getSchema();
+        String column = column(term);
+        if (term instanceof Expression.In) {
+            List<PrimitiveIterator.OfLong> parts = new ArrayList<>();
+            for (Object value : ((Expression.In) term).getValues()) {
+                Object key = QueryEngine.parseValue(value, schema, column);
+                parts.add(table.postings(column, index -> index.search(key)));
+            }
+            return concat(parts);
+        }
+        if (term instanceof Expression.Range) {
+            Expression.Range range = (Expression.Range) term;
+            Object from = QueryEngine.parseValue(range.getLower().getValue(), schema, column);
+            Object to = QueryEngine.parseValue(range.getUpper().getValue(), schema, column);
+            boolean fromInclusive = range.getLower().getOperator() == Expression.Operator.GE;
+            boolean toInclusive = range.getUpper().getOperator() == Expression.Operator.LE;
+            return table.postings(column, index -> index.range(from, fromInclusive, to, toInclusive));
+        }
+        Expression.Comparison comparison = (Expression.Comparison) term;
+        Object value = QueryEngine.parseValue(comparison.getValue(), schema, column);
+        boolean inclusive = comparison.getOperator() == Expression.Operator.LE
+                || comparison.getOperator() == Expression.Operator.GE;
+        switch (comparison.getOperator()) {
+            case EQ:
+                return table.postings(column, index -> index.search(value));
+            case LIKE:
+                String prefix = Planner.likePrefix(Keys.normalize(value).toString());
+                return table.postings(column, index -> index.prefix(prefix));
+            case LT:
+            case LE:
+                return table.postings(column, index -> index.range(null, false, value, inclusive));
+            default:
+                return table.postings(column, index -> index.range(value, inclusive, null, false));
+        }
+    }
+
+    private static PrimitiveIterator.OfLong concat(List<PrimitiveIterator.OfLong> parts) {
+        return new PrimitiveIterator.OfLong() {
+            private int part;
+
+            @Override
+            public boolean hasNext() {
+                while (part < parts.size()) {
+                    if (parts.get(part).hasNext()) {
+                        return true;
+                    }
+                    part++;
+                }
+                return false;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return parts.get(part).nextLong();
+            }
+        };
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.amirilf.dbilf.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// LRU cache of parsed INSERT, SELECT, UPDATE and DELETE templates. The key is the statement with
+// its whitespace collapsed and every literal replaced by a placeholder, so statements that only
+// differ in their values share one template and skip SQLParser entirely.
+public final class PlanCache {
+
+    private static int capacity = 1024;
+    private static long hits;
+    private static long misses;
+
+    private static final Map<String, Command> templates = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Command> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private PlanCache() {
+    }
+
+    public static synchronized void setCapacity(int entries) {
+        capacity = entries;
+        while (templates.size() > capacity) {
+            templates.remove(templates.keySet().iterator().next());
+        }
+    }
+
+    public static synchronized long getHits() {
+        return hits;
+    }
+
+    public static synchronized long getMisses() {
+        return misses;
+    }
+
+    public static PreparedStatement prepare(String sql) {
+        List<Object> slots = new ArrayList<>();
+        String key = cacheable(sql) ? normalize(sql, slots) : null;
+        int parameterCount = 0;
+        for (Object slot : slots) {
+            if (slot instanceof Parameter) {
+                parameterCount++;
+            }
+        }
+        if (key != null) {
+            Command template = lookup(key);
+            if (template.getParameterCount() == slots.size()) {
+                return new PreparedStatement(sql, template, slots.toArray(), parameterCount);
+            }
+            // a literal the parser does not read as a value, e.g. part of a name: parse as written
+        }
+        Command command = SQLParser.parse(sql);
+        Object[] parameters = new Object[command.getParameterCount()];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = new Parameter(i);
+        }
+        return new PreparedStatement(sql, command, parameters, parameters.length);
+    }
+
+    private static Command lookup(String key) {
+        synchronized (PlanCache.class) {
+            Command template = templates.get(key);
+            if (template != null) {
+                hits++;
+                return template;
+            }
+            misses++;
+        }
+        Command template = SQLParser.parse(key);
+        if (capacity > 0) {
+            synchronized (PlanCache.class) {
+                templates.put(key, template);
+            }
+        }
+        return template;
+    }
+
+    private static boolean cacheable(String sql) {
+        String start = sql.stripLeading();
+        return start.regionMatches(true, 0, "SELECT", 0, 6) || start.regionMatches(true, 0, "INSERT", 0, 6)
+                || start.regionMatches(true, 0, "UPDATE", 0, 6) || start.regionMatches(true, 0, "DELETE", 0, 6);
+    }
+
+    // Single pass over the statement. Quoted strings and numbers become '?' in the key and their
+    // text (with '' unescaped) is added to slots; a bare '?' adds a Parameter. Returns null for an unterminated quote,
+    // which is left to the parser to report.
+    static String normalize(String sql, List<Object> slots) {
+        StringBuilder key = new StringBuilder(sql.length());
+        int parameters = 0;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (key.length() > 0 && key.charAt(key.length() - 1) != ' ') {
+                    key.append(' ');
+                }
+                i++;
+            } else if (c == '\'') {
+                int end = i + 1;
+                boolean escaped = false;
+                while (true) {
+                    end = sql.indexOf('\'', end);
+                    if (end < 0) {
+                        return null;
+                    }
+                    if (end + 1 < length && sql.charAt(end + 1) == '\'') {
+                        escaped = true; // '' inside the literal
+                        end += 2;
+                    } else {
+                        break;
+                    }
+                }
+                String text = sql.substring(i + 1, end);
+                slots.add(escaped ? text.replace("''", "'") : text);
+                key.append('?');
+                i = end + 1;
+            } else if (c == '?') {
+                slots.add(new Parameter(parameters++));
+                key.append('?');
+                i++;
+            } else if (startsNumber(sql, i)) {
+                int end = i + 1;
+                while (end < length && (Character.isDigit(sql.charAt(end)) || sql.charAt(end) == '.')) {
+                    end++;
+                }
+                if (end < length && isNameChar(sql.charAt(end))) {
+                    key.append(sql, i, end); // not a number after all, e.g. 2x
+                } else {
+                    slots.add(sql.substring(i, end));
+                    key.append('?');
+                }
+                i = end;
+            } else {
+                key.append(c);
+                i++;
+            }
+        }
+        int end = key.length();
+        return end > 0 && key.charAt(end - 1) == ' ' ? key.substring(0, end - 1) : key.toString();
+    }
+
+    private static boolean startsNumber(String sql, int i) {
+        if (i > 0 && isNameChar(sql.charAt(i - 1))) {
+            return false;
+        }
+        char c = sql.charAt(i);
+        if (c == '-') {
+            return i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1));
+        }
+        return Character.isDigit(c);
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,435 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.index.Index;
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.ScanPool;
+import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.Table;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.function.Predicate;
+
+// Cost-based choice of how a SELECT reads its rows. Each top level AND term a read can answer is
+// estimated from the statistics of the table and its indexes, then the cheapest of a full scan,
+// one primary key, index or column scan read, or an intersection of index postings wins. Terms
+// the read does not answer are applied to its rows as a filter. Scans are costed per worker, so a
+// session running them in parallel on a large table prefers them sooner.
+final class Planner {
+
+    // Relative cost of the work per row or key.
+    static final double SCAN_ROW = 1.0; // materialize and test a row of a full scan
+    static final double COLUMN_TEST = 0.25; // test one column value inside the store
+    static final double ROW_FETCH = 1.0; // fetch a row by primary key
+    static final double INDEX_KEY = 0.1; // read one primary key of a posting
+    static final double KEY_SET = 0.2; // add or probe a primary key during an intersection
+    static final double INDEX_PROBE = 0.5; // look up one key in an index, for a join
+    static final double HASH_ROW = 0.2; // add or probe a row in the hash table of a join
+
+    private static final int PROBE_LIMIT = 1024; // keys an estimate may count in an ordered index
+
+    // Selectivity of terms no statistics cover.
+    private static final double EQUALS_SELECTIVITY = 0.1;
+    private static final double RANGE_SELECTIVITY = 1.0 / 3;
+    private static final double LIKE_SELECTIVITY = 0.25;
+
+    private Planner() {
+    }
+
+    static Plan plan(Table table, Expression where, int parallelism) {
+        double rows = table.size();
+        int partitions = table.scanPartitions(parallelism);
+        double workers = Math.min(partitions, ScanPool.getThreads());
+        if (where == null) {
+            return new Plan(table, Plan.Access.FULL_SCAN, Collections.emptyList(), new double[0], null,
+                    rows, rows, rows * SCAN_ROW / workers, partitions);
+        }
+        Schema schema = table.getSchema();
+        predicate(where, schema); // reject unknown columns and bad literals before any read
+        List<Expression> terms = where instanceof Expression.And
+                ? pairRanges(((Expression.And) where).getTerms()) : Collections.singletonList(where);
+        double estimate = estimate(table, terms.size() == 1 ? terms.get(0) : new Expression.And(terms));
+        Plan best = new Plan(table, Plan.Access.FULL_SCAN, Collections.emptyList(), new double[0], where,
+                rows, estimate, rows * SCAN_ROW / workers, partitions);
+
+        List<Expression> indexed = new ArrayList<>();
+        Map<Expression, Double> termEstimates = new IdentityHashMap<>();
+        for (Expression term : terms) {
+            Plan.Access access = accessOf(table, term);
+            if (access == null) {
+                continue;
+            }
+            double termRows = estimate(table, term);
+            termEstimates.put(term, termRows);
+            double cost;
+            if (access == Plan.Access.PRIMARY_KEY) {
+                cost = termRows * ROW_FETCH;
+            } else if (access == Plan.Access.INDEX) {
+                cost = termRows * (INDEX_KEY + ROW_FETCH);
+                indexed.add(term);
+            } else {
+                cost = (rows * COLUMN_TEST + termRows * ROW_FETCH) / workers; // matches are fetched by the scan tasks
+            }
+            if (cost < best.getCost()) {
+                best = new Plan(table, access, Collections.singletonList(term), new double[] { termRows },
+                        residual(terms, Collections.singletonList(term)), termRows, estimate, cost, partitions);
+            }
+        }
+
+        // Intersect postings most selective first, for as long as each one saves more row fetches
+        // than reading its keys costs.
+        if (indexed.size() > 1) {
+            indexed.sort(Comparator.comparingDouble(termEstimates::get));
+            List<Expression> chosen = new ArrayList<>();
+            List<Double> estimates = new ArrayList<>();
+            double keyCost = 0;
+            double selectivity = 1;
+            double bestCost = Double.MAX_VALUE;
+            for (Expression term : indexed) {
+                double termRows = termEstimates.get(term);
+                double nextKeyCost = keyCost + termRows * (INDEX_KEY + KEY_SET);
+                double nextSelectivity = selectivity * (rows == 0 ? 0 : termRows / rows);
+                double cost = nextKeyCost + rows * nextSelectivity * ROW_FETCH;
+                if (!chosen.isEmpty() && cost >= bestCost) {
+                    break;
+                }
+                chosen.add(term);
+                estimates.add(termRows);
+                keyCost = nextKeyCost;
+                selectivity = nextSelectivity;
+                bestCost = cost;
+            }
+            if (chosen.size() > 1 && bestCost < best.getCost()) {
+                double[] termRows = estimates.stream().mapToDouble(Double::doubleValue).toArray();
+                best = new Plan(table, Plan.Access.INTERSECTION, chosen, termRows, residual(terms, chosen),
+                        rows * selectivity, estimate, bestCost, partitions);
+            }
+        }
+        return best;
+    }
+
+    // How a single term can be read, null if only a full scan answers it.
+    private static Plan.Access accessOf(Table table, Expression term) {
+        String pk = table.getSchema().getPKField().getName();
+        if (term instanceof Expression.In) {
+            String column = ((Expression.In) term).getColumn();
+            if (column.equals(pk)) {
+                return Plan.Access.PRIMARY_KEY;
+            }
+            return table.getIndexes().containsKey(column) ? Plan.Access.INDEX : null;
+        }
+        if (term instanceof Expression.Range) {
+            Index index = table.getIndexes().get(((Expression.Range) term).getColumn());
+            return index != null && index.isOrdered() ? Plan.Access.INDEX : Plan.Access.COLUMN_SCAN;
+        }
+        if (!(term instanceof Expression.Comparison)) {
+            return null;
+        }
+        Expression.Comparison comparison = (Expression.Comparison) term;
+        String column = comparison.getColumn();
+        Index index = table.getIndexes().get(column);
+        switch (comparison.getOperator()) {
+            case EQ:
+                if (column.equals(pk)) {
+                    return Plan.Access.PRIMARY_KEY;
+                }
+                return index != null ? Plan.Access.INDEX : Plan.Access.COLUMN_SCAN;
+            case NE:
+                return null;
+            case LIKE:
+                if (likePrefix(Keys.normalize(comparison.getValue()).toString()) == null) {
+                    return null;
+                }
+                return index != null && index.isOrdered() ? Plan.Access.INDEX : Plan.Access.COLUMN_SCAN;
+            default:
+                return index != null && index.isOrdered() ? Plan.Access.INDEX : Plan.Access.COLUMN_SCAN;
+        }
+    }
+
+    // The terms left to filter on once the read answered some of them, null if none are.
+    private static Expression residual(List<Expression> terms, List<Expression> answered) {
+        List<Expression> left = new ArrayList<>();
+        for (Expression term : terms) {
+            if (!answered.contains(term)) {
+                left.add(term);
+            }
+        }
+        if (left.isEmpty()) {
+            return null;
+        }
+        return left.size() == 1 ? left.get(0) : new Expression.And(left);
+    }
+
+    // Estimated number of rows matching an expression. Equality on an index is counted exactly from
+    // its postings, ranges and prefixes come from probing it or from its histogram, and terms on
+    // columns without an index fall back to fixed selectivities. Terms of a junction are taken as
+    // independent.
+    static double estimate(Table table, Expression expression) {
+        double rows = table.size();
+        if (expression instanceof Expression.Junction) {
+            boolean and = expression instanceof Expression.And;
+            double selectivity = 1;
+            List<Expression> terms = ((Expression.Junction) expression).getTerms();
+            for (Expression term : and ? pairRanges(terms) : terms) {
+                double termSelectivity = rows == 0 ? 0 : Math.min(1, estimate(table, term) / rows);
+                selectivity *= and ? termSelectivity : 1 - termSelectivity;
+            }
+            return rows * (and ? selectivity : 1 - selectivity);
+        }
+        Schema schema = table.getSchema();
+        boolean primaryKey;
+        Index index;
+        if (expression instanceof Expression.In) {
+            Expression.In in = (Expression.In) expression;
+            primaryKey = in.getColumn().equals(schema.getPKField().getName());
+            index = table.getIndexes().get(in.getColumn());
+            Set<Object> keys = new HashSet<>();
+            for (Object value : in.getValues()) {
+                keys.add(Keys.normalize(QueryEngine.parseValue(value, schema, in.getColumn())));
+            }
+            if (primaryKey) {
+                return Math.min(rows, keys.size());
+            }
+            if (index == null) {
+                return Math.min(rows, rows * EQUALS_SELECTIVITY * keys.size());
+            }
+            double matching = 0;
+            for (Object key : keys) {
+                matching += index.count(key);
+            }
+            return matching;
+        }
+        if (expression instanceof Expression.Range) {
+            Expression.Range range = (Expression.Range) expression;
+            return rangeRows(table, range.getColumn(), range.getLower(), range.getUpper());
+        }
+        Expression.Comparison comparison = (Expression.Comparison) expression;
+        String column = comparison.getColumn();
+        Object value = QueryEngine.parseValue(comparison.getValue(), schema, column);
+        primaryKey = column.equals(schema.getPKField().getName());
+        index = table.getIndexes().get(column);
+        switch (comparison.getOperator()) {
+            case EQ:
+                if (primaryKey) {
+                    return Math.min(rows, 1);
+                }
+                return index != null ? index.count(value) : rows * EQUALS_SELECTIVITY;
+            case NE:
+                if (primaryKey) {
+                    return Math.max(0, rows - 1);
+                }
+                return index != null ? Math.max(0, rows - index.count(value)) : rows * (1 - EQUALS_SELECTIVITY);
+            case LIKE:
+                String prefix = likePrefix(Keys.normalize(value).toString());
+                if (prefix == null || index == null) {
+                    return rows * LIKE_SELECTIVITY;
+                }
+                double estimated = index.getStatistics().estimatePrefix(prefix);
+                if (!index.isOrdered()) {
+                    return estimated;
+                }
+                long counted = probe(index.prefix(prefix));
+                return counted >= 0 ? counted : Math.max(PROBE_LIMIT, estimated);
+            case LT:
+            case LE:
+                return rangeRows(table, column, null, comparison);
+            default:
+                return rangeRows(table, column, comparison, null);
+        }
+    }
+
+    // Rows between the bounds, either may be null. Primary keys are handed out in sequence, so live
+    // ones are taken as spread evenly over [1, next key). Ordered indexes are probed first, which
+    // counts small ranges exactly; larger ones come from the histogram.
+    private static double rangeRows(Table table, String column, Expression.Comparison lower,
+            Expression.Comparison upper) {
+        Schema schema = table.getSchema();
+        double rows = table.size();
+        Object from = lower == null ? null : QueryEngine.parseValue(lower.getValue(), schema, column);
+        Object to = upper == null ? null : QueryEngine.parseValue(upper.getValue(), schema, column);
+        boolean fromInclusive = lower != null && lower.getOperator() == Expression.Operator.GE;
+        boolean toInclusive = upper != null && upper.getOperator() == Expression.Operator.LE;
+        if (column.equals(schema.getPKField().getName())) {
+            long last = schema.getPkSequence().get() - 1;
+            if (last < 1) {
+                return 0;
+            }
+            long low = from == null ? 1 : Math.max(1, (Long) from + (fromInclusive ? 0 : 1));
+            long high = to == null ? last : Math.min(last, (Long) to - (toInclusive ? 0 : 1));
+            return high < low ? 0 : rows * (high - low + 1) / last;
+        }
+        Index index = table.getIndexes().get(column);
+        if (index == null) {
+            return rows * (lower != null && upper != null ? RANGE_SELECTIVITY * RANGE_SELECTIVITY : RANGE_SELECTIVITY);
+        }
+        if (index.isOrdered()) {
+            long counted = probe(index.range(from, fromInclusive, to, toInclusive));
+            if (counted >= 0) {
+                return counted;
+            }
+        }
+        double estimated = index.getStatistics().estimateRange(from == null ? null : Keys.normalize(from),
+                fromInclusive, to == null ? null : Keys.normalize(to), toInclusive);
+        return index.isOrdered() ? Math.max(PROBE_LIMIT, estimated) : estimated;
+    }
+
+    // Keys behind a lookup if there are at most PROBE_LIMIT of them, -1 if there are more.
+    private static long probe(PrimitiveIterator.OfLong keys) {
+        long count = 0;
+        while (keys.hasNext()) {
+            if (++count > PROBE_LIMIT) {
+                return -1;
+            }
+            keys.nextLong();
+        }
+        return count;
+    }
+
+    // Pairs a lower and an upper bound on the same column into one Range term.
+    private static List<Expression> pairRanges(List<Expression> terms) {
+        List<Expression> paired = new ArrayList<>(terms);
+        for (int i = 0; i < paired.size(); i++) {
+            Expression.Comparison lower = bound(paired.get(i), true);
+            if (lower == null) {
+                continue;
+            }
+            for (int j = 0; j < paired.size(); j++) {
+                Expression.Comparison upper = bound(paired.get(j), false);
+                if (upper != null && upper.getColumn().equals(lower.getColumn())) {
+                    paired.set(i, new Expression.Range(lower, upper));
+                    paired.remove(j);
+                    if (j < i) {
+                        i--;
+                    }
+                    break;
+                }
+            }
+        }
+        return paired;
+    }
+
+    private static Expression.Comparison bound(Expression term, boolean lower) {
+        if (!(term instanceof Expression.Comparison)) {
+            return null;
+        }
+        Expression.Operator operator = ((Expression.Comparison) term).getOperator();
+        boolean matches = lower ? operator == Expression.Operator.GT || operator == Expression.Operator.GE
+                : operator == Expression.Operator.LT || operator == Expression.Operator.LE;
+        return matches ? (Expression.Comparison) term : null;
+    }
+
+    // The expression as a test on rows, with every literal converted to its column type once.
+    // Rows holding null never match.
+    static Predicate<Row> predicate(Expression expression, Schema schema) {
+        if (expression instanceof Expression.Comparison) {
+            Expression.Comparison comparison = (Expression.Comparison) expression;
+            int position = position(schema, comparison.getColumn());
+            Object value = QueryEngine.parseValue(comparison.getValue(), schema, comparison.getColumn());
+            Expression.Operator operator = comparison.getOperator();
+            if (operator == Expression.Operator.LIKE) {
+                if (!(value instanceof char[])) {
+                    throw new RuntimeException("LIKE requires a character column: " + comparison.getColumn());
+                }
+                String pattern = new String((char[]) value);
+                return row -> {
+                    Object v = row.getValue(position);
+                    return v != null && like(Keys.normalize(v).toString(), pattern);
+                };
+            }
+            return row -> {
+                Object v = row.getValue(position);
+                return v != null && operator.matches(Keys.compare(v, value));
+            };
+        }
+        if (expression instanceof Expression.Range) {
+            Expression.Range range = (Expression.Range) expression;
+            Predicate<Row> lower = predicate(range.getLower(), schema);
+            Predicate<Row> upper = predicate(range.getUpper(), schema);
+            return row -> lower.test(row) && upper.test(row);
+        }
+        if (expression instanceof Expression.In) {
+            Expression.In in = (Expression.In) expression;
+            int position = position(schema, in.getColumn());
+            Set<Object> keys = new HashSet<>();
+            for (Object value : in.getValues()) {
+                keys.add(Keys.normalize(QueryEngine.parseValue(value, schema, in.getColumn())));
+            }
+            return row -> {
+                Object v = row.getValue(position);
+                return v != null && keys.contains(Keys.normalize(v));
+            };
+        }
+        List<Expression> terms = ((Expression.Junction) expression).getTerms();
+        List<Predicate<Row>> tests = new ArrayList<>(terms.size());
+        for (Expression term : terms) {
+            tests.add(predicate(term, schema));
+        }
+        if (expression instanceof Expression.And) {
+            return row -> {
+                for (Predicate<Row> test : tests) {
+                    if (!test.test(row)) {
+                        return false;
+                    }
+                }
+                return true;
+            };
+        }
+        return row -> {
+            for (Predicate<Row> test : tests) {
+                if (test.test(row)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static int position(Schema schema, String column) {
+        if (!schema.getFields().containsKey(column)) {
+            throw new RuntimeException("Column not found: " + column);
+        }
+        return schema.positionOf(column);
+    }
+
+    // The fixed prefix of a pattern like 'abc%', null if it has any other wildcard.
+    static String likePrefix(String pattern) {
+        int end = pattern.length() - 1;
+        if (end < 0 || pattern.charAt(end) != '%' || pattern.indexOf('%') != end || pattern.indexOf('_') >= 0) {
+            return null;
+        }
+        return pattern.substring(0, end);
+    }
+
+    // % matches any run of characters and _ any single one. Greedy with backtracking to the last %.
+    private static boolean like(String text, String pattern) {
+        int t = 0;
+        int p = 0;
+        int star = -1;
+        int mark = 0;
+        while (t < text.length()) {
+            if (p < pattern.length() && (pattern.charAt(p) == '_' || pattern.charAt(p) == text.charAt(t))) {
+                t++;
+                p++;
+            } else if (p < pattern.length() && pattern.charAt(p) == '%') {
+                star = p++;
+                mark = t;
+            } else if (star >= 0) {
+                p = star + 1;
+                t = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == '%') {
+            p++;
+        }
+        return p == pattern.length();
+    }
+}
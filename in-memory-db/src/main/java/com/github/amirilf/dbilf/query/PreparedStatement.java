@@ -0,0 +1,47 @@
+package com.github.amirilf.dbilf.query;
+
+// A parsed statement template plus what goes into each of its placeholders: the literal that was
+// lifted out of the statement text, or a Parameter naming one of the values passed at execution.
+public final class PreparedStatement {
+
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private final String sql; // as it was prepared, for the slow query log
+    private final Command template;
+    private final Object[] slots;
+    private final int parameterCount;
+
+    PreparedStatement(String sql, Command template, Object[] slots, int parameterCount) {
+        this.sql = sql;
+        this.template = template;
+        this.slots = slots;
+        this.parameterCount = parameterCount;
+    }
+
+    public int getParameterCount() {
+        return parameterCount;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    Command bind() {
+        return bind(NO_VALUES);
+    }
+
+    Command bind(Object[] values) {
+        if (values.length != parameterCount) {
+            throw new RuntimeException("Expected " + parameterCount + " parameter values, got " + values.length);
+        }
+        if (slots.length == 0) {
+            return template;
+        }
+        Object[] bound = new Object[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            Object slot = slots[i];
+            bound[i] = slot instanceof Parameter ? values[((Parameter) slot).getIndex()] : slot;
+        }
+        return template.bind(bound);
+    }
+}
@@ -1,43 +1,195 @@
 package com.github.amirilf.dbilf.query;
 
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.metrics.StatementMetrics;
 import com.github.amirilf.dbilf.storage.Database;
 import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowCursor;
 import com.github.amirilf.dbilf.storage.Schema;
+import com.github.amirilf.dbilf.storage.StorageMode;
 import com.github.amirilf.dbilf.storage.Table;
-import com.github.amirilf.dbilf.transaction.TransactionManager;
+import com.github.amirilf.dbilf.transaction.ConflictException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
-import java.util.StringJoiner;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 public class QueryEngine {
 
-    public static String execute(String sql) {
+    private static final StatementMetrics[] COMMAND_METRICS = Arrays.stream(CommandType.values())
+            .map(type -> Metrics.command(type.name())).toArray(StatementMetrics[]::new);
+    // Kinds that may be too quick for the clock reads of timing each of them
+    private static final Set<CommandType> SAMPLED = EnumSet.of(CommandType.INSERT, CommandType.SELECT,
+            CommandType.UPDATE, CommandType.DELETE, CommandType.EXECUTE, CommandType.FETCH);
+
+    private static final int MAX_PARALLELISM = 256;
+    private static final int STATEMENT_ATTEMPTS = 3; // of an autocommit UPDATE or DELETE that lost a race
+    private static volatile int defaultParallelism = 1;
+    private static volatile SlowQueryLog slowQueryLog; // null while off
+
+    public static String execute(Session session, String sql) {
         long startTime = System.nanoTime();
-        String result;
-        try {
-            Command cmd = SQLParser.parse(sql);
-            result = executeCommand(cmd);
-        } catch (Exception e) {
-            result = "Error: " + e.getMessage();
-        }
+        String result = run(session, sql).toText();
         long endTime = System.nanoTime();
         long durationMs = (endTime - startTime) / 1_000_000;
         return result + "\nExecution time: " + durationMs + " ms";
     }
 
-    private static String executeCommand(Command cmd) {
+    public static Result run(Session session, String sql) {
+        return drained(open(session, sql));
+    }
+
+    public static Result run(Session session, PreparedStatement statement, Object[] values) {
+        return drained(open(session, statement, values));
+    }
+
+    // Like run, except the rows of a SELECT or FETCH are left in their cursor, to be streamed by the
+    // caller. A result that is not read to the end has to be closed.
+    public static Result open(Session session, String sql) {
+        StatementProfile profile = profile(session, sql, null);
+        Command cmd;
+        try {
+            PreparedStatement statement = PlanCache.prepare(sql);
+            if (statement.getParameterCount() > 0) {
+                throw new RuntimeException("Parameters (?) are only allowed in prepared statements");
+            }
+            cmd = statement.bind();
+        } catch (Exception e) {
+            return Result.error(ErrorCode.SYNTAX_ERROR, "Error: " + e.getMessage());
+        }
+        return run(session, cmd, profile);
+    }
+
+    public static Result open(Session session, PreparedStatement statement, Object[] values) {
+        StatementProfile profile = profile(session, statement.getSql(), values);
+        Command cmd;
+        try {
+            cmd = statement.bind(values);
+        } catch (Exception e) {
+            return Result.error(ErrorCode.EXECUTION_ERROR, "Error: " + e.getMessage());
+        }
+        return run(session, cmd, profile);
+    }
+
+    public static void setDefaultParallelism(int partitions) {
+        defaultParallelism = checkParallelism(partitions);
+    }
+
+    // Statements slower than the log's threshold go to it from now on; null turns it off.
+    public static void setSlowQueryLog(SlowQueryLog log) {
+        slowQueryLog = log;
+    }
+
+    // A profile for a statement the client sent, none for one run by another, such as EXECUTE's,
+    // which is part of the profile of the statement running it.
+    private static StatementProfile profile(Session session, String sql, Object[] values) {
+        SlowQueryLog log = slowQueryLog;
+        return log == null || session.getProfile() != null ? null : new StatementProfile(log, sql, values);
+    }
+
+    private static Result drained(Result result) {
+        if (result.getKind() == Result.Kind.ROWS) {
+            result.getRows();
+        }
+        return result;
+    }
+
+    private static Result run(Session session, Command cmd, StatementProfile profile) {
+        long start = SAMPLED.contains(cmd.getType()) ? Metrics.sample() : Metrics.start();
+        if (profile != null) {
+            profile.parsed();
+            profile.started(session);
+            session.setProfile(profile);
+        }
+        Result result;
+        try {
+            result = executeCommand(session, cmd);
+        } catch (Exception e) {
+            result = Result.error(ErrorCode.of(e), "Error: " + e.getMessage());
+        } finally {
+            if (profile != null) {
+                session.setProfile(null);
+            }
+        }
+        if (profile != null) {
+            profile.executed(session, result);
+        }
+        if (Metrics.isEnabled()) {
+            // A statement counts, and its time up to its last row goes, to its kind and each table it names
+            StatementMetrics[] metrics = { COMMAND_METRICS[cmd.getType().ordinal()],
+                    tableMetrics(cmd.getTableName()), tableMetrics(cmd.getJoinTableName()) };
+            boolean failed = result.getKind() == Result.Kind.ERROR;
+            for (StatementMetrics m : metrics) {
+                if (m != null) {
+                    m.executed(failed);
+                }
+            }
+            if (start != 0) {
+                result.whenDone(() -> {
+                    long nanos = System.nanoTime() - start;
+                    for (StatementMetrics m : metrics) {
+                        if (m != null) {
+                            m.timed(nanos);
+                        }
+                    }
+                });
+            }
+        }
+        if (profile != null) {
+            result.whenDone(profile::finish);
+        }
+        return result;
+    }
+
+    // The plan for the WHERE, its planning timed for the slow query log.
+    private static Plan plan(Session session, Table table, Expression where) {
+        StatementProfile profile = session.getProfile();
+        if (profile == null) {
+            return Planner.plan(table, where, parallelism(session));
+        }
+        long start = System.nanoTime();
+        Plan plan = Planner.plan(table, where, parallelism(session));
+        profile.planned(plan, System.nanoTime() - start);
+        return plan;
+    }
+
+    private static void changed(Session session, long rows) {
+        StatementProfile profile = session.getProfile();
+        if (profile != null) {
+            profile.changed(rows);
+        }
+    }
+
+    private static StatementMetrics tableMetrics(String name) {
+        Table table = name == null ? null : Database.getInstance().findTable(name);
+        return table == null ? null : table.getMetrics().getStatements();
+    }
+
+    private static Result executeCommand(Session session, Command cmd) {
         switch (cmd.getType()) {
             case BEGIN:
-                TransactionManager.begin();
-                return "Transaction started";
+                session.begin(cmd.isOptimistic());
+                return Result.message(cmd.isOptimistic() ? "Optimistic transaction started" : "Transaction started");
             case COMMIT:
-                TransactionManager.commit();
-                return "Transaction committed";
+                session.commit();
+                return Result.message("Transaction committed");
             case ROLLBACK:
-                TransactionManager.rollback();
-                return "Transaction rolled back";
+                session.rollback();
+                return Result.message("Transaction rolled back");
             case SHOW_TABLES:
                 return handleShowTables();
+            case SHOW_STATS:
+                return handleShowStats();
             case CREATE_TABLE:
                 return handleCreateTable(cmd);
             case DELETE_TABLE:
@@ -47,28 +199,65 @@ public class QueryEngine {
             case REMOVE_INDEX:
                 return handleRemoveIndex(cmd);
             case INSERT:
-                return handleInsert(cmd);
+                return handleInsert(session, cmd);
+            case COPY:
+                return handleCopy(session, cmd);
             case SELECT:
-                return handleSelect(cmd);
+                return handleSelect(session, cmd);
             case UPDATE:
-                return handleUpdate(cmd);
+                return handleUpdate(session, cmd);
             case DELETE:
-                return handleDelete(cmd);
+                return handleDelete(session, cmd);
+            case PREPARE:
+                return handlePrepare(session, cmd);
+            case EXECUTE:
+                return handleExecute(session, cmd);
+            case DEALLOCATE:
+                if (session.getPreparedStatements().remove(cmd.getStatementName()) == null) {
+                    throw new RuntimeException("Prepared statement not found: " + cmd.getStatementName());
+                }
+                return Result.message("Statement " + cmd.getStatementName() + " deallocated");
+            case SET:
+                return handleSet(session, cmd);
+            case DECLARE_CURSOR:
+                return handleDeclare(session, cmd);
+            case FETCH:
+                return handleFetch(session, cmd);
+            case CLOSE_CURSOR:
+                Session.OpenCursor closed = session.getCursors().remove(cmd.getCursorName());
+                if (closed == null) {
+                    throw new RuntimeException("Cursor not found: " + cmd.getCursorName());
+                }
+                closed.result.close();
+                return Result.message("Cursor " + cmd.getCursorName() + " closed");
             default:
                 throw new RuntimeException("Unsupported command type");
         }
     }
 
-    private static String handleShowTables() {
+    private static Result handleShowTables() {
         Database db = Database.getInstance();
         StringBuilder sb = new StringBuilder("Tables:\n");
         for (String tableName : db.getTableNames()) {
             sb.append(tableName).append("\n");
         }
-        return sb.toString();
+        return Result.message(sb.toString());
     }
 
-    private static String handleCreateTable(Command cmd) {
+    private static Result handleShowStats() {
+        String[] columns = { "name", "count", "errors", "rows", "mean_us", "p50_us", "p99_us", "max_us" };
+        Class<?>[] types = { String.class, Long.class, Long.class, Long.class, Double.class, Double.class,
+                Double.class, Double.class };
+        boolean[] nullable = { false, false, true, true, true, true, true, true };
+        List<Row> rows = new ArrayList<>();
+        for (Metrics.Stat stat : Metrics.report()) {
+            rows.add(Row.of(stat.getName(), stat.getCount(), stat.getErrors(), stat.getRows(), stat.getMean(),
+                    stat.getP50(), stat.getP99(), stat.getMax()));
+        }
+        return Result.rows(columns, types, nullable, RowCursor.of(rows.iterator()));
+    }
+
+    private static Result handleCreateTable(Command cmd) {
         try {
             Schema.Builder schemaBuilder = new Schema.Builder();
             Map<String, Object> colDefs = cmd.getColumnDefinitions();
@@ -84,65 +273,100 @@ public class QueryEngine {
                 }
             }
             Schema schema = schemaBuilder.build();
-            Database.getInstance().createTable(cmd.getTableName(), schema);
-            return "Table " + cmd.getTableName() + " created";
+            StorageMode storageMode = StorageMode.HEAP;
+            for (Map.Entry<String, String> option : cmd.getTableOptions().entrySet()) {
+                if (option.getKey().equals("storage")) {
+                    storageMode = StorageMode.fromString(option.getValue());
+                } else {
+                    throw new RuntimeException("Unknown table option: " + option.getKey());
+                }
+            }
+            Database.getInstance().createTable(cmd.getTableName(), schema, storageMode);
+            return Result.message("Table " + cmd.getTableName() + " created"
+                    + (storageMode == StorageMode.OFFHEAP ? " (off-heap)" : ""));
         } catch (Exception e) {
-            return "Error in CREATE TABLE: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in CREATE TABLE: " + e.getMessage());
         }
     }
 
-    private static String handleDeleteTable(Command cmd) {
+    private static Result handleDeleteTable(Command cmd) {
         try {
             Database.getInstance().deleteTable(cmd.getTableName());
-            return "Table " + cmd.getTableName() + " deleted";
+            return Result.message("Table " + cmd.getTableName() + " deleted");
         } catch (Exception e) {
-            return "Error in DELETE TABLE: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in DELETE TABLE: " + e.getMessage());
         }
     }
 
-    private static String handleCreateIndex(Command cmd) {
+    private static Result handleCreateIndex(Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
-            table.addIndex(cmd.getIndexField(), cmd.isUniqueIndex());
-            return "Index created on " + cmd.getTableName() + " (" + cmd.getIndexField() + ")"
-                    + (cmd.isUniqueIndex() ? " UNIQUE" : "");
+            table.addIndex(cmd.getIndexField(), cmd.isUniqueIndex(), cmd.getIndexType());
+            return Result.message("Index created on " + cmd.getTableName() + " (" + cmd.getIndexField() + ")"
+                    + (cmd.getIndexType() == IndexType.BTREE ? " USING BTREE" : "")
+                    + (cmd.isUniqueIndex() ? " UNIQUE" : ""));
         } catch (Exception e) {
-            return "Error in CREATE INDEX: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in CREATE INDEX: " + e.getMessage());
         }
     }
 
-    private static String handleRemoveIndex(Command cmd) {
+    private static Result handleRemoveIndex(Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
             table.removeIndex(cmd.getIndexField());
-            return "Index removed from " + cmd.getTableName() + " (" + cmd.getIndexField() + ")";
+            return Result.message("Index removed from " + cmd.getTableName() + " (" + cmd.getIndexField() + ")");
         } catch (Exception e) {
-            return "Error in REMOVE INDEX: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in REMOVE INDEX: " + e.getMessage());
         }
     }
 
-    private static String handleInsert(Command cmd) {
+    // A single row goes through Table.create; several take the bulk load path as one batch.
+    private static Result handleInsert(Session session, Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
+            List<List<Object>> rows = cmd.getInsertRows();
+            if (rows.size() > 1) {
+                long count = new BulkLoad(session, table, cmd.getInsertColumns()).insert(rows);
+                changed(session, count);
+                return Result.message(count + " rows inserted into " + cmd.getTableName());
+            }
             Schema schema = table.getSchema();
             Row.Builder builder = new Row.Builder(schema);
-            Map<String, Object> values = cmd.getInsertValues();
-            for (Map.Entry<String, Object> entry : values.entrySet()) {
-                String col = entry.getKey();
-                Object val = parseValue(entry.getValue().toString(), schema, col);
+            List<String> columns = cmd.getInsertColumns();
+            for (int i = 0; i < columns.size(); i++) {
+                String col = columns.get(i);
+                Object val = parseValue(rows.get(0).get(i), schema, col);
                 builder.set(col, val);
             }
             Row row = builder.build();
-            table.create(row);
-            return "Row inserted into " + cmd.getTableName();
+            table.create(session.getTransaction(), row);
+            changed(session, 1);
+            return Result.message("Row inserted into " + cmd.getTableName());
         } catch (Exception e) {
-            return "Error in INSERT: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in INSERT: " + e.getMessage());
         }
     }
 
-    private static String handleSelect(Command cmd) {
+    private static Result handleCopy(Session session, Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
+            long count = new BulkLoad(session, table, cmd.getInsertColumns()).copy(cmd.getCopyFile(), cmd.getCopyOptions());
+            changed(session, count);
+            return Result.message(count + " rows copied into " + cmd.getTableName());
+        } catch (Exception e) {
+            return Result.error(ErrorCode.of(e), "Error in COPY: " + e.getMessage());
+        }
+    }
+
+    private static Result handleSelect(Session session, Command cmd) {
+        try {
+            if (cmd.getJoinTableName() != null) {
+                return join(session, cmd);
+            }
+            Table table = Database.getInstance().getTable(cmd.getTableName());
+            if (cmd.getSelectItems() != null) {
+                return aggregate(session, cmd, table);
+            }
             Schema schema = table.getSchema();
             if (cmd.getSelectColumns() != null && !cmd.getSelectColumns().isEmpty()) {
                 for (String col : cmd.getSelectColumns()) {
@@ -151,112 +375,476 @@ public class QueryEngine {
                     }
                 }
             }
-            List<Row> rows;
-            if (cmd.getConditionColumn() != null) {
-                Object value = parseValue(cmd.getConditionValue().toString(), schema, cmd.getConditionColumn());
-                rows = table.read(value, cmd.getConditionColumn());
+            String orderBy = cmd.getOrderByColumn();
+            if (orderBy != null && !schema.getFields().containsKey(orderBy)) {
+                throw new RuntimeException("Column not found: " + orderBy);
+            }
+            Plan plan = plan(session, table, cmd.getWhere());
+            int limit = cmd.getLimit() == null ? -1 : parseCount(cmd.getLimit(), "LIMIT");
+            int offset = cmd.getOffset() == null ? 0 : parseCount(cmd.getOffset(), "OFFSET");
+            if (cmd.isExplain()) {
+                return Result.message(explain(session, cmd, schema, plan, limit, offset));
+            }
+            RowCursor rows;
+            if (orderBy == null) {
+                rows = plan.open(session.getTransaction());
+            } else if (limit >= 0) {
+                rows = RowCursor.of(top(plan.open(session.getTransaction()), comparator(schema, cmd), (long) offset + limit).iterator());
             } else {
-                rows = table.getRows();
+                rows = RowCursor.of(sort(plan.execute(session.getTransaction()), schema, cmd).iterator());
             }
-            if (rows.isEmpty()) {
-                return "No rows found";
+            List<String> selected = cmd.getSelectColumns();
+            int count = selected == null || selected.isEmpty() ? schema.getFieldCount() : selected.size();
+            String[] columns = new String[count];
+            Class<?>[] types = new Class<?>[count];
+            int[] positions = new int[count];
+            for (int i = 0; i < count; i++) {
+                positions[i] = selected == null || selected.isEmpty() ? i : schema.positionOf(selected.get(i));
+                columns[i] = schema.getField(positions[i]).getName();
+                types[i] = schema.getField(positions[i]).getType();
             }
-            StringBuilder sb = new StringBuilder();
-            for (Row row : rows) {
-                if (cmd.getSelectColumns() == null || cmd.getSelectColumns().isEmpty()) {
-                    StringJoiner joiner = new StringJoiner(", ");
-                    for (Map.Entry<String, Object> entry : row.getData().entrySet()) {
-                        joiner.add(entry.getKey() + "=" + formatValue(entry.getValue()));
-                    }
-                    sb.append(joiner.toString()).append("\n");
+            return Result.rows(columns, types, positions, window(rows, offset, limit, true));
+        } catch (Exception e) {
+            return Result.error(ErrorCode.of(e), "Error in SELECT: " + e.getMessage());
+        }
+    }
+
+    // EXPLAIN runs the statement the way it always did, materialized, to report actual counts.
+    private static String explain(Session session, Command cmd, Schema schema, Plan plan, int limit, int offset) {
+        List<Row> rows = plan.execute(session.getTransaction());
+        if (cmd.getOrderByColumn() != null) {
+            rows = sort(rows, schema, cmd);
+        }
+        StringBuilder sb = new StringBuilder(plan.explain());
+        appendWindow(sb, cmd, limit, offset, rows.size());
+        return sb.toString();
+    }
+
+    // The ORDER BY, OFFSET and LIMIT lines of EXPLAIN, over total rows.
+    private static void appendWindow(StringBuilder sb, Command cmd, int limit, int offset, int total) {
+        int from = Math.min(offset, total);
+        int to = limit < 0 ? total : (int) Math.min((long) from + limit, total);
+        if (cmd.getOrderByColumn() != null) {
+            sb.append("Sort: ").append(cmd.getOrderByColumn()).append(cmd.isOrderDescending() ? " DESC" : " ASC");
+            sb.append(limit >= 0 ? " (top " + ((long) offset + limit) + ")\n" : "\n");
+        }
+        if (offset > 0) {
+            sb.append("Offset: ").append(offset).append("\n");
+        }
+        if (limit >= 0) {
+            sb.append("Limit: ").append(limit).append(" (actual ").append(to - from).append(" rows)\n");
+        }
+    }
+
+    // SELECT with aggregates or GROUP BY. The scan folds the rows into groups as it reads them, one
+    // partial aggregate per partition, and only the groups come back, so ORDER BY, OFFSET and LIMIT
+    // apply to those. COUNT(*) of a whole table is the table's own count.
+    private static Result aggregate(Session session, Command cmd, Table table) {
+        Aggregation aggregation = new Aggregation(table.getSchema(), cmd.getSelectItems(), cmd.getGroupBy());
+        if (cmd.getWhere() == null && aggregation.isCountAll()) {
+            List<Row> count = List.of(Row.of(table.count(session.getTransaction())));
+            String explain = "Table " + table.getName() + " (" + table.size() + " rows)\n"
+                    + "Count: table counter (actual " + count.get(0).getValue(0) + ")\n";
+            return groups(cmd, aggregation, count, explain);
+        }
+        Plan plan = plan(session, table, cmd.getWhere());
+        if (cmd.isExplain()) {
+            // materialized, as EXPLAIN runs every plan, for the actual row counts
+            Aggregation.Partial partial = aggregation.newPartial();
+            plan.execute(session.getTransaction()).forEach(partial);
+            List<Row> groups = aggregation.finish(List.of(partial));
+            return groups(cmd, aggregation, groups, plan.explain() + explainAggregate(cmd, groups));
+        }
+        return groups(cmd, aggregation, aggregation.finish(plan.visit(session.getTransaction(), aggregation::newPartial)), null);
+    }
+
+    // ORDER BY, OFFSET and LIMIT over the groups of an aggregate, or EXPLAIN of it after the lines
+    // describing how the groups were read.
+    private static Result groups(Command cmd, Aggregation aggregation, List<Row> groups, String explain) {
+        String[] columns = aggregation.getColumns();
+        int limit = cmd.getLimit() == null ? -1 : parseCount(cmd.getLimit(), "LIMIT");
+        int offset = cmd.getOffset() == null ? 0 : parseCount(cmd.getOffset(), "OFFSET");
+        String orderBy = cmd.getOrderByColumn();
+        if (orderBy != null) {
+            int position = Arrays.asList(columns).indexOf(orderBy);
+            if (position < 0) {
+                throw new RuntimeException("ORDER BY must name a column of the result: " + orderBy);
+            }
+            groups = new ArrayList<>(groups);
+            groups.sort(Comparator.comparing(row -> row.getValue(position),
+                    Comparator.nullsFirst(Keys::compare)));
+            if (cmd.isOrderDescending()) {
+                Collections.reverse(groups);
+            }
+        }
+        if (cmd.isExplain()) {
+            StringBuilder sb = new StringBuilder(explain);
+            appendWindow(sb, cmd, limit, offset, groups.size());
+            return Result.message(sb.toString());
+        }
+        return Result.rows(columns, aggregation.getTypes(), aggregation.getNullable(),
+                window(RowCursor.of(groups.iterator()), offset, limit, true));
+    }
+
+    private static String explainAggregate(Command cmd, List<Row> groups) {
+        StringBuilder sb = new StringBuilder("Aggregate: ");
+        sb.append(cmd.getSelectItems().stream().map(String::valueOf).collect(Collectors.joining(", ")));
+        if (cmd.getGroupBy() != null) {
+            sb.append(" by ").append(String.join(", ", cmd.getGroupBy()));
+        }
+        return sb.append(" (actual ").append(groups.size()).append(" groups)\n").toString();
+    }
+
+    // SELECT over a JOIN. Join resolves the columns and produces the joined rows, which then go
+    // through the same aggregation, ordering and window as the rows of a single table.
+    private static Result join(Session session, Command cmd) {
+        StatementProfile profile = session.getProfile();
+        long planStart = profile == null ? 0 : System.nanoTime();
+        Join join = new Join(cmd, session.getTransaction(), parallelism(session));
+        if (profile != null) {
+            profile.planned(join, System.nanoTime() - planStart);
+        }
+        Schema schema = join.getSchema();
+        if (cmd.getSelectItems() != null) {
+            List<Object> items = new ArrayList<>();
+            for (Object item : cmd.getSelectItems()) {
+                if (item instanceof Aggregate) {
+                    Aggregate aggregate = (Aggregate) item;
+                    String column = aggregate.getColumn() == null ? null : join.qualify(aggregate.getColumn());
+                    items.add(new Aggregate(aggregate.getFunction(), column, aggregate.getName()));
                 } else {
-                    StringJoiner joiner = new StringJoiner(", ");
-                    for (String col : cmd.getSelectColumns()) {
-                        Object val = row.getData().get(col);
-                        joiner.add(col + "=" + formatValue(val));
+                    items.add(join.qualify((String) item));
+                }
+            }
+            List<String> groupBy = cmd.getGroupBy() == null ? null
+                    : cmd.getGroupBy().stream().map(join::qualify).collect(Collectors.toList());
+            Aggregation aggregation = new Aggregation(schema, items, groupBy);
+            Aggregation.Partial partial = aggregation.newPartial();
+            try (RowCursor rows = join.open()) {
+                rows.forEachRemaining(partial);
+            }
+            List<Row> groups = aggregation.finish(List.of(partial));
+            return groups(cmd, aggregation, groups, cmd.isExplain() ? join.explain() + explainAggregate(cmd, groups) : null);
+        }
+        List<String> selected = cmd.getSelectColumns();
+        int count = selected.isEmpty() ? schema.getFieldCount() : selected.size();
+        String[] columns = new String[count];
+        Class<?>[] types = new Class<?>[count];
+        int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = selected.isEmpty() ? i : schema.positionOf(join.qualify(selected.get(i)));
+            columns[i] = selected.isEmpty() ? schema.getField(i).getName() : selected.get(i);
+            types[i] = schema.getField(positions[i]).getType();
+        }
+        Comparator<Row> order = null;
+        if (cmd.getOrderByColumn() != null) {
+            int position = schema.positionOf(join.qualify(cmd.getOrderByColumn()));
+            order = Comparator.comparing(row -> row.getValue(position), Keys::compare);
+            order = cmd.isOrderDescending() ? order.reversed() : order;
+        }
+        int limit = cmd.getLimit() == null ? -1 : parseCount(cmd.getLimit(), "LIMIT");
+        int offset = cmd.getOffset() == null ? 0 : parseCount(cmd.getOffset(), "OFFSET");
+        RowCursor rows = join.open();
+        if (order != null) {
+            List<Row> sorted;
+            if (limit >= 0) {
+                sorted = top(rows, order, (long) offset + limit);
+            } else {
+                sorted = new ArrayList<>();
+                try (RowCursor all = rows) {
+                    all.forEachRemaining(sorted::add);
+                }
+                sorted.sort(order);
+            }
+            rows = RowCursor.of(sorted.iterator());
+        }
+        if (cmd.isExplain()) {
+            int total = 0;
+            try (RowCursor all = rows) {
+                for (; all.hasNext(); all.next()) {
+                    total++;
+                }
+            }
+            StringBuilder sb = new StringBuilder(join.explain());
+            appendWindow(sb, cmd, limit, offset, total);
+            return Result.message(sb.toString());
+        }
+        return Result.rows(columns, types, positions, window(rows, offset, limit, true));
+    }
+
+    // Rows read through an ordered index are mostly sorted already, which TimSort handles in linear
+    // time.
+    private static List<Row> sort(List<Row> rows, Schema schema, Command cmd) {
+        List<Row> sorted = new ArrayList<>(rows);
+        int position = schema.positionOf(cmd.getOrderByColumn());
+        sorted.sort(Comparator.comparing(row -> row.getValue(position), Keys::compare));
+        if (cmd.isOrderDescending()) {
+            Collections.reverse(sorted);
+        }
+        return sorted;
+    }
+
+    // Ties go by primary key, the order a scan meets them in, as with the sort.
+    private static Comparator<Row> comparator(Schema schema, Command cmd) {
+        int position = schema.positionOf(cmd.getOrderByColumn());
+        int pk = schema.positionOf(schema.getPKField().getName());
+        Comparator<Row> ascending = Comparator.<Row, Object>comparing(row -> row.getValue(position), Keys::compare)
+                .thenComparingLong(row -> (Long) row.getValue(pk));
+        return cmd.isOrderDescending() ? ascending.reversed() : ascending;
+    }
+
+    // The first count rows in order, kept in a heap of count rows while the cursor is read, so
+    // ORDER BY with a LIMIT never holds more than OFFSET + LIMIT rows.
+    private static List<Row> top(RowCursor rows, Comparator<Row> order, long count) {
+        try {
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            int size = (int) Math.min(count, Integer.MAX_VALUE - 8);
+            PriorityQueue<Row> heap = new PriorityQueue<>(Math.min(size, 1024), order.reversed());
+            while (rows.hasNext()) {
+                Row row = rows.next();
+                if (heap.size() < size) {
+                    heap.add(row);
+                } else if (order.compare(row, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(row);
+                }
+            }
+            List<Row> result = new ArrayList<>(heap);
+            result.sort(order);
+            return result;
+        } finally {
+            rows.close();
+        }
+    }
+
+    // Skips offset rows, then passes on up to limit (-1 for all). The underlying cursor is closed
+    // once the limit is reached if the window owns it, left open for the next FETCH otherwise.
+    private static RowCursor window(RowCursor rows, long offset, long limit, boolean owned) {
+        return new RowCursor() {
+            private long skip = offset;
+            private long left = limit < 0 ? Long.MAX_VALUE : limit;
+
+            @Override
+            public boolean hasNext() {
+                if (left == 0) {
+                    if (owned) {
+                        rows.close();
                     }
-                    sb.append(joiner.toString()).append("\n");
+                    return false;
+                }
+                while (skip > 0 && rows.hasNext()) {
+                    rows.next();
+                    skip--;
                 }
+                return rows.hasNext();
             }
-            return sb.toString();
-        } catch (Exception e) {
-            return "Error in SELECT: " + e.getMessage();
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                left--;
+                return rows.next();
+            }
+
+            @Override
+            public void close() {
+                if (owned) {
+                    rows.close();
+                }
+            }
+        };
+    }
+
+    private static Result handleDeclare(Session session, Command cmd) {
+        if (session.getCursors().containsKey(cmd.getCursorName())) {
+            throw new RuntimeException("Cursor already exists: " + cmd.getCursorName());
+        }
+        Result result = handleSelect(session, cmd);
+        if (result.getKind() == Result.Kind.ERROR) {
+            return result;
+        }
+        session.getCursors().put(cmd.getCursorName(), new Session.OpenCursor(result, session.getTransaction()));
+        return Result.message("Cursor " + cmd.getCursorName() + " declared");
+    }
+
+    // The next rows of the cursor, streamed from it like the rows of a SELECT.
+    private static Result handleFetch(Session session, Command cmd) {
+        Session.OpenCursor cursor = session.getCursors().get(cmd.getCursorName());
+        if (cursor == null) {
+            throw new RuntimeException("Cursor not found: " + cmd.getCursorName());
         }
+        if (cursor.tx != null && cursor.tx != session.getTransaction()) {
+            session.getCursors().remove(cmd.getCursorName());
+            cursor.result.close();
+            throw new RuntimeException("Cursor " + cmd.getCursorName() + " was closed by the end of its transaction");
+        }
+        int count = "ALL".equals(cmd.getFetchCount()) ? -1 : parseCount(cmd.getFetchCount(), "FETCH count");
+        Result rows = cursor.result;
+        return Result.rows(rows.getColumns(), rows.getTypes(), rows.getPositions(),
+                window(rows.iterator(), 0, count, false));
     }
 
-    private static String handleUpdate(Command cmd) {
+    // The matches are read through the plan the planner picks for the WHERE, as for SELECT, and
+    // changed in the same pass.
+    private static Result handleUpdate(Session session, Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
             Schema schema = table.getSchema();
-            if (cmd.getConditionColumn() == null ||
-                    !cmd.getConditionColumn().equalsIgnoreCase(schema.getPKField().getName())) {
-                return "UPDATE must include WHERE clause on primary key (" + schema.getPKField().getName() + ")";
-            }
-            Object id = parseValue(cmd.getConditionValue().toString(), schema, cmd.getConditionColumn());
-            List<Row> rows = table.read(id, cmd.getConditionColumn());
-            if (rows.isEmpty())
-                return "Row not found for id: " + id;
-            Row oldRow = rows.get(0);
-            Row.Builder builder = new Row.Builder(schema);
-            oldRow.getData().forEach((k, v) -> {
-                if (!k.equalsIgnoreCase(schema.getPKField().getName())) {
-                    builder.set(k, v);
-                } else {
-                    builder.setId(v);
+            if (cmd.getWhere() == null) {
+                return Result.error(ErrorCode.EXECUTION_ERROR, "UPDATE must include WHERE clause");
+            }
+            Map<String, Object> updates = cmd.getUpdateValues();
+            int[] positions = new int[updates.size()];
+            Object[] values = new Object[updates.size()];
+            int i = 0;
+            for (Map.Entry<String, Object> entry : updates.entrySet()) {
+                positions[i] = schema.positionOf(entry.getKey());
+                if (positions[i] < 0) {
+                    throw new RuntimeException("Column not found: " + entry.getKey());
+                }
+                values[i++] = parseValue(entry.getValue(), schema, entry.getKey());
+            }
+            Plan plan = plan(session, table, cmd.getWhere());
+            int count = atomically(session, true, () -> {
+                try (RowCursor matches = plan.open(session.getTransaction())) {
+                    return table.updateAll(session.getTransaction(), matches, positions, values);
                 }
             });
-            for (Map.Entry<String, Object> entry : cmd.getUpdateValues().entrySet()) {
-                if (entry.getKey().equalsIgnoreCase(schema.getPKField().getName()))
-                    continue;
-                Object value = parseValue(entry.getValue().toString(), schema, entry.getKey());
-                builder.set(entry.getKey(), value);
-            }
-            Row newRow = builder.build();
-            table.update(newRow);
-            return "Row updated in " + cmd.getTableName();
+            changed(session, count);
+            if (count == 0) {
+                return Result.message("No rows found for " + cmd.getWhere());
+            }
+            return Result.message(count == 1 ? "Row updated in " + cmd.getTableName()
+                    : count + " rows updated in " + cmd.getTableName());
         } catch (Exception e) {
-            return "Error in UPDATE: " + e.getMessage();
+            return Result.error(ErrorCode.of(e), "Error in UPDATE: " + e.getMessage());
         }
     }
 
-    private static String handleDelete(Command cmd) {
+    private static Result handleDelete(Session session, Command cmd) {
         try {
             Table table = Database.getInstance().getTable(cmd.getTableName());
-            Schema schema = table.getSchema();
-            if (cmd.getConditionColumn() == null) {
-                return "DELETE must include WHERE clause";
-            } else if (cmd.getConditionColumn().equalsIgnoreCase(schema.getPKField().getName())) {
-                Object id = parseValue(cmd.getConditionValue().toString(), schema, cmd.getConditionColumn());
-                List<Row> existing = table.read(id, cmd.getConditionColumn());
-                if (existing.isEmpty()) {
-                    return "No row found for id: " + id;
-                }
-                table.delete((Long) id);
-                return "Row deleted from " + cmd.getTableName();
-            } else {
-                Object value = parseValue(cmd.getConditionValue().toString(), schema, cmd.getConditionColumn());
-                List<Row> matching = table.read(value, cmd.getConditionColumn());
-                if (matching.isEmpty()) {
-                    return "No rows found for " + cmd.getConditionColumn() + " = " + value;
+            if (cmd.getWhere() == null) {
+                return Result.error(ErrorCode.EXECUTION_ERROR, "DELETE must include WHERE clause");
+            }
+            Plan plan = plan(session, table, cmd.getWhere());
+            int count = atomically(session, true, () -> {
+                try (RowCursor matches = plan.open(session.getTransaction())) {
+                    return table.deleteAll(session.getTransaction(), matches);
                 }
-                int count = 0;
-                for (Row row : matching) {
-                    Long id = (Long) row.getValue(schema.getPKField().getName());
-                    List<Row> check = table.read(id, schema.getPKField().getName());
-                    if (!check.isEmpty()) {
-                        table.delete(id);
-                        count++;
-                    }
+            });
+            changed(session, count);
+            if (count == 0) {
+                return Result.message("No rows found for " + cmd.getWhere());
+            }
+            return Result.message(count == 1 ? "Row deleted from " + cmd.getTableName()
+                    : count + " rows deleted from " + cmd.getTableName());
+        } catch (Exception e) {
+            return Result.error(ErrorCode.of(e), "Error in DELETE: " + e.getMessage());
+        }
+    }
+
+    // Runs a statement that changes many rows as one transaction: the caller's, or else its own,
+    // which commits if the statement succeeds and rolls back if it fails. A statement in its own
+    // transaction has nothing to lose by starting over, so if retry allows it runs again from a
+    // new snapshot when it loses a row to a concurrent transaction.
+    static <T> T atomically(Session session, boolean retry, Supplier<T> statement) {
+        if (session.getTransaction() != null) {
+            return statement.get();
+        }
+        for (int attempt = 1;; attempt++) {
+            session.begin(false);
+            T result;
+            try {
+                result = statement.get();
+            } catch (ConflictException e) {
+                session.rollback();
+                if (!retry || attempt == STATEMENT_ATTEMPTS) {
+                    throw e;
                 }
-                return count + " rows deleted from " + cmd.getTableName();
+                continue;
+            } catch (RuntimeException e) {
+                session.rollback();
+                throw e;
             }
+            session.commit();
+            return result;
+        }
+    }
+
+    private static Result handlePrepare(Session session, Command cmd) {
+        try {
+            PreparedStatement statement = PlanCache.prepare(cmd.getStatementSql());
+            session.getPreparedStatements().put(cmd.getStatementName(), statement);
+            return Result.message("Statement " + cmd.getStatementName() + " prepared with "
+                    + statement.getParameterCount() + " parameters");
         } catch (Exception e) {
-            return "Error in DELETE: " + e.getMessage();
+            return Result.error(ErrorCode.SYNTAX_ERROR, "Error in PREPARE: " + e.getMessage());
+        }
+    }
+
+    private static Result handleExecute(Session session, Command cmd) {
+        PreparedStatement statement = session.getPreparedStatements().get(cmd.getStatementName());
+        if (statement == null) {
+            return Result.error(ErrorCode.EXECUTION_ERROR, "Prepared statement not found: " + cmd.getStatementName());
+        }
+        return open(session, statement, cmd.getParameterValues().toArray());
+    }
+
+    private static Result handleSet(Session session, Command cmd) {
+        if (!"parallelism".equals(cmd.getSettingName())) {
+            throw new RuntimeException("Unknown setting: " + cmd.getSettingName());
         }
+        Object value = cmd.getSettingValue();
+        if ("default".equalsIgnoreCase(value.toString())) {
+            session.setParallelism(null);
+        } else {
+            try {
+                session.setParallelism(checkParallelism(Integer.parseInt(value.toString())));
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid parallelism: " + value);
+            }
+        }
+        return Result.message("Parallelism set to " + parallelism(session));
+    }
+
+    private static int parallelism(Session session) {
+        Integer partitions = session.getParallelism();
+        return partitions != null ? partitions : defaultParallelism;
+    }
+
+    private static int checkParallelism(int partitions) {
+        if (partitions < 1 || partitions > MAX_PARALLELISM) {
+            throw new RuntimeException("Parallelism must be between 1 and " + MAX_PARALLELISM);
+        }
+        return partitions;
+    }
+
+    private static int parseCount(Object value, String clause) {
+        long count;
+        try {
+            count = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid " + clause + ": " + value);
+        }
+        if (count < 0) {
+            throw new RuntimeException("Invalid " + clause + ": " + value);
+        }
+        return (int) Math.min(count, Integer.MAX_VALUE);
     }
 
-    private static Object parseValue(String val, Schema schema, String column) {
+    // Literals arrive as text; values bound to a prepared statement may already be typed, and are
+    // only checked against the column.
+    static Object parseValue(Object value, Schema schema, String column) {
         Class<?> expectedType = schema.getFields().get(column).getType();
+        if (!(value instanceof String)) {
+            return convertValue(value, expectedType, column);
+        }
+        String val = (String) value;
         if (expectedType.equals(char[].class)) {
             return val.toCharArray();
         } else if (expectedType.equals(Integer.class)) {
@@ -277,10 +865,28 @@ public class QueryEngine {
         return val;
     }
 
-    private static String formatValue(Object value) {
-        if (value instanceof char[]) {
-            return new String((char[]) value);
+    private static Object convertValue(Object value, Class<?> expectedType, String column) {
+        if (expectedType.equals(char[].class)) {
+            if (value instanceof char[]) {
+                return value;
+            }
+        } else if (expectedType.equals(Integer.class)) {
+            if (value instanceof Integer || value instanceof Long) {
+                long v = ((Number) value).longValue();
+                if (v == (int) v) {
+                    return (int) v;
+                }
+            }
+        } else if (expectedType.equals(Long.class)) {
+            if (value instanceof Integer || value instanceof Long) {
+                return ((Number) value).longValue();
+            }
+        } else if (expectedType.equals(Boolean.class)) {
+            if (value instanceof Boolean) {
+                return value;
+            }
         }
-        return String.valueOf(value);
+        String typeName = expectedType.equals(char[].class) ? "Varchar" : expectedType.getSimpleName();
+        throw new RuntimeException("Invalid value for field '" + column + "'. Expected type: " + typeName);
     }
 }
@@ -0,0 +1,191 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.storage.Row;
+import com.github.amirilf.dbilf.storage.RowCursor;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+// Outcome of one statement: a row set, a status message or an error. The text REPL renders it as
+// it always has, the binary protocol sends the rows with typed columns. Rows of an opened SELECT
+// are still in its cursor, which the protocols write out as it goes; getRows() drains it.
+@Getter
+public final class Result implements AutoCloseable {
+
+    public enum Kind {
+        ROWS,
+        MESSAGE,
+        ERROR
+    }
+
+    public static final String NO_ROWS = "No rows found";
+
+    private final Kind kind;
+    private final String message; // MESSAGE and ERROR
+    private final ErrorCode errorCode; // ERROR
+    private final String[] columns; // ROWS: names and types of the selected columns
+    private final Class<?>[] types;
+    private final int[] positions; // ROWS: schema position of each selected column
+    private final boolean[] nullable; // ROWS: columns that may hold NULL, null if none can
+    private List<Row> rows; // null while the rows are in the cursor
+    @Getter(AccessLevel.NONE)
+    private RowCursor cursor;
+    @Getter(AccessLevel.NONE)
+    private Runnable whenDone;
+    @Getter(AccessLevel.NONE)
+    private long handedOut; // rows read from the cursor, once countRows() was called
+
+    private Result(Kind kind, String message, ErrorCode errorCode, String[] columns, Class<?>[] types,
+            int[] positions, boolean[] nullable, List<Row> rows, RowCursor cursor) {
+        this.kind = kind;
+        this.message = message;
+        this.errorCode = errorCode;
+        this.columns = columns;
+        this.types = types;
+        this.positions = positions;
+        this.nullable = nullable;
+        this.rows = rows;
+        this.cursor = cursor;
+    }
+
+    public static Result message(String message) {
+        return new Result(Kind.MESSAGE, message, null, null, null, null, null, null, null);
+    }
+
+    public static Result error(ErrorCode code, String message) {
+        return new Result(Kind.ERROR, message, code, null, null, null, null, null, null);
+    }
+
+    public static Result rows(String[] columns, Class<?>[] types, int[] positions, List<Row> rows) {
+        return new Result(Kind.ROWS, null, null, columns, types, positions, null, rows, null);
+    }
+
+    public static Result rows(String[] columns, Class<?>[] types, int[] positions, RowCursor cursor) {
+        return new Result(Kind.ROWS, null, null, columns, types, positions, null, null, cursor);
+    }
+
+    // Rows computed by the query, such as aggregates, whose values are the columns in order.
+    public static Result rows(String[] columns, Class<?>[] types, boolean[] nullable, RowCursor cursor) {
+        int[] positions = new int[columns.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        return new Result(Kind.ROWS, null, null, columns, types, positions, nullable, null, cursor);
+    }
+
+    public List<Row> getRows() {
+        if (cursor != null) {
+            List<Row> drained = new ArrayList<>();
+            try {
+                cursor.forEachRemaining(drained::add);
+            } finally {
+                close();
+            }
+            rows = drained;
+        }
+        return rows;
+    }
+
+    // The rows once, from the cursor as it reads them if they are still in one.
+    public RowCursor iterator() {
+        return cursor != null ? cursor : RowCursor.of(rows.iterator());
+    }
+
+    // Runs action once the statement is done: right away, or once the rows still in the cursor
+    // have been read or the result is closed, after any action given before it.
+    void whenDone(Runnable action) {
+        if (cursor == null) {
+            action.run();
+        } else if (whenDone == null) {
+            whenDone = action;
+        } else {
+            Runnable first = whenDone;
+            whenDone = () -> {
+                first.run();
+                action.run();
+            };
+        }
+    }
+
+    // Counts the rows read from the cursor from now on, for rowsReturned().
+    void countRows() {
+        if (cursor == null) {
+            return;
+        }
+        RowCursor rows = cursor;
+        cursor = new RowCursor() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                Row row = rows.next();
+                handedOut++;
+                return row;
+            }
+
+            @Override
+            public void close() {
+                rows.close();
+            }
+        };
+    }
+
+    // Rows read so far: all of them once drained, else those counted since countRows().
+    long rowsReturned() {
+        return rows != null ? rows.size() : handedOut;
+    }
+
+    @Override
+    public void close() {
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+        if (whenDone != null) {
+            Runnable action = whenDone;
+            whenDone = null;
+            action.run();
+        }
+    }
+
+    public Object getValue(int row, int column) {
+        return getRows().get(row).getValue(positions[column]);
+    }
+
+    public String toText() {
+        if (kind != Kind.ROWS) {
+            return message;
+        }
+        List<Row> all = getRows();
+        if (all.isEmpty()) {
+            return NO_ROWS;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Row row : all) {
+            appendText(sb, row);
+        }
+        return sb.toString();
+    }
+
+    // One line of toText().
+    public void appendText(StringBuilder sb, Row row) {
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(columns[i]).append('=').append(formatValue(row.getValue(positions[i])));
+        }
+        sb.append('\n');
+    }
+
+    private static String formatValue(Object value) {
+        if (value instanceof char[]) {
+            return new String((char[]) value);
+        }
+        return String.valueOf(value);
+    }
+}
@@ -1,241 +1,583 @@
 package com.github.amirilf.dbilf.query;
 
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.query.Expression.Operator;
 import java.util.*;
 
+// Recursive descent over the tokens of one Lexer pass. Literals are kept as their text (quotes
+// removed) and a ? becomes a Parameter of the command; QueryEngine converts values to column
+// types when the statement runs.
 public class SQLParser {
+
+    private static final String[] CLAUSES = { "INNER", "JOIN", "ON", "WHERE", "GROUP", "ORDER", "LIMIT", "OFFSET" };
+
+    private final Lexer lexer;
+    private final Command command = new Command();
+
+    private SQLParser(String sql) {
+        this.lexer = new Lexer(sql);
+    }
+
     public static Command parse(String sql) {
-        String trimmed = sql.trim();
-        String upper = trimmed.toUpperCase();
-        Command command = new Command();
+        return new SQLParser(sql).statement();
+    }
 
-        if (upper.startsWith("BEGIN")) {
+    private Command statement() {
+        if (accept("PREPARE")) {
+            command.setType(CommandType.PREPARE);
+            command.setStatementName(name());
+            expect("AS");
+            if (lexer.kind() == Lexer.Kind.END)
+                throw error("a statement");
+            // parsed when executed, so its ? parameters belong to the prepared statement
+            command.setStatementSql(lexer.rest());
+            return command;
+        } else if (accept("EXECUTE")) {
+            command.setType(CommandType.EXECUTE);
+            command.setStatementName(name());
+            List<Object> values = new ArrayList<>();
+            if (acceptSymbol("(")) {
+                values = values();
+                expectSymbol(")");
+            }
+            if (command.getParameterCount() > 0)
+                throw new RuntimeException("EXECUTE takes values, not parameters");
+            command.setParameterValues(values);
+        } else if (accept("DEALLOCATE")) {
+            command.setType(CommandType.DEALLOCATE);
+            accept("PREPARE");
+            command.setStatementName(name());
+        } else if (accept("BEGIN")) {
+            // BEGIN [OPTIMISTIC] [TRANSACTION | WORK]
             command.setType(CommandType.BEGIN);
-        } else if (upper.startsWith("COMMIT")) {
+            command.setOptimistic(accept("OPTIMISTIC"));
+            transactionNoise();
+        } else if (accept("COMMIT")) {
             command.setType(CommandType.COMMIT);
-        } else if (upper.startsWith("ROLLBACK")) {
+            transactionNoise();
+        } else if (accept("ROLLBACK")) {
             command.setType(CommandType.ROLLBACK);
-        } else if (upper.startsWith("SHOW TABLES")) {
-            command.setType(CommandType.SHOW_TABLES);
-        } else if (upper.startsWith("DESCRIBE")) {
-            command.setType(CommandType.SHOW_TABLES);
-            String[] parts = trimmed.split("\\s+");
-            if (parts.length > 1) {
-                command.setTableName(parts[1]);
-            }
-        } else if (upper.startsWith("CREATE TABLE")) {
-            command.setType(CommandType.CREATE_TABLE);
-            int idxTable = upper.indexOf("TABLE");
-            String rest = trimmed.substring(idxTable + "TABLE".length()).trim();
-            int idxParen = rest.indexOf("(");
-            if (idxParen < 0)
-                throw new RuntimeException("Invalid CREATE TABLE syntax");
-            String tableName = rest.substring(0, idxParen).trim();
-            command.setTableName(tableName);
-            int idxEnd = rest.lastIndexOf(")");
-            String cols = rest.substring(idxParen + 1, idxEnd).trim();
-            String[] colDefs = cols.split(",");
-            Map<String, Object> colDefsMap = new LinkedHashMap<>();
-            // Each column: name type [maxLength]
-            for (String colDef : colDefs) {
-                String[] parts = colDef.trim().split("\\s+");
-                if (parts.length < 2)
-                    throw new RuntimeException("Invalid column definition: " + colDef);
-                String colName = parts[0].trim();
-                String colType = parts[1].trim().toUpperCase();
-                Integer maxLength = null;
-                if (parts.length >= 3) {
-                    try {
-                        maxLength = Integer.parseInt(parts[2].trim());
-                    } catch (Exception e) {
-                        // ignore if not a number
-                    }
-                }
-                if (colType.equals("VARCHAR") || colType.equals("STRING")) {
-                    colDefsMap.put(colName, new Object[] { char[].class, (maxLength != null ? maxLength : 0) });
-                } else if (colType.equals("INTEGER")) {
-                    colDefsMap.put(colName, new Object[] { Integer.class, 0 });
-                } else if (colType.equals("LONG")) {
-                    colDefsMap.put(colName, new Object[] { Long.class, 0 });
-                } else if (colType.equals("BOOLEAN")) {
-                    colDefsMap.put(colName, new Object[] { Boolean.class, 0 });
-                } else {
-                    throw new RuntimeException("Unsupported type: " + colType);
-                }
+            transactionNoise();
+        } else if (accept("DECLARE")) {
+            // DECLARE name CURSOR FOR SELECT ...
+            String name = name();
+            expect("CURSOR");
+            expect("FOR");
+            expect("SELECT");
+            select();
+            command.setType(CommandType.DECLARE_CURSOR);
+            command.setCursorName(name);
+        } else if (accept("FETCH")) {
+            // FETCH [NEXT] [count | ALL] [FROM | IN] name
+            command.setType(CommandType.FETCH);
+            accept("NEXT");
+            if (accept("ALL")) {
+                command.setFetchCount("ALL");
+            } else if (lexer.kind() == Lexer.Kind.NUMBER || lexer.isSymbol("?")) {
+                command.setFetchCount(value());
+            } else {
+                command.setFetchCount("1");
             }
-            command.setColumnDefinitions(colDefsMap);
-        } else if (upper.startsWith("DROP TABLE")) {
-            command.setType(CommandType.DELETE_TABLE);
-            String[] parts = trimmed.split("\\s+");
-            if (parts.length < 3)
-                throw new RuntimeException("Invalid DROP TABLE syntax");
-            command.setTableName(parts[2]);
-        } else if (upper.startsWith("CREATE INDEX")) {
-            command.setType(CommandType.CREATE_INDEX);
-            String rest = trimmed.substring("CREATE INDEX".length()).trim();
-            boolean unique = false;
-            if (rest.toUpperCase().endsWith("UNIQUE")) {
-                unique = true;
-                rest = rest.substring(0, rest.length() - "UNIQUE".length()).trim();
-            }
-            if (!rest.toUpperCase().startsWith("ON")) {
-                throw new RuntimeException("Invalid CREATE INDEX syntax");
-            }
-            rest = rest.substring("ON".length()).trim();
-            int idxParen = rest.indexOf("(");
-            int idxEnd = rest.indexOf(")", idxParen);
-            if (idxParen < 0 || idxEnd < 0)
-                throw new RuntimeException("Invalid CREATE INDEX syntax");
-            String tableName = rest.substring(0, idxParen).trim();
-            String field = rest.substring(idxParen + 1, idxEnd).trim();
-            command.setTableName(tableName);
-            command.setIndexField(field);
-            command.setUniqueIndex(unique);
-        } else if (upper.startsWith("DROP INDEX")) {
-            command.setType(CommandType.REMOVE_INDEX);
-            String rest = trimmed.substring("DROP INDEX".length()).trim();
-            if (!rest.toUpperCase().startsWith("ON")) {
-                throw new RuntimeException("Invalid DROP INDEX syntax");
-            }
-            rest = rest.substring("ON".length()).trim();
-            int idxParen = rest.indexOf("(");
-            int idxEnd = rest.indexOf(")", idxParen);
-            if (idxParen < 0 || idxEnd < 0)
-                throw new RuntimeException("Invalid DROP INDEX syntax");
-            String tableName = rest.substring(0, idxParen).trim();
-            String field = rest.substring(idxParen + 1, idxEnd).trim();
-            command.setTableName(tableName);
-            command.setIndexField(field);
-        } else if (upper.startsWith("INSERT INTO")) {
-            command.setType(CommandType.INSERT);
-            String rest = trimmed.substring("INSERT INTO".length()).trim();
-            int idxParen = rest.indexOf("(");
-            String tableName = rest.substring(0, idxParen).trim();
-            command.setTableName(tableName);
-            int idxEndCols = rest.indexOf(")");
-            String colsPart = rest.substring(idxParen + 1, idxEndCols).trim();
-            String[] columns = colsPart.split(",");
-            int idxValues = rest.toUpperCase().indexOf("VALUES");
-            int idxParenValues = rest.indexOf("(", idxValues);
-            int idxEndValues = rest.indexOf(")", idxParenValues);
-            String valsPart = rest.substring(idxParenValues + 1, idxEndValues).trim();
-            String[] values = valsPart.split(",");
-            if (columns.length != values.length)
-                throw new RuntimeException("Columns count does not match values count");
-            Map<String, Object> insertMap = new LinkedHashMap<>();
-            for (int i = 0; i < columns.length; i++) {
-                String col = columns[i].trim();
-                String val = values[i].trim();
-                if (val.startsWith("'") && val.endsWith("'")) {
-                    val = val.substring(1, val.length() - 1);
-                }
-                insertMap.put(col, val);
-            }
-            command.setInsertValues(insertMap);
-        } else if (upper.startsWith("SELECT")) {
-            command.setType(CommandType.SELECT);
-            int idxFrom = upper.indexOf("FROM");
-            String colsPart = trimmed.substring("SELECT".length(), idxFrom).trim();
-            List<String> selectColumns = new ArrayList<>();
-            if (!colsPart.equals("*")) {
-                String[] cols = colsPart.split(",");
-                for (String c : cols) {
-                    selectColumns.add(c.trim());
-                }
+            if (!accept("FROM")) {
+                accept("IN");
             }
-            command.setSelectColumns(selectColumns);
-            String rest = trimmed.substring(idxFrom + "FROM".length()).trim();
-            String tableName;
-            String conditionColumn = null;
-            Object conditionValue = null;
-            if (rest.toUpperCase().contains("WHERE")) {
-                String[] parts = rest.split("(?i)WHERE");
-                tableName = parts[0].trim();
-                String cond = parts[1].trim();
-                String[] condParts = cond.split("=");
-                if (condParts.length != 2)
-                    throw new RuntimeException("Invalid WHERE clause");
-                conditionColumn = condParts[0].trim();
-                String condVal = condParts[1].trim();
-                if (condVal.startsWith("'") && condVal.endsWith("'")) {
-                    condVal = condVal.substring(1, condVal.length() - 1);
-                }
-                conditionValue = condVal;
+            command.setCursorName(name());
+        } else if (accept("CLOSE")) {
+            command.setType(CommandType.CLOSE_CURSOR);
+            command.setCursorName(name());
+        } else if (accept("SET")) {
+            // SET name [= | TO] value, a setting of the current session
+            command.setType(CommandType.SET);
+            command.setSettingName(name().toLowerCase());
+            if (!acceptSymbol("=")) {
+                accept("TO");
+            }
+            command.setSettingValue(value());
+            if (command.getParameterCount() > 0)
+                throw new RuntimeException("SET takes a value, not a parameter");
+        } else if (accept("SHOW")) {
+            if (accept("STATS")) {
+                command.setType(CommandType.SHOW_STATS);
             } else {
-                tableName = rest.trim();
-            }
-            command.setTableName(tableName);
-            command.setConditionColumn(conditionColumn);
-            command.setConditionValue(conditionValue);
-        } else if (upper.startsWith("UPDATE")) {
-            command.setType(CommandType.UPDATE);
-            int idxSet = upper.indexOf("SET");
-            String tableName = trimmed.substring("UPDATE".length(), idxSet).trim();
-            command.setTableName(tableName);
-            String rest = trimmed.substring(idxSet + "SET".length()).trim();
-            String setPart;
-            String wherePart = null;
-            if (rest.toUpperCase().contains("WHERE")) {
-                String[] parts = rest.split("(?i)WHERE");
-                setPart = parts[0].trim();
-                wherePart = parts[1].trim();
+                command.setType(CommandType.SHOW_TABLES);
+                expect("TABLES");
+            }
+        } else if (accept("DESCRIBE")) {
+            command.setType(CommandType.SHOW_TABLES);
+            if (lexer.kind() == Lexer.Kind.WORD) {
+                command.setTableName(name());
+            }
+        } else if (accept("CREATE")) {
+            if (accept("TABLE")) {
+                createTable();
+            } else if (accept("INDEX")) {
+                createIndex();
             } else {
-                setPart = rest;
-            }
-            Map<String, Object> updateMap = new LinkedHashMap<>();
-            String[] assignments = setPart.split(",");
-            for (String assign : assignments) {
-                String[] pair = assign.split("=");
-                if (pair.length != 2)
-                    throw new RuntimeException("Invalid SET clause");
-                String col = pair[0].trim();
-                String val = pair[1].trim();
-                if (val.startsWith("'") && val.endsWith("'")) {
-                    val = val.substring(1, val.length() - 1);
-                }
-                updateMap.put(col, val);
-            }
-            command.setUpdateValues(updateMap);
-            if (wherePart != null) {
-                String[] condParts = wherePart.split("=");
-                if (condParts.length != 2)
-                    throw new RuntimeException("Invalid WHERE clause in UPDATE");
-                String condCol = condParts[0].trim();
-                String condVal = condParts[1].trim();
-                if (condVal.startsWith("'") && condVal.endsWith("'")) {
-                    condVal = condVal.substring(1, condVal.length() - 1);
-                }
-                command.setConditionColumn(condCol);
-                command.setConditionValue(condVal);
+                throw error("TABLE or INDEX");
             }
-        } else if (upper.startsWith("DELETE")) {
-            command.setType(CommandType.DELETE);
-            int idxFrom = upper.indexOf("FROM");
-            String rest = trimmed.substring(idxFrom + "FROM".length()).trim();
-            String tableName;
-            String wherePart = null;
-            if (rest.toUpperCase().contains("WHERE")) {
-                String[] parts = rest.split("(?i)WHERE");
-                tableName = parts[0].trim();
-                wherePart = parts[1].trim();
+        } else if (accept("DROP")) {
+            if (accept("TABLE")) {
+                command.setType(CommandType.DELETE_TABLE);
+                command.setTableName(name());
+            } else if (accept("INDEX")) {
+                command.setType(CommandType.REMOVE_INDEX);
+                indexTarget();
             } else {
-                tableName = rest.trim();
-            }
-            command.setTableName(tableName);
-            if (wherePart != null) {
-                String[] condParts = wherePart.split("=");
-                if (condParts.length != 2)
-                    throw new RuntimeException("Invalid WHERE clause in DELETE");
-                String condCol = condParts[0].trim();
-                String condVal = condParts[1].trim();
-                if (condVal.startsWith("'") && condVal.endsWith("'")) {
-                    condVal = condVal.substring(1, condVal.length() - 1);
-                }
-                command.setConditionColumn(condCol);
-                command.setConditionValue(condVal);
+                throw error("TABLE or INDEX");
+            }
+        } else if (accept("INSERT")) {
+            insert();
+        } else if (accept("COPY")) {
+            copy();
+        } else if (accept("EXPLAIN")) {
+            expect("SELECT");
+            command.setExplain(true);
+            select();
+        } else if (accept("SELECT")) {
+            select();
+        } else if (accept("UPDATE")) {
+            update();
+        } else if (accept("DELETE")) {
+            command.setType(CommandType.DELETE);
+            expect("FROM");
+            command.setTableName(name());
+            if (accept("WHERE")) {
+                command.setWhere(expression());
             }
         } else {
             throw new RuntimeException("Unsupported command");
         }
+        acceptSymbol(";");
+        if (lexer.kind() != Lexer.Kind.END)
+            throw error("end of statement");
         return command;
     }
+
+    private void transactionNoise() {
+        if (!accept("TRANSACTION")) {
+            accept("WORK");
+        }
+    }
+
+    // CREATE TABLE name (column type [maxLength], ...) [WITH (key = value, ...)]
+    private void createTable() {
+        command.setType(CommandType.CREATE_TABLE);
+        command.setTableName(name());
+        expectSymbol("(");
+        Map<String, Object> colDefsMap = new LinkedHashMap<>();
+        do {
+            String colName = name();
+            if (lexer.kind() != Lexer.Kind.WORD)
+                throw error("a column type");
+            String colType = lexer.text().toUpperCase();
+            lexer.next();
+            int maxLength = 0;
+            if (acceptSymbol("(")) {
+                maxLength = number();
+                expectSymbol(")");
+            } else if (lexer.kind() == Lexer.Kind.NUMBER) {
+                maxLength = number();
+            }
+            if (colType.equals("VARCHAR") || colType.equals("STRING")) {
+                colDefsMap.put(colName, new Object[] { char[].class, maxLength });
+            } else if (colType.equals("INTEGER")) {
+                colDefsMap.put(colName, new Object[] { Integer.class, 0 });
+            } else if (colType.equals("LONG")) {
+                colDefsMap.put(colName, new Object[] { Long.class, 0 });
+            } else if (colType.equals("BOOLEAN")) {
+                colDefsMap.put(colName, new Object[] { Boolean.class, 0 });
+            } else {
+                throw new RuntimeException("Unsupported type: " + colType);
+            }
+        } while (acceptSymbol(","));
+        expectSymbol(")");
+        command.setColumnDefinitions(colDefsMap);
+        command.setTableOptions(options("table"));
+    }
+
+    // [WITH (key = value, ...)], keys in lower case
+    private Map<String, String> options(String of) {
+        Map<String, String> optionsMap = new LinkedHashMap<>();
+        if (accept("WITH")) {
+            expectSymbol("(");
+            do {
+                String key = name().toLowerCase();
+                expectSymbol("=");
+                Object value = value();
+                if (value instanceof Parameter)
+                    throw new RuntimeException("Invalid " + of + " option: " + key);
+                optionsMap.put(key, value.toString());
+            } while (acceptSymbol(","));
+            expectSymbol(")");
+        }
+        return optionsMap;
+    }
+
+    // CREATE INDEX ON table (column) [USING HASH | BTREE] [UNIQUE]
+    private void createIndex() {
+        command.setType(CommandType.CREATE_INDEX);
+        indexTarget();
+        IndexType indexType = IndexType.HASH;
+        boolean unique = false;
+        while (lexer.kind() == Lexer.Kind.WORD) {
+            if (accept("USING")) {
+                indexType = IndexType.fromString(name());
+            } else if (accept("UNIQUE")) {
+                unique = true;
+            } else {
+                throw error("USING or UNIQUE");
+            }
+        }
+        command.setIndexType(indexType);
+        command.setUniqueIndex(unique);
+    }
+
+    // ON table (column)
+    private void indexTarget() {
+        expect("ON");
+        command.setTableName(name());
+        expectSymbol("(");
+        command.setIndexField(name());
+        expectSymbol(")");
+    }
+
+    // INSERT INTO table (column, ...) VALUES (value, ...) [, (value, ...) ...]
+    private void insert() {
+        command.setType(CommandType.INSERT);
+        expect("INTO");
+        command.setTableName(name());
+        expectSymbol("(");
+        List<String> columns = names();
+        expectSymbol(")");
+        expect("VALUES");
+        List<List<Object>> rows = new ArrayList<>();
+        do {
+            expectSymbol("(");
+            List<Object> values = values();
+            expectSymbol(")");
+            if (columns.size() != values.size())
+                throw new RuntimeException("Columns count does not match values count");
+            rows.add(values);
+        } while (acceptSymbol(","));
+        command.setInsertColumns(columns);
+        command.setInsertRows(rows);
+    }
+
+    // COPY table [(column, ...)] FROM 'file' [WITH (header = true, delimiter = ',')]
+    private void copy() {
+        command.setType(CommandType.COPY);
+        command.setTableName(name());
+        if (acceptSymbol("(")) {
+            command.setInsertColumns(names());
+            expectSymbol(")");
+        }
+        expect("FROM");
+        if (lexer.kind() != Lexer.Kind.STRING)
+            throw error("a quoted file name");
+        command.setCopyFile(lexer.stringValue());
+        lexer.next();
+        command.setCopyOptions(options("COPY"));
+    }
+
+    // [EXPLAIN] SELECT * | item, ... FROM table [[AS] alias]
+    //     [[INNER] JOIN table [[AS] alias] ON column = column] [WHERE expression]
+    //     [GROUP BY column, ...] [ORDER BY item [ASC|DESC]] [LIMIT n] [OFFSET n]
+    // where an item is a column or an aggregate: COUNT(*), or COUNT, SUM, MIN, MAX or AVG of a
+    // column, optionally named with AS. Columns may be qualified as table.column.
+    private void select() {
+        command.setType(CommandType.SELECT);
+        List<Object> items = null;
+        if (!acceptSymbol("*")) {
+            items = new ArrayList<>();
+            do {
+                String name = column();
+                if (acceptSymbol("(")) {
+                    items.add(aggregate(name, true));
+                } else {
+                    items.add(name);
+                }
+            } while (acceptSymbol(","));
+        }
+        expect("FROM");
+        command.setTableName(name());
+        command.setTableAlias(alias());
+        if (accept("INNER")) {
+            expect("JOIN");
+            join();
+        } else if (accept("JOIN")) {
+            join();
+        }
+        if (accept("WHERE")) {
+            command.setWhere(expression());
+        }
+        if (accept("GROUP")) {
+            expect("BY");
+            List<String> groupBy = new ArrayList<>();
+            do {
+                groupBy.add(column());
+            } while (acceptSymbol(","));
+            command.setGroupBy(groupBy);
+        }
+        boolean aggregated = command.getGroupBy() != null
+                || (items != null && items.stream().anyMatch(item -> item instanceof Aggregate));
+        List<String> selectColumns = new ArrayList<>();
+        if (aggregated) {
+            if (items == null) {
+                throw new RuntimeException("SELECT * cannot be used with GROUP BY");
+            }
+            command.setSelectItems(items);
+        } else if (items != null) {
+            items.forEach(item -> selectColumns.add((String) item));
+        }
+        command.setSelectColumns(selectColumns);
+        if (accept("ORDER")) {
+            expect("BY");
+            String name = column();
+            command.setOrderByColumn(acceptSymbol("(") ? aggregate(name, false).getName() : name);
+            if (accept("DESC")) {
+                command.setOrderDescending(true);
+            } else {
+                accept("ASC");
+            }
+        }
+        if (accept("LIMIT")) {
+            command.setLimit(value());
+        }
+        if (accept("OFFSET")) {
+            command.setOffset(value());
+            if (command.getLimit() == null && accept("LIMIT")) {
+                command.setLimit(value());
+            }
+        }
+    }
+
+    // JOIN table [[AS] alias] ON column = column, after the JOIN keyword
+    private void join() {
+        command.setJoinTableName(name());
+        command.setJoinAlias(alias());
+        expect("ON");
+        command.setJoinLeftColumn(column());
+        expectSymbol("=");
+        command.setJoinRightColumn(column());
+    }
+
+    // [AS] name after a table name; a bare word only if it does not start the next clause.
+    private String alias() {
+        if (accept("AS")) {
+            return name();
+        }
+        if (lexer.kind() != Lexer.Kind.WORD) {
+            return null;
+        }
+        for (String keyword : CLAUSES) {
+            if (lexer.isWord(keyword)) {
+                return null;
+            }
+        }
+        return name();
+    }
+
+    // A column, optionally qualified by its table or alias: name or table.name.
+    private String column() {
+        String name = name();
+        if (acceptSymbol(".")) {
+            return name + "." + name();
+        }
+        return name;
+    }
+
+    // The rest of an aggregate after its function name and opening parenthesis.
+    private Aggregate aggregate(String function, boolean named) {
+        Aggregate.Function fn = Aggregate.Function.fromString(function);
+        String column = null;
+        if (!acceptSymbol("*")) {
+            column = column();
+        } else if (fn != Aggregate.Function.COUNT) {
+            throw new RuntimeException("Only COUNT takes *");
+        }
+        expectSymbol(")");
+        return new Aggregate(fn, column, named && accept("AS") ? name() : null);
+    }
+
+    // UPDATE table SET column = value, ... [WHERE expression]
+    private void update() {
+        command.setType(CommandType.UPDATE);
+        command.setTableName(name());
+        expect("SET");
+        Map<String, Object> updateMap = new LinkedHashMap<>();
+        do {
+            String column = name();
+            expectSymbol("=");
+            updateMap.put(column, value());
+        } while (acceptSymbol(","));
+        command.setUpdateValues(updateMap);
+        if (accept("WHERE")) {
+            command.setWhere(expression());
+        }
+    }
+
+    // expression := conjunction {OR conjunction}
+    private Expression expression() {
+        Expression first = conjunction();
+        if (!lexer.isWord("OR")) {
+            return first;
+        }
+        List<Expression> terms = new ArrayList<>();
+        addFlattened(terms, first, Expression.Or.class);
+        while (accept("OR")) {
+            addFlattened(terms, conjunction(), Expression.Or.class);
+        }
+        return new Expression.Or(terms);
+    }
+
+    // conjunction := predicate {AND predicate}
+    private Expression conjunction() {
+        Expression first = predicate();
+        if (!lexer.isWord("AND")) {
+            return first;
+        }
+        List<Expression> terms = new ArrayList<>();
+        addFlattened(terms, first, Expression.And.class);
+        while (accept("AND")) {
+            addFlattened(terms, predicate(), Expression.And.class);
+        }
+        return new Expression.And(terms);
+    }
+
+    private static void addFlattened(List<Expression> terms, Expression term, Class<? extends Expression.Junction> kind) {
+        if (kind.isInstance(term)) {
+            terms.addAll(((Expression.Junction) term).getTerms());
+        } else {
+            terms.add(term);
+        }
+    }
+
+    // predicate := (expression) | column op value | column IN (value, ...) | column LIKE value
+    private Expression predicate() {
+        if (acceptSymbol("(")) {
+            Expression inner = expression();
+            expectSymbol(")");
+            return inner;
+        }
+        String column = column();
+        if (accept("IN")) {
+            expectSymbol("(");
+            List<Object> values = values();
+            expectSymbol(")");
+            return new Expression.In(column, values);
+        }
+        Operator operator;
+        if (accept("LIKE")) {
+            operator = Operator.LIKE;
+        } else if (acceptSymbol("=")) {
+            operator = Operator.EQ;
+        } else if (acceptSymbol("<>") || acceptSymbol("!=")) {
+            operator = Operator.NE;
+        } else if (acceptSymbol("<")) {
+            operator = Operator.LT;
+        } else if (acceptSymbol("<=")) {
+            operator = Operator.LE;
+        } else if (acceptSymbol(">")) {
+            operator = Operator.GT;
+        } else if (acceptSymbol(">=")) {
+            operator = Operator.GE;
+        } else {
+            throw error("a comparison operator");
+        }
+        return new Expression.Comparison(column, operator, value());
+    }
+
+    private List<String> names() {
+        List<String> names = new ArrayList<>();
+        do {
+            names.add(name());
+        } while (acceptSymbol(","));
+        return names;
+    }
+
+    private List<Object> values() {
+        List<Object> values = new ArrayList<>();
+        do {
+            values.add(value());
+        } while (acceptSymbol(","));
+        return values;
+    }
+
+    // A literal as written: a quoted string without its quotes, a number, a bare word such as true,
+    // or ? for the next parameter of the command.
+    private Object value() {
+        Object value;
+        switch (lexer.kind()) {
+            case STRING:
+                value = lexer.stringValue();
+                break;
+            case NUMBER:
+            case WORD:
+                value = lexer.text();
+                break;
+            default:
+                if (lexer.isSymbol("?")) {
+                    value = command.addParameter();
+                } else if (lexer.isSymbol("-")) {
+                    lexer.next();
+                    if (lexer.kind() != Lexer.Kind.NUMBER)
+                        throw error("a number");
+                    value = "-" + lexer.text();
+                } else {
+                    throw error("a value");
+                }
+        }
+        lexer.next();
+        return value;
+    }
+
+    private String name() {
+        if (lexer.kind() != Lexer.Kind.WORD)
+            throw error("a name");
+        String name = lexer.text();
+        lexer.next();
+        return name;
+    }
+
+    private int number() {
+        if (lexer.kind() != Lexer.Kind.NUMBER)
+            throw error("a number");
+        try {
+            int number = Integer.parseInt(lexer.text());
+            lexer.next();
+            return number;
+        } catch (NumberFormatException e) {
+            throw error("an integer");
+        }
+    }
+
+    private boolean accept(String keyword) {
+        if (lexer.isWord(keyword)) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String keyword) {
+        if (!accept(keyword))
+            throw error(keyword);
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (lexer.isSymbol(symbol)) {
+            lexer.next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expectSymbol(String symbol) {
+        if (!acceptSymbol(symbol))
+            throw error("'" + symbol + "'");
+    }
+
+    private RuntimeException error(String expected) {
+        return new RuntimeException("Syntax error: expected " + expected + " but found " + lexer.describe());
+    }
 }
@@ -0,0 +1,118 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.transaction.Transaction;
+import com.github.amirilf.dbilf.transaction.TransactionManager;
+import java.util.HashMap;
+import java.util.Map;
+
+// What one client's statements share: its open transaction, the statements it prepared by name,
+// the cursors it declared and its settings, and while one runs, the statement's profile. Every
+// statement is run against a session, and nothing is kept per thread, so a session may be served
+// by a different thread from one statement to the next as long as it runs one statement at a time.
+public final class Session implements AutoCloseable {
+
+    private Transaction transaction;
+    private final Map<String, PreparedStatement> preparedStatements = new HashMap<>();
+    private final Map<String, OpenCursor> cursors = new HashMap<>();
+    private Integer parallelism; // SET PARALLELISM, null for the default
+    private StatementProfile profile; // of the running statement, while the slow query log is on
+    private long lockWaitNanos; // of the transactions that ended
+
+    // A declared cursor: the open result of its SELECT and the transaction it was declared in,
+    // whose end closes it.
+    static final class OpenCursor {
+        final Result result;
+        final Transaction tx;
+
+        OpenCursor(Result result, Transaction tx) {
+            this.result = result;
+            this.tx = tx;
+        }
+    }
+
+    // The session's transaction, null between transactions.
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    void begin(boolean optimistic) {
+        if (transaction != null) {
+            throw new IllegalStateException("Transaction already active");
+        }
+        transaction = TransactionManager.begin(optimistic);
+    }
+
+    void commit() {
+        Transaction tx = end();
+        try {
+            TransactionManager.commit(tx);
+        } finally {
+            lockWaitNanos += tx.getLockWaitNanos();
+        }
+    }
+
+    void rollback() {
+        Transaction tx = end();
+        try {
+            TransactionManager.rollback(tx);
+        } finally {
+            lockWaitNanos += tx.getLockWaitNanos();
+        }
+    }
+
+    // Time the session's transactions spent waiting for row locks, the open one's so far included.
+    long getLockWaitNanos() {
+        return lockWaitNanos + (transaction != null ? transaction.getLockWaitNanos() : 0);
+    }
+
+    private Transaction end() {
+        Transaction tx = transaction;
+        if (tx == null) {
+            throw new IllegalStateException("No active transaction");
+        }
+        transaction = null;
+        return tx;
+    }
+
+    Map<String, PreparedStatement> getPreparedStatements() {
+        return preparedStatements;
+    }
+
+    Map<String, OpenCursor> getCursors() {
+        return cursors;
+    }
+
+    Integer getParallelism() {
+        return parallelism;
+    }
+
+    void setParallelism(Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    StatementProfile getProfile() {
+        return profile;
+    }
+
+    void setProfile(StatementProfile profile) {
+        this.profile = profile;
+    }
+
+    // Rolls back the open transaction, whose row locks would otherwise outlive the client, and
+    // drops everything else the session holds.
+    @Override
+    public void close() {
+        try {
+            if (transaction != null) {
+                rollback();
+            }
+        } finally {
+            for (OpenCursor cursor : cursors.values()) {
+                cursor.result.close();
+            }
+            cursors.clear();
+            preparedStatements.clear();
+            parallelism = null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.amirilf.dbilf.query;
+
+import com.github.amirilf.dbilf.metrics.Metrics;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Statements that took longer than the threshold, one line each, appended to a file. A statement
+// only puts its profile in a ring buffer: a slot is claimed by moving the tail, and if the writer
+// is a whole ring behind the statement is counted as dropped instead, so logging never blocks.
+// The writer thread formats and writes the lines, and notes what was dropped.
+public final class SlowQueryLog {
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Path file;
+    private final long thresholdNanos;
+    private final AtomicReferenceArray<StatementProfile> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private volatile long head; // next slot to write, moved by the writer only
+    private final AtomicLong dropped = new AtomicLong();
+    private final BufferedWriter out;
+    private final Thread writer;
+    private volatile boolean stopped;
+
+    public SlowQueryLog(Path file, long thresholdMillis, int capacity) {
+        this.file = file;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            out = Files.newBufferedWriter(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot open slow query log: " + e.getMessage());
+        }
+        writer = new Thread(this::writeLoop, "dbilf-slow-log");
+        writer.setDaemon(true);
+    }
+
+    public void start() {
+        writer.start();
+        System.out.println("Slow query log: statements over " + TimeUnit.NANOSECONDS.toMillis(thresholdNanos)
+                + " ms go to " + file);
+    }
+
+    // Writes what is in the ring and closes the file.
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    void offer(StatementProfile profile) {
+        long slot;
+        do {
+            slot = tail.get();
+            if (slot - head >= ring.length()) {
+                dropped.incrementAndGet();
+                Metrics.slowStatementDropped();
+                return;
+            }
+        } while (!tail.compareAndSet(slot, slot + 1));
+        ring.set((int) slot & mask, profile);
+        LockSupport.unpark(writer);
+    }
+
+    private void writeLoop() {
+        long reported = 0;
+        try (out) {
+            while (true) {
+                long slot = head;
+                StatementProfile profile = ring.get((int) slot & mask);
+                if (profile != null) {
+                    ring.set((int) slot & mask, null);
+                    head = slot + 1;
+                    out.write(profile.toLine());
+                    out.newLine();
+                    Metrics.slowStatementLogged();
+                    continue;
+                }
+                long lost = dropped.get();
+                if (lost > reported) {
+                    out.write(Instant.ofEpochMilli(System.currentTimeMillis()) + " dropped=" + (lost - reported)
+                            + " slow statements not logged, the log fell behind");
+                    out.newLine();
+                    reported = lost;
+                }
+                out.flush();
+                if (stopped && slot == tail.get()) {
+                    return;
+                }
+                // empty, or a statement claimed the slot and is about to fill it
+                LockSupport.parkNanos(this, IDLE_NANOS);
+            }
+        } catch (IOException e) {
+            System.err.println("Slow query log stopped: " + e.getMessage());
+        }
+    }
+}
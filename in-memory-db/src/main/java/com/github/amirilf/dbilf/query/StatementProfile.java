@@ -0,0 +1,122 @@
+package com.github.amirilf.dbilf.query;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Locale;
+
+// One statement as the slow query log sees it, filled in as it runs: when it arrived, was parsed
+// and had run, the plan it read through and how long it waited for row locks. What follows until
+// its result is closed is the protocol formatting the rows, and for a streamed scan reading them
+// too. A statement over the threshold keeps what its line needs, so the log's writer touches no
+// plan or table.
+final class StatementProfile {
+
+    private static final int MAX_SQL = 1000; // characters of the statement in its line
+
+    private final SlowQueryLog log;
+    private final String sql;
+    private final Object[] parameters; // of a prepared statement, null for plain SQL
+    private final long received = System.nanoTime();
+    private long parsed;
+    private long planNanos;
+    private long lockWaitStart;
+    private long lockWaitNanos;
+    private long executed;
+    private Plan plan;
+    private Join join;
+    private Result result;
+    private long changed = -1; // rows an INSERT, COPY, UPDATE or DELETE changed
+
+    // Kept once the statement turned out slow
+    private long finished;
+    private long time;
+    private String access;
+    private long examined = -1;
+    private long returned = -1;
+
+    StatementProfile(SlowQueryLog log, String sql, Object[] parameters) {
+        this.log = log;
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    void parsed() {
+        parsed = System.nanoTime();
+    }
+
+    void planned(Plan plan, long nanos) {
+        this.plan = plan;
+        planNanos += nanos;
+    }
+
+    void planned(Join join, long nanos) {
+        this.join = join;
+        planNanos += nanos;
+    }
+
+    void started(Session session) {
+        lockWaitStart = session.getLockWaitNanos();
+    }
+
+    void changed(long rows) {
+        changed = rows;
+    }
+
+    void executed(Session session, Result result) {
+        executed = System.nanoTime();
+        lockWaitNanos = session.getLockWaitNanos() - lockWaitStart;
+        this.result = result;
+        result.countRows();
+    }
+
+    // Called when the result is done with; hands the statement to the log if it was slow.
+    void finish() {
+        finished = System.nanoTime();
+        if (finished - received < log.getThresholdNanos()) {
+            return;
+        }
+        time = System.currentTimeMillis();
+        if (join != null) {
+            access = join.describe();
+            examined = join.examined();
+        } else if (plan != null) {
+            access = plan.describe();
+            examined = plan.examined();
+        }
+        // rows sent back, or those the statement changed
+        returned = result.getKind() == Result.Kind.ROWS ? result.rowsReturned() : changed;
+        plan = null;
+        join = null;
+        result = null;
+        log.offer(this);
+    }
+
+    // One line of the log, times in milliseconds.
+    String toLine() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(Instant.ofEpochMilli(time));
+        append(sb, "total", finished - received);
+        append(sb, "parse", parsed - received);
+        append(sb, "plan", planNanos);
+        append(sb, "execute", executed - parsed - planNanos);
+        append(sb, "format", finished - executed);
+        append(sb, "lock_wait", lockWaitNanos);
+        sb.append(" access=").append(access == null ? "-" : quote(access));
+        sb.append(" examined=").append(examined < 0 ? "-" : String.valueOf(examined));
+        sb.append(" returned=").append(returned < 0 ? "-" : String.valueOf(returned));
+        sb.append(" sql=").append(quote(sql.length() <= MAX_SQL ? sql
+                : sql.substring(0, MAX_SQL) + "... (" + sql.length() + " characters)"));
+        if (parameters != null) {
+            sb.append(" parameters=").append(quote(Arrays.toString(parameters)));
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String name, long nanos) {
+        sb.append(' ').append(name).append('=').append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", " ").replace("\r", " ") + '"';
+    }
+}
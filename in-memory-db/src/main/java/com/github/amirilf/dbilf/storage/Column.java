@@ -0,0 +1,257 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+// Typed, slot-addressed storage for one field. Guarded by the owning store's locks: a slot by the
+// lock of its stripe, growing by all of them.
+abstract class Column {
+
+    abstract void grow(int capacity);
+
+    abstract void set(int slot, Object value);
+
+    abstract Object get(int slot);
+
+    long getLong(int slot) {
+        throw new RuntimeException("Column is not numeric");
+    }
+
+    // Frees whatever the slot holds outside the fixed-width arrays.
+    void clear(int slot) {
+    }
+
+    // Predicate over slots, valid until the next structural change of the column.
+    abstract IntPredicate equalTo(Object value);
+
+    static Column forType(Class<?> type, int capacity) {
+        if (type == Long.class) {
+            return new LongColumn(capacity);
+        } else if (type == Integer.class) {
+            return new IntColumn(capacity);
+        } else if (type == Boolean.class) {
+            return new BooleanColumn(capacity);
+        } else if (type == char[].class) {
+            return new CharsColumn(capacity, false);
+        } else if (type == String.class) {
+            return new CharsColumn(capacity, true);
+        }
+        throw new RuntimeException("Unsupported type: " + type.getSimpleName());
+    }
+
+    static final class LongColumn extends Column {
+
+        private long[] values;
+
+        LongColumn(int capacity) {
+            values = new long[capacity];
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            values[slot] = (Long) value;
+        }
+
+        @Override
+        Object get(int slot) {
+            return values[slot];
+        }
+
+        @Override
+        long getLong(int slot) {
+            return values[slot];
+        }
+
+        @Override
+        IntPredicate equalTo(Object value) {
+            long key = (Long) value;
+            long[] data = values;
+            return slot -> data[slot] == key;
+        }
+    }
+
+    static final class IntColumn extends Column {
+
+        private int[] values;
+
+        IntColumn(int capacity) {
+            values = new int[capacity];
+        }
+
+        @Override
+        void grow(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            values[slot] = (Integer) value;
+        }
+
+        @Override
+        Object get(int slot) {
+            return values[slot];
+        }
+
+        @Override
+        long getLong(int slot) {
+            return values[slot];
+        }
+
+        @Override
+        IntPredicate equalTo(Object value) {
+            int key = (Integer) value;
+            int[] data = values;
+            return slot -> data[slot] == key;
+        }
+    }
+
+    static final class BooleanColumn extends Column {
+
+        private long[] bits;
+
+        BooleanColumn(int capacity) {
+            bits = new long[(capacity + 63) >>> 6];
+        }
+
+        @Override
+        void grow(int capacity) {
+            bits = Arrays.copyOf(bits, (capacity + 63) >>> 6);
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            if ((Boolean) value) {
+                bits[slot >>> 6] |= 1L << slot;
+            } else {
+                bits[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+
+        @Override
+        Object get(int slot) {
+            return (bits[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        @Override
+        long getLong(int slot) {
+            return (bits[slot >>> 6] >>> slot) & 1;
+        }
+
+        @Override
+        IntPredicate equalTo(Object value) {
+            boolean key = (Boolean) value;
+            long[] data = bits;
+            return slot -> ((data[slot >>> 6] & (1L << slot)) != 0) == key;
+        }
+    }
+
+    // Offset-encoded characters: every value lives in a shared char arena, addressed by (offset,
+    // length) per slot. Slots of different lock stripes of the store are written concurrently, so
+    // each stripe has an arena of its own. Space left behind by updates and deletes is reclaimed by
+    // compacting a stripe's arena instead of growing it once more than half of it is garbage.
+    static final class CharsColumn extends Column {
+
+        private static final int INITIAL_ARENA = 256;
+
+        private final boolean asString;
+        private final char[][] arenas = new char[SlottedRowStore.STRIPES][];
+        private final int[] arenaSizes = new int[SlottedRowStore.STRIPES];
+        private final long[] liveChars = new long[SlottedRowStore.STRIPES];
+        private int[] offsets;
+        private int[] lengths;
+
+        CharsColumn(int capacity, boolean asString) {
+            this.asString = asString;
+            for (int i = 0; i < arenas.length; i++) {
+                arenas[i] = new char[INITIAL_ARENA];
+            }
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+        }
+
+        @Override
+        void grow(int capacity) {
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+
+        @Override
+        void set(int slot, Object value) {
+            char[] chars = asString ? ((String) value).toCharArray() : (char[]) value;
+            clear(slot);
+            int stripe = SlottedRowStore.stripe(slot);
+            if (arenaSizes[stripe] + chars.length > arenas[stripe].length) {
+                makeRoom(stripe, chars.length);
+            }
+            System.arraycopy(chars, 0, arenas[stripe], arenaSizes[stripe], chars.length);
+            offsets[slot] = arenaSizes[stripe];
+            lengths[slot] = chars.length;
+            arenaSizes[stripe] += chars.length;
+            liveChars[stripe] += chars.length;
+        }
+
+        @Override
+        Object get(int slot) {
+            int offset = offsets[slot];
+            char[] chars = Arrays.copyOfRange(arenas[SlottedRowStore.stripe(slot)], offset, offset + lengths[slot]);
+            return asString ? new String(chars) : chars;
+        }
+
+        @Override
+        void clear(int slot) {
+            liveChars[SlottedRowStore.stripe(slot)] -= lengths[slot];
+            lengths[slot] = 0;
+        }
+
+        // The arena is looked up per slot: the predicate is only used under the lock of the slots
+        // it tests, which no compaction of their arena runs without.
+        @Override
+        IntPredicate equalTo(Object value) {
+            char[] key = value instanceof String ? ((String) value).toCharArray() : (char[]) value;
+            int[] offs = offsets;
+            int[] lens = lengths;
+            return slot -> lens[slot] == key.length && Arrays.equals(arenas[SlottedRowStore.stripe(slot)],
+                    offs[slot], offs[slot] + key.length, key, 0, key.length);
+        }
+
+        private void makeRoom(int stripe, int needed) {
+            long live = liveChars[stripe];
+            char[] arena = arenas[stripe];
+            if (arenaSizes[stripe] - live > live && live + needed <= arena.length) {
+                compactInto(stripe, new char[arena.length]);
+                return;
+            }
+            long required = Math.max((long) arena.length * 2, live + needed);
+            if (required > Integer.MAX_VALUE - 8) {
+                throw new RuntimeException("Character column is full");
+            }
+            compactInto(stripe, new char[(int) required]);
+        }
+
+        // Slots with length 0 carry no data, so copying slot by slot drops every dead range.
+        private void compactInto(int stripe, char[] target) {
+            char[] arena = arenas[stripe];
+            int size = 0;
+            for (int from = SlottedRowStore.firstSlot(stripe); from < lengths.length;
+                    from += SlottedRowStore.STRIPES * SlottedRowStore.SCAN_BLOCK) {
+                int to = Math.min(from + SlottedRowStore.SCAN_BLOCK, lengths.length);
+                for (int slot = from; slot < to; slot++) {
+                    int length = lengths[slot];
+                    if (length > 0) {
+                        System.arraycopy(arena, offsets[slot], target, size, length);
+                        offsets[slot] = size;
+                        size += length;
+                    }
+                }
+            }
+            arenas[stripe] = target;
+            arenaSizes[stripe] = size;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.function.IntPredicate;
+
+// One typed Column per field, addressed by slot.
+final class ColumnarRowStore extends SlottedRowStore {
+
+    private final Column[] columns;
+
+    ColumnarRowStore(Schema schema) {
+        super(schema);
+        this.columns = new Column[schema.getFieldCount()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = Column.forType(schema.getField(i).getType(), INITIAL_CAPACITY);
+        }
+    }
+
+    @Override
+    void grow(int capacity) {
+        for (Column column : columns) {
+            column.grow(capacity);
+        }
+    }
+
+    @Override
+    void write(int slot, Row row) {
+        for (int i = 0; i < columns.length; i++) {
+            columns[i].set(slot, row.getValue(i));
+        }
+    }
+
+    @Override
+    void clear(int slot) {
+        for (Column column : columns) {
+            column.clear(slot);
+        }
+    }
+
+    @Override
+    Object read(int slot, int position) {
+        return columns[position].get(slot);
+    }
+
+    @Override
+    long readLong(int slot, int position) {
+        return columns[position].getLong(slot);
+    }
+
+    @Override
+    IntPredicate equalTo(int position, Object value) {
+        return columns[position].equalTo(value);
+    }
+}
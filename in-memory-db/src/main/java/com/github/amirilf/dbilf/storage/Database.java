@@ -1,5 +1,7 @@
 package com.github.amirilf.dbilf.storage;
 
+import com.github.amirilf.dbilf.persistence.LogRecord;
+import com.github.amirilf.dbilf.persistence.WriteAheadLog;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -9,6 +11,7 @@ public final class Database {
 
     private static final Database INSTANCE = new Database();
     private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private volatile WriteAheadLog wal;
 
     private Database() {
     }
@@ -17,15 +20,30 @@ public final class Database {
         return INSTANCE;
     }
 
+    public WriteAheadLog getWal() {
+        return wal;
+    }
+
+    public void attachWal(WriteAheadLog wal) {
+        this.wal = wal;
+    }
+
     public Set<String> getTableNames() {
         return Collections.unmodifiableSet(tables.keySet());
     }
 
     public void createTable(String tableName, Schema schema) {
-        Table table = new Table(tableName, schema);
+        createTable(tableName, schema, StorageMode.HEAP);
+    }
+
+    public void createTable(String tableName, Schema schema, StorageMode storageMode) {
+        Table table = new Table(tableName, schema, storageMode);
         if (tables.putIfAbsent(tableName, table) != null) {
             throw new RuntimeException("Table " + tableName + " already exists");
         }
+        if (wal != null) {
+            wal.write(LogRecord.createTable(tableName, schema, storageMode));
+        }
     }
 
     public Table getTable(String tableName) {
@@ -36,9 +54,17 @@ public final class Database {
         return table;
     }
 
+    // The table, or null if there is none by that name.
+    public Table findTable(String tableName) {
+        return tables.get(tableName);
+    }
+
     public void deleteTable(String tableName) {
         if (tables.remove(tableName) == null) {
             throw new RuntimeException("Table " + tableName + " does not exist");
         }
+        if (wal != null) {
+            wal.write(LogRecord.dropTable(tableName));
+        }
     }
 }
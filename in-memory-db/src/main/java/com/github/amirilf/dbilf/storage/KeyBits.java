@@ -0,0 +1,83 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+// Set of primary keys as one bit each, in pages of 64K keys. Primary keys come from a sequence,
+// so a scan remembering every key it returned costs about an eighth of a byte per row.
+final class KeyBits {
+
+    private static final int PAGE_SHIFT = 16;
+    private static final int PAGE_WORDS = 1 << (PAGE_SHIFT - 6);
+
+    private final LongIntMap pageIndex = new LongIntMap(16);
+    private final List<long[]> pages = new ArrayList<>();
+    private final List<Long> pageNumbers = new ArrayList<>();
+    private long size;
+
+    private long lastPageNumber;
+    private long[] lastPage;
+
+    // Adds key, false if it was already there.
+    boolean add(long key) {
+        long[] page = page(key, true);
+        int bit = (int) key & ((1 << PAGE_SHIFT) - 1);
+        long mask = 1L << bit;
+        if ((page[bit >>> 6] & mask) != 0) {
+            return false;
+        }
+        page[bit >>> 6] |= mask;
+        size++;
+        return true;
+    }
+
+    void addAll(KeyBits other) {
+        other.forEach(this::add);
+    }
+
+    boolean contains(long key) {
+        long[] page = page(key, false);
+        int bit = (int) key & ((1 << PAGE_SHIFT) - 1);
+        return page != null && (page[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    void forEach(LongConsumer action) {
+        for (int p = 0; p < pages.size(); p++) {
+            long[] page = pages.get(p);
+            long base = pageNumbers.get(p) << PAGE_SHIFT;
+            for (int w = 0; w < PAGE_WORDS; w++) {
+                for (long word = page[w]; word != 0; word &= word - 1) {
+                    action.accept(base + (w << 6) + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+    }
+
+    // Keys mostly arrive in order, so the page of the previous key is checked first.
+    private long[] page(long key, boolean create) {
+        long pageNumber = key >> PAGE_SHIFT;
+        if (lastPage != null && pageNumber == lastPageNumber) {
+            return lastPage;
+        }
+        int index = pageIndex.get(pageNumber);
+        long[] page;
+        if (index >= 0) {
+            page = pages.get(index);
+        } else if (create) {
+            page = new long[PAGE_WORDS];
+            pageIndex.put(pageNumber, pages.size());
+            pages.add(page);
+            pageNumbers.add(pageNumber);
+        } else {
+            return null;
+        }
+        lastPageNumber = pageNumber;
+        lastPage = page;
+        return page;
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.amirilf.dbilf.storage;
+
+// Open-addressing long -> int map with linear probing, used to address storage slots and index
+// postings by primary key without boxing. Not thread-safe; callers guard it with their own lock.
+public final class LongIntMap {
+
+    private static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values; // value + 1, 0 marks an empty bucket
+    private int mask;
+    private int size;
+
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, expectedSize * 2) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(long key) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                return MISSING;
+            }
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+    }
+
+    public void put(long key, int value) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            if (values[i] == 0) {
+                keys[i] = key;
+                values[i] = value + 1;
+                if (++size * 2 > values.length) {
+                    resize(values.length * 2);
+                }
+                return;
+            }
+            if (keys[i] == key) {
+                values[i] = value + 1;
+                return;
+            }
+        }
+    }
+
+    public int remove(long key) {
+        int i = hash(key) & mask;
+        while (true) {
+            if (values[i] == 0) {
+                return MISSING;
+            }
+            if (keys[i] == key) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        int removed = values[i] - 1;
+        // Backward-shift deletion keeps probe chains intact without tombstones.
+        for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        values[i] = 0;
+        size--;
+        return removed;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != 0) {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != 0) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
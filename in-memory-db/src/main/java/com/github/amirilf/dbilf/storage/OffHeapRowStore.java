@@ -0,0 +1,260 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+// Fixed-width records in direct ByteBuffer slabs laid out from the Schema, with VARCHAR data in
+// a variable-length area of power-of-two size classes, one per lock stripe of the store. Only a
+// few primitive arrays stay on the heap, so heap size and GC work do not grow with the number of
+// rows.
+final class OffHeapRowStore extends SlottedRowStore {
+
+    private static final int SLAB_SHIFT = 20;
+    private static final int SLAB_BYTES = 1 << SLAB_SHIFT;
+    private static final byte LONG = 0;
+    private static final byte INTEGER = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte CHARS = 3;
+    private static final byte STRING = 4;
+    private static final int CHARS_WIDTH = 12; // var area address + length in chars
+
+    private final byte[] kinds;
+    private final int[] offsets;
+    private final int recordSize;
+    private final int slotsPerSlab;
+    private final VarArea[] varAreas = new VarArea[STRIPES];
+    private ByteBuffer[] slabs = new ByteBuffer[0];
+
+    OffHeapRowStore(Schema schema) {
+        super(schema);
+        int fieldCount = schema.getFieldCount();
+        kinds = new byte[fieldCount];
+        offsets = new int[fieldCount];
+        int size = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            Class<?> type = schema.getField(i).getType();
+            offsets[i] = size;
+            if (type == Long.class) {
+                kinds[i] = LONG;
+                size += 8;
+            } else if (type == Integer.class) {
+                kinds[i] = INTEGER;
+                size += 4;
+            } else if (type == Boolean.class) {
+                kinds[i] = BOOLEAN;
+                size += 1;
+            } else if (type == char[].class || type == String.class) {
+                kinds[i] = type == String.class ? STRING : CHARS;
+                size += CHARS_WIDTH;
+            } else {
+                throw new RuntimeException("Unsupported type: " + type.getSimpleName());
+            }
+        }
+        recordSize = size;
+        slotsPerSlab = Math.max(1, SLAB_BYTES / recordSize);
+        for (int i = 0; i < varAreas.length; i++) {
+            varAreas[i] = new VarArea();
+        }
+        grow(INITIAL_CAPACITY);
+    }
+
+    @Override
+    void grow(int capacity) {
+        int needed = (capacity + slotsPerSlab - 1) / slotsPerSlab;
+        if (needed > slabs.length) {
+            int existing = slabs.length;
+            slabs = Arrays.copyOf(slabs, needed);
+            for (int i = existing; i < needed; i++) {
+                slabs[i] = ByteBuffer.allocateDirect(slotsPerSlab * recordSize);
+            }
+        }
+    }
+
+    @Override
+    void write(int slot, Row row) {
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int base = (slot % slotsPerSlab) * recordSize;
+        for (int i = 0; i < kinds.length; i++) {
+            int at = base + offsets[i];
+            Object value = row.getValue(i);
+            switch (kinds[i]) {
+                case LONG:
+                    slab.putLong(at, (Long) value);
+                    break;
+                case INTEGER:
+                    slab.putInt(at, (Integer) value);
+                    break;
+                case BOOLEAN:
+                    slab.put(at, (byte) ((Boolean) value ? 1 : 0));
+                    break;
+                default:
+                    VarArea varArea = varAreas[stripe(slot)];
+                    releaseChars(varArea, slab, at);
+                    char[] chars = kinds[i] == STRING ? ((String) value).toCharArray() : (char[]) value;
+                    if (chars.length > 0) {
+                        long address = varArea.allocate(chars.length * 2);
+                        varArea.putChars(address, chars);
+                        slab.putLong(at, address);
+                    }
+                    slab.putInt(at + 8, chars.length);
+            }
+        }
+    }
+
+    @Override
+    void clear(int slot) {
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int base = (slot % slotsPerSlab) * recordSize;
+        for (int i = 0; i < kinds.length; i++) {
+            if (kinds[i] == CHARS || kinds[i] == STRING) {
+                releaseChars(varAreas[stripe(slot)], slab, base + offsets[i]);
+            }
+        }
+    }
+
+    @Override
+    Object read(int slot, int position) {
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int at = (slot % slotsPerSlab) * recordSize + offsets[position];
+        switch (kinds[position]) {
+            case LONG:
+                return slab.getLong(at);
+            case INTEGER:
+                return slab.getInt(at);
+            case BOOLEAN:
+                return slab.get(at) != 0;
+            default:
+                int length = slab.getInt(at + 8);
+                char[] chars = length == 0 ? new char[0] : varAreas[stripe(slot)].getChars(slab.getLong(at), length);
+                return kinds[position] == STRING ? new String(chars) : chars;
+        }
+    }
+
+    @Override
+    long readLong(int slot, int position) {
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int at = (slot % slotsPerSlab) * recordSize + offsets[position];
+        switch (kinds[position]) {
+            case LONG:
+                return slab.getLong(at);
+            case INTEGER:
+                return slab.getInt(at);
+            case BOOLEAN:
+                return slab.get(at);
+            default:
+                throw new RuntimeException("Field " + schema.getField(position).getName() + " is not numeric");
+        }
+    }
+
+    @Override
+    IntPredicate equalTo(int position, Object value) {
+        int offset = offsets[position];
+        switch (kinds[position]) {
+            case LONG:
+                long longKey = (Long) value;
+                return slot -> slabs[slot / slotsPerSlab].getLong(at(slot, offset)) == longKey;
+            case INTEGER:
+                int intKey = (Integer) value;
+                return slot -> slabs[slot / slotsPerSlab].getInt(at(slot, offset)) == intKey;
+            case BOOLEAN:
+                byte boolKey = (byte) ((Boolean) value ? 1 : 0);
+                return slot -> slabs[slot / slotsPerSlab].get(at(slot, offset)) == boolKey;
+            default:
+                char[] key = value instanceof String ? ((String) value).toCharArray() : (char[]) value;
+                return slot -> {
+                    ByteBuffer slab = slabs[slot / slotsPerSlab];
+                    int at = at(slot, offset);
+                    return slab.getInt(at + 8) == key.length
+                            && (key.length == 0 || varAreas[stripe(slot)].charsEqual(slab.getLong(at), key));
+                };
+        }
+    }
+
+    private int at(int slot, int offset) {
+        return (slot % slotsPerSlab) * recordSize + offset;
+    }
+
+    private static void releaseChars(VarArea varArea, ByteBuffer slab, int at) {
+        int length = slab.getInt(at + 8);
+        if (length > 0) {
+            varArea.release(slab.getLong(at), length * 2);
+            slab.putInt(at + 8, 0);
+        }
+    }
+
+    // Bump allocation inside direct slabs, with one free list of addresses per size class.
+    private static final class VarArea {
+
+        private static final int MIN_CLASS = 4;
+
+        private final List<ByteBuffer> slabs = new ArrayList<>();
+        private final long[][] free = new long[SLAB_SHIFT + 1][];
+        private final int[] freeCount = new int[SLAB_SHIFT + 1];
+        private int top = SLAB_BYTES;
+
+        long allocate(int bytes) {
+            int sizeClass = sizeClass(bytes);
+            if (freeCount[sizeClass] > 0) {
+                return free[sizeClass][--freeCount[sizeClass]];
+            }
+            int size = 1 << sizeClass;
+            if (top + size > SLAB_BYTES) {
+                slabs.add(ByteBuffer.allocateDirect(SLAB_BYTES));
+                top = 0;
+            }
+            long address = ((long) (slabs.size() - 1) << SLAB_SHIFT) | top;
+            top += size;
+            return address;
+        }
+
+        void release(long address, int bytes) {
+            int sizeClass = sizeClass(bytes);
+            long[] list = free[sizeClass];
+            if (list == null) {
+                list = free[sizeClass] = new long[16];
+            } else if (freeCount[sizeClass] == list.length) {
+                list = free[sizeClass] = Arrays.copyOf(list, list.length * 2);
+            }
+            list[freeCount[sizeClass]++] = address;
+        }
+
+        void putChars(long address, char[] chars) {
+            ByteBuffer slab = slabs.get((int) (address >>> SLAB_SHIFT));
+            int offset = (int) (address & (SLAB_BYTES - 1));
+            for (int i = 0; i < chars.length; i++) {
+                slab.putChar(offset + i * 2, chars[i]);
+            }
+        }
+
+        char[] getChars(long address, int length) {
+            ByteBuffer slab = slabs.get((int) (address >>> SLAB_SHIFT));
+            int offset = (int) (address & (SLAB_BYTES - 1));
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = slab.getChar(offset + i * 2);
+            }
+            return chars;
+        }
+
+        boolean charsEqual(long address, char[] key) {
+            ByteBuffer slab = slabs.get((int) (address >>> SLAB_SHIFT));
+            int offset = (int) (address & (SLAB_BYTES - 1));
+            for (int i = 0; i < key.length; i++) {
+                if (slab.getChar(offset + i * 2) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int sizeClass(int bytes) {
+            if (bytes > SLAB_BYTES) {
+                throw new RuntimeException("Value too large for off-heap storage");
+            }
+            return Math.max(MIN_CLASS, 32 - Integer.numberOfLeadingZeros(bytes - 1));
+        }
+    }
+}
@@ -1,70 +1,119 @@
 package com.github.amirilf.dbilf.storage;
 
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import lombok.EqualsAndHashCode;
 
-@EqualsAndHashCode
-public final class Row {
+// Values are laid out by Schema position; tables materialize rows from their columns on read.
+@EqualsAndHashCode(exclude = "schema")
+public final class Row implements RowView {
 
-    private final Map<String, Object> data;
+    private final Schema schema;
+    private final Object[] values;
 
-    private Row(Map<String, Object> data) {
-        this.data = data;
+    Row(Schema schema, Object[] values) {
+        this.schema = schema;
+        this.values = values;
     }
 
     public Object getValue(String fieldName) {
-        return data.get(fieldName);
+        int position = schema.positionOf(fieldName);
+        return position < 0 ? null : values[position];
+    }
+
+    // A row computed by a query rather than stored, such as a group of an aggregate. It has no
+    // schema and is read by position only.
+    public static Row of(Object... values) {
+        return new Row(null, values);
+    }
+
+    // Copy with the values at positions replaced, such as the new image of a row for UPDATE.
+    Row with(int[] positions, Object[] replacements) {
+        Object[] copy = values.clone();
+        for (int i = 0; i < positions.length; i++) {
+            copy[positions[i]] = replacements[i];
+        }
+        return new Row(schema, copy);
+    }
+
+    @Override
+    public Object getValue(int position) {
+        return values[position];
+    }
+
+    @Override
+    public long getLong(int position) {
+        Object value = values[position];
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return ((Number) value).longValue();
+    }
+
+    @Override
+    public Row row() {
+        return this;
+    }
+
+    public Schema getSchema() {
+        return schema;
     }
 
     public Map<String, Object> getData() {
+        Map<String, Object> data = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            data.put(schema.getField(i).getName(), values[i]);
+        }
         return Collections.unmodifiableMap(data);
     }
 
     public static class Builder {
 
-        private final Map<String, Object> data = new HashMap<>();
+        private final Object[] values;
         private final Schema schema;
         private boolean customID = false;
 
         public Builder(Schema schema) {
             this.schema = schema;
+            this.values = new Object[schema.getFieldCount()];
         }
 
         public Builder set(String fieldName, Object value) {
             if ("id".equals(fieldName)) {
                 throw new RuntimeException("The id field is managed automatically");
             }
-            if (!schema.getFields().containsKey(fieldName)) {
+            int position = schema.positionOf(fieldName);
+            if (position < 0) {
                 throw new RuntimeException("Field " + fieldName + " does not exist in schema");
             }
-            data.put(fieldName, value);
+            values[position] = value;
             return this;
         }
 
         public Builder setId(Object value) {
-            data.put("id", value);
+            values[schema.positionOf(schema.getPKField().getName())] = value;
             customID = true;
             return this;
         }
 
+        // Hands the value array over to the row, so a builder is good for a single build().
         public Row build() {
             if (!customID) {
-                data.put("id", schema.getAndIncrement());
+                values[schema.positionOf(schema.getPKField().getName())] = schema.getAndIncrement();
             }
-            schema.getFields().forEach((fieldName, field) -> {
-                if (!data.containsKey(fieldName)) {
-                    throw new RuntimeException("Field " + fieldName + " is not set");
+            for (int i = 0; i < values.length; i++) {
+                Field<?> field = schema.getField(i);
+                if (values[i] == null) {
+                    throw new RuntimeException("Field " + field.getName() + " is not set");
                 }
-                Object value = data.get(fieldName);
-                if (!field.validate(value)) {
-                    throw new RuntimeException("Invalid value for field '" + fieldName + "'. Expected type: "
+                if (!field.validate(values[i])) {
+                    throw new RuntimeException("Invalid value for field '" + field.getName() + "'. Expected type: "
                             + field.getType().getSimpleName()
                             + (field.getMaxLength() > 0 ? " (max length " + field.getMaxLength() + ")" : ""));
                 }
-            });
-            return new Row(new HashMap<>(data));
+            }
+            return new Row(schema, values);
         }
     }
 }
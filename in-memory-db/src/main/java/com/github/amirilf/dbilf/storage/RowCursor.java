@@ -0,0 +1,30 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.Iterator;
+
+// Rows produced one at a time, e.g. by a scan that reads the table a batch at a time. A cursor
+// may hold a snapshot open, so whoever does not drain it has to close it.
+public interface RowCursor extends Iterator<Row>, AutoCloseable {
+
+    @Override
+    void close();
+
+    // Rows that are already in memory.
+    static RowCursor of(Iterator<Row> rows) {
+        return new RowCursor() {
+            @Override
+            public boolean hasNext() {
+                return rows.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                return rows.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
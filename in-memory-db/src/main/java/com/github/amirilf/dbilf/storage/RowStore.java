@@ -0,0 +1,45 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Physical row storage of a Table, keyed by primary key. Implementations are thread-safe; row
+// level isolation is the table's job.
+interface RowStore {
+
+    int size();
+
+    boolean contains(long key);
+
+    Row get(long key);
+
+    // Inserts or replaces the row with the same primary key and returns the replaced one.
+    Row put(Row row);
+
+    Row remove(long key);
+
+    // Finds and scans test every row in storage order, split over up to parallelism tasks when
+    // the store is large enough to be worth it.
+    List<Row> findEquals(int position, Object value, int parallelism);
+
+    // Rows whose value at position passes the test.
+    List<Row> findWhere(int position, Predicate<Object> test, int parallelism);
+
+    // Rows passing test, every row if it is null.
+    List<Row> scan(Predicate<Row> test, int parallelism);
+
+    // The rows of scan a batch at a time, for a reader that streams them.
+    Iterator<List<Row>> batches(Predicate<Row> test, int parallelism);
+
+    // Every row in storage order, fed to one visitor per scan task; returns the visitors.
+    <V extends Consumer<RowView>> List<V> visit(Supplier<V> visitors, int parallelism);
+
+    // How many tasks a scan at this parallelism is split over.
+    int partitions(int parallelism);
+
+    // Weakly consistent, like a ConcurrentHashMap iterator.
+    Iterator<Row> iterator();
+}
@@ -0,0 +1,13 @@
+package com.github.amirilf.dbilf.storage;
+
+// A row read in place, by Schema position. Views handed out by a scan are only valid during the
+// call they are passed to; row() copies the values out.
+public interface RowView {
+
+    // Numeric and boolean fields without boxing; booleans read as 0 or 1.
+    long getLong(int position);
+
+    Object getValue(int position);
+
+    Row row();
+}
@@ -0,0 +1,57 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+// Fork/join pool shared by partitioned scans and the parse tasks of bulk loads, sized once at
+// startup. A session's parallelism only decides how many partitions one of its scans is cut into,
+// so sessions asking for more than the pool has still share its threads.
+public final class ScanPool {
+
+    private static volatile ForkJoinPool pool;
+
+    private ScanPool() {
+    }
+
+    public static synchronized void setThreads(int threads) {
+        if (threads < 1) {
+            throw new RuntimeException("Scan threads must be at least 1");
+        }
+        ForkJoinPool previous = pool;
+        pool = new ForkJoinPool(threads, scanThreads(), null, false);
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    public static int getThreads() {
+        return get().getParallelism();
+    }
+
+    public static <T> Future<T> submit(Callable<T> task) {
+        return get().submit(task);
+    }
+
+    static ForkJoinPool get() {
+        ForkJoinPool current = pool;
+        if (current == null) {
+            synchronized (ScanPool.class) {
+                if (pool == null) {
+                    setThreads(Runtime.getRuntime().availableProcessors());
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory scanThreads() {
+        return owner -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(owner);
+            thread.setName("dbilf-scan-" + thread.getPoolIndex());
+            return thread;
+        };
+    }
+}
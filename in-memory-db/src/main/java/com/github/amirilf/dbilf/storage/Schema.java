@@ -1,9 +1,11 @@
 package com.github.amirilf.dbilf.storage;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 @Getter
@@ -12,20 +14,65 @@ public final class Schema {
     private final AtomicLong pkSequence = new AtomicLong(1);
     private final Field<?> pkField;
     private final Map<String, Field<?>> fields;
+    @Getter(AccessLevel.NONE)
+    private final Field<?>[] columns;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Integer> positions = new HashMap<>();
 
     private Schema(Map<String, Field<?>> fields, Field<?> pkField) {
         this.pkField = pkField;
         this.fields = Collections.unmodifiableMap(fields);
+        this.columns = fields.values().toArray(new Field<?>[0]);
+        for (int i = 0; i < columns.length; i++) {
+            positions.put(columns[i].getName(), i);
+        }
     }
 
     public Field<?> getPKField() {
         return pkField;
     }
 
+    public int getFieldCount() {
+        return columns.length;
+    }
+
+    public Field<?> getField(int position) {
+        return columns[position];
+    }
+
+    // Column position of a field in every Row and storage layout, or -1 if it does not exist.
+    public int positionOf(String fieldName) {
+        Integer position = positions.get(fieldName);
+        return position == null ? -1 : position;
+    }
+
+    // Fields of the rows of a join: those of both schemas in order, named table.field. Such a
+    // schema has no primary key and stores nothing; it describes rows a query computes.
+    public static Schema joined(String leftName, Schema left, String rightName, Schema right) {
+        Map<String, Field<?>> fields = new LinkedHashMap<>();
+        for (Field<?> field : left.columns) {
+            qualify(fields, leftName, field);
+        }
+        for (Field<?> field : right.columns) {
+            qualify(fields, rightName, field);
+        }
+        return new Schema(fields, null);
+    }
+
+    private static <T> void qualify(Map<String, Field<?>> fields, String table, Field<T> field) {
+        String name = table + "." + field.getName();
+        fields.put(name, new Field<>(name, field.getType(), false, field.getMaxLength()));
+    }
+
     public Long getAndIncrement() {
         return pkSequence.getAndIncrement();
     }
 
+    // First of count consecutive primary keys, taken in one step for a bulk load.
+    public long reserve(int count) {
+        return pkSequence.getAndAdd(count);
+    }
+
     public static class Builder {
 
         private Field<?> pkField = null;
@@ -0,0 +1,559 @@
+package com.github.amirilf.dbilf.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Slot bookkeeping shared by the storage layouts: primary key to slot map, live bitset and a
+// free list of deleted slots reused by later inserts. Locks are striped so writers of different
+// rows seldom wait for each other. The key map is split into stripes by key hash, each with a lock
+// of its own. Slots are split into blocks of SCAN_BLOCK, and every STRIPES-th block shares a lock,
+// which covers all its slots hold; layouts keep what slots share, such as character arenas, per
+// stripe. A key's lock is always taken before a block's. Scans walk the slots a block at a time
+// under that block's lock, so a long scan never stalls writers for its whole duration. Growing
+// the store takes every block lock.
+abstract class SlottedRowStore implements RowStore {
+
+    static final int INITIAL_CAPACITY = 64;
+    private static final int STRIPE_BITS = 4;
+    static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int BLOCK_SHIFT = 10;
+    static final int SCAN_BLOCK = 1 << BLOCK_SHIFT;
+    private static final int PARALLEL_THRESHOLD = 16 * SCAN_BLOCK;
+
+    final Schema schema;
+    private final int pkPosition;
+    private final int fieldCount;
+    private final LongIntMap[] slots = new LongIntMap[STRIPES]; // by key stripe
+    private final StampedLock[] keyLocks = new StampedLock[STRIPES];
+    private final StampedLock[] blockLocks = new StampedLock[STRIPES];
+    private final Object allocation = new Object(); // guards the free list and capacity
+    private long[] live = new long[INITIAL_CAPACITY >>> 6];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private volatile int highWater;
+    private int capacity = INITIAL_CAPACITY;
+
+    SlottedRowStore(Schema schema) {
+        this.schema = schema;
+        this.pkPosition = schema.positionOf(schema.getPKField().getName());
+        this.fieldCount = schema.getFieldCount();
+        for (int i = 0; i < STRIPES; i++) {
+            slots[i] = new LongIntMap(INITIAL_CAPACITY / STRIPES);
+            keyLocks[i] = new StampedLock();
+            blockLocks[i] = new StampedLock();
+        }
+    }
+
+    // The lock stripe of a slot, the same for every slot of its block.
+    static int stripe(int slot) {
+        return (slot >>> BLOCK_SHIFT) & (STRIPES - 1);
+    }
+
+    // The first slot of a stripe; the next ones follow in blocks STRIPES blocks apart.
+    static int firstSlot(int stripe) {
+        return stripe << BLOCK_SHIFT;
+    }
+
+    // Keys are mostly sequential, so they are spread over the stripes by a multiplicative hash.
+    private static int keyStripe(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - STRIPE_BITS));
+    }
+
+    private StampedLock blockLock(int block) {
+        return blockLocks[block & (STRIPES - 1)];
+    }
+
+    abstract void grow(int capacity);
+
+    // Overwrites whatever the slot held before.
+    abstract void write(int slot, Row row);
+
+    abstract void clear(int slot);
+
+    abstract Object read(int slot, int position);
+
+    // Numeric and boolean fields without boxing; booleans read as 0 or 1.
+    abstract long readLong(int slot, int position);
+
+    // Predicate over slots, valid while the read lock it was created under is held.
+    abstract IntPredicate equalTo(int position, Object value);
+
+    // Counts stripe by stripe, so it may be off by the writes made meanwhile.
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            long stamp = keyLocks[i].readLock();
+            try {
+                size += slots[i].size();
+            } finally {
+                keyLocks[i].unlockRead(stamp);
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean contains(long key) {
+        int stripe = keyStripe(key);
+        long stamp = keyLocks[stripe].readLock();
+        try {
+            return slots[stripe].get(key) >= 0;
+        } finally {
+            keyLocks[stripe].unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Row get(long key) {
+        int stripe = keyStripe(key);
+        long stamp = keyLocks[stripe].readLock();
+        try {
+            int slot = slots[stripe].get(key);
+            if (slot < 0) {
+                return null;
+            }
+            StampedLock lock = blockLocks[stripe(slot)];
+            long blockStamp = lock.readLock();
+            try {
+                return materialize(slot);
+            } finally {
+                lock.unlockRead(blockStamp);
+            }
+        } finally {
+            keyLocks[stripe].unlockRead(stamp);
+        }
+    }
+
+    // A new key's slot only turns live once written, and only joins the key map after that.
+    @Override
+    public Row put(Row row) {
+        long key = (Long) row.getValue(pkPosition);
+        int stripe = keyStripe(key);
+        long stamp = keyLocks[stripe].writeLock();
+        try {
+            int slot = slots[stripe].get(key);
+            boolean added = slot < 0;
+            if (added) {
+                slot = allocateSlot();
+            }
+            Row previous = null;
+            StampedLock lock = blockLocks[stripe(slot)];
+            long blockStamp = lock.writeLock();
+            try {
+                if (!added) {
+                    previous = materialize(slot);
+                }
+                write(slot, row);
+                live[slot >>> 6] |= 1L << slot;
+            } finally {
+                lock.unlockWrite(blockStamp);
+            }
+            if (added) {
+                slots[stripe].put(key, slot);
+            }
+            return previous;
+        } finally {
+            keyLocks[stripe].unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public Row remove(long key) {
+        int stripe = keyStripe(key);
+        long stamp = keyLocks[stripe].writeLock();
+        try {
+            int slot = slots[stripe].remove(key);
+            if (slot < 0) {
+                return null;
+            }
+            Row previous;
+            StampedLock lock = blockLocks[stripe(slot)];
+            long blockStamp = lock.writeLock();
+            try {
+                previous = materialize(slot);
+                clear(slot);
+                live[slot >>> 6] &= ~(1L << slot);
+            } finally {
+                lock.unlockWrite(blockStamp);
+            }
+            synchronized (allocation) {
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            }
+            return previous;
+        } finally {
+            keyLocks[stripe].unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public List<Row> findEquals(int position, Object value, int parallelism) {
+        return find(() -> equalTo(position, value), parallelism);
+    }
+
+    @Override
+    public List<Row> findWhere(int position, Predicate<Object> test, int parallelism) {
+        return find(() -> slot -> test.test(read(slot, position)), parallelism);
+    }
+
+    @Override
+    public List<Row> scan(Predicate<Row> test, int parallelism) {
+        return find(rowTest(test), parallelism);
+    }
+
+    // One partition's worth of blocks per batch, so a batch holds at most parallelism blocks of
+    // rows however large the store is.
+    @Override
+    public Iterator<List<Row>> batches(Predicate<Row> test, int parallelism) {
+        Supplier<IntPredicate> predicate = rowTest(test);
+        int partitions = partitions(parallelism);
+        return new Iterator<List<Row>>() {
+            private int nextBlock;
+            private List<Row> batch;
+
+            @Override
+            public boolean hasNext() {
+                while (batch == null) {
+                    if (!readBatch()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public List<Row> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                List<Row> result = batch;
+                batch = null;
+                return result;
+            }
+
+            // False at the end of the store; a batch without matches leaves batch null.
+            private boolean readBatch() {
+                if (nextBlock * SCAN_BLOCK >= highWater) {
+                    return false;
+                }
+                List<Row> result;
+                if (partitions == 1) {
+                    result = new ArrayList<>();
+                    find(predicate, nextBlock, nextBlock + 1, result);
+                } else {
+                    List<List<Row>> parts = parts(partitions);
+                    ScanPool.get().invoke(new PartitionScan((part, from, to) ->
+                            find(predicate, from, to, parts.get(part)),
+                            nextBlock, nextBlock + partitions, 0, partitions));
+                    result = join(parts);
+                }
+                nextBlock += partitions;
+                batch = result.isEmpty() ? null : result;
+                return true;
+            }
+        };
+    }
+
+    // Rows are only materialized once they pass: the test sees a scratch row refilled per slot.
+    private Supplier<IntPredicate> rowTest(Predicate<Row> test) {
+        if (test == null) {
+            return () -> slot -> true;
+        }
+        return () -> {
+            Object[] values = new Object[fieldCount];
+            Row scratch = new Row(schema, values);
+            return slot -> {
+                for (int i = 0; i < fieldCount; i++) {
+                    values[i] = read(slot, i);
+                }
+                return test.test(scratch);
+            };
+        };
+    }
+
+    // Small stores, or a parallelism of 1, are scanned by the caller in one partition. Larger ones
+    // are cut into up to parallelism partitions of whole blocks.
+    @Override
+    public int partitions(int parallelism) {
+        int end = highWater;
+        if (end < PARALLEL_THRESHOLD) {
+            return 1;
+        }
+        return Math.max(1, Math.min(parallelism, (end + SCAN_BLOCK - 1) / SCAN_BLOCK));
+    }
+
+    // Partitions are scanned by the scan pool and joined in slot order.
+    private List<Row> find(Supplier<IntPredicate> predicate, int parallelism) {
+        int partitions = partitions(parallelism);
+        if (partitions == 1) {
+            List<Row> result = new ArrayList<>();
+            find(predicate, 0, Integer.MAX_VALUE, result);
+            return result.isEmpty() ? Collections.emptyList() : result;
+        }
+        List<List<Row>> parts = parts(partitions);
+        scanAll(partitions, (part, from, to) -> find(predicate, from, to, parts.get(part)));
+        return join(parts);
+    }
+
+    // The visitors see rows in place through a view, valid only during the call, so a visitor
+    // reading a few numeric fields never materializes a row. Each partition has its own visitor.
+    @Override
+    public <V extends Consumer<RowView>> List<V> visit(Supplier<V> visitors, int parallelism) {
+        int partitions = partitions(parallelism);
+        List<V> result = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            result.add(visitors.get());
+        }
+        if (partitions == 1) {
+            visit(result.get(0), 0, Integer.MAX_VALUE);
+        } else {
+            scanAll(partitions, (part, from, to) -> visit(result.get(part), from, to));
+        }
+        return result;
+    }
+
+    // Blocks appended after the partitions were cut are left to the last one.
+    private void scanAll(int partitions, PartitionWork work) {
+        int blocks = (highWater + SCAN_BLOCK - 1) / SCAN_BLOCK;
+        ScanPool.get().invoke(new PartitionScan((part, from, to) -> work.run(part, from,
+                part == partitions - 1 ? Integer.MAX_VALUE : to), 0, blocks, 0, partitions));
+    }
+
+    // One list per partition, created up front so partitions only ever add to their own.
+    private static List<List<Row>> parts(int partitions) {
+        List<List<Row>> parts = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            parts.add(new ArrayList<>());
+        }
+        return parts;
+    }
+
+    private static List<Row> join(List<List<Row>> parts) {
+        int total = 0;
+        for (List<Row> part : parts) {
+            total += part.size();
+        }
+        List<Row> result = new ArrayList<>(total);
+        for (List<Row> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    // Blocks [fromBlock, toBlock) up to the high water mark at the time each block is read. The
+    // predicate is created again for every block since it may capture column arrays.
+    private void find(Supplier<IntPredicate> predicate, int fromBlock, int toBlock, List<Row> result) {
+        for (int block = fromBlock; block < toBlock; block++) {
+            int from = block * SCAN_BLOCK;
+            if (from >= highWater) {
+                return;
+            }
+            StampedLock lock = blockLock(block);
+            long stamp = lock.readLock();
+            try {
+                IntPredicate matches = predicate.get();
+                int to = Math.min(from + SCAN_BLOCK, highWater);
+                for (int slot = from; slot < to; slot++) {
+                    if ((live[slot >>> 6] & (1L << slot)) != 0 && matches.test(slot)) {
+                        result.add(materialize(slot));
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private void visit(Consumer<RowView> visitor, int fromBlock, int toBlock) {
+        SlotView view = new SlotView();
+        for (int block = fromBlock; block < toBlock; block++) {
+            int from = block * SCAN_BLOCK;
+            if (from >= highWater) {
+                return;
+            }
+            StampedLock lock = blockLock(block);
+            long stamp = lock.readLock();
+            try {
+                int to = Math.min(from + SCAN_BLOCK, highWater);
+                for (int slot = from; slot < to; slot++) {
+                    if ((live[slot >>> 6] & (1L << slot)) != 0) {
+                        view.moveTo(slot);
+                        visitor.accept(view);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private final class SlotView implements RowView {
+
+        private final Object[] values = new Object[fieldCount];
+        private final Row row = new Row(schema, values);
+        private int slot;
+        private boolean filled;
+
+        void moveTo(int slot) {
+            this.slot = slot;
+            filled = false;
+        }
+
+        @Override
+        public long getLong(int position) {
+            return readLong(slot, position);
+        }
+
+        @Override
+        public Object getValue(int position) {
+            return read(slot, position);
+        }
+
+        @Override
+        public Row row() {
+            if (!filled) {
+                for (int i = 0; i < fieldCount; i++) {
+                    values[i] = read(slot, i);
+                }
+                filled = true;
+            }
+            return row;
+        }
+    }
+
+    @FunctionalInterface
+    private interface PartitionWork {
+        void run(int part, int fromBlock, int toBlock);
+    }
+
+    // Halves are forked off until one partition is left, which runs the work on its blocks.
+    private static final class PartitionScan extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient PartitionWork work;
+        private final int fromBlock;
+        private final int toBlock;
+        private final int firstPart;
+        private final int partCount;
+
+        PartitionScan(PartitionWork work, int fromBlock, int toBlock, int firstPart, int partCount) {
+            this.work = work;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+            this.firstPart = firstPart;
+            this.partCount = partCount;
+        }
+
+        @Override
+        protected void compute() {
+            if (partCount == 1) {
+                work.run(firstPart, fromBlock, toBlock);
+                return;
+            }
+            int leftCount = partCount / 2;
+            int middle = fromBlock + (int) ((long) (toBlock - fromBlock) * leftCount / partCount);
+            PartitionScan left = new PartitionScan(work, fromBlock, middle, firstPart, leftCount);
+            left.fork();
+            new PartitionScan(work, middle, toBlock, firstPart + leftCount, partCount - leftCount).compute();
+            left.join();
+        }
+    }
+
+    @Override
+    public Iterator<Row> iterator() {
+        return new Iterator<Row>() {
+            private int nextBlock;
+            private List<Row> batch = Collections.emptyList();
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                while (position == batch.size()) {
+                    if (!readBlock()) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Row next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(position++);
+            }
+
+            private boolean readBlock() {
+                int from = nextBlock * SCAN_BLOCK;
+                if (from >= highWater) {
+                    return false;
+                }
+                StampedLock lock = blockLock(nextBlock);
+                long stamp = lock.readLock();
+                try {
+                    int to = Math.min(from + SCAN_BLOCK, highWater);
+                    List<Row> rows = new ArrayList<>(to - from);
+                    for (int slot = from; slot < to; slot++) {
+                        if ((live[slot >>> 6] & (1L << slot)) != 0) {
+                            rows.add(materialize(slot));
+                        }
+                    }
+                    nextBlock++;
+                    batch = rows;
+                    position = 0;
+                    return true;
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+        };
+    }
+
+    private Row materialize(int slot) {
+        Object[] values = new Object[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            values[i] = read(slot, i);
+        }
+        return new Row(schema, values);
+    }
+
+    // Called without a block lock held, as growing takes all of them.
+    private int allocateSlot() {
+        synchronized (allocation) {
+            if (freeCount > 0) {
+                return freeSlots[--freeCount];
+            }
+            if (highWater == capacity) {
+                long[] stamps = new long[STRIPES];
+                for (int i = 0; i < STRIPES; i++) {
+                    stamps[i] = blockLocks[i].writeLock();
+                }
+                try {
+                    capacity *= 2;
+                    grow(capacity);
+                    live = Arrays.copyOf(live, capacity >>> 6);
+                } finally {
+                    for (int i = 0; i < STRIPES; i++) {
+                        blockLocks[i].unlockWrite(stamps[i]);
+                    }
+                }
+            }
+            return highWater++;
+        }
+    }
+}
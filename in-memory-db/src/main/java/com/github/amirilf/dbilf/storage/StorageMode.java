@@ -0,0 +1,14 @@
+package com.github.amirilf.dbilf.storage;
+
+public enum StorageMode {
+    HEAP, // typed columns on the Java heap
+    OFFHEAP; // fixed-width records in direct memory slabs
+
+    public static StorageMode fromString(String value) {
+        try {
+            return StorageMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown storage mode: " + value);
+        }
+    }
+}
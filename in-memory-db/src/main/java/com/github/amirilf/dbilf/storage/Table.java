@@ -1,28 +1,70 @@
 package com.github.amirilf.dbilf.storage;
 
-import com.github.amirilf.dbilf.index.HashIndex;
 import com.github.amirilf.dbilf.index.Index;
-import com.github.amirilf.dbilf.transaction.TransactionManager;
+import com.github.amirilf.dbilf.index.IndexType;
+import com.github.amirilf.dbilf.index.Keys;
+import com.github.amirilf.dbilf.metrics.AccessPath;
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.metrics.TableMetrics;
+import com.github.amirilf.dbilf.persistence.LogRecord;
+import com.github.amirilf.dbilf.persistence.WriteAheadLog;
+import com.github.amirilf.dbilf.transaction.CommitClock;
+import com.github.amirilf.dbilf.transaction.ConflictException;
+import com.github.amirilf.dbilf.transaction.LockManager;
 import com.github.amirilf.dbilf.transaction.Transaction;
+import com.github.amirilf.dbilf.transaction.UndoLog;
+import com.github.amirilf.dbilf.transaction.Workspace;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 public final class Table {
 
     private final String name;
     private final Schema schema;
-    private final Map<Long, Row> rows = new ConcurrentHashMap<>();
+    private final StorageMode storageMode;
+    private final RowStore rows;
     private final Map<String, Index> indexes = new ConcurrentHashMap<>();
     private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
-    private final ConcurrentHashMap<Long, ReentrantReadWriteLock> rowLocks = new ConcurrentHashMap<>();
+    private final TableMetrics metrics = new TableMetrics();
+    private final LockManager rowLocks = new LockManager(metrics.getLockWaits());
+    private final ConcurrentHashMap<Long, VersionChain> versions = new ConcurrentHashMap<>();
+    // Per index, the keys of rows by the values their retained before-images hold, so a lookup at
+    // an old snapshot also finds the rows whose store image no longer matches.
+    private final Map<String, Index> versionIndexes = new ConcurrentHashMap<>();
+    private final Undo undo = new Undo();
+
+    @FunctionalInterface
+    private interface SnapshotRead {
+        List<Row> read(long snapshot);
+    }
 
     public Table(String name, Schema schema) {
+        this(name, schema, StorageMode.HEAP);
+    }
+
+    public Table(String name, Schema schema, StorageMode storageMode) {
         this.name = name;
         this.schema = schema;
+        this.storageMode = storageMode;
+        this.rows = storageMode == StorageMode.OFFHEAP ? new OffHeapRowStore(schema) : new ColumnarRowStore(schema);
     }
 
     public String getName() {
@@ -33,20 +75,138 @@ public final class Table {
         return schema;
     }
 
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public TableMetrics getMetrics() {
+        return metrics;
+    }
+
     public Map<String, Index> getIndexes() {
         return Collections.unmodifiableMap(indexes);
     }
 
+    // Rows in the store, committed or not; a statistic for the planner.
+    public int size() {
+        return rows.size();
+    }
+
     public List<Row> getRows() {
-        tableLock.readLock().lock();
+        return Collections.unmodifiableList(scan(null, null, 1));
+    }
+
+    // Tasks a scan of the table at this parallelism runs as; 1 below a few thousand rows.
+    public int scanPartitions(int parallelism) {
+        return rows.partitions(parallelism);
+    }
+
+    // Rows visible to the caller that pass test, every row if it is null. The test runs inside
+    // the store, split over up to parallelism scan tasks on a large table.
+    public List<Row> scan(Transaction tx, Predicate<Row> test, int parallelism) {
+        long start = Metrics.sample();
+        List<Row> found = atSnapshot(tx, snapshot -> visible(rows.scan(test, parallelism), null, test, snapshot, tx));
+        metrics.read(AccessPath.FULL_SCAN, start, found.size());
+        return found;
+    }
+
+    // Streaming form of scan: the store is read a batch at a time as the caller advances, so memory
+    // stays bounded by a batch and a bit per key returned, whatever the size of the table. A single
+    // statement's snapshot stays open until the cursor is drained or closed.
+    public RowCursor cursor(Transaction tx, Predicate<Row> test, int parallelism) {
+        long snapshot = tx != null ? tx.getSnapshot() : CommitClock.openSnapshot();
+        return new ScanCursor(rows.batches(test, parallelism), test, snapshot, tx, buffer(tx), true);
+    }
+
+    // Rows visible to the caller that pass test, fed to one visitor per scan task. Rows are viewed
+    // in place in the store; the ones with retained versions are resolved after the scan and fed
+    // to the first visitor. Returns the visitors, for the caller to merge what they collected.
+    public <V extends Consumer<RowView>> List<V> visit(Transaction tx, Predicate<Row> test, int parallelism,
+            Supplier<V> visitors) {
+        long snapshot = tx != null ? tx.getSnapshot() : CommitClock.openSnapshot();
+        Buffer buffer = buffer(tx);
+        long start = Metrics.sample();
+        long visited = 0;
         try {
-            return Collections.unmodifiableList(new ArrayList<>(rows.values()));
+            List<PartitionVisitor<V>> parts = rows.visit(() -> new PartitionVisitor<>(visitors.get(), test, buffer),
+                    parallelism);
+            List<V> result = new ArrayList<>(parts.size());
+            for (PartitionVisitor<V> part : parts) {
+                result.add(part.visitor);
+                visited += part.visited;
+                if (buffer != null) {
+                    buffer.reads.addAll(part.read);
+                }
+            }
+            if (versions.isEmpty() && (buffer == null || buffer.writes.isEmpty())
+                    && parts.stream().allMatch(part -> part.versioned.isEmpty())) {
+                return result;
+            }
+            V first = result.get(0);
+            for (PartitionVisitor<V> part : parts) {
+                for (Long key : part.versioned) {
+                    Row row = visibleRow(key, snapshot, tx);
+                    if (row != null && (test == null || test.test(row))) {
+                        first.accept(read(buffer, key, row));
+                        visited++;
+                    }
+                }
+            }
+            for (Long key : resolvedKeys(buffer)) {
+                if (parts.stream().noneMatch(part -> part.seen.contains(key))) {
+                    Row row = visibleRow(key, snapshot, tx);
+                    if (row != null && (test == null || test.test(row))) {
+                        first.accept(read(buffer, key, row));
+                        visited++;
+                    }
+                }
+            }
+            return result;
         } finally {
-            tableLock.readLock().unlock();
+            metrics.read(AccessPath.FULL_SCAN, start, visited);
+            if (tx == null) {
+                CommitClock.closeSnapshot(snapshot);
+            }
+        }
+    }
+
+    // Rows visible to the caller. The store keeps its own count, which is the answer whenever no
+    // versions are retained: every row in the store then committed before any open snapshot. A
+    // table with versions waiting for vacuum is counted by a scan of its keys instead.
+    public long count(Transaction tx) {
+        int stored = rows.size();
+        if (versions.isEmpty() && buffer(tx) == null) {
+            return stored;
+        }
+        long count = 0;
+        for (Counter counter : visit(tx, null, 1, Counter::new)) {
+            count += counter.count;
+        }
+        return count;
+    }
+
+    private static final class Counter implements Consumer<RowView> {
+
+        private long count;
+
+        @Override
+        public void accept(RowView row) {
+            count++;
         }
     }
 
+    // Every row committed at snapshot, which the caller holds open, read a batch at a time as
+    // cursor does. For a checkpoint: the cursor leaves the snapshot open and is not counted as a
+    // read of the table.
+    public RowCursor cursorAt(long snapshot) {
+        return new ScanCursor(rows.batches(null, 1), null, snapshot, null, null, false);
+    }
+
     public void addIndex(String fieldName, boolean unique) {
+        addIndex(fieldName, unique, IndexType.HASH);
+    }
+
+    public void addIndex(String fieldName, boolean unique, IndexType type) {
         tableLock.writeLock().lock();
         try {
             if (indexes.containsKey(fieldName) || "id".equals(fieldName)) {
@@ -55,9 +215,13 @@ public final class Table {
             if (!schema.getFields().containsKey(fieldName)) {
                 throw new RuntimeException("Field " + fieldName + " does not exist in schema");
             }
-            HashIndex index = new HashIndex(fieldName, unique);
-            rows.values().forEach(index::insert);
+            Index index = type.newIndex(fieldName, unique);
+            Index retained = type.newIndex(fieldName, false);
+            versionIndexes.put(fieldName, retained);
+            versions.values().forEach(chain -> retainAll(chain, retained));
+            rows.iterator().forEachRemaining(index::insert);
             indexes.put(fieldName, index);
+            log(null, () -> LogRecord.createIndex(name, fieldName, unique, type));
         } finally {
             tableLock.writeLock().unlock();
         }
@@ -73,41 +237,129 @@ public final class Table {
                 throw new RuntimeException("Cannot remove primary key index");
             }
             indexes.remove(fieldName);
+            versionIndexes.remove(fieldName);
+            log(null, () -> LogRecord.dropIndex(name, fieldName));
         } finally {
             tableLock.writeLock().unlock();
         }
     }
 
-    public void create(Row row) {
+    public void create(Transaction tx, Row row) {
         Long key = (Long) row.getValue(schema.getPKField().getName());
-        ReentrantReadWriteLock lock = rowLocks.computeIfAbsent(key, k -> new ReentrantReadWriteLock());
-        ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
-        writeLock.lock();
-        boolean lockRegistered = false;
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            buffer.insert(key, row);
+            return;
+        }
+        boolean acquired = lockRow(key, tx);
+        boolean done = false;
         try {
-            if (rows.containsKey(key)) {
+            if (rows.contains(key)) {
                 throw new RuntimeException("Duplicate primary key: " + key);
             }
-            rows.put(key, row);
-            indexes.values().forEach(index -> index.insert(row));
-            Transaction tx = TransactionManager.getCurrentTransaction();
-            if (tx != null) {
-                tx.register(() -> {
-                    rows.remove(key);
-                    rowLocks.remove(key);
-                    indexes.values().forEach(index -> index.delete(row));
-                });
-                tx.registerLockRelease(() -> writeLock.unlock());
-                lockRegistered = true;
-            }
+            VersionChain.Version version = writeVersion(key, null, row, tx, () -> {
+                insertIntoIndexes(row);
+                rows.put(row);
+            });
+            publish(tx, UndoLog.INSERT, key, version, acquired, () -> LogRecord.insert(name, schema, row));
+            done = true;
         } finally {
-            if (!lockRegistered) {
-                writeLock.unlock();
+            releaseRow(key, tx, acquired, done);
+        }
+    }
+
+    // Bulk insert for a load inside a transaction. The primary keys were reserved from the sequence
+    // by the caller, so no other statement can name them before the transaction commits: they are
+    // neither locked nor checked for duplicates. Each row still gets its insert version, and each
+    // index takes the batch in one pass.
+    public void load(Transaction tx, List<Row> batch) {
+        checkStatementTransaction(tx);
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            batch.forEach(row -> buffer.insert(key(row), row));
+            return;
+        }
+        Changes changes = new Changes(tx, UndoLog.INSERT);
+        changes.run(() -> batch.forEach(row -> changes.write(key(row), null, row)), index -> true);
+    }
+
+    // Set-based UPDATE inside a transaction: each row the statement matched at the transaction's
+    // snapshot gets the values at positions, in the same pass that reads the matches. Once a row is
+    // locked and has no change committed after the snapshot, the matched row is its current image,
+    // so it is not read again. The indexes on changed columns follow in one batch each. Returns
+    // the number of rows changed.
+    public int updateAll(Transaction tx, Iterator<Row> matches, int[] positions, Object[] values) {
+        for (int i = 0; i < positions.length; i++) {
+            Field<?> field = schema.getField(positions[i]);
+            if (field.isPrimaryKey()) {
+                throw new RuntimeException("The id field is managed automatically");
+            }
+            if (!field.validate(values[i])) {
+                throw new RuntimeException("Invalid value for field '" + field.getName() + "'. Expected type: "
+                        + field.getType().getSimpleName()
+                        + (field.getMaxLength() > 0 ? " (max length " + field.getMaxLength() + ")" : ""));
+            }
+        }
+        checkStatementTransaction(tx);
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            int count = 0;
+            while (matches.hasNext()) {
+                Row oldRow = matches.next();
+                buffer.update(key(oldRow), oldRow.with(positions, values));
+                count++;
+            }
+            return count;
+        }
+        Changes changes = new Changes(tx, UndoLog.UPDATE);
+        return changes.run(() -> {
+            while (matches.hasNext()) {
+                Row oldRow = matches.next();
+                Long key = key(oldRow);
+                changes.claim(key);
+                changes.write(key, oldRow, oldRow.with(positions, values));
+            }
+        }, index -> {
+            int position = schema.positionOf(index.getFieldName());
+            return Arrays.stream(positions).anyMatch(p -> p == position);
+        });
+    }
+
+    // Set-based DELETE inside a transaction, in one pass as updateAll. Returns the rows deleted.
+    public int deleteAll(Transaction tx, Iterator<Row> matches) {
+        checkStatementTransaction(tx);
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            int count = 0;
+            while (matches.hasNext()) {
+                buffer.delete(key(matches.next()));
+                count++;
+            }
+            return count;
+        }
+        Changes changes = new Changes(tx, UndoLog.DELETE);
+        return changes.run(() -> {
+            while (matches.hasNext()) {
+                Row oldRow = matches.next();
+                Long key = key(oldRow);
+                changes.claim(key);
+                changes.write(key, oldRow, null);
             }
+        }, index -> true);
+    }
+
+    private static void checkStatementTransaction(Transaction tx) {
+        if (tx == null) {
+            throw new IllegalStateException("Set-based change outside a transaction");
         }
     }
 
-    public List<Row> read(Object key, String fieldName) {
+    public List<Row> read(Transaction tx, Object key, String fieldName) {
+        return read(tx, key, fieldName, 1);
+    }
+
+    // Parallelism only applies when the field has no index and the store has to be scanned.
+    public List<Row> read(Transaction tx, Object key, String fieldName, int parallelism) {
         if (!schema.getFields().containsKey(fieldName)) {
             throw new RuntimeException("Field " + fieldName + " does not exist in schema");
         }
@@ -117,116 +369,1092 @@ public final class Table {
         }
         if (schema.getPKField().getName().equals(fieldName)) {
             Long pkKey = (Long) key;
-            ReentrantReadWriteLock lock = rowLocks.get(pkKey);
-            if (lock == null) {
-                return Collections.emptyList();
+            long start = Metrics.sample();
+            List<Row> found = atSnapshot(tx, snapshot -> {
+                Row row = visibleRow(pkKey, snapshot, tx);
+                return row == null ? Collections.emptyList() : Collections.singletonList(read(buffer(tx), pkKey, row));
+            });
+            metrics.read(AccessPath.PRIMARY_KEY, start, found.size());
+            return found;
+        }
+        Predicate<Object> test = value -> Keys.compare(value, key) == 0;
+        Index index = indexes.get(fieldName);
+        long start = Metrics.sample();
+        List<Row> found = atSnapshot(tx, snapshot -> {
+            if (index == null) {
+                return visible(scanNonIndexed(fieldName, key, parallelism), null, fieldName, test, snapshot, tx);
             }
-            ReentrantReadWriteLock.ReadLock readLock = lock.readLock();
-            readLock.lock();
-            boolean lockRegistered = false;
-            try {
-                Row row = rows.get(pkKey);
-                if (row == null) {
-                    return Collections.emptyList();
+            List<Row> results = resolve(index.search(key), fieldName, test);
+            return visible(results, retained(fieldName, retained -> retained.search(key)), fieldName, test,
+                    snapshot, tx);
+        });
+        metrics.read(index != null ? AccessPath.INDEX : AccessPath.COLUMN_SCAN, start, found.size());
+        return found;
+    }
+
+    // Rows whose field lies between the bounds, a null bound is unbounded. Served by an ordered
+    // index when there is one, by a scan otherwise; the order of the result is unspecified.
+    public List<Row> readRange(Transaction tx, String fieldName, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive) {
+        return readRange(tx, fieldName, from, fromInclusive, to, toInclusive, 1);
+    }
+
+    public List<Row> readRange(Transaction tx, String fieldName, Object from, boolean fromInclusive, Object to,
+            boolean toInclusive, int parallelism) {
+        checkKey(fieldName, from);
+        checkKey(fieldName, to);
+        Predicate<Object> test = between(from, fromInclusive, to, toInclusive);
+        Index index = indexes.get(fieldName);
+        boolean ordered = index != null && index.isOrdered();
+        long start = Metrics.sample();
+        List<Row> found = atSnapshot(tx, snapshot -> {
+            if (!ordered) {
+                return visible(scanWhere(fieldName, test, parallelism), null, fieldName, test, snapshot, tx);
+            }
+            List<Row> results = resolve(index.range(from, fromInclusive, to, toInclusive), fieldName, test);
+            return visible(results, retained(fieldName, retained -> retained.range(from, fromInclusive, to,
+                    toInclusive)), fieldName, test, snapshot, tx);
+        });
+        metrics.read(ordered ? AccessPath.INDEX_RANGE : AccessPath.COLUMN_SCAN, start, found.size());
+        return found;
+    }
+
+    public List<Row> readPrefix(Transaction tx, String fieldName, String prefix) {
+        return readPrefix(tx, fieldName, prefix, 1);
+    }
+
+    public List<Row> readPrefix(Transaction tx, String fieldName, String prefix, int parallelism) {
+        if (!schema.getFields().containsKey(fieldName)) {
+            throw new RuntimeException("Field " + fieldName + " does not exist in schema");
+        }
+        Class<?> fieldType = schema.getFields().get(fieldName).getType();
+        if (fieldType != char[].class && fieldType != String.class) {
+            throw new RuntimeException("Prefix match requires a character field: " + fieldName);
+        }
+        Predicate<Object> test = value -> Keys.normalize(value).toString().startsWith(prefix);
+        Index index = indexes.get(fieldName);
+        boolean ordered = index != null && index.isOrdered();
+        long start = Metrics.sample();
+        List<Row> found = atSnapshot(tx, snapshot -> {
+            if (!ordered) {
+                return visible(scanWhere(fieldName, test, parallelism), null, fieldName, test, snapshot, tx);
+            }
+            List<Row> results = resolve(index.prefix(prefix), fieldName, test);
+            return visible(results, retained(fieldName, retained -> retained.prefix(prefix)), fieldName, test,
+                    snapshot, tx);
+        });
+        metrics.read(ordered ? AccessPath.INDEX_RANGE : AccessPath.COLUMN_SCAN, start, found.size());
+        return found;
+    }
+
+    // Rows for primary keys gathered by the caller, e.g. from an intersection of the postings of
+    // postings(). Postings may be stale, so only rows passing test are returned.
+    public List<Row> readKeys(Transaction tx, long[] keys, int count, Predicate<Row> test) {
+        long start = Metrics.sample();
+        List<Row> found = atSnapshot(tx, snapshot -> {
+            List<Row> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Row row = rows.get(keys[i]);
+                if (row != null && test.test(row)) {
+                    results.add(row);
                 }
-                Transaction tx = TransactionManager.getCurrentTransaction();
-                if (tx != null) {
-                    tx.registerLockRelease(() -> readLock.unlock());
-                    lockRegistered = true;
+            }
+            return visible(results, Arrays.stream(keys, 0, count).iterator(), test, snapshot, tx);
+        });
+        metrics.read(AccessPath.KEYS, start, found.size());
+        return found;
+    }
+
+    // Keys lookup finds in the index on fieldName, then those it finds among the values of retained
+    // before-images, for readKeys to resolve. The second lookup only starts once the first is
+    // drained: a change retains the old value before the index lets go of it, so a key moved
+    // meanwhile is still met by one of the two.
+    public PrimitiveIterator.OfLong postings(String fieldName, Function<Index, PrimitiveIterator.OfLong> lookup) {
+        PrimitiveIterator.OfLong current = lookup.apply(indexes.get(fieldName));
+        return new PrimitiveIterator.OfLong() {
+            private PrimitiveIterator.OfLong keys = current;
+            private boolean drained;
+
+            @Override
+            public boolean hasNext() {
+                if (!keys.hasNext() && !drained) {
+                    drained = true;
+                    keys = retained(fieldName, lookup);
                 }
-                return Collections.singletonList(row);
-            } finally {
-                if (!lockRegistered) {
-                    readLock.unlock();
+                return keys.hasNext();
+            }
+
+            @Override
+            public long nextLong() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
                 }
+                return keys.nextLong();
             }
+        };
+    }
+
+    public void update(Transaction tx, Row newRow) {
+        Long key = (Long) newRow.getValue(schema.getPKField().getName());
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            if (visibleRow(key, tx.getSnapshot(), tx) == null)
+                throw new RuntimeException("Row not found");
+            buffer.update(key, newRow);
+            return;
+        }
+        boolean acquired = lockRow(key, tx);
+        boolean done = false;
+        try {
+            checkConflict(key, tx);
+            Row oldRow = rows.get(key);
+            if (oldRow == null)
+                throw new RuntimeException("Row not found");
+            VersionChain.Version version = writeVersion(key, oldRow, newRow, tx, () -> {
+                updateIndexes(oldRow, newRow);
+                rows.put(newRow);
+            });
+            publish(tx, UndoLog.UPDATE, key, version, acquired, () -> LogRecord.update(name, schema, newRow));
+            done = true;
+        } finally {
+            releaseRow(key, tx, acquired, done);
+        }
+    }
+
+    public void delete(Transaction tx, Long key) {
+        Buffer buffer = buffer(tx);
+        if (buffer != null) {
+            if (visibleRow(key, tx.getSnapshot(), tx) == null)
+                throw new RuntimeException("Row not found");
+            buffer.delete(key);
+            return;
+        }
+        boolean acquired = lockRow(key, tx);
+        boolean done = false;
+        try {
+            checkConflict(key, tx);
+            Row oldRow = rows.get(key);
+            if (oldRow == null)
+                throw new RuntimeException("Row not found");
+            VersionChain.Version version = writeVersion(key, oldRow, null, tx, () -> {
+                rows.remove(key);
+                indexes.values().forEach(index -> index.delete(oldRow));
+            });
+            publish(tx, UndoLog.DELETE, key, version, acquired, () -> LogRecord.delete(name, key));
+            done = true;
+        } finally {
+            releaseRow(key, tx, acquired, done);
+        }
+    }
+
+    // Recovery path: upserts a row without locking or logging.
+    public void restore(Row row) {
+        Long key = (Long) row.getValue(schema.getPKField().getName());
+        Row oldRow = rows.put(row);
+        if (oldRow != null) {
+            indexes.values().forEach(index -> index.update(oldRow, row));
         } else {
-            Index index = indexes.get(fieldName);
-            List<Row> results;
-            if (index != null) {
-                results = index.search(key);
-            } else {
-                results = scanNonIndexed(fieldName, key);
+            indexes.values().forEach(index -> index.insert(row));
+        }
+        schema.getPkSequence().accumulateAndGet(key + 1, Math::max);
+    }
+
+    public void restoreDelete(Long key) {
+        Row oldRow = rows.remove(key);
+        if (oldRow != null) {
+            indexes.values().forEach(index -> index.delete(oldRow));
+        }
+    }
+
+    // All indexes or none, so a unique violation leaves no partial entries behind.
+    private void insertIntoIndexes(Row row) {
+        List<Index> done = new ArrayList<>();
+        try {
+            for (Index index : indexes.values()) {
+                index.insert(row);
+                done.add(index);
             }
-            Transaction tx = TransactionManager.getCurrentTransaction();
-            if (tx != null) {
-                results.forEach(row -> {
-                    Long pk = (Long) row.getValue(schema.getPKField().getName());
-                    ReentrantReadWriteLock rowLock = rowLocks.get(pk);
-                    if (rowLock != null) {
-                        ReentrantReadWriteLock.ReadLock rLock = rowLock.readLock();
-                        rLock.lock();
-                        tx.registerLockRelease(() -> rLock.unlock());
-                    }
-                });
+        } catch (RuntimeException e) {
+            done.forEach(index -> index.delete(row));
+            throw e;
+        }
+    }
+
+    private void updateIndexes(Row oldRow, Row newRow) {
+        List<Index> done = new ArrayList<>();
+        try {
+            for (Index index : indexes.values()) {
+                index.update(oldRow, newRow);
+                done.add(index);
             }
-            return results;
+        } catch (RuntimeException e) {
+            done.forEach(index -> index.update(newRow, oldRow));
+            throw e;
         }
     }
 
-    public void update(Row newRow) {
-        Long key = (Long) newRow.getValue(schema.getPKField().getName());
-        ReentrantReadWriteLock lock = rowLocks.get(key);
-        if (lock == null)
-            throw new RuntimeException("Row not found");
-        ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
-        writeLock.lock();
-        boolean lockRegistered = false;
+    // Vacuum: drops the versions no snapshot at or after horizon can read, returns how many.
+    public long vacuum(long horizon) {
+        long reclaimed = 0;
+        for (Map.Entry<Long, VersionChain> entry : versions.entrySet()) {
+            VersionChain chain = entry.getValue();
+            reclaimed += chain.prune(horizon, this::release);
+            if (chain.isDead()) {
+                versions.remove(entry.getKey(), chain);
+            }
+        }
+        return reclaimed;
+    }
+
+    private boolean lockRow(Long key, Transaction tx) {
+        return rowLocks.lock(key, tx != null ? tx : Thread.currentThread());
+    }
+
+    // Transactions keep their row locks until they end, through the undo log entry of the change,
+    // single statements drop them right away.
+    private void releaseRow(Long key, Transaction tx, boolean acquired, boolean done) {
+        if (acquired && (tx == null || !done)) {
+            rowLocks.unlock(key, tx != null ? tx : Thread.currentThread());
+        }
+    }
+
+    // Applies a change to the store image of key behind a new version holding its before-image. The
+    // before-image is retained by value ahead of the change, so a lookup meets the row in either
+    // index while the store and the indexes move on.
+    private VersionChain.Version writeVersion(Long key, Row before, Row after, Transaction tx, Runnable change) {
+        Runnable write = change;
+        if (before != null && !versionIndexes.isEmpty()) {
+            write = () -> {
+                List<Index> retained = retain(before, after);
+                try {
+                    change.run();
+                } catch (RuntimeException e) {
+                    retained.forEach(index -> index.delete(before));
+                    throw e;
+                }
+            };
+        }
+        while (true) {
+            VersionChain.Version version = versions.computeIfAbsent(key, k -> new VersionChain())
+                    .push(before, tx, write);
+            if (version != null) {
+                return version;
+            }
+        }
+    }
+
+    // Adds the before-image being pushed to the version indexes of the values the change moves the
+    // row away from, and returns the indexes it went into. An unchanged value stays in the index
+    // itself until a later change moves it, which retains it then; an older version holding the
+    // same value already put the key there.
+    private List<Index> retain(Row before, Row after) {
+        long key = key(before);
+        List<Index> retained = new ArrayList<>(versionIndexes.size());
+        for (Index index : versionIndexes.values()) {
+            int position = schema.positionOf(index.getFieldName());
+            Object value = before.getValue(position);
+            if (after != null && Objects.equals(Keys.normalize(value), Keys.normalize(after.getValue(position)))) {
+                continue;
+            }
+            if (!index.contains(value, key)) {
+                index.insert(before);
+                retained.add(index);
+            }
+        }
+        return retained;
+    }
+
+    // For an index built while versions are held: the values of every retained before-image.
+    private void retainAll(VersionChain chain, Index index) {
+        int position = schema.positionOf(index.getFieldName());
+        for (Row image : chain.images()) {
+            if (!index.contains(image.getValue(position), key(image))) {
+                index.insert(image);
+            }
+        }
+    }
+
+    // Before-images vacuum dropped leave the version indexes, but for values a version kept holds.
+    private void release(List<Row> dropped, List<Row> kept) {
+        for (Index index : versionIndexes.values()) {
+            int position = schema.positionOf(index.getFieldName());
+            Set<Object> held = new HashSet<>();
+            for (Row image : kept) {
+                held.add(Keys.normalize(image.getValue(position)));
+            }
+            for (Row image : dropped) {
+                if (!held.contains(Keys.normalize(image.getValue(position)))) {
+                    index.delete(image);
+                }
+            }
+        }
+    }
+
+    // Keys lookup finds among the values retained before-images hold for the index on fieldName.
+    private PrimitiveIterator.OfLong retained(String fieldName, Function<Index, PrimitiveIterator.OfLong> lookup) {
+        Index index = versionIndexes.get(fieldName);
+        return index == null ? LongStream.empty().iterator() : lookup.apply(index);
+    }
+
+    // Logs a change and makes it visible: an autocommit change right away, a transactional one when
+    // the transaction commits. An autocommit change the log refused is taken back out of the store
+    // and the indexes before the error goes up, so no reader sees a change that was never logged.
+    private void publish(Transaction tx, byte kind, long key, VersionChain.Version version, boolean locked,
+            Supplier<byte[]> record) {
+        if (tx != null) {
+            log(tx, record);
+            tx.logChange(undo, kind, key, version, locked);
+            return;
+        }
+        CommitClock.beginCommit();
         try {
-            Row oldRow = rows.get(key);
-            indexes.values().forEach(index -> index.update(oldRow, newRow));
-            rows.put(key, newRow);
-            Transaction tx = TransactionManager.getCurrentTransaction();
-            if (tx != null) {
-                tx.register(() -> {
-                    rows.put(key, oldRow);
-                    indexes.values().forEach(index -> index.update(newRow, oldRow));
-                });
-                tx.registerLockRelease(() -> writeLock.unlock());
-                lockRegistered = true;
+            try {
+                log(null, record);
+            } catch (RuntimeException e) {
+                revoke(key, version);
+                throw e;
             }
+            CommitClock.publish(version::commit);
         } finally {
-            if (!lockRegistered) {
-                writeLock.unlock();
-            }
+            CommitClock.endCommit();
         }
     }
 
-    public void delete(Long key) {
-        ReentrantReadWriteLock lock = rowLocks.get(key);
-        if (lock == null)
-            throw new RuntimeException("Row not found");
-        ReentrantReadWriteLock.WriteLock writeLock = lock.writeLock();
-        writeLock.lock();
-        boolean lockRegistered = false;
+    // Undoes the pending autocommit change behind version, as a rollback would.
+    private void revoke(long key, VersionChain.Version version) {
+        Row current = restore(key, version);
+        Row before = version.before();
         try {
-            Row oldRow = rows.get(key);
-            rows.remove(key);
-            indexes.values().forEach(index -> index.delete(oldRow));
-            Transaction tx = TransactionManager.getCurrentTransaction();
-            if (tx != null) {
-                tx.register(() -> {
-                    rows.put(key, oldRow);
-                    indexes.values().forEach(index -> index.insert(oldRow));
-                });
-                tx.registerLockRelease(() -> writeLock.unlock());
-                lockRegistered = true;
+            for (Index index : indexes.values()) {
+                if (before == null) {
+                    if (current != null) {
+                        index.delete(current);
+                    }
+                } else {
+                    undo.revert(index, current == null ? null : List.of(current), List.of(before));
+                }
             }
         } finally {
-            if (!lockRegistered) {
-                writeLock.unlock();
+            version.settle();
+        }
+    }
+
+    private void checkConflict(Long key, Transaction tx) {
+        VersionChain chain = versions.get(key);
+        if (tx != null && chain != null) {
+            chain.checkConflict(key, tx);
+        }
+    }
+
+    // Transactions read at the snapshot taken by BEGIN, single statements at their own.
+    private List<Row> atSnapshot(Transaction tx, SnapshotRead read) {
+        if (tx != null) {
+            return read.read(tx.getSnapshot());
+        }
+        long snapshot = CommitClock.openSnapshot();
+        try {
+            return read.read(snapshot);
+        } finally {
+            CommitClock.closeSnapshot(snapshot);
+        }
+    }
+
+    // The store image of key if the snapshot sees it, the matching before-image otherwise. An
+    // optimistic transaction sees its own buffered change instead.
+    private Row visibleRow(long key, long snapshot, Transaction tx) {
+        if (tx != null && tx.isOptimistic()) {
+            Buffer buffer = buffer(tx);
+            if (buffer.writes.containsKey(key)) {
+                return buffer.writes.get(key);
+            }
+        }
+        while (true) {
+            VersionChain chain = versions.get(key);
+            if (chain == null) {
+                Row row = rows.get(key);
+                if (versions.get(key) == null) {
+                    return row;
+                }
+                continue;
+            }
+            int seq = chain.beginRead();
+            if (seq < 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            Row row = chain.resolve(rows.get(key), snapshot, tx);
+            if (chain.validate(seq)) {
+                return row;
+            }
+        }
+    }
+
+    // Rows found in the store are the newest images. Keys with retained versions are resolved
+    // against the snapshot instead, which also brings back rows changed or deleted after it was
+    // taken: the keys in retained, those of an index lookup in the version indexes, or every key
+    // with versions if it is null, as for a scan. The version indexes are looked up after the
+    // index lookup behind current is drained, for the reason postings() gives.
+    private List<Row> visible(List<Row> current, PrimitiveIterator.OfLong retained, String fieldName,
+            Predicate<Object> test, long snapshot, Transaction tx) {
+        int position = schema.positionOf(fieldName);
+        return visible(current, retained, row -> test.test(row.getValue(position)), snapshot, tx);
+    }
+
+    private List<Row> visible(List<Row> current, PrimitiveIterator.OfLong retained, Predicate<Row> test,
+            long snapshot, Transaction tx) {
+        Buffer buffer = buffer(tx);
+        if (versions.isEmpty() && buffer == null) {
+            return current;
+        }
+        List<Row> result = new ArrayList<>(current.size());
+        Set<Long> seen = new HashSet<>();
+        List<Long> versioned = new ArrayList<>();
+        for (Row row : current) {
+            Long key = key(row);
+            seen.add(key);
+            if (isResolved(key, buffer)) {
+                versioned.add(key); // resolved below even if vacuum unlinks the chain meanwhile
+            } else {
+                result.add(read(buffer, key, row));
+            }
+        }
+        if (retained == null) {
+            for (Long key : resolvedKeys(buffer)) {
+                if (seen.add(key)) {
+                    versioned.add(key);
+                }
+            }
+        } else {
+            while (retained.hasNext()) {
+                long key = retained.nextLong();
+                if (isResolved(key, buffer) && seen.add(key)) {
+                    versioned.add(key);
+                }
+            }
+            if (buffer != null) {
+                for (Long key : new ArrayList<>(buffer.writes.keySet())) {
+                    if (seen.add(key)) {
+                        versioned.add(key);
+                    }
+                }
+            }
+        }
+        for (Long key : versioned) {
+            Row row = visibleRow(key, snapshot, tx);
+            if (row != null && (test == null || test.test(row))) {
+                result.add(read(buffer, key, row));
+            }
+        }
+        return result;
+    }
+
+    // Keys whose store image a read may not take as it is: those with retained versions, and the
+    // ones an optimistic transaction changed.
+    private boolean isResolved(long key, Buffer buffer) {
+        return versions.containsKey(key) || (buffer != null && buffer.writes.containsKey(key));
+    }
+
+    // Every key isResolved holds for, including ones the store no longer or does not yet have.
+    // The buffer's keys are copied, as the statement reading them may be changing them.
+    private Iterable<Long> resolvedKeys(Buffer buffer) {
+        if (buffer == null || buffer.writes.isEmpty()) {
+            return versions.keySet();
+        }
+        List<Long> written = new ArrayList<>(buffer.writes.keySet());
+        return () -> Stream.concat(versions.keySet().stream(), written.stream()).iterator();
+    }
+
+    // Adds a row returned to an optimistic transaction to what it read.
+    private static Row read(Buffer buffer, long key, Row row) {
+        if (buffer != null) {
+            buffer.reads.add(key);
+        }
+        return row;
+    }
+
+    private Long key(Row row) {
+        return (Long) row.getValue(schema.positionOf(schema.getPKField().getName()));
+    }
+
+    // The visibility rules of visible(), applied one row at a time. Keys with retained versions are
+    // resolved as they are met, and once the store is exhausted the versioned keys it did not
+    // return, such as rows deleted after the snapshot, are resolved as well.
+    private final class ScanCursor implements RowCursor {
+
+        private final Predicate<Row> test;
+        private final long snapshot;
+        private final Transaction tx;
+        private final Buffer buffer;
+        private final boolean statement; // a statement's read, which owns a single statement's snapshot
+        private final int pkPosition = schema.positionOf(schema.getPKField().getName());
+        private final KeyBits returned = new KeyBits();
+        private Iterator<List<Row>> batches;
+        private List<Row> batch = Collections.emptyList();
+        private int position;
+        private Iterator<Long> versioned;
+        private Row next;
+        private boolean closed;
+        private final long start = Metrics.sample();
+        private long count;
+
+        ScanCursor(Iterator<List<Row>> batches, Predicate<Row> test, long snapshot, Transaction tx, Buffer buffer,
+                boolean statement) {
+            this.batches = batches;
+            this.test = test;
+            this.snapshot = snapshot;
+            this.tx = tx;
+            this.buffer = buffer;
+            this.statement = statement;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && !closed) {
+                next = advance();
+                if (next == null) {
+                    close();
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public Row next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Row row = next;
+            next = null;
+            count++;
+            return row;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                batches = null;
+                batch = Collections.emptyList();
+                if (statement) {
+                    metrics.read(AccessPath.FULL_SCAN, start, count);
+                    if (tx == null) {
+                        CommitClock.closeSnapshot(snapshot);
+                    }
+                }
+            }
+        }
+
+        private Row advance() {
+            while (position < batch.size() || (batches != null && batches.hasNext())) {
+                if (position == batch.size()) {
+                    batch = batches.next();
+                    position = 0;
+                }
+                Row row = batch.get(position++);
+                long key = (Long) row.getValue(pkPosition);
+                if (!returned.add(key)) {
+                    continue;
+                }
+                if (!isResolved(key, buffer)) {
+                    return read(buffer, key, row);
+                }
+                row = visibleRow(key, snapshot, tx);
+                if (row != null && (test == null || test.test(row))) {
+                    return read(buffer, key, row);
+                }
+            }
+            batches = null;
+            if (versioned == null) {
+                versioned = resolvedKeys(buffer).iterator();
+            }
+            while (versioned.hasNext()) {
+                long key = versioned.next();
+                if (returned.add(key)) {
+                    Row row = visibleRow(key, snapshot, tx);
+                    if (row != null && (test == null || test.test(row))) {
+                        return read(buffer, key, row);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    // One scan task's side of visit(). Store images of keys with retained versions are held back
+    // for resolving, and every key met is remembered so the versioned keys the store no longer
+    // holds can be told apart afterwards. Versions are only looked up once there are any.
+    private final class PartitionVisitor<V extends Consumer<RowView>> implements Consumer<RowView> {
+
+        private final V visitor;
+        private final Predicate<Row> test;
+        private final Buffer buffer; // read by every task, changed by none while they run
+        private final int pkPosition = schema.positionOf(schema.getPKField().getName());
+        private final KeyBits seen = new KeyBits();
+        private final KeyBits read = new KeyBits(); // rows visited, kept for a buffer only
+        private final List<Long> versioned = new ArrayList<>();
+        private long visited;
+
+        PartitionVisitor(V visitor, Predicate<Row> test, Buffer buffer) {
+            this.visitor = visitor;
+            this.test = test;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void accept(RowView view) {
+            long key = view.getLong(pkPosition);
+            seen.add(key);
+            if ((!versions.isEmpty() || buffer != null) && isResolved(key, buffer)) {
+                versioned.add(key);
+            } else if (test == null || test.test(view.row())) {
+                if (buffer != null) {
+                    read.add(key);
+                }
+                visitor.accept(view);
+                visited++;
+            }
+        }
+    }
+
+    // The rows one set-based statement changed. Each goes into the transaction's undo log as it is
+    // written, and the statement's redo is only logged once it succeeded. A statement that fails
+    // part way is undone right away, so the transaction never keeps half of it: the store and the
+    // indexes always agree on what the transaction changed.
+    private final class Changes {
+
+        private final Transaction tx;
+        private final byte kind;
+        private final int mark; // the statement's first entry in the undo log
+        private final List<Row> before = new ArrayList<>(); // empty for INSERT
+        private final List<Row> after = new ArrayList<>(); // empty for DELETE
+        private final List<Index> indexed = new ArrayList<>(); // indexes that took the statement
+        private long lockedKey;
+        private boolean locked; // whether lockedKey was not held by the transaction yet
+
+        Changes(Transaction tx, byte kind) {
+            this.tx = tx;
+            this.kind = kind;
+            this.mark = tx.getUndoLog().size();
+        }
+
+        // Writes the rows, then puts them into the affected indexes in one batch each. Returns the
+        // number of rows changed.
+        int run(Runnable writes, Predicate<Index> affected) {
+            try {
+                writes.run();
+                for (Index index : indexes.values()) {
+                    if (affected.test(index)) {
+                        index(index);
+                    }
+                }
+            } catch (RuntimeException e) {
+                undo();
+                throw e;
+            }
+            log();
+            return tx.getUndoLog().size() - mark;
+        }
+
+        // Locks key for the transaction and checks no change was committed to it after the
+        // snapshot. Keys the transaction already holds stay with whoever locked them first.
+        void claim(long key) {
+            lockedKey = key;
+            locked = rowLocks.lock(key, tx);
+            checkConflict(key, tx);
+        }
+
+        // The lock of a row goes into the undo log with its change.
+        void write(Long key, Row oldRow, Row newRow) {
+            VersionChain.Version version = writeVersion(key, oldRow, newRow, tx,
+                    newRow == null ? () -> rows.remove(key) : () -> rows.put(newRow));
+            tx.logChange(undo, kind, key, version, locked);
+            locked = false;
+            if (oldRow != null) {
+                before.add(oldRow);
+            }
+            if (newRow != null) {
+                after.add(newRow);
+            }
+        }
+
+        private void index(Index index) {
+            switch (kind) {
+                case UndoLog.INSERT:
+                    indexed.add(index); // a failed insertAll may leave part of the batch behind
+                    index.insertAll(after);
+                    break;
+                case UndoLog.UPDATE:
+                    index.updateAll(before, after);
+                    indexed.add(index);
+                    break;
+                default:
+                    index.deleteAll(before);
+                    indexed.add(index);
+            }
+        }
+
+        private void log() {
+            if (Database.getInstance().getWal() == null) {
+                return;
+            }
+            for (Row row : kind == UndoLog.DELETE ? before : after) {
+                switch (kind) {
+                    case UndoLog.INSERT:
+                        tx.logRedo(LogRecord.insert(name, schema, row));
+                        break;
+                    case UndoLog.UPDATE:
+                        tx.logRedo(LogRecord.update(name, schema, row));
+                        break;
+                    default:
+                        tx.logRedo(LogRecord.delete(name, key(row)));
+                }
+            }
+        }
+
+        // The statement's entries stay in the log as undone, as their row locks are kept until
+        // the transaction ends.
+        private void undo() {
+            if (locked) {
+                rowLocks.unlock(lockedKey, tx); // locked for a change that never came
+            }
+            UndoLog.Entries entries = tx.getUndoLog().since(mark);
+            List<VersionChain.Version> undone = new ArrayList<>(entries.size());
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                VersionChain.Version version = (VersionChain.Version) entries.image(i);
+                restore(entries.key(i), version);
+                undone.add(version);
+            }
+            tx.getUndoLog().discard(mark);
+            try {
+                for (Index index : indexed) {
+                    switch (kind) {
+                        case UndoLog.INSERT:
+                            index.deleteAll(after);
+                            break;
+                        case UndoLog.UPDATE:
+                            index.updateAll(after, before);
+                            break;
+                        default:
+                            index.insertAll(before);
+                    }
+                }
+            } finally {
+                undone.forEach(VersionChain.Version::settle);
+            }
+        }
+    }
+
+    // The workspace of an optimistic transaction in this table, null for any other caller.
+    private Buffer buffer(Transaction tx) {
+        return tx != null && tx.isOptimistic() ? (Buffer) tx.workspace(name, () -> new Buffer(tx)) : null;
+    }
+
+    // An optimistic transaction's changes to this table, which its own reads see in place of the
+    // store's, and the keys of the rows it read. Nothing reaches the store, the indexes or the row
+    // locks before commit. Installing takes the locks of every changed row in key order, so two
+    // optimistic commits never deadlock on each other, then applies the changes as statements do.
+    // Unique indexes are only checked then.
+    private final class Buffer implements Workspace {
+
+        private final Transaction tx;
+        private final Map<Long, Row> writes = new HashMap<>(); // null for a deleted row
+        private final Set<Long> created = new HashSet<>();
+        private final KeyBits reads = new KeyBits();
+
+        Buffer(Transaction tx) {
+            this.tx = tx;
+        }
+
+        void insert(Long key, Row row) {
+            writes.put(key, row);
+            created.add(key);
+        }
+
+        void update(Long key, Row row) {
+            writes.put(key, row);
+        }
+
+        void delete(Long key) {
+            if (created.remove(key)) {
+                writes.remove(key);
+            } else {
+                writes.put(key, null);
+            }
+        }
+
+        @Override
+        public void install() {
+            List<Long> keys = new ArrayList<>(writes.keySet());
+            Collections.sort(keys);
+            for (Long key : keys) {
+                if (!created.contains(key) && rowLocks.lock(key, tx)) {
+                    tx.logChange(undo, UndoLog.NONE, key, null, true);
+                }
+            }
+            // Deletes first and inserts last, so unique values freed by the transaction can be reused.
+            Changes deletes = new Changes(tx, UndoLog.DELETE);
+            deletes.run(() -> {
+                for (Long key : keys) {
+                    if (writes.get(key) == null) {
+                        deletes.claim(key);
+                        deletes.write(key, current(key), null);
+                    }
+                }
+            }, index -> true);
+            Changes updates = new Changes(tx, UndoLog.UPDATE);
+            updates.run(() -> {
+                for (Long key : keys) {
+                    Row row = writes.get(key);
+                    if (row != null && !created.contains(key)) {
+                        updates.claim(key);
+                        updates.write(key, current(key), row);
+                    }
+                }
+            }, index -> true);
+            Changes inserts = new Changes(tx, UndoLog.INSERT);
+            inserts.run(() -> {
+                for (Long key : keys) {
+                    if (created.contains(key)) {
+                        inserts.write(key, null, writes.get(key));
+                    }
+                }
+            }, index -> true);
+        }
+
+        // Locked and unchanged since the snapshot, so the store image is the one the snapshot saw.
+        private Row current(Long key) {
+            Row row = rows.get(key);
+            if (row == null) {
+                throw new RuntimeException("Row not found");
+            }
+            return row;
+        }
+
+        // Versions committed after the snapshot are kept while it is open, so only keys with a
+        // chain can have changed; whichever of the two sets is smaller is walked.
+        @Override
+        public void validate() {
+            if (reads.size() <= versions.size()) {
+                reads.forEach(this::validate);
+            } else {
+                for (Long key : versions.keySet()) {
+                    if (reads.contains(key)) {
+                        validate(key);
+                    }
+                }
+            }
+        }
+
+        // Rows the transaction changed were checked when installed, under their locks.
+        private void validate(long key) {
+            VersionChain chain = versions.get(key);
+            if (chain != null && !writes.containsKey(key) && chain.changedSince(tx.getSnapshot(), tx)) {
+                throw new ConflictException("Could not serialize access: row " + key
+                        + " was changed by a concurrent transaction after it was read");
             }
         }
     }
 
-    private List<Row> scanNonIndexed(String fieldName, Object key) {
+    // This table's side of transaction commit and rollback. Rollback puts back the before-image of
+    // every version the transaction wrote, newest first, then takes the indexes from the images it
+    // replaced to the ones it restored in one batch per kind of change. Only then may vacuum drop
+    // the undone versions, as reads resolve the rows they hold while the indexes lag behind.
+    private final class Undo implements UndoLog.Target {
+
+        @Override
+        public void commit(UndoLog.Entries entries, long commitTs) {
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.kind(i) != UndoLog.NONE) {
+                    ((VersionChain.Version) entries.image(i)).commit(commitTs);
+                }
+            }
+        }
+
+        @Override
+        public void rollback(UndoLog.Entries entries) {
+            // Rows changed more than once are rare, so the slot of each key is only looked up
+            // through a map once one turns up.
+            KeyBits seen = new KeyBits();
+            LongIntMap slots = null;
+            long[] keys = new long[entries.size()];
+            List<Row> replaced = new ArrayList<>(entries.size()); // each row's image before the rollback
+            List<Row> restored = new ArrayList<>(entries.size()); // and after it, null if it did not exist
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                if (entries.kind(i) == UndoLog.NONE) {
+                    continue;
+                }
+                long key = entries.key(i);
+                VersionChain.Version version = (VersionChain.Version) entries.image(i);
+                Row current = restore(key, version);
+                if (seen.add(key)) {
+                    if (slots != null) {
+                        slots.put(key, replaced.size());
+                    }
+                    keys[replaced.size()] = key;
+                    replaced.add(current);
+                    restored.add(version.before());
+                } else {
+                    if (slots == null) {
+                        slots = new LongIntMap(replaced.size());
+                        for (int slot = 0; slot < replaced.size(); slot++) {
+                            slots.put(keys[slot], slot);
+                        }
+                    }
+                    restored.set(slots.get(key), version.before());
+                }
+            }
+            int[] counts = new int[3];
+            for (int slot = 0; slot < replaced.size(); slot++) {
+                counts[restored.get(slot) == null ? 0 : replaced.get(slot) == null ? 2 : 1]++;
+            }
+            List<Row> deleted = new ArrayList<>(counts[0]);
+            List<Row> updatedFrom = new ArrayList<>(counts[1]);
+            List<Row> updatedTo = new ArrayList<>(counts[1]);
+            List<Row> inserted = new ArrayList<>(counts[2]);
+            for (int slot = 0; slot < replaced.size(); slot++) {
+                Row from = replaced.get(slot);
+                Row to = restored.get(slot);
+                if (from == null && to == null) {
+                    continue; // inserted and deleted again by the transaction
+                }
+                if (to == null) {
+                    deleted.add(from);
+                } else if (from == null) {
+                    inserted.add(to);
+                } else {
+                    updatedFrom.add(from);
+                    updatedTo.add(to);
+                }
+            }
+            try {
+                for (Index index : indexes.values()) {
+                    index.deleteAll(deleted);
+                    revert(index, updatedFrom, updatedTo);
+                    revert(index, null, inserted);
+                }
+            } finally {
+                for (int i = 0; i < entries.size(); i++) {
+                    if (entries.kind(i) != UndoLog.NONE) {
+                        ((VersionChain.Version) entries.image(i)).settle();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void unlock(UndoLog.Entries entries) {
+            Transaction tx = entries.getTransaction();
+            for (int i = 0; i < entries.size(); i++) {
+                if (entries.isLocked(i)) {
+                    rowLocks.unlock(entries.key(i), tx);
+                }
+            }
+        }
+
+        // Takes index from the from images to the to images, inserting the to images if from is
+        // null. A batch that fails, such as on a unique value another transaction took meanwhile,
+        // is retried row by row so the other rows still go back.
+        private void revert(Index index, List<Row> from, List<Row> to) {
+            if (to.isEmpty()) {
+                return;
+            }
+            try {
+                if (from == null) {
+                    index.insertAll(to);
+                } else {
+                    index.updateAll(from, to);
+                }
+                return;
+            } catch (RuntimeException e) {
+                if (from == null) {
+                    index.deleteAll(to); // a failed insertAll may leave part of the batch behind
+                }
+            }
+            for (int i = 0; i < to.size(); i++) {
+                try {
+                    if (from == null) {
+                        index.insert(to.get(i));
+                    } else {
+                        index.update(from.get(i), to.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Puts the before-image of version back into the store and returns the image it replaced.
+    private Row restore(long key, VersionChain.Version version) {
+        Row before = version.before();
+        Row[] replaced = new Row[1];
+        version.undo(() -> replaced[0] = before == null ? rows.remove(key) : rows.put(before));
+        return replaced[0];
+    }
+
+    // Autocommit statements are forced right away, transactional ones are buffered until commit.
+    private void log(Transaction tx, Supplier<byte[]> record) {
+        WriteAheadLog wal = Database.getInstance().getWal();
+        if (wal == null) {
+            return;
+        }
+        if (tx != null) {
+            tx.logRedo(record.get());
+        } else {
+            wal.write(record.get());
+        }
+    }
+
+    private List<Row> scanNonIndexed(String fieldName, Object key, int parallelism) {
+        return rows.findEquals(schema.positionOf(fieldName), key, parallelism);
+    }
+
+    // Index postings are maintained apart from the store, so a row is only returned if it still
+    // matches when fetched. A key moved by a concurrent update may be met twice during a range.
+    private List<Row> resolve(PrimitiveIterator.OfLong keys, String fieldName, Predicate<Object> test) {
+        int position = schema.positionOf(fieldName);
         List<Row> result = new ArrayList<>();
-        for (Row row : rows.values()) {
-            Object val = row.getValue(fieldName);
-            if (val != null && val.equals(key)) {
+        LongIntMap seen = new LongIntMap(16);
+        while (keys.hasNext()) {
+            long key = keys.nextLong();
+            if (seen.get(key) >= 0) {
+                continue;
+            }
+            seen.put(key, 0);
+            Row row = rows.get(key);
+            if (row != null && test.test(row.getValue(position))) {
                 result.add(row);
             }
         }
         return result;
     }
+
+    private static Predicate<Object> between(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+        return value -> {
+            if (from != null) {
+                int cmp = Keys.compare(value, from);
+                if (cmp < 0 || (cmp == 0 && !fromInclusive)) {
+                    return false;
+                }
+            }
+            if (to != null) {
+                int cmp = Keys.compare(value, to);
+                return cmp < 0 || (cmp == 0 && toInclusive);
+            }
+            return true;
+        };
+    }
+
+    private List<Row> scanWhere(String fieldName, Predicate<Object> test, int parallelism) {
+        return rows.findWhere(schema.positionOf(fieldName), test, parallelism);
+    }
+
+    private void checkKey(String fieldName, Object key) {
+        if (!schema.getFields().containsKey(fieldName)) {
+            throw new RuntimeException("Field " + fieldName + " does not exist in schema");
+        }
+        if (key != null && !schema.getFields().get(fieldName).getType().isInstance(key)) {
+            throw new RuntimeException("Key type does not match field: " + fieldName);
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package com.github.amirilf.dbilf.storage;
+
+import com.github.amirilf.dbilf.transaction.CommitClock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Reclaims row versions older than the oldest open snapshot.
+public final class Vacuum {
+
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "dbilf-vacuum");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Vacuum(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start() {
+        if (intervalMillis > 0) {
+            scheduler.scheduleWithFixedDelay(this::vacuumQuietly, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public long vacuum() {
+        Database db = Database.getInstance();
+        long horizon = CommitClock.horizon();
+        long reclaimed = 0;
+        for (String tableName : db.getTableNames()) {
+            Table table;
+            try {
+                table = db.getTable(tableName);
+            } catch (RuntimeException e) {
+                continue; // dropped concurrently
+            }
+            reclaimed += table.vacuum(horizon);
+        }
+        return reclaimed;
+    }
+
+    private void vacuumQuietly() {
+        try {
+            vacuum();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.amirilf.dbilf.storage;
+
+import com.github.amirilf.dbilf.transaction.CommitClock;
+import com.github.amirilf.dbilf.transaction.ConflictException;
+import com.github.amirilf.dbilf.transaction.Transaction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Before-images of one row, newest first. The row store always holds the newest image, committed
+// or not; each version records what the row looked like before a change and the commit timestamp
+// that change became visible at. Changes to the store image happen while seq is odd, so a reader
+// that saw seq move retries instead of pairing a store image with the wrong chain.
+final class VersionChain {
+
+    private static final long PENDING = Long.MAX_VALUE;
+    private static final long ABORTED = -1;
+
+    static final class Version {
+
+        private final VersionChain chain;
+        private final Row row; // null if the row did not exist before the change
+        private volatile long validUntil = PENDING;
+        private volatile Transaction owner;
+        private volatile long abortedAt = PENDING; // until the indexes follow the restored image
+        private Version next;
+
+        private Version(VersionChain chain, Row row, Transaction owner, Version next) {
+            this.chain = chain;
+            this.row = row;
+            this.owner = owner;
+            this.next = next;
+        }
+
+        Row before() {
+            return row;
+        }
+
+        void commit(long ts) {
+            validUntil = ts;
+            owner = null;
+        }
+
+        // Puts the before-image back into the store and hides this version from every reader.
+        void undo(Runnable restore) {
+            chain.undo(this, restore);
+        }
+
+        // Lets vacuum drop an undone version once the indexes are back in step with the store.
+        // Until then, its chain keeps the row among the keys a read resolves.
+        void settle() {
+            abortedAt = CommitClock.now();
+        }
+    }
+
+    private volatile int seq; // odd while the store image changes, stays odd once dead
+    private volatile Version head;
+    private boolean dead;
+
+    // Null if the chain was vacuumed away in the meantime and the caller has to fetch a new one.
+    synchronized Version push(Row before, Transaction owner, Runnable change) {
+        if (dead) {
+            return null;
+        }
+        Version version = new Version(this, before, owner, head);
+        seq++;
+        head = version;
+        try {
+            change.run();
+        } catch (RuntimeException e) {
+            head = version.next;
+            throw e;
+        } finally {
+            seq++;
+        }
+        return version;
+    }
+
+    private synchronized void undo(Version version, Runnable restore) {
+        seq++;
+        try {
+            restore.run();
+        } finally {
+            version.validUntil = ABORTED;
+            version.owner = null;
+            seq++;
+        }
+    }
+
+    // First committer wins: a transaction may not overwrite a change committed after its snapshot.
+    synchronized void checkConflict(long key, Transaction tx) {
+        for (Version v = head; v != null; v = v.next) {
+            long until = v.validUntil;
+            if (until == ABORTED) {
+                continue;
+            }
+            if (until != PENDING && until > tx.getSnapshot()) {
+                throw new ConflictException("Could not serialize access: row " + key
+                        + " was changed by a concurrent transaction");
+            }
+            return;
+        }
+    }
+
+    // Whether a change by another transaction was committed after snapshot, or is still pending.
+    synchronized boolean changedSince(long snapshot, Transaction tx) {
+        for (Version v = head; v != null; v = v.next) {
+            long until = v.validUntil;
+            if (until == ABORTED || (until == PENDING && v.owner == tx)) {
+                continue;
+            }
+            return until > snapshot;
+        }
+        return false;
+    }
+
+    // Even sequence number to validate a read against, -1 while a change is in progress.
+    int beginRead() {
+        int current = seq;
+        return (current & 1) == 0 ? current : -1;
+    }
+
+    boolean validate(int readSeq) {
+        return seq == readSeq;
+    }
+
+    Row resolve(Row current, long snapshot, Transaction tx) {
+        Row visible = current;
+        for (Version v = head; v != null; v = v.next) {
+            long until = v.validUntil;
+            if (until == ABORTED) {
+                continue;
+            }
+            if (until == PENDING && tx != null && v.owner == tx) {
+                return visible; // own changes are always the newest ones
+            }
+            if (until <= snapshot) {
+                break;
+            }
+            visible = v.row;
+        }
+        return visible;
+    }
+
+    // Before-images of the versions still held, newest first.
+    synchronized List<Row> images() {
+        List<Row> images = new ArrayList<>(2);
+        for (Version v = head; v != null; v = v.next) {
+            if (v.row != null) {
+                images.add(v.row);
+            }
+        }
+        return images;
+    }
+
+    // Drops versions no snapshot at or after horizon can read and returns how many went. The
+    // before-images dropped and those of the versions kept go to released, still under the lock.
+    // A chain left empty is dead and must be unlinked by the caller.
+    synchronized int prune(long horizon, BiConsumer<List<Row>, List<Row>> released) {
+        int droppable = 0;
+        for (Version v = head; v != null; v = v.next) {
+            if (isObsolete(v, horizon)) {
+                droppable++;
+            }
+        }
+        if (droppable == 0 && head != null) {
+            return 0;
+        }
+        seq++;
+        List<Row> dropped = new ArrayList<>(droppable);
+        List<Row> kept = new ArrayList<>();
+        Version previous = null;
+        for (Version v = head; v != null; v = v.next) {
+            if (!isObsolete(v, horizon)) {
+                previous = v;
+                if (v.row != null) {
+                    kept.add(v.row);
+                }
+                continue;
+            }
+            if (previous == null) {
+                head = v.next;
+            } else {
+                previous.next = v.next;
+            }
+            if (v.row != null) {
+                dropped.add(v.row);
+            }
+        }
+        if (head == null) {
+            dead = true;
+        } else {
+            seq++;
+        }
+        if (!dropped.isEmpty()) {
+            released.accept(dropped, kept);
+        }
+        return droppable;
+    }
+
+    synchronized boolean isDead() {
+        return dead;
+    }
+
+    private static boolean isObsolete(Version v, long horizon) {
+        long until = v.validUntil;
+        return until == ABORTED ? v.abortedAt < horizon : until <= horizon;
+    }
+}
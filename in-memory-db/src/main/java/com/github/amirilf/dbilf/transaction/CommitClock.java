@@ -0,0 +1,76 @@
+package com.github.amirilf.dbilf.transaction;
+
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongConsumer;
+
+// Commit timestamps for multi-version reads. A snapshot sees every change stamped with a commit
+// timestamp at or below its own; the clock only moves once a commit has stamped all its versions,
+// so a snapshot never sees half of a commit.
+public final class CommitClock {
+
+    private static final Object commitLock = new Object();
+    // Shared by commits from their log write until they are published, exclusive for a checkpoint
+    // starting a log segment and taking its snapshot.
+    private static final ReentrantReadWriteLock commitGate = new ReentrantReadWriteLock();
+    private static final TreeMap<Long, Integer> openSnapshots = new TreeMap<>();
+    private static volatile long clock;
+
+    private CommitClock() {
+    }
+
+    public static long now() {
+        return clock;
+    }
+
+    public static long openSnapshot() {
+        synchronized (openSnapshots) {
+            long snapshot = clock;
+            openSnapshots.merge(snapshot, 1, Integer::sum);
+            return snapshot;
+        }
+    }
+
+    public static void closeSnapshot(long snapshot) {
+        synchronized (openSnapshots) {
+            openSnapshots.computeIfPresent(snapshot, (ts, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    // Oldest timestamp any open or future snapshot can read at.
+    public static long horizon() {
+        synchronized (openSnapshots) {
+            return openSnapshots.isEmpty() ? clock : openSnapshots.firstKey();
+        }
+    }
+
+    // Brackets a commit from its log write to its publish.
+    public static void beginCommit() {
+        commitGate.readLock().lock();
+    }
+
+    public static void endCommit() {
+        commitGate.readLock().unlock();
+    }
+
+    // Waits for the commits in flight and holds off new ones until releaseCommits. Between the two
+    // no commit is half way, so a snapshot opened there sees every commit already logged and none
+    // logged after.
+    public static void holdCommits() {
+        commitGate.writeLock().lock();
+    }
+
+    public static void releaseCommits() {
+        commitGate.writeLock().unlock();
+    }
+
+    // Hands the next commit timestamp to stamp and publishes it once stamp returns.
+    public static long publish(LongConsumer stamp) {
+        synchronized (commitLock) {
+            long ts = clock + 1;
+            stamp.accept(ts);
+            clock = ts;
+            return ts;
+        }
+    }
+}
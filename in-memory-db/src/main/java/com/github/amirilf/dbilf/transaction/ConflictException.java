@@ -0,0 +1,12 @@
+package com.github.amirilf.dbilf.transaction;
+
+// A statement lost a race with a concurrent transaction (write conflict, deadlock or lock wait
+// timeout). Nothing is wrong with the statement itself, so retrying the transaction may succeed.
+public class ConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ConflictException(String message) {
+        super(message);
+    }
+}
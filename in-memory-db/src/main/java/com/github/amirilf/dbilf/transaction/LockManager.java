@@ -0,0 +1,114 @@
+package com.github.amirilf.dbilf.transaction;
+
+import com.github.amirilf.dbilf.metrics.Histogram;
+import com.github.amirilf.dbilf.metrics.Metrics;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// Exclusive row locks that only exist while held: an uncontended lock is one insert into and one
+// removal from the lock table, so lock memory follows the number of rows being written rather
+// than the size of the table. Owners are transactions, or the calling thread for statements
+// outside one. Waiters detect deadlocks through a global waits-for graph and otherwise give up
+// after the lock timeout. Waiting parks on a latch rather than a monitor, so a waiting virtual
+// thread gives its carrier back. Time spent waiting goes into the given histogram and to the
+// waiting transaction; an uncontended lock is not timed.
+public final class LockManager {
+
+    private static final int MAX_WAIT_CHAIN = 64;
+    private static final ConcurrentHashMap<Object, Object> waitsFor = new ConcurrentHashMap<>();
+    private static volatile long timeoutMillis = 10_000;
+
+    private final ConcurrentHashMap<Long, Entry> locks = new ConcurrentHashMap<>();
+    private final Histogram waits;
+
+    private static final class Entry {
+        private final Object owner;
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private Entry(Object owner) {
+            this.owner = owner;
+        }
+    }
+
+    public LockManager(Histogram waits) {
+        this.waits = waits;
+    }
+
+    public static void setTimeoutMillis(long millis) {
+        timeoutMillis = millis;
+    }
+
+    // Returns false if owner already holds the lock, in which case it must not release it again.
+    public boolean lock(long key, Object owner) {
+        Entry mine = new Entry(owner);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long waitStart = 0;
+        while (true) {
+            Entry current = locks.putIfAbsent(key, mine);
+            if (current == null) {
+                waited(owner, waitStart);
+                return true;
+            }
+            if (current.owner == owner) {
+                return false;
+            }
+            if (waitStart == 0) {
+                waitStart = System.nanoTime();
+            }
+            waitsFor.put(owner, current.owner);
+            try {
+                checkDeadlock(key, owner, current.owner);
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !current.released.await(remaining, TimeUnit.NANOSECONDS)) {
+                    waited(owner, waitStart);
+                    Metrics.lockTimedOut();
+                    throw new ConflictException("Lock wait timeout exceeded on row " + key);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for row " + key);
+            } finally {
+                waitsFor.remove(owner);
+            }
+        }
+    }
+
+    public void unlock(long key, Object owner) {
+        Entry current = locks.get(key);
+        if (current == null || current.owner != owner) {
+            return;
+        }
+        locks.remove(key, current);
+        current.released.countDown();
+    }
+
+    public int size() {
+        return locks.size();
+    }
+
+    private void waited(Object owner, long waitStart) {
+        if (waitStart == 0) {
+            return;
+        }
+        long nanos = System.nanoTime() - waitStart;
+        if (Metrics.isEnabled()) {
+            waits.record(nanos);
+        }
+        if (owner instanceof Transaction) {
+            ((Transaction) owner).lockWaited(nanos);
+        }
+    }
+
+    // Owners wait for one lock at a time, so a deadlock is a waits-for chain leading back to owner.
+    private static void checkDeadlock(long key, Object owner, Object holder) {
+        Object next = holder;
+        for (int i = 0; i < MAX_WAIT_CHAIN && next != null; i++) {
+            if (next == owner) {
+                Metrics.deadlockDetected();
+                throw new ConflictException("Deadlock detected while waiting for row " + key);
+            }
+            next = waitsFor.get(next);
+        }
+    }
+}
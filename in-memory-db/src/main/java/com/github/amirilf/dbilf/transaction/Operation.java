@@ -1,6 +0,0 @@
-package com.github.amirilf.dbilf.transaction;
-
-@FunctionalInterface
-public interface Operation {
-    void undo();
-}
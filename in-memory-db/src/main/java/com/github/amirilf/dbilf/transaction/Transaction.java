@@ -1,29 +1,86 @@
 package com.github.amirilf.dbilf.transaction;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
 
 public class Transaction {
-    private final List<Operation> undos = new ArrayList<>();
-    private final List<Runnable> lockReleases = new ArrayList<>();
+    private final long snapshot;
+    private final boolean optimistic;
+    private final Map<String, Workspace> workspaces = new TreeMap<>(); // by table, the order of install
+    private final UndoLog undoLog = new UndoLog(this);
+    private final List<byte[]> redo = new ArrayList<>();
     private boolean active = true;
+    private long lockWaitNanos; // waiting for row locks held by other transactions
 
-    public void register(Operation op) {
+    public Transaction(long snapshot) {
+        this(snapshot, false);
+    }
+
+    public Transaction(long snapshot, boolean optimistic) {
+        this.snapshot = snapshot;
+        this.optimistic = optimistic;
+    }
+
+    // Commit timestamp this transaction reads at.
+    public long getSnapshot() {
+        return snapshot;
+    }
+
+    // A row changed in table: stamped at commit, undone on rollback, and its lock released at the
+    // end if the change took it.
+    public void logChange(UndoLog.Target table, byte kind, long key, Object image, boolean locked) {
         if (active)
-            undos.add(op);
+            undoLog.add(table, kind, key, image, locked);
+    }
+
+    public UndoLog getUndoLog() {
+        return undoLog;
+    }
+
+    // Optimistic transactions take no row locks before commit: their changes wait in a workspace
+    // per table.
+    public boolean isOptimistic() {
+        return optimistic;
+    }
+
+    public Workspace workspace(String table, Supplier<Workspace> create) {
+        return workspaces.computeIfAbsent(table, t -> create.get());
+    }
+
+    // Installs every workspace, then validates what was read. The installed changes are in the
+    // undo log like any others, so the caller rolls back if this throws.
+    void install() {
+        for (Workspace workspace : workspaces.values()) {
+            workspace.install();
+        }
+        for (Workspace workspace : workspaces.values()) {
+            workspace.validate();
+        }
     }
 
-    public void registerLockRelease(Runnable release) {
+    public void logRedo(byte[] record) {
         if (active)
-            lockReleases.add(release);
+            redo.add(record);
+    }
+
+    public List<byte[]> getRedo() {
+        return redo;
+    }
+
+    // Called with the commit timestamp before the locks are released.
+    public void stamp(long commitTs) {
+        undoLog.commit(commitTs);
     }
 
     public void commit() {
         if (!active)
             return;
         active = false;
-        undos.clear();
+        redo.clear();
+        workspaces.clear();
         releaseLocks();
     }
 
@@ -31,24 +88,26 @@ public class Transaction {
         if (!active)
             return;
         active = false;
-        Collections.reverse(undos);
-        undos.forEach(op -> {
-            try {
-                op.undo();
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        });
-        undos.clear();
+        undoLog.rollback();
+        redo.clear();
+        workspaces.clear();
         releaseLocks();
     }
 
     private void releaseLocks() {
-        lockReleases.forEach(Runnable::run);
-        lockReleases.clear();
+        undoLog.unlock();
+        undoLog.clear();
     }
 
     public boolean isActive() {
         return active;
     }
+
+    public long getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    void lockWaited(long nanos) {
+        lockWaitNanos += nanos;
+    }
 }
\ No newline at end of file
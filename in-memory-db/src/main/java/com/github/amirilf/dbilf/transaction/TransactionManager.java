@@ -1,47 +1,66 @@
 package com.github.amirilf.dbilf.transaction;
 
+import com.github.amirilf.dbilf.metrics.Metrics;
+import com.github.amirilf.dbilf.persistence.WriteAheadLog;
+import com.github.amirilf.dbilf.storage.Database;
+
+// Starts and ends transactions. A transaction belongs to whoever holds it, a client's session,
+// not to a thread, so its statements may run on any thread, one at a time.
 public class TransactionManager {
-    private static final ThreadLocal<Transaction> currentTransaction = new ThreadLocal<>();
 
-    public static void begin() {
-        if (currentTransaction.get() != null) {
-            throw new IllegalStateException("Transaction already active");
-        }
-        currentTransaction.set(new Transaction());
+    public static Transaction begin() {
+        return begin(false);
     }
 
-    public static void commit() {
-        Transaction tx = currentTransaction.get();
-        if (tx == null) {
-            throw new IllegalStateException("No active transaction");
-        }
+    public static Transaction begin(boolean optimistic) {
+        return new Transaction(CommitClock.openSnapshot(), optimistic);
+    }
+
+    public static void commit(Transaction tx) {
         try {
+            if (tx.isOptimistic()) {
+                try {
+                    tx.install();
+                } catch (RuntimeException e) {
+                    if (e instanceof ConflictException) {
+                        Metrics.validationFailed();
+                    }
+                    tx.rollback();
+                    Metrics.rolledBack();
+                    throw e;
+                }
+            }
+            WriteAheadLog wal = Database.getInstance().getWal();
+            CommitClock.beginCommit();
+            try {
+                if (wal != null) {
+                    try {
+                        wal.write(tx.getRedo());
+                    } catch (RuntimeException e) {
+                        tx.rollback();
+                        Metrics.rolledBack();
+                        throw e;
+                    }
+                }
+                CommitClock.publish(tx::stamp);
+            } finally {
+                CommitClock.endCommit();
+            }
             tx.commit();
+            Metrics.committed();
         } finally {
-            currentTransaction.remove();
+            CommitClock.closeSnapshot(tx.getSnapshot());
         }
     }
 
-    public static void rollback() {
-        Transaction tx = currentTransaction.get();
-        if (tx == null) {
-            throw new IllegalStateException("No active transaction");
-        }
+    public static void rollback(Transaction tx) {
         try {
-            tx.rollback();
+            if (tx.isActive()) {
+                tx.rollback();
+                Metrics.rolledBack();
+            }
         } finally {
-            currentTransaction.remove();
-        }
-    }
-
-    public static Transaction getCurrentTransaction() {
-        return currentTransaction.get();
-    }
-
-    public static void register(Operation op) {
-        Transaction tx = currentTransaction.get();
-        if (tx != null && tx.isActive()) {
-            tx.register(op);
+            CommitClock.closeSnapshot(tx.getSnapshot());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,188 @@
+package com.github.amirilf.dbilf.transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The rows a transaction changed, one entry per change in parallel arrays rather than a closure
+// per row: the kind of change, the table it was made in, whether it took the row lock, the
+// primary key and the table's image reference, its version of the row. Commit, rollback and lock
+// release hand each table all of its entries at once, so a table can apply them in bulk.
+public final class UndoLog {
+
+    public static final byte INSERT = 0;
+    public static final byte UPDATE = 1;
+    public static final byte DELETE = 2;
+    public static final byte NONE = 3; // only holds a row lock: no change was made, or it was undone
+
+    private static final int KIND = 3;
+    private static final int LOCKED = 4;
+    private static final int TARGET_SHIFT = 3;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // The tables a transaction changes. Entries come back in the order they were logged.
+    public interface Target {
+        void commit(Entries entries, long commitTs);
+
+        void rollback(Entries entries);
+
+        void unlock(Entries entries);
+    }
+
+    private final Transaction owner;
+    private final List<Target> targets = new ArrayList<>();
+    private int[] flags = new int[INITIAL_CAPACITY]; // target << 3 | locked | kind
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Object[] images = new Object[INITIAL_CAPACITY];
+    private int size;
+    private Target lastTarget;
+    private int lastTargetId;
+
+    UndoLog(Transaction owner) {
+        this.owner = owner;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    void add(Target target, byte kind, long key, Object image, boolean locked) {
+        if (target != lastTarget) {
+            int id = targets.indexOf(target);
+            if (id < 0) {
+                id = targets.size();
+                targets.add(target);
+            }
+            lastTarget = target;
+            lastTargetId = id;
+        }
+        if (size == flags.length) {
+            int capacity = size * 2;
+            flags = Arrays.copyOf(flags, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            images = Arrays.copyOf(images, capacity);
+        }
+        flags[size] = lastTargetId << TARGET_SHIFT | (locked ? LOCKED : 0) | kind;
+        keys[size] = key;
+        images[size] = image;
+        size++;
+    }
+
+    // The entries from position from on, which the caller logged itself into one table.
+    public Entries since(int from) {
+        return new Entries(this, null, from, size - from);
+    }
+
+    // Marks the entries from position from on as undone, keeping their locks until the end.
+    public void discard(int from) {
+        for (int i = from; i < size; i++) {
+            flags[i] = (flags[i] & ~KIND) | NONE;
+            images[i] = null;
+        }
+    }
+
+    void commit(long commitTs) {
+        int[][] groups = group();
+        for (int t = 0; t < targets.size(); t++) {
+            targets.get(t).commit(entries(groups, t), commitTs);
+        }
+    }
+
+    // Tables are independent of each other, so one failing to roll back does not stop the rest.
+    void rollback() {
+        int[][] groups = group();
+        for (int t = 0; t < targets.size(); t++) {
+            try {
+                targets.get(t).rollback(entries(groups, t));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    void unlock() {
+        int[][] groups = group();
+        for (int t = 0; t < targets.size(); t++) {
+            targets.get(t).unlock(entries(groups, t));
+        }
+    }
+
+    void clear() {
+        targets.clear();
+        lastTarget = null;
+        flags = new int[INITIAL_CAPACITY];
+        keys = new long[INITIAL_CAPACITY];
+        images = new Object[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    // Positions of each target's entries; null when a single table holds them all.
+    private int[][] group() {
+        if (targets.size() <= 1) {
+            return null;
+        }
+        int[] counts = new int[targets.size()];
+        for (int i = 0; i < size; i++) {
+            counts[flags[i] >>> TARGET_SHIFT]++;
+        }
+        int[][] groups = new int[targets.size()][];
+        for (int t = 0; t < groups.length; t++) {
+            groups[t] = new int[counts[t]];
+            counts[t] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            int t = flags[i] >>> TARGET_SHIFT;
+            groups[t][counts[t]++] = i;
+        }
+        return groups;
+    }
+
+    private Entries entries(int[][] groups, int target) {
+        return groups == null ? new Entries(this, null, 0, size) : new Entries(this, groups[target], 0,
+                groups[target].length);
+    }
+
+    // A view of some of the log's entries, indexed from 0 in the order they were logged.
+    public static final class Entries {
+
+        private final UndoLog log;
+        private final int[] positions; // null for a range of the log starting at from
+        private final int from;
+        private final int count;
+
+        private Entries(UndoLog log, int[] positions, int from, int count) {
+            this.log = log;
+            this.positions = positions;
+            this.from = from;
+            this.count = count;
+        }
+
+        public Transaction getTransaction() {
+            return log.owner;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public byte kind(int i) {
+            return (byte) (log.flags[at(i)] & KIND);
+        }
+
+        public boolean isLocked(int i) {
+            return (log.flags[at(i)] & LOCKED) != 0;
+        }
+
+        public long key(int i) {
+            return log.keys[at(i)];
+        }
+
+        public Object image(int i) {
+            return log.images[at(i)];
+        }
+
+        private int at(int i) {
+            return positions == null ? from + i : positions[i];
+        }
+    }
+}
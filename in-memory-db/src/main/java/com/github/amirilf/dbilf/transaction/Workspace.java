@@ -0,0 +1,15 @@
+package com.github.amirilf.dbilf.transaction;
+
+// A table's part of an optimistic transaction: the changes it buffered and the rows it read. At
+// commit every workspace installs its changes first, under their row locks, and only then are
+// the reads validated, so two transactions that each read what the other writes cannot both pass.
+public interface Workspace {
+
+    // Locks, checks and applies the buffered changes. Throws ConflictException if a row changed
+    // after the transaction's snapshot.
+    void install();
+
+    // Throws ConflictException if a row read was changed after the snapshot, or is being changed,
+    // by another transaction.
+    void validate();
+}
@@ -0,0 +1,74 @@
+package com.github.amirilf.dbilf.persistence;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.amirilf.dbilf.query.QueryEngine;
+import com.github.amirilf.dbilf.query.Result;
+import com.github.amirilf.dbilf.query.Session;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// A checkpoint taken while a transaction has uncommitted changes in the store, then a crash. Each
+// side of the crash runs in a JVM of its own, as the database is one per process: the first is
+// halted without a shutdown, the second recovers from what the first left in the data directory.
+class CheckpointRecoveryTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void uncommittedChangesAreNotRecoveredFromACheckpoint() throws Exception {
+        run("crash");
+        assertEquals(1, Snapshot.snapshotIds(dataDir).size(), "snapshots written");
+        assertEquals(List.of(
+                "name=a, bal=100, id=1",
+                "name=after, bal=400, id=5",
+                "name=b, bal=200, id=2",
+                "name=c, bal=300, id=3"), run("restart"));
+    }
+
+    private List<String> run(String phase) throws IOException, InterruptedException {
+        Path java = Path.of(System.getProperty("java.home"), "bin", "java");
+        Process process = new ProcessBuilder(java.toString(), "-cp", System.getProperty("java.class.path"),
+                CheckpointRecoveryTest.class.getName(), phase, dataDir.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(process.waitFor(1, TimeUnit.MINUTES), phase + " finished");
+        assertEquals(0, process.exitValue(), phase + " exit status");
+        return output.lines().filter(line -> line.startsWith("name=")).sorted().toList();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dataDir = Path.of(args[1]);
+        WriteAheadLog wal = Recovery.start(dataDir, FsyncPolicy.COMMIT, 0);
+        Session session = new Session();
+        if (args[0].equals("restart")) {
+            System.out.println(QueryEngine.execute(session, "SELECT * FROM acct"));
+            System.exit(0);
+        }
+        execute(session, "CREATE TABLE acct (name VARCHAR(10), bal INTEGER)");
+        execute(session, "INSERT INTO acct (name, bal) VALUES ('a', 100), ('b', 200), ('c', 300)");
+        Session open = new Session();
+        execute(open, "BEGIN");
+        execute(open, "UPDATE acct SET bal = 999999 WHERE id = 1");
+        execute(open, "INSERT INTO acct (name, bal) VALUES ('ghost', 0)");
+        execute(open, "DELETE FROM acct WHERE id = 2");
+        new Checkpointer(dataDir, wal, 0).checkpoint();
+        execute(session, "INSERT INTO acct (name, bal) VALUES ('after', 400)");
+        Runtime.getRuntime().halt(0);
+    }
+
+    private static void execute(Session session, String sql) {
+        Result result = QueryEngine.run(session, sql);
+        if (result.getKind() == Result.Kind.ERROR) {
+            throw new RuntimeException(sql + ": " + result.getMessage());
+        }
+    }
+}
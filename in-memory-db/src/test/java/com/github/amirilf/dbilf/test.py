@@ -1,9 +1,11 @@
 import socket
+import struct
 import time
 import threading
 
 HOST = "localhost"
 PORT = 9090
+BINARY_PORT = 9091
 
 def send_command(sock, command):
     """Send a command to the database and return the response.
@@ -21,6 +23,76 @@ def send_command(sock, command):
     # Remove prompt from response
     return response.decode().replace("dbilf> ", "").strip()
 
+def read_greeting(sock):
+    """Read the welcome message up to the first prompt, without sending a command."""
+    response = b""
+    while b"dbilf> " not in response:
+        data = sock.recv(4096)
+        if not data:
+            break
+        response += data
+    return response.decode().replace("dbilf> ", "").strip()
+
+def binary_request(request_id, sql):
+    """Encode a QUERY frame of the binary protocol."""
+    payload = sql.encode()
+    return struct.pack(">iiB", 5 + len(payload), request_id, 1) + payload
+
+def recv_exact(sock, count):
+    data = b""
+    while len(data) < count:
+        chunk = sock.recv(count - len(data))
+        if not chunk:
+            raise ConnectionError("connection closed")
+        data += chunk
+    return data
+
+def binary_response(sock):
+    """Read one response frame and return (request_id, status, decoded payload)."""
+    length, = struct.unpack(">i", recv_exact(sock, 4))
+    frame = recv_exact(sock, length)
+    request_id, status = struct.unpack(">iB", frame[:5])
+    offset = 5
+
+    def text():
+        nonlocal offset
+        size, = struct.unpack(">i", frame[offset:offset + 4])
+        offset += 4 + size
+        return frame[offset - size:offset].decode()
+
+    if status == 1:
+        return request_id, "MESSAGE", text()
+    if status == 2:
+        code, = struct.unpack(">h", frame[offset:offset + 2])
+        offset += 2
+        return request_id, "ERROR", (code, text())
+    column_count, = struct.unpack(">h", frame[offset:offset + 2])
+    offset += 2
+    columns = []
+    for _ in range(column_count):
+        name = text()
+        columns.append((name, frame[offset]))
+        offset += 1
+    row_count, = struct.unpack(">i", frame[offset:offset + 4])
+    offset += 4
+    rows = []
+    for _ in range(row_count):
+        row = {}
+        for name, type_code in columns:
+            if type_code == 1:
+                row[name], = struct.unpack(">q", frame[offset:offset + 8])
+                offset += 8
+            elif type_code == 2:
+                row[name], = struct.unpack(">i", frame[offset:offset + 4])
+                offset += 4
+            elif type_code == 3:
+                row[name] = frame[offset] != 0
+                offset += 1
+            else:
+                row[name] = text()
+        rows.append(row)
+    return request_id, "ROWS", rows
+
 def test_create_table():
     with socket.create_connection((HOST, PORT)) as sock:
         # Read initial welcome prompt
@@ -95,6 +167,26 @@ def test_transaction_rollback():
         print("[TEST] Select David:\n" + send_command(sock, cmd))
         time.sleep(0.5)
 
+def test_optimistic_conflict():
+    with socket.create_connection((HOST, PORT)) as first, socket.create_connection((HOST, PORT)) as second:
+        read_greeting(first)
+        read_greeting(second)
+        print("[TEST] Begin Optimistic: " + send_command(first, "BEGIN OPTIMISTIC"))
+        print("[TEST] Read in Tx:\n" + send_command(first, "SELECT * FROM employees WHERE name = 'Charlie'"))
+        cmd = "UPDATE employees SET age = 36 WHERE name = 'Charlie'"
+        print("[TEST] Update in Tx: " + send_command(first, cmd))
+        cmd = "UPDATE employees SET salary = 59000 WHERE name = 'Charlie'"
+        print("[TEST] Concurrent Update: " + send_command(second, cmd))
+        print("[TEST] Commit Transaction (expect a conflict): " + send_command(first, "COMMIT"))
+        cmd = "SELECT * FROM employees WHERE name = 'Charlie'"
+        print("[TEST] Select Charlie:\n" + send_command(second, cmd))
+        time.sleep(0.5)
+
+def test_show_stats():
+    with socket.create_connection((HOST, PORT)) as sock:
+        read_greeting(sock)
+        print("[TEST] Show Stats:\n" + send_command(sock, "SHOW STATS"))
+
 def bulk_insert(start, count):
     try:
         with socket.create_connection((HOST, PORT)) as sock:
@@ -123,6 +215,80 @@ def test_bulk_insertion(total_rows=10000, thread_count=4):
         t.join()
     print("[TEST] Bulk insertion completed.")
 
+def test_concurrent_clients(client_count=1000, queries_per_client=5):
+    print(f"[TEST] Opening {client_count} concurrent connections...")
+    sockets = []
+    for _ in range(client_count):
+        sock = socket.create_connection((HOST, PORT))
+        send_command(sock, "")
+        sockets.append(sock)
+    latencies = []
+    lock = threading.Lock()
+
+    def run_queries(sock, seed):
+        for i in range(queries_per_client):
+            start = time.perf_counter()
+            send_command(sock, f"SELECT * FROM employees WHERE id = {(seed + i) % 100 + 1}")
+            elapsed = time.perf_counter() - start
+            with lock:
+                latencies.append(elapsed)
+
+    threads = [threading.Thread(target=run_queries, args=(sock, i)) for i, sock in enumerate(sockets)]
+    for t in threads:
+        t.start()
+    for t in threads:
+        t.join()
+    for sock in sockets:
+        sock.close()
+    latencies.sort()
+    p50 = latencies[len(latencies) // 2] * 1000
+    p99 = latencies[int(len(latencies) * 0.99)] * 1000
+    print(f"[TEST] {len(latencies)} queries from {client_count} clients: p50 {p50:.2f} ms, p99 {p99:.2f} ms")
+
+def test_binary_pipelining(row_count=5000):
+    print(f"[TEST] Pipelining {row_count} inserts over the binary protocol...")
+    with socket.create_connection((HOST, BINARY_PORT)) as sock:
+        start = time.perf_counter()
+        requests = b"".join(
+            binary_request(i, f"INSERT INTO employees (name, age, salary) VALUES ('Piped{i}', {20 + i % 50}, {40000 + i})")
+            for i in range(row_count))
+        sender = threading.Thread(target=sock.sendall, args=(requests,))
+        sender.start()
+        errors = 0
+        for i in range(row_count):
+            request_id, status, _ = binary_response(sock)
+            if request_id != i or status != "MESSAGE":
+                errors += 1
+        sender.join()
+        elapsed = time.perf_counter() - start
+        print(f"[TEST] {row_count} pipelined inserts in {elapsed:.2f} s, {errors} unexpected responses")
+        sock.sendall(binary_request(row_count, "SELECT name, salary FROM employees WHERE name = 'Piped7'"))
+        print("[TEST] Binary Select:", binary_response(sock))
+        sock.sendall(binary_request(row_count + 1, "SELEC nonsense"))
+        print("[TEST] Binary Error:", binary_response(sock))
+    time.sleep(0.5)
+
+def test_large_rollback(row_count=1000000, batch=1000):
+    print(f"[TEST] Rolling back a transaction that changed {row_count} rows...")
+    with socket.create_connection((HOST, PORT)) as sock:
+        read_greeting(sock)
+        send_command(sock, "CREATE TABLE ledger (grp INTEGER, amount INTEGER)")
+        send_command(sock, "CREATE INDEX ON ledger (grp)")
+        for start in range(0, row_count, batch):
+            values = ", ".join(f"({i % 10}, {i})" for i in range(start, min(start + batch, row_count)))
+            send_command(sock, f"INSERT INTO ledger (grp, amount) VALUES {values}")
+        send_command(sock, "BEGIN")
+        start = time.perf_counter()
+        print("[TEST] Update in Tx: " + send_command(sock, "UPDATE ledger SET grp = 99 WHERE grp < 10"))
+        updated = time.perf_counter() - start
+        start = time.perf_counter()
+        print("[TEST] Rollback Transaction: " + send_command(sock, "ROLLBACK"))
+        rolled_back = time.perf_counter() - start
+        print(f"[TEST] Update took {updated:.2f} s, rollback {rolled_back:.2f} s")
+        print("[TEST] Rows left in grp 99: " + send_command(sock, "SELECT COUNT(*) FROM ledger WHERE grp = 99"))
+        send_command(sock, "DROP TABLE ledger")
+    time.sleep(0.5)
+
 def test_drop_table():
     with socket.create_connection((HOST, PORT)) as sock:
         send_command(sock, "")
@@ -142,7 +308,12 @@ def main():
     test_create_drop_index()
     test_transaction_commit()
     test_transaction_rollback()
+    test_optimistic_conflict()
+    test_show_stats()
     test_bulk_insertion(total_rows=5000, thread_count=2)
+    test_concurrent_clients(client_count=1000, queries_per_client=5)
+    test_binary_pipelining(row_count=5000)
+    test_large_rollback()
     test_drop_table()
     
     print("[INFO] All tests completed.")